@@ -0,0 +1,58 @@
+package ca.fieber.compression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of compressed response bodies of bounded size, evicting the least recently used body first.
+ *
+ * <p>Bodies are keyed by the request, the representation and its ETag, so a body is never served for a changed
+ * representation, and bodies of representations that are no longer requested are evicted in time.</p>
+ *
+ * @author cfieber
+ */
+final class CompressedBodyCache {
+
+    /**
+     * The largest compressed body cached, so that a few large responses can not fill the heap.
+     */
+    static final int MAX_BODY_LENGTH = 256 * 1024;
+
+    private final Map<String, byte[]> bodies;
+
+    /**
+     * Constructs a new CompressedBodyCache.
+     *
+     * @param maximumSize the maximum number of cached bodies
+     */
+    CompressedBodyCache(final int maximumSize) {
+        this.bodies = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Gets a cached body.
+     *
+     * @param key the key of the body
+     * @return the compressed body, or null if it is not cached
+     */
+    synchronized byte[] get(String key) {
+        return bodies.get(key);
+    }
+
+    /**
+     * Caches a body, unless it is longer than MAX_BODY_LENGTH.
+     *
+     * @param key the key of the body
+     * @param body the compressed body, which must not be modified once cached
+     */
+    synchronized void put(String key, byte[] body) {
+        if (body.length <= MAX_BODY_LENGTH) {
+            bodies.put(key, body);
+        }
+    }
+}
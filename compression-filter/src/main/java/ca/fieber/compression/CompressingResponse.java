@@ -0,0 +1,451 @@
+package ca.fieber.compression;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A response whose body is compressed once it reaches the minimum size of the CompressionFilter.
+ *
+ * <p>The body is held in a buffer of the minimum size until it overflows or the response is finished, and only then
+ * is it decided how the body is sent, while the headers can still be changed: compressed, from the cache, or as it
+ * is. A Content-Length set by the application is held back with the body, and is dropped if the body is compressed.
+ * Flushing the response before the decision is made has no effect.</p>
+ *
+ * @author cfieber
+ */
+final class CompressingResponse extends HttpServletResponseWrapper {
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    /**
+     * How the body is being sent.
+     */
+    private enum State {
+        BUFFERING, IDENTITY, COMPRESSING, CACHED, FINISHED
+    }
+
+    private final CompressionFilter filter;
+    private final ContentCoding coding;
+
+    /**
+     * The request URI and query string to cache the compressed body by, null if it is not cached.
+     */
+    private final String requestKey;
+
+    /**
+     * The If-None-Match header of the request as the client sent it, null if there is none.
+     */
+    private final String ifNoneMatch;
+
+    private final byte[] buffer;
+    private int count;
+    private State state = State.BUFFERING;
+
+    /**
+     * The Content-Length set by the application while the body was held back, -1 if it has not been set.
+     */
+    private long contentLength = -1;
+
+    private ServletOutputStream output;
+    private PrintWriter writer;
+    private ServletOutputStream target;
+
+    private Deflater deflater;
+    private CRC32 crc;
+    private byte[] deflated;
+    private long uncompressedLength;
+    private long compressedLength;
+    private long compressionNanos;
+
+    /**
+     * The key the compressed body is cached by, with a copy of the body so far, null if it is not cached.
+     */
+    private String cacheKey;
+    private ByteArrayOutputStream capture;
+
+    /**
+     * The cached compressed body sent instead of the body written by the application.
+     */
+    private byte[] cachedBody;
+
+    /**
+     * Constructs a new CompressingResponse.
+     *
+     * @param filter the CompressionFilter
+     * @param response the response to compress
+     * @param coding the coding to compress the body with
+     * @param requestKey the request URI and query string to cache the compressed body by, null to not cache it
+     * @param ifNoneMatch the If-None-Match header of the request as the client sent it, may be null
+     */
+    CompressingResponse(CompressionFilter filter, HttpServletResponse response, ContentCoding coding, String requestKey,
+                        String ifNoneMatch) {
+        super(response);
+        this.filter = filter;
+        this.coding = coding;
+        this.requestKey = requestKey;
+        this.ifNoneMatch = ifNoneMatch;
+        this.buffer = new byte[filter.getMinSize()];
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+        if (output == null) {
+            output = new CompressingOutputStream();
+        }
+        return output;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (output != null) {
+                throw new IllegalStateException("getOutputStream() has already been called");
+            }
+            writer = new PrintWriter(new OutputStreamWriter(new CompressingOutputStream(), getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int length) {
+        setContentLength((long) length);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (isContentLength(name)) {
+            setContentLength(value == null ? -1 : Long.parseLong(value.trim()));
+        } else {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (isContentLength(name)) {
+            setContentLength(value == null ? -1 : Long.parseLong(value.trim()));
+        } else {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (isContentLength(name)) {
+            setContentLength((long) value);
+        } else {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if (isContentLength(name)) {
+            setContentLength((long) value);
+        } else {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (state != State.BUFFERING) {
+            super.flushBuffer();
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        requireUncompressed();
+        count = 0;
+        super.resetBuffer();
+    }
+
+    @Override
+    public void reset() {
+        requireUncompressed();
+        count = 0;
+        contentLength = -1;
+        super.reset();
+    }
+
+    @Override
+    public void sendError(int statusCode) throws IOException {
+        discard();
+        super.sendError(statusCode);
+    }
+
+    @Override
+    public void sendError(int statusCode, String message) throws IOException {
+        discard();
+        super.sendError(statusCode, message);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        discard();
+        super.sendRedirect(location);
+    }
+
+    /**
+     * Sends the rest of the body, compressing the body held back if it has reached the minimum size.
+     *
+     * @throws IOException if the body can not be written
+     */
+    void finish() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (state == State.BUFFERING) {
+            begin(count > 0 && count == buffer.length);
+        }
+        if (state == State.COMPRESSING) {
+            long start = System.nanoTime();
+            deflater.finish();
+            while (!deflater.finished()) {
+                int length = deflater.deflate(deflated);
+                compressionNanos += System.nanoTime() - start;
+                writeCompressed(deflated, 0, length);
+                start = System.nanoTime();
+            }
+            compressionNanos += System.nanoTime() - start;
+            if (crc != null) {
+                byte[] trailer = new byte[8];
+                writeInt(trailer, 0, crc.getValue());
+                writeInt(trailer, 4, uncompressedLength);
+                writeCompressed(trailer, 0, trailer.length);
+            }
+            filter.compressed(uncompressedLength, compressedLength, compressionNanos);
+            if (capture != null) {
+                filter.cacheBody(cacheKey, capture.toByteArray());
+            }
+        } else if (state == State.CACHED) {
+            target.write(cachedBody);
+        }
+        state = State.FINISHED;
+    }
+
+    /**
+     * Returns the Deflater to its pool, if one was taken.
+     */
+    void release() {
+        if (deflater != null) {
+            filter.releaseDeflater(coding, deflater);
+            deflater = null;
+        }
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        switch (state) {
+            case BUFFERING:
+                if (length <= buffer.length - count) {
+                    System.arraycopy(bytes, offset, buffer, count, length);
+                    count += length;
+                } else {
+                    begin(true);
+                    write(bytes, offset, length);
+                }
+                break;
+            case IDENTITY:
+                target.write(bytes, offset, length);
+                break;
+            case COMPRESSING:
+                deflate(bytes, offset, length);
+                break;
+            case CACHED:
+                uncompressedLength += length;
+                break;
+            default:
+                throw new IOException("The response has been finished");
+        }
+    }
+
+    /**
+     * Decides how the body is sent and sends the body held back.
+     *
+     * @param compress whether the body is long enough to compress
+     * @throws IOException if the body can not be written
+     */
+    private void begin(boolean compress) throws IOException {
+        HttpServletResponse response = (HttpServletResponse) getResponse();
+        // Jersey sets the content type as a header, which not every container reports as the content type
+        String contentType = response.getContentType() != null ? response.getContentType() : response.getHeader("Content-Type");
+        boolean compressible = filter.isCompressible(contentType) && !response.containsHeader("Content-Encoding") && !response.isCommitted();
+        if (compressible) {
+            addVary(response);
+        }
+        target = response.getOutputStream();
+        String eTag = response.getHeader("ETag");
+        if (compress && compressible) {
+            response.setHeader("Content-Encoding", coding.getName());
+            if (eTag != null) {
+                response.setHeader("ETag", coding.encodeETag(eTag));
+            }
+            String key = cacheKey(response, contentType);
+            cachedBody = key != null ? filter.getCachedBody(key) : null;
+            if (cachedBody != null) {
+                state = State.CACHED;
+                response.setContentLength(cachedBody.length);
+            } else {
+                state = State.COMPRESSING;
+                deflater = filter.acquireDeflater(coding);
+                deflated = new byte[8192];
+                if (key != null) {
+                    cacheKey = key;
+                    capture = new ByteArrayOutputStream();
+                }
+                if (coding == ContentCoding.GZIP) {
+                    crc = new CRC32();
+                    writeCompressed(GZIP_HEADER, 0, GZIP_HEADER.length);
+                }
+            }
+        } else {
+            state = State.IDENTITY;
+            if (eTag != null && ifNoneMatch != null && response.getStatus() == HttpServletResponse.SC_NOT_MODIFIED
+                    && ifNoneMatch.contains(coding.encodeETag(eTag))) {
+                // the client holds the compressed representation
+                response.setHeader("ETag", coding.encodeETag(eTag));
+            }
+            if (contentLength >= 0) {
+                response.setHeader("Content-Length", Long.toString(contentLength));
+            }
+        }
+        int length = count;
+        count = 0;
+        if (length > 0) {
+            write(buffer, 0, length);
+        }
+    }
+
+    private void deflate(byte[] bytes, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        if (crc != null) {
+            crc.update(bytes, offset, length);
+        }
+        uncompressedLength += length;
+        deflater.setInput(bytes, offset, length);
+        while (!deflater.needsInput()) {
+            int deflatedLength = deflater.deflate(deflated);
+            compressionNanos += System.nanoTime() - start;
+            writeCompressed(deflated, 0, deflatedLength);
+            start = System.nanoTime();
+        }
+        compressionNanos += System.nanoTime() - start;
+    }
+
+    private void writeCompressed(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        target.write(bytes, offset, length);
+        compressedLength += length;
+        if (capture != null) {
+            if (capture.size() + length > CompressedBodyCache.MAX_BODY_LENGTH) {
+                capture = null;
+            } else {
+                capture.write(bytes, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Builds the key to cache the compressed body by, which is only cached for complete responses to GET requests
+     * with a strong ETag. The ETag must already carry the suffix of the coding.
+     *
+     * @param response the response
+     * @param contentType the content type of the response
+     * @return the key, or null if the body is not cached
+     */
+    private String cacheKey(HttpServletResponse response, String contentType) {
+        if (requestKey == null || response.getStatus() != HttpServletResponse.SC_OK) {
+            return null;
+        }
+        String eTag = response.getHeader("ETag");
+        if (eTag == null || eTag.startsWith("W/")) {
+            return null;
+        }
+        return requestKey + '\n' + contentType + '\n' + coding.getName() + '\n' + eTag;
+    }
+
+    private void setContentLength(long length) {
+        if (state == State.BUFFERING) {
+            contentLength = length;
+        } else if (state == State.IDENTITY) {
+            super.setHeader("Content-Length", Long.toString(length));
+        }
+    }
+
+    /**
+     * Drops the body held back for an error or redirect, which the container sends in its place.
+     */
+    private void discard() {
+        requireUncompressed();
+        count = 0;
+        state = State.FINISHED;
+    }
+
+    private void requireUncompressed() {
+        if (state == State.COMPRESSING || state == State.CACHED) {
+            throw new IllegalStateException("The response is being compressed");
+        }
+    }
+
+    private static void addVary(HttpServletResponse response) {
+        String vary = response.getHeader("Vary");
+        if (vary == null) {
+            response.setHeader("Vary", "Accept-Encoding");
+        } else if (!vary.toLowerCase(Locale.ENGLISH).contains("accept-encoding")) {
+            response.setHeader("Vary", vary + ", Accept-Encoding");
+        }
+    }
+
+    private static boolean isContentLength(String name) {
+        return "Content-Length".equalsIgnoreCase(name);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * The stream the application writes the body to.
+     */
+    private final class CompressingOutputStream extends ServletOutputStream {
+
+        private final byte[] single = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            CompressingResponse.this.write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            CompressingResponse.this.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (state != State.BUFFERING && state != State.FINISHED) {
+                target.flush();
+            }
+        }
+    }
+}
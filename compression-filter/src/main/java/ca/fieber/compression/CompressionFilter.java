@@ -0,0 +1,278 @@
+package ca.fieber.compression;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.HistogramMetric;
+import com.yammer.metrics.core.TimerMetric;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * A servlet Filter that compresses response bodies with gzip or deflate, as chosen from the Accept-Encoding header of
+ * the request.
+ *
+ * <p>Bodies are held back until they reach the minimum size, and are only compressed once they do, so that short
+ * responses are sent as they are, with their Content-Length. Only responses whose content type is in the list of
+ * compressible media types are compressed, and they are sent with a Vary: Accept-Encoding header. Requests with a
+ * Range header and responses that already have a Content-Encoding are left alone.</p>
+ *
+ * <p>If the cache is enabled, the compressed bodies of GET responses with a strong ETag are cached by request URI,
+ * content type, coding and coded ETag. When the same representation is requested again its body is still written by the
+ * application, but it is discarded rather than compressed and the cached body is sent instead.</p>
+ *
+ * <p>A strong ETag of a compressed response is given the suffix of its coding, e.g. "7-gzip", as its bytes differ
+ * from those of the uncompressed response and of the other coding. The suffixes are removed from the entity tags of
+ * If-Match and If-None-Match headers before the request reaches the application, so that it compares them with the
+ * ETags it set, and a 304 Not Modified response answering a coded entity tag carries it back. Weak ETags are left
+ * as the application set them.</p>
+ *
+ * Metric names are as follows:
+ * <ul>
+ * <li>compression-ratio - the size of each compressed body as a percentage of its uncompressed size</li>
+ * <li>compression-timer - the time spent compressing each body</li>
+ * <li>cache-hit - the number of responses answered with a cached body</li>
+ * <li>cache-miss - the number of cacheable responses that were compressed</li>
+ * </ul>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class CompressionFilter implements Filter {
+
+    /**
+     * The request attribute holding the request URI and query string of the first dispatch of a request.
+     */
+    static final String REQUEST_KEY_ATTRIBUTE = CompressionFilter.class.getName() + ".requestKey";
+
+    /**
+     * The smallest body compressed, in bytes.
+     */
+    private final int minSize;
+
+    /**
+     * The compressible media types in lower case, without parameters. A type ending in /* matches all its subtypes.
+     */
+    private final List<String> mediaTypes = new ArrayList<String>();
+
+    private final Map<ContentCoding, DeflaterPool> deflaterPools = new EnumMap<ContentCoding, DeflaterPool>(ContentCoding.class);
+
+    /**
+     * The cache of compressed bodies, null if it is disabled.
+     */
+    private final CompressedBodyCache cache;
+
+    private HistogramMetric ratioMetric;
+    private TimerMetric compressionTimer;
+    private CounterMetric hitCounter;
+    private CounterMetric missCounter;
+
+    /**
+     * Constructs a new CompressionFilter.
+     *
+     * @param minSize the smallest body compressed, in bytes
+     * @param mediaTypes a comma separated list of the compressible media types, e.g. application/json,text/*
+     * @param level the compression level, from 1 (fastest) to 9 (smallest)
+     * @param poolSize the maximum number of idle Deflaters kept for each coding
+     * @param cacheSize the maximum number of cached compressed bodies, 0 to disable the cache
+     * @throws IllegalArgumentException if a setting is out of range
+     */
+    @Inject
+    public CompressionFilter(@Named("compression.min-size") int minSize,
+                             @Named("compression.media-types") String mediaTypes,
+                             @Named("compression.level") int level,
+                             @Named("compression.pool-size") int poolSize,
+                             @Named("compression.cache-size") int cacheSize) throws IllegalArgumentException {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("Invalid compression.min-size: " + minSize);
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression.level: " + level);
+        }
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Invalid compression.pool-size: " + poolSize);
+        }
+        this.minSize = minSize;
+        for (String mediaType : mediaTypes.split(",")) {
+            if (mediaType.trim().length() > 0) {
+                this.mediaTypes.add(mediaType.trim().toLowerCase(Locale.ENGLISH));
+            }
+        }
+        for (ContentCoding coding : ContentCoding.values()) {
+            deflaterPools.put(coding, new DeflaterPool(level, coding.isNowrap(), poolSize));
+        }
+        this.cache = cacheSize > 0 ? new CompressedBodyCache(cacheSize) : null;
+    }
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        ratioMetric = Metrics.newHistogram(CompressionFilter.class, "compression-ratio");
+        compressionTimer = Metrics.newTimer(CompressionFilter.class, "compression-timer", TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+        hitCounter = Metrics.newCounter(CompressionFilter.class, "cache-hit");
+        missCounter = Metrics.newCounter(CompressionFilter.class, "cache-miss");
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null || request.getHeader("If-Match") != null) {
+            request = new ETagDecodingRequest(request);
+            req = request;
+        }
+        ContentCoding coding = request.getHeader("Range") == null ? ContentCoding.negotiate(request.getHeader("Accept-Encoding")) : null;
+        if (coding == null) {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        String requestKey = null;
+        if (cache != null && "GET".equals(request.getMethod())) {
+            requestKey = requestKey(request);
+        }
+        CompressingResponse response = new CompressingResponse(this, (HttpServletResponse) resp, coding, requestKey, ifNoneMatch);
+        try {
+            chain.doFilter(req, response);
+            // a request suspended with the async API is compressed when it is dispatched again and answered
+            if (!request.isAsyncStarted()) {
+                response.finish();
+            }
+        } finally {
+            response.release();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        Metrics.removeMetric(CompressionFilter.class, "compression-ratio");
+        Metrics.removeMetric(CompressionFilter.class, "compression-timer");
+        Metrics.removeMetric(CompressionFilter.class, "cache-hit");
+        Metrics.removeMetric(CompressionFilter.class, "cache-miss");
+        for (DeflaterPool pool : deflaterPools.values()) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Gets the request URI and query string that a compressed body is cached by.
+     *
+     * <p>A request suspended with the async API is dispatched again to another path, such as the one it is resumed
+     * at, so the key is taken on the first dispatch and kept in a request attribute for the later ones.</p>
+     *
+     * @param request the request
+     * @return the key
+     */
+    private static String requestKey(HttpServletRequest request) {
+        String requestKey = (String) request.getAttribute(REQUEST_KEY_ATTRIBUTE);
+        if (requestKey == null) {
+            String uri = request.getRequestURI();
+            String query = request.getQueryString();
+            if (request.getDispatcherType() == DispatcherType.ASYNC && request.getAttribute(AsyncContext.ASYNC_REQUEST_URI) != null) {
+                uri = (String) request.getAttribute(AsyncContext.ASYNC_REQUEST_URI);
+                query = (String) request.getAttribute(AsyncContext.ASYNC_QUERY_STRING);
+            }
+            requestKey = query == null ? uri : uri + '?' + query;
+            request.setAttribute(REQUEST_KEY_ATTRIBUTE, requestKey);
+        }
+        return requestKey;
+    }
+
+    /**
+     * Gets the smallest body compressed.
+     *
+     * @return the minimum size in bytes
+     */
+    int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Determines whether responses of a content type are compressed.
+     *
+     * @param contentType the content type of the response, may be null
+     * @return true iff the media type of the content type is in the list of compressible media types
+     */
+    boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String mediaType = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase(Locale.ENGLISH);
+        for (String compressible : mediaTypes) {
+            if (compressible.endsWith("/*") ? mediaType.startsWith(compressible.substring(0, compressible.length() - 1)) : mediaType.equals(compressible)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes a Deflater for a coding from its pool.
+     *
+     * @param coding the coding
+     * @return the Deflater, to be released once the body is compressed
+     */
+    Deflater acquireDeflater(ContentCoding coding) {
+        return deflaterPools.get(coding).acquire();
+    }
+
+    /**
+     * Returns a Deflater to the pool of its coding.
+     *
+     * @param coding the coding the Deflater was acquired for
+     * @param deflater the Deflater
+     */
+    void releaseDeflater(ContentCoding coding, Deflater deflater) {
+        deflaterPools.get(coding).release(deflater);
+    }
+
+    /**
+     * Gets a cached compressed body.
+     *
+     * @param key the key of the body
+     * @return the body, or null if it is not cached
+     */
+    byte[] getCachedBody(String key) {
+        byte[] body = cache.get(key);
+        if (body != null) {
+            hitCounter.inc();
+        } else {
+            missCounter.inc();
+        }
+        return body;
+    }
+
+    /**
+     * Caches a compressed body.
+     *
+     * @param key the key of the body
+     * @param body the body
+     */
+    void cacheBody(String key, byte[] body) {
+        cache.put(key, body);
+    }
+
+    /**
+     * Records the compression of a body.
+     *
+     * @param uncompressedLength the length of the body
+     * @param compressedLength the length of the compressed body
+     * @param nanos the time spent compressing the body
+     */
+    void compressed(long uncompressedLength, long compressedLength, long nanos) {
+        ratioMetric.update(uncompressedLength == 0 ? 100 : 100 * compressedLength / uncompressedLength);
+        compressionTimer.update(nanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,56 @@
+package ca.fieber.compression;
+
+import com.google.inject.name.Names;
+import com.google.inject.servlet.ServletModule;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configures the filter that compresses responses.
+ *
+ * @author cfieber
+ */
+public class CompressionModule extends ServletModule {
+
+    /**
+     * Settings for the filter.
+     */
+    private final Map<String, String> settings;
+
+    /**
+     * Constructs a new CompressionModule with the default settings.
+     */
+    public CompressionModule() {
+        this(Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructs a new CompressionModule with the provided settings.
+     *
+     * <p>Settings are bound as named constants: compression.min-size, the smallest body compressed in bytes;
+     * compression.media-types, a comma separated list of the compressible media types; compression.level, from 1
+     * (fastest) to 9 (smallest); compression.pool-size, the number of idle Deflaters kept for each coding; and
+     * compression.cache-size, the number of compressed bodies cached, 0 to disable the cache.</p>
+     *
+     * @param settings settings for the filter, overriding the defaults
+     */
+    public CompressionModule(Map<String, String> settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    protected void configureServlets() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("compression.min-size", "1024");
+        properties.put("compression.media-types", "application/json,application/xml,application/x-ndjson,application/geo+json,application/x-protobuf,text/*");
+        properties.put("compression.level", "6");
+        properties.put("compression.pool-size", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        properties.put("compression.cache-size", "0");
+        properties.putAll(settings);
+        Names.bindProperties(binder(), properties);
+
+        filter("/*").through(CompressionFilter.class);
+    }
+}
@@ -0,0 +1,134 @@
+package ca.fieber.compression;
+
+import java.util.regex.Pattern;
+
+/**
+ * The content codings that responses can be compressed with.
+ *
+ * @author cfieber
+ */
+enum ContentCoding {
+
+    /**
+     * A gzip file, a deflate stream between a gzip header and a trailer holding its CRC-32 and length.
+     */
+    GZIP("gzip", true),
+
+    /**
+     * A zlib stream, which HTTP calls deflate.
+     */
+    DEFLATE("deflate", false);
+
+    /**
+     * Matches the end of an entity tag given the suffix of a coding.
+     */
+    private static final Pattern CODED_ETAG_END = Pattern.compile("-(?:gzip|deflate)\"");
+
+    /**
+     * The name of the coding in Accept-Encoding and Content-Encoding headers.
+     */
+    private final String name;
+
+    /**
+     * Whether the deflate stream is written without a zlib header and trailer.
+     */
+    private final boolean nowrap;
+
+    ContentCoding(String name, boolean nowrap) {
+        this.name = name;
+        this.nowrap = nowrap;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isNowrap() {
+        return nowrap;
+    }
+
+    /**
+     * Gives a strong entity tag the suffix of this coding, e.g. "7" becomes "7-gzip", so that the compressed
+     * representation, whose bytes differ from the uncompressed one's, has an entity tag of its own.
+     *
+     * @param eTag the entity tag of the uncompressed representation
+     * @return the entity tag of the compressed representation, or the entity tag as it is if it is weak
+     */
+    String encodeETag(String eTag) {
+        if (eTag.length() < 2 || eTag.charAt(0) != '"' || eTag.charAt(eTag.length() - 1) != '"') {
+            return eTag;
+        }
+        return eTag.substring(0, eTag.length() - 1) + '-' + name + '"';
+    }
+
+    /**
+     * Removes the suffixes given by encodeETag from the entity tags in an If-Match or If-None-Match header, so that
+     * the application compares them with the entity tags it set.
+     *
+     * @param header the header, may be null
+     * @return the header with the suffixes removed
+     */
+    static String decodeETags(String header) {
+        return header == null ? null : CODED_ETAG_END.matcher(header).replaceAll("\"");
+    }
+
+    /**
+     * Chooses the coding to compress a response with from the Accept-Encoding header of the request.
+     *
+     * <p>The coding with the highest quality value is chosen, gzip when both are equally acceptable. A coding that
+     * is not listed takes the quality value of *, and codings with a quality value of 0 are not acceptable.</p>
+     *
+     * @param acceptEncoding the Accept-Encoding header, may be null
+     * @return the coding, or null if the response should not be compressed
+     */
+    static ContentCoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        for (String element : acceptEncoding.split(",")) {
+            int semicolon = element.indexOf(';');
+            String coding = (semicolon < 0 ? element : element.substring(0, semicolon)).trim();
+            float quality = semicolon < 0 ? 1 : quality(element.substring(semicolon + 1));
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                gzip = Math.max(gzip, quality);
+            } else if (coding.equalsIgnoreCase("deflate")) {
+                deflate = Math.max(deflate, quality);
+            } else if (coding.equals("*")) {
+                any = Math.max(any, quality);
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Reads the quality value from the parameters of an Accept-Encoding element.
+     *
+     * @param parameters the parameters following the coding
+     * @return the quality value, 1 if there is none and 0 if it is malformed
+     */
+    private static float quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0 && parameter.substring(0, equals).trim().equalsIgnoreCase("q")) {
+                try {
+                    return Float.parseFloat(parameter.substring(equals + 1).trim());
+                } catch (NumberFormatException nfe) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,65 @@
+package ca.fieber.compression;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of Deflaters of one level and format.
+ *
+ * <p>A Deflater holds a few hundred kilobytes of native memory that is only freed when it is ended, so Deflaters are
+ * reset and reused rather than created for every response. When the pool is empty a new Deflater is created, and one
+ * released to a full pool is ended.</p>
+ *
+ * @author cfieber
+ */
+final class DeflaterPool {
+
+    private final int level;
+    private final boolean nowrap;
+    private final BlockingQueue<Deflater> deflaters;
+
+    /**
+     * Constructs a new DeflaterPool.
+     *
+     * @param level the compression level of the Deflaters
+     * @param nowrap whether the Deflaters write raw deflate streams, without a zlib header and trailer
+     * @param size the maximum number of idle Deflaters kept
+     */
+    DeflaterPool(int level, boolean nowrap, int size) {
+        this.level = level;
+        this.nowrap = nowrap;
+        this.deflaters = new ArrayBlockingQueue<Deflater>(size);
+    }
+
+    /**
+     * Takes a Deflater from the pool, creating one if the pool is empty.
+     *
+     * @return the Deflater
+     */
+    Deflater acquire() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level, nowrap);
+    }
+
+    /**
+     * Returns a Deflater to the pool.
+     *
+     * @param deflater a Deflater acquired from this pool
+     */
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Ends the idle Deflaters.
+     */
+    void close() {
+        for (Deflater deflater = deflaters.poll(); deflater != null; deflater = deflaters.poll()) {
+            deflater.end();
+        }
+    }
+}
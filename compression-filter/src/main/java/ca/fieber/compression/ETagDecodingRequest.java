@@ -0,0 +1,53 @@
+package ca.fieber.compression;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * A request whose If-Match and If-None-Match headers have the coding suffixes removed from their entity tags, so that
+ * the entity tags of compressed responses match the representations the application tags.
+ *
+ * <p>If-Range is left alone: a range is only sent uncompressed, which a compressed response's entity tag must not
+ * match.</p>
+ *
+ * @author cfieber
+ * @see ContentCoding#encodeETag(String)
+ */
+final class ETagDecodingRequest extends HttpServletRequestWrapper {
+
+    /**
+     * Constructs a new ETagDecodingRequest.
+     *
+     * @param request the request
+     */
+    ETagDecodingRequest(HttpServletRequest request) {
+        super(request);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        String value = super.getHeader(name);
+        return isConditional(name) ? ContentCoding.decodeETags(value) : value;
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        Enumeration<String> values = super.getHeaders(name);
+        if (!isConditional(name) || values == null) {
+            return values;
+        }
+        List<String> decoded = new ArrayList<String>();
+        while (values.hasMoreElements()) {
+            decoded.add(ContentCoding.decodeETags(values.nextElement()));
+        }
+        return Collections.enumeration(decoded);
+    }
+
+    private static boolean isConditional(String name) {
+        return "If-Match".equalsIgnoreCase(name) || "If-None-Match".equalsIgnoreCase(name);
+    }
+}
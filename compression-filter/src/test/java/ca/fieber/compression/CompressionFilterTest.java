@@ -0,0 +1,471 @@
+package ca.fieber.compression;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.HistogramMetric;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * CompressionFilterTest.
+ *
+ * @author cfieber
+ */
+public class CompressionFilterTest {
+
+    private static final byte[] BODY = body(4000);
+
+    CompressionFilter filter;
+
+    @Before
+    public void createFilter() throws ServletException {
+        filter = new CompressionFilter(1024, "application/json, text/*", 6, 2, 10);
+        filter.init(null);
+    }
+
+    @After
+    public void destroyFilter() {
+        filter.destroy();
+        filter = null;
+    }
+
+    @Test
+    public void testNegotiate() {
+        assertNull(ContentCoding.negotiate(null));
+        assertNull(ContentCoding.negotiate(""));
+        assertNull(ContentCoding.negotiate("identity, br"));
+        assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("gzip, deflate"));
+        assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("x-gzip"));
+        assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("*"));
+        assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("deflate"));
+        assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("GZIP;q=0, deflate"));
+        assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("gzip;q=0.5, deflate ; q=1.0"));
+        assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("gzip;q=0, *"));
+        assertNull(ContentCoding.negotiate("*;q=0"));
+        assertNull(ContentCoding.negotiate("gzip;q=zero"));
+    }
+
+    @Test
+    public void testCompressesGzip() throws Exception {
+        MockResponse response = new MockResponse();
+        filter.doFilter(request("GET", "gzip, deflate"), response, chain("application/json; charset=UTF-8", null, BODY));
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertNull(response.getHeader("Content-Length"));
+        assertArrayEquals(BODY, inflate(new GZIPInputStream(new ByteArrayInputStream(response.body.toByteArray()))));
+
+        HistogramMetric ratio = Metrics.newHistogram(CompressionFilter.class, "compression-ratio");
+        assertEquals(1, ratio.count());
+        assertEquals(100 * response.body.size() / BODY.length, ratio.max(), 0);
+        assertEquals(1, Metrics.newTimer(CompressionFilter.class, "compression-timer").count());
+    }
+
+    @Test
+    public void testCompressesDeflate() throws Exception {
+        MockResponse response = new MockResponse();
+        filter.doFilter(request("GET", "deflate"), response, chain("text/csv", null, BODY));
+
+        assertEquals("deflate", response.getHeader("Content-Encoding"));
+        assertArrayEquals(BODY, inflate(new InflaterInputStream(new ByteArrayInputStream(response.body.toByteArray()))));
+    }
+
+    @Test
+    public void testCompressesBodyWrittenByteByByte() throws Exception {
+        MockResponse response = new MockResponse();
+        filter.doFilter(request("POST", "gzip"), response, new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                response.setContentType("application/json");
+                ServletOutputStream output = response.getOutputStream();
+                for (byte b : BODY) {
+                    output.write(b);
+                    output.flush();
+                }
+            }
+        });
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertArrayEquals(BODY, inflate(new GZIPInputStream(new ByteArrayInputStream(response.body.toByteArray()))));
+    }
+
+    @Test
+    public void testCompressesWriter() throws Exception {
+        MockResponse response = new MockResponse();
+        filter.doFilter(request("GET", "gzip"), response, new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                response.setContentType("text/plain");
+                response.setCharacterEncoding("UTF-8");
+                PrintWriter writer = response.getWriter();
+                writer.print(new String(BODY, "UTF-8"));
+            }
+        });
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertArrayEquals(BODY, inflate(new GZIPInputStream(new ByteArrayInputStream(response.body.toByteArray()))));
+    }
+
+    @Test
+    public void testSmallBodyIsNotCompressed() throws Exception {
+        MockResponse response = new MockResponse();
+        byte[] body = body(1023);
+        filter.doFilter(request("GET", "gzip"), response, chain("application/json", null, body));
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("1023", response.getHeader("Content-Length"));
+        assertArrayEquals(body, response.body.toByteArray());
+        assertEquals(0, Metrics.newHistogram(CompressionFilter.class, "compression-ratio").count());
+
+        // a body of exactly the minimum size is compressed
+        response = new MockResponse();
+        filter.doFilter(request("GET", "gzip"), response, chain("application/json", null, body(1024)));
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertNull(response.getHeader("Content-Length"));
+    }
+
+    @Test
+    public void testIncompressibleMediaTypeIsNotCompressed() throws Exception {
+        MockResponse response = new MockResponse();
+        filter.doFilter(request("GET", "gzip"), response, chain("image/png", null, BODY));
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertNull(response.getHeader("Vary"));
+        assertEquals(Integer.toString(BODY.length), response.getHeader("Content-Length"));
+        assertArrayEquals(BODY, response.body.toByteArray());
+    }
+
+    @Test
+    public void testUnacceptedCodingIsNotCompressed() throws Exception {
+        final HttpServletResponse response = new MockResponse();
+        final boolean[] called = new boolean[1];
+        filter.doFilter(request("GET", "identity"), response, new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse chainResponse) throws IOException, ServletException {
+                assertSame(response, chainResponse);
+                called[0] = true;
+            }
+        });
+        assertTrue(called[0]);
+    }
+
+    @Test
+    public void testCachesCompressedBody() throws Exception {
+        MockResponse first = new MockResponse();
+        filter.doFilter(request("GET", "gzip"), first, chain("application/json", "\"1\"", BODY));
+        MockResponse second = new MockResponse();
+        filter.doFilter(request("GET", "gzip"), second, chain("application/json", "\"1\"", BODY));
+
+        CounterMetric hits = Metrics.newCounter(CompressionFilter.class, "cache-hit");
+        CounterMetric misses = Metrics.newCounter(CompressionFilter.class, "cache-miss");
+        assertEquals(1, hits.count());
+        assertEquals(1, misses.count());
+        assertArrayEquals(first.body.toByteArray(), second.body.toByteArray());
+        assertEquals("gzip", second.getHeader("Content-Encoding"));
+        assertEquals(Integer.toString(second.body.size()), second.getHeader("Content-Length"));
+        // the cached body was not compressed again
+        assertEquals(1, Metrics.newHistogram(CompressionFilter.class, "compression-ratio").count());
+
+        // a new ETag, another coding, a weak ETag or a POST are not answered from the cache
+        byte[] changed = body(5000);
+        MockResponse third = new MockResponse();
+        filter.doFilter(request("GET", "gzip"), third, chain("application/json", "\"2\"", changed));
+        assertArrayEquals(changed, inflate(new GZIPInputStream(new ByteArrayInputStream(third.body.toByteArray()))));
+        filter.doFilter(request("GET", "deflate"), new MockResponse(), chain("application/json", "\"1\"", BODY));
+        filter.doFilter(request("GET", "gzip"), new MockResponse(), chain("application/json", "W/\"1\"", BODY));
+        filter.doFilter(request("POST", "gzip"), new MockResponse(), chain("application/json", "\"1\"", BODY));
+        assertEquals(1, hits.count());
+        assertEquals(3, misses.count());
+    }
+
+    @Test
+    public void testCachesResumedRequestsByOriginalUri() throws Exception {
+        byte[] other = body(5000);
+        MockResponse first = resumed("/location/1", BODY);
+        MockResponse second = resumed("/location/2", other);
+
+        // both are at version 1 and resumed at the same path, but are different Locations
+        assertArrayEquals(BODY, inflate(new GZIPInputStream(new ByteArrayInputStream(first.body.toByteArray()))));
+        assertArrayEquals(other, inflate(new GZIPInputStream(new ByteArrayInputStream(second.body.toByteArray()))));
+        assertEquals(0, Metrics.newCounter(CompressionFilter.class, "cache-hit").count());
+
+        MockResponse again = resumed("/location/2", other);
+        assertArrayEquals(second.body.toByteArray(), again.body.toByteArray());
+        assertEquals(1, Metrics.newCounter(CompressionFilter.class, "cache-hit").count());
+    }
+
+    /**
+     * Filters a GET that is suspended on its first dispatch and answered on an ASYNC dispatch to /resumed.
+     */
+    private MockResponse resumed(String uri, byte[] body) throws Exception {
+        Map<String, Object> answers = new HashMap<String, Object>();
+        answers.put("getHeader Accept-Encoding", "gzip");
+        answers.put("getMethod", "GET");
+        answers.put("getRequestURI", uri);
+        answers.put("getDispatcherType", DispatcherType.REQUEST);
+        answers.put("isAsyncStarted", true);
+        HttpServletRequest request = stub(HttpServletRequest.class, answers);
+        filter.doFilter(request, new MockResponse(), new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) {
+            }
+        });
+
+        answers.put("getRequestURI", "/resumed");
+        answers.put("getDispatcherType", DispatcherType.ASYNC);
+        answers.put("isAsyncStarted", false);
+        MockResponse response = new MockResponse();
+        filter.doFilter(request, response, chain("application/json", "\"1\"", body));
+        return response;
+    }
+
+    @Test
+    public void testCodesStrongETags() throws Exception {
+        MockResponse response = new MockResponse();
+        filter.doFilter(request("GET", "gzip"), response, chain("application/json", "\"7\"", BODY));
+        assertEquals("\"7-gzip\"", response.getHeader("ETag"));
+
+        response = new MockResponse();
+        filter.doFilter(request("GET", "deflate"), response, chain("application/json", "\"7\"", BODY));
+        assertEquals("\"7-deflate\"", response.getHeader("ETag"));
+
+        // uncompressed responses and weak ETags are left alone
+        response = new MockResponse();
+        filter.doFilter(request("GET", "gzip"), response, chain("application/json", "\"7\"", body(10)));
+        assertEquals("\"7\"", response.getHeader("ETag"));
+        response = new MockResponse();
+        filter.doFilter(request("GET", "gzip"), response, chain("application/json", "W/\"7\"", BODY));
+        assertEquals("W/\"7\"", response.getHeader("ETag"));
+    }
+
+    @Test
+    public void testDecodesConditionalHeaders() throws Exception {
+        Map<String, Object> answers = new HashMap<String, Object>();
+        answers.put("getHeader Accept-Encoding", "gzip");
+        answers.put("getMethod", "GET");
+        answers.put("getRequestURI", "/location/1");
+        answers.put("getHeader If-None-Match", "\"7-gzip\", \"8-deflate\", W/\"9\"");
+        answers.put("getHeaders If-None-Match", Collections.enumeration(Arrays.asList("\"7-gzip\"", "\"8\"")));
+        answers.put("getHeader If-Match", "\"7-deflate\"");
+        answers.put("getHeader If-Range", "\"7-gzip\"");
+        final Map<String, Object> seen = new HashMap<String, Object>();
+        MockResponse response = new MockResponse();
+        filter.doFilter(stub(HttpServletRequest.class, answers), response, new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                HttpServletRequest httpRequest = (HttpServletRequest) request;
+                seen.put("If-None-Match", httpRequest.getHeader("If-None-Match"));
+                seen.put("If-None-Match values", Collections.list(httpRequest.getHeaders("If-None-Match")));
+                seen.put("If-Match", httpRequest.getHeader("If-Match"));
+                seen.put("If-Range", httpRequest.getHeader("If-Range"));
+                // the representation has not changed
+                HttpServletResponse httpResponse = (HttpServletResponse) response;
+                httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                httpResponse.setHeader("ETag", "\"7\"");
+            }
+        });
+
+        assertEquals("\"7\", \"8\", W/\"9\"", seen.get("If-None-Match"));
+        assertEquals(Arrays.asList("\"7\"", "\"8\""), seen.get("If-None-Match values"));
+        assertEquals("\"7\"", seen.get("If-Match"));
+        assertEquals("\"7-gzip\"", seen.get("If-Range"));
+        // the Not Modified response carries the entity tag the client holds
+        assertEquals("\"7-gzip\"", response.getHeader("ETag"));
+    }
+
+    @Test
+    public void testDeflaterPool() {
+        DeflaterPool pool = new DeflaterPool(Deflater.BEST_SPEED, true, 1);
+        Deflater first = pool.acquire();
+        Deflater second = pool.acquire();
+        assertNotSame(first, second);
+        pool.release(first);
+        pool.release(second);
+        assertSame(first, pool.acquire());
+        assertNotSame(second, pool.acquire());
+        pool.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        new CompressionFilter(1024, "text/*", 10, 2, 0);
+    }
+
+    private static HttpServletRequest request(String method, String acceptEncoding) {
+        Map<String, Object> answers = new HashMap<String, Object>();
+        answers.put("getHeader Accept-Encoding", acceptEncoding);
+        answers.put("getMethod", method);
+        answers.put("getRequestURI", "/location/1");
+        return stub(HttpServletRequest.class, answers);
+    }
+
+    /**
+     * Creates an object that answers the calls in a Map, keyed by method name and arguments, and answers all other
+     * calls with null, false or 0. Attributes that are set are answered by getAttribute.
+     */
+    private static <T> T stub(Class<T> type, final Map<String, Object> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("setAttribute")) {
+                    answers.put("getAttribute " + args[0], args[1]);
+                    return null;
+                }
+                StringBuilder key = new StringBuilder(method.getName());
+                for (int i = 0; args != null && i < args.length; i++) {
+                    key.append(' ').append(args[i]);
+                }
+                if (answers.containsKey(key.toString())) {
+                    return answers.get(key.toString());
+                }
+                if (method.getReturnType() == boolean.class) {
+                    return false;
+                }
+                return method.getReturnType() == int.class ? 0 : null;
+            }
+        }));
+    }
+
+    private static FilterChain chain(final String contentType, final String eTag, final byte[] body) {
+        return new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                HttpServletResponse httpResponse = (HttpServletResponse) response;
+                httpResponse.setContentType(contentType);
+                httpResponse.setContentLength(body.length);
+                if (eTag != null) {
+                    httpResponse.setHeader("ETag", eTag);
+                }
+                ServletOutputStream output = httpResponse.getOutputStream();
+                // written in pieces, as a MessageBodyWriter would
+                for (int i = 0; i < body.length; i += 100) {
+                    output.write(body, i, Math.min(100, body.length - i));
+                }
+            }
+        };
+    }
+
+    private static byte[] body(int length) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; body.length() < length; i++) {
+            body.append("{\"id\":\"").append(i).append("\",\"name\":\"Location ").append(i).append("\"},");
+        }
+        body.setLength(length);
+        try {
+            return body.toString().getBytes("UTF-8");
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    private static byte[] inflate(InputStream input) throws IOException {
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+            inflated.write(buffer, 0, read);
+        }
+        return inflated.toByteArray();
+    }
+
+    /**
+     * A response that keeps its headers and body in memory.
+     */
+    private static class MockResponse extends HttpServletResponseWrapper {
+
+        private final Map<String, String> headers = new HashMap<String, String>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private String contentType;
+        private String characterEncoding = "ISO-8859-1";
+        private int status = SC_OK;
+
+        MockResponse() {
+            super(stub(HttpServletResponse.class, new HashMap<String, Object>()));
+        }
+
+        @Override
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public void setContentType(String contentType) {
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public void setCharacterEncoding(String characterEncoding) {
+            this.characterEncoding = characterEncoding;
+        }
+
+        @Override
+        public String getCharacterEncoding() {
+            return characterEncoding;
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            setHeader("Content-Length", Integer.toString(length));
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            headers.put(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            headers.put(name, headers.containsKey(name) ? headers.get(name) + ", " + value : value);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public boolean containsHeader(String name) {
+            return headers.containsKey(name);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) {
+                    body.write(bytes, offset, length);
+                }
+            };
+        }
+    }
+}
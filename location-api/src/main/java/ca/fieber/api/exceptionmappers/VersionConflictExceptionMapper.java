@@ -0,0 +1,26 @@
+package ca.fieber.api.exceptionmappers;
+
+import ca.fieber.api.repositories.location.VersionConflictException;
+import ca.fieber.api.representations.ErrorMessage;
+import com.google.inject.Singleton;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * An ExceptionMapper for VersionConflictException that renders an HTTP 412 (Precondition Failed) as an ErrorMessage.
+ *
+ * @author cfieber
+ */
+@Provider
+@Singleton
+public class VersionConflictExceptionMapper implements ExceptionMapper<VersionConflictException> {
+
+    @Override
+    public Response toResponse(VersionConflictException exception) {
+        return Response.status(Response.Status.PRECONDITION_FAILED)
+                .entity(new ErrorMessage(exception.getMessage()))
+                .build();
+    }
+}
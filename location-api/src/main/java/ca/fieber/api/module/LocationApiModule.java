@@ -1,6 +1,18 @@
 package ca.fieber.api.module;
 
+import ca.fieber.api.repositories.location.AsyncLocationRepository;
+import ca.fieber.api.repositories.location.LocationRepository;
 import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Public module that assembles components for the Location API.
@@ -9,9 +21,78 @@ import com.google.inject.AbstractModule;
  */
 public class LocationApiModule extends AbstractModule {
 
+    private static final Logger LOG = Logger.getLogger(LocationApiModule.class.getName());
+
+    /**
+     * The storage engine for Locations.
+     */
+    private final LocationStorage storage;
+
+    /**
+     * Settings for the storage engine.
+     */
+    private final Map<String, String> settings;
+
+    /**
+     * Constructs a new LocationApiModule that keeps Locations in memory.
+     */
+    public LocationApiModule() {
+        this(LocationStorage.IN_MEMORY);
+    }
+
+    /**
+     * Constructs a new LocationApiModule with the provided storage engine and default settings.
+     *
+     * @param storage the storage engine for Locations
+     */
+    public LocationApiModule(LocationStorage storage) {
+        this(storage, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructs a new LocationApiModule with the provided storage engine and settings.
+     *
+     * <p>Settings are bound as named constants, for example location.data-directory and
+     * location.snapshot-interval-seconds for the DURABLE storage engine, location.import-file to seed an empty
+     * repository from a file on startup, or location.cache-size to cache Locations read by id.</p>
+     *
+     * @param storage the storage engine for Locations
+     * @param settings settings for the storage engine, overriding the defaults
+     */
+    public LocationApiModule(LocationStorage storage, Map<String, String> settings) {
+        this.storage = storage;
+        this.settings = settings;
+    }
+
     @Override
     protected void configure() {
-        install(new RepositoriesModule());
+        install(new RepositoriesModule(storage, settings));
         install(new ResourcesModule());
     }
+
+    /**
+     * Releases the resources held by the Location API in an Injector created with this module, when the application
+     * stops.
+     *
+     * <p>The threads of the AsyncLocationRepository are stopped first, then the storage engine is closed: the DURABLE
+     * engine stops taking snapshots and closes its log, the JDBC engine closes its pooled connections. Failures are
+     * logged rather than thrown, so that the rest of the application can still stop.</p>
+     *
+     * @param injector the Injector
+     */
+    public static void close(Injector injector) {
+        closeQuietly(injector.getInstance(AsyncLocationRepository.class));
+        Key<LocationRepository> cacheDelegate = Key.get(LocationRepository.class, Names.named("location.cache-delegate"));
+        closeQuietly(injector.getInstance(injector.getExistingBinding(cacheDelegate) != null ? cacheDelegate : Key.get(LocationRepository.class)));
+    }
+
+    private static void closeQuietly(Object component) {
+        if (component instanceof Closeable) {
+            try {
+                ((Closeable) component).close();
+            } catch (IOException ioe) {
+                LOG.log(Level.WARNING, "Failed to close " + component.getClass().getSimpleName(), ioe);
+            }
+        }
+    }
 }
@@ -0,0 +1,61 @@
+package ca.fieber.api.module;
+
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.impl.ColumnarLocationRepository;
+import ca.fieber.api.repositories.location.impl.DurableLocationRepository;
+import ca.fieber.api.repositories.location.impl.InMemoryLocationRepository;
+import ca.fieber.api.repositories.location.impl.JdbcLocationRepository;
+import ca.fieber.api.repositories.location.impl.ShardedLocationRepository;
+
+/**
+ * The available storage engines for Locations.
+ *
+ * @author cfieber
+ */
+public enum LocationStorage {
+
+    /**
+     * Locations are kept as objects in memory, see InMemoryLocationRepository.
+     */
+    IN_MEMORY(InMemoryLocationRepository.class),
+
+    /**
+     * Locations are kept in off-heap columns, see ColumnarLocationRepository.
+     */
+    COLUMNAR(ColumnarLocationRepository.class),
+
+    /**
+     * Locations are kept as objects in memory, partitioned by id across location.shard-count independently locked
+     * shards, see ShardedLocationRepository.
+     */
+    SHARDED(ShardedLocationRepository.class),
+
+    /**
+     * Locations are kept in memory and persisted to a write ahead log and snapshots in the location.data-directory,
+     * see DurableLocationRepository.
+     */
+    DURABLE(DurableLocationRepository.class),
+
+    /**
+     * Locations are kept in the relational database at the location.jdbc-url, see JdbcLocationRepository.
+     */
+    JDBC(JdbcLocationRepository.class);
+
+    /**
+     * The LocationRepository implementation for this storage engine.
+     */
+    private final Class<? extends LocationRepository> implementation;
+
+    private LocationStorage(Class<? extends LocationRepository> implementation) {
+        this.implementation = implementation;
+    }
+
+    /**
+     * Gets the LocationRepository implementation for this storage engine.
+     *
+     * @return the LocationRepository implementation
+     */
+    Class<? extends LocationRepository> getImplementation() {
+        return implementation;
+    }
+}
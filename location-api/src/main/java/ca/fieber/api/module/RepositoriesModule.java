@@ -1,8 +1,19 @@
 package ca.fieber.api.module;
 
+import ca.fieber.api.repositories.location.AsyncLocationRepository;
+import ca.fieber.api.repositories.location.IdGenerator;
 import ca.fieber.api.repositories.location.LocationRepository;
-import ca.fieber.api.repositories.location.impl.InMemoryLocationRepository;
+import ca.fieber.api.repositories.location.bulk.StartupImport;
+import ca.fieber.api.repositories.location.impl.CachingLocationRepository;
+import ca.fieber.api.repositories.location.impl.ExecutorAsyncLocationRepository;
+import ca.fieber.api.repositories.location.impl.UlidIdGenerator;
+import ca.fieber.api.repositories.location.impl.UuidIdGenerator;
 import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Assembles the components for the Location API.
@@ -10,8 +21,69 @@ import com.google.inject.AbstractModule;
  * @author cfieber
  */
 class RepositoriesModule extends AbstractModule {
+
+    /**
+     * The storage engine for Locations.
+     */
+    private final LocationStorage storage;
+
+    /**
+     * Settings for the storage engine, overriding the defaults.
+     */
+    private final Map<String, String> settings;
+
+    /**
+     * Constructs a new RepositoriesModule for the provided storage engine.
+     *
+     * @param storage the storage engine for Locations
+     * @param settings settings for the storage engine, overriding the defaults
+     */
+    RepositoriesModule(LocationStorage storage, Map<String, String> settings) {
+        this.storage = storage;
+        this.settings = settings;
+    }
+
     @Override
     protected void configure() {
-        bind(LocationRepository.class).to(InMemoryLocationRepository.class);
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("location.data-directory", new File(System.getProperty("java.io.tmpdir"), "locations").getPath());
+        properties.put("location.snapshot-interval-seconds", "300");
+        properties.put("location.import-file", "");
+        properties.put("location.id-generator", "ulid");
+        properties.put("location.shard-count", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        properties.put("location.scan-threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        properties.put("location.jdbc-url", "jdbc:h2:" + new File(System.getProperty("java.io.tmpdir"), "locations-db").getPath() + ";MVCC=TRUE");
+        properties.put("location.jdbc-user", "sa");
+        properties.put("location.jdbc-password", "");
+        properties.put("location.jdbc-pool-size", "8");
+        properties.put("location.cache-size", "0");
+        properties.put("location.cache-ttl-seconds", "0");
+        properties.put("location.cache-not-found", "false");
+        properties.put("location.xml-pool-size", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        properties.put("location.representation-cache-bytes", String.valueOf(8 * 1024 * 1024));
+        properties.putAll(settings);
+        if (!properties.containsKey("location.async-threads")) {
+            // one thread per connection, the in memory engines are quicker called directly
+            properties.put("location.async-threads", storage == LocationStorage.JDBC ? properties.get("location.jdbc-pool-size") : "0");
+        }
+        Names.bindProperties(binder(), properties);
+
+        String idGenerator = properties.get("location.id-generator");
+        if ("ulid".equalsIgnoreCase(idGenerator)) {
+            bind(IdGenerator.class).to(UlidIdGenerator.class);
+        } else if ("uuid".equalsIgnoreCase(idGenerator)) {
+            bind(IdGenerator.class).to(UuidIdGenerator.class);
+        } else {
+            throw new IllegalArgumentException("Invalid location.id-generator: " + idGenerator);
+        }
+
+        if (Integer.parseInt(properties.get("location.cache-size")) > 0) {
+            bind(LocationRepository.class).annotatedWith(Names.named("location.cache-delegate")).to(storage.getImplementation());
+            bind(LocationRepository.class).to(CachingLocationRepository.class);
+        } else {
+            bind(LocationRepository.class).to(storage.getImplementation());
+        }
+        bind(AsyncLocationRepository.class).to(ExecutorAsyncLocationRepository.class);
+        bind(StartupImport.class).asEagerSingleton();
     }
 }
@@ -2,10 +2,26 @@ package ca.fieber.api.module;
 
 import ca.fieber.api.exceptionmappers.IllegalArgumentExceptionMapper;
 import ca.fieber.api.exceptionmappers.NoSuchElementExceptionMapper;
+import ca.fieber.api.exceptionmappers.VersionConflictExceptionMapper;
+import ca.fieber.api.providers.ErrorMessageJsonWriter;
+import ca.fieber.api.providers.ErrorMessageProtobufWriter;
+import ca.fieber.api.providers.JAXBXmlProvider;
+import ca.fieber.api.providers.LocationJsonProvider;
+import ca.fieber.api.providers.LocationListJsonWriter;
+import ca.fieber.api.providers.LocationListProtobufProvider;
+import ca.fieber.api.providers.LocationProtobufProvider;
 import ca.fieber.api.representations.ErrorMessage;
 import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationBatch;
+import ca.fieber.api.representations.location.LocationBatchResult;
+import ca.fieber.api.representations.location.LocationEventList;
+import ca.fieber.api.representations.location.LocationImportResult;
 import ca.fieber.api.representations.location.LocationList;
+import ca.fieber.api.representations.location.LocationTileList;
+import ca.fieber.api.resources.location.CachedLocationWriter;
+import ca.fieber.api.resources.location.LocationProjectionWriter;
 import ca.fieber.api.resources.location.LocationResource;
+import ca.fieber.api.resources.location.ResumedResponseResource;
 import com.google.inject.Provides;
 import com.google.inject.ProvisionException;
 import com.google.inject.Singleton;
@@ -28,9 +44,20 @@ class ResourcesModule extends JerseyServletModule {
     @Override
     protected void configureServlets() {
         bind(LocationResource.class);
+        bind(ResumedResponseResource.class);
         bind(NoSuchElementExceptionMapper.class);
         bind(IllegalArgumentExceptionMapper.class);
+        bind(VersionConflictExceptionMapper.class);
         bind(JAXBContextProvider.class);
+        bind(JAXBXmlProvider.class);
+        bind(LocationJsonProvider.class);
+        bind(LocationListJsonWriter.class);
+        bind(ErrorMessageJsonWriter.class);
+        bind(LocationProtobufProvider.class);
+        bind(LocationListProtobufProvider.class);
+        bind(ErrorMessageProtobufWriter.class);
+        bind(LocationProjectionWriter.class);
+        bind(CachedLocationWriter.class);
 
         serve("/*").with(GuiceContainer.class);
     }
@@ -43,7 +70,7 @@ class ResourcesModule extends JerseyServletModule {
     @Provides
     @RepresentationClasses        
     List<Class<?>> representationTypes() {
-        final Class<?>[] representationTypes = {Location.class, LocationList.class, ErrorMessage.class};
+        final Class<?>[] representationTypes = {Location.class, LocationList.class, LocationBatch.class, LocationBatchResult.class, LocationEventList.class, LocationTileList.class, LocationImportResult.class, ErrorMessage.class};
         return Arrays.asList(representationTypes);
     }
 
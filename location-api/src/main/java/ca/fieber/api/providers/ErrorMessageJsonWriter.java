@@ -0,0 +1,37 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.ErrorMessage;
+import com.google.inject.Singleton;
+import org.codehaus.jackson.JsonGenerator;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+
+/**
+ * Writes an ErrorMessage as JSON with a streaming generator.
+ *
+ * @author cfieber
+ */
+@Provider
+@Singleton
+@Produces(MediaType.APPLICATION_JSON)
+public class ErrorMessageJsonWriter extends JsonMessageBodyWriter<ErrorMessage> {
+
+    public ErrorMessageJsonWriter() {
+        super(ErrorMessage.class);
+    }
+
+    @Override
+    protected void write(JsonGenerator generator, ErrorMessage errorMessage) throws IOException {
+        if (errorMessage.getMessage() == null) {
+            // the natural notation renders an element without attributes or content as null
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartObject();
+        JsonRepresentations.writeStringField(generator, "message", errorMessage.getMessage());
+        generator.writeEndObject();
+    }
+}
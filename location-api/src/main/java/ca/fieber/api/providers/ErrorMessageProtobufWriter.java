@@ -0,0 +1,30 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.ErrorMessage;
+import com.google.inject.Singleton;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Writes an ErrorMessage as a protocol buffers ErrorMessage message.
+ *
+ * @author cfieber
+ * @see ProtobufRepresentations
+ */
+@Provider
+@Singleton
+@Produces(ProtobufRepresentations.APPLICATION_PROTOBUF)
+public class ErrorMessageProtobufWriter extends ProtobufMessageBodyWriter<ErrorMessage> {
+
+    public ErrorMessageProtobufWriter() {
+        super(ErrorMessage.class);
+    }
+
+    @Override
+    protected void write(ProtobufOutput output, ErrorMessage errorMessage) {
+        if (errorMessage.getMessage() != null) {
+            output.writeString(ProtobufRepresentations.ERROR_MESSAGE_MESSAGE, errorMessage.getMessage());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ca.fieber.api.providers;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+
+import javax.xml.bind.JAXBException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of objects that are costly to create and can only be used by one thread at a time, such as JAXB
+ * Marshallers.
+ *
+ * <p>An object is taken from the pool, or created if the pool is empty, and is returned once it has been used
+ * successfully. An object that failed is not returned, as it may be left in an unknown state. When the pool is full
+ * a returned object is dropped, so the pool keeps at most its size of idle objects however many threads use it at
+ * once. Objects taken from the pool and objects created are counted as hits and misses.</p>
+ *
+ * @param <T> the type of the pooled objects
+ * @author cfieber
+ */
+abstract class JAXBPool<T> {
+
+    private final BlockingQueue<T> idle;
+
+    /**
+     * A Counter of the objects taken from the pool.
+     */
+    private final CounterMetric hitCounter;
+
+    /**
+     * A Counter of the objects created because the pool was empty.
+     */
+    private final CounterMetric missCounter;
+
+    /**
+     * Constructs a new JAXBPool.
+     *
+     * @param size the maximum number of idle objects kept
+     * @param owner the class the metrics of the pool are named for
+     * @param name the name of the pool, prefixed to the names of its pool-hit and pool-miss metrics
+     */
+    JAXBPool(int size, Class<?> owner, String name) {
+        this.idle = new ArrayBlockingQueue<T>(size);
+        this.hitCounter = Metrics.newCounter(owner, name + "-pool-hit");
+        this.missCounter = Metrics.newCounter(owner, name + "-pool-miss");
+    }
+
+    /**
+     * Takes an object from the pool, creating one if the pool is empty.
+     *
+     * @return the object
+     * @throws JAXBException if the object can not be created
+     */
+    T acquire() throws JAXBException {
+        T pooled = idle.poll();
+        if (pooled != null) {
+            hitCounter.inc();
+            return pooled;
+        }
+        missCounter.inc();
+        return create();
+    }
+
+    /**
+     * Returns an object that was used successfully to the pool.
+     *
+     * @param pooled an object acquired from this pool
+     */
+    void release(T pooled) {
+        idle.offer(pooled);
+    }
+
+    /**
+     * Creates a new object for the pool.
+     *
+     * @return the object
+     * @throws JAXBException if the object can not be created
+     */
+    protected abstract T create() throws JAXBException;
+}
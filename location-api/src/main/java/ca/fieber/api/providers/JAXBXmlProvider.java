@@ -0,0 +1,182 @@
+package ca.fieber.api.providers;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+/**
+ * Reads and writes JAXB representations as XML with pooled Marshallers and Unmarshallers.
+ *
+ * <p>This takes the place of the JAXB XML providers built into Jersey, which create a Marshaller or an Unmarshaller
+ * and a SAX parser for every entity. Their behaviour is kept: entities are written in the charset of the media type,
+ * UTF-8 by default, and read with a namespace aware SAX parser that does not resolve external entities and has the
+ * JAXP secure processing feature enabled. Malformed entities are answered with 400 Bad Request.</p>
+ *
+ * <p>Pool hits and misses are reported as the marshaller-pool-hit, marshaller-pool-miss, unmarshaller-pool-hit and
+ * unmarshaller-pool-miss metrics of this class.</p>
+ *
+ * @author cfieber
+ */
+@Provider
+@Singleton
+@Produces({MediaType.APPLICATION_XML, MediaType.TEXT_XML, "application/*+xml"})
+@Consumes({MediaType.APPLICATION_XML, MediaType.TEXT_XML, "application/*+xml"})
+public class JAXBXmlProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+    private static final String UTF8 = "UTF-8";
+
+    /**
+     * An Unmarshaller with the SAX parser it reads from, used together by one thread at a time.
+     */
+    private static final class XmlUnmarshaller {
+        private final Unmarshaller unmarshaller;
+        private final XMLReader reader;
+
+        XmlUnmarshaller(Unmarshaller unmarshaller, XMLReader reader) {
+            this.unmarshaller = unmarshaller;
+            this.reader = reader;
+        }
+    }
+
+    private final JAXBPool<Marshaller> marshallers;
+
+    private final JAXBPool<XmlUnmarshaller> unmarshallers;
+
+    /**
+     * Constructs a new JAXBXmlProvider.
+     *
+     * @param context the JAXBContext of the representations
+     * @param poolSize the maximum number of idle Marshallers and of idle Unmarshallers kept
+     */
+    @Inject
+    public JAXBXmlProvider(final JAXBContext context, @Named("location.xml-pool-size") int poolSize) {
+        final SAXParserFactory parserFactory = parserFactory();
+        this.marshallers = new JAXBPool<Marshaller>(poolSize, JAXBXmlProvider.class, "marshaller") {
+            @Override
+            protected Marshaller create() throws JAXBException {
+                return context.createMarshaller();
+            }
+        };
+        this.unmarshallers = new JAXBPool<XmlUnmarshaller>(poolSize, JAXBXmlProvider.class, "unmarshaller") {
+            @Override
+            protected XmlUnmarshaller create() throws JAXBException {
+                try {
+                    return new XmlUnmarshaller(context.createUnmarshaller(), parserFactory.newSAXParser().getXMLReader());
+                } catch (ParserConfigurationException pce) {
+                    throw new JAXBException(pce);
+                } catch (SAXException saxe) {
+                    throw new JAXBException(saxe);
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type.isAnnotationPresent(XmlRootElement.class) && isXml(mediaType);
+    }
+
+    @Override
+    public long getSize(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream output) throws IOException, WebApplicationException {
+        String charset = mediaType.getParameters().get("charset");
+        try {
+            Marshaller marshaller = marshallers.acquire();
+            // a pooled Marshaller keeps the encoding of the last entity it wrote
+            marshaller.setProperty(Marshaller.JAXB_ENCODING, charset == null ? UTF8 : Charset.forName(charset).name());
+            marshaller.marshal(value, output);
+            marshallers.release(marshaller);
+        } catch (JAXBException jaxbe) {
+            throw new WebApplicationException(jaxbe, Response.Status.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return (type.isAnnotationPresent(XmlRootElement.class) || type.isAnnotationPresent(XmlType.class)) && isXml(mediaType);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                           MultivaluedMap<String, String> httpHeaders, InputStream input) throws IOException, WebApplicationException {
+        try {
+            XmlUnmarshaller xmlUnmarshaller = unmarshallers.acquire();
+            SAXSource source = new SAXSource(xmlUnmarshaller.reader, new InputSource(input));
+            Object value = type.isAnnotationPresent(XmlRootElement.class)
+                    ? xmlUnmarshaller.unmarshaller.unmarshal(source)
+                    : xmlUnmarshaller.unmarshaller.unmarshal(source, type).getValue();
+            unmarshallers.release(xmlUnmarshaller);
+            return value;
+        } catch (UnmarshalException ue) {
+            throw new WebApplicationException(ue, Response.Status.BAD_REQUEST);
+        } catch (JAXBException jaxbe) {
+            throw new WebApplicationException(jaxbe, Response.Status.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Determines whether a media type is XML, that is application/xml, text/xml or a subtype ending in +xml.
+     *
+     * @param mediaType the media type
+     * @return true iff the media type is XML
+     */
+    private static boolean isXml(MediaType mediaType) {
+        String subtype = mediaType.getSubtype();
+        return subtype.equalsIgnoreCase("xml") ? mediaType.getType().equalsIgnoreCase("application") || mediaType.getType().equalsIgnoreCase("text")
+                : subtype.toLowerCase().endsWith("+xml");
+    }
+
+    /**
+     * Creates the factory of the SAX parsers that entities are read with, configured as Jersey configures its own.
+     *
+     * @return the SAXParserFactory
+     */
+    private static SAXParserFactory parserFactory() {
+        SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+        parserFactory.setNamespaceAware(true);
+        try {
+            parserFactory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            parserFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (ParserConfigurationException pce) {
+            throw new IllegalStateException("Security features for the SAX parser could not be enabled", pce);
+        } catch (SAXException saxe) {
+            throw new IllegalStateException("Security features for the SAX parser could not be enabled", saxe);
+        }
+        return parserFactory;
+    }
+}
@@ -0,0 +1,64 @@
+package ca.fieber.api.providers;
+
+import org.codehaus.jackson.JsonGenerator;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * A MessageBodyWriter that writes a representation as JSON with a streaming generator, in place of the JAXB
+ * provider.
+ *
+ * @param <T> the type of the representation
+ * @author cfieber
+ */
+public abstract class JsonMessageBodyWriter<T> implements MessageBodyWriter<T> {
+
+    /**
+     * The type of the representation.
+     */
+    private final Class<T> type;
+
+    /**
+     * Constructs a new JsonMessageBodyWriter.
+     *
+     * @param type the type of the representation, subclasses of it are left to the JAXB provider
+     */
+    protected JsonMessageBodyWriter(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return this.type == type && mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE);
+    }
+
+    @Override
+    public long getSize(T value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(T value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream output) throws IOException, WebApplicationException {
+        JsonGenerator generator = JsonRepresentations.createGenerator(output, mediaType);
+        write(generator, value);
+        // flushes without closing the entity stream, and returns the generator's buffers for reuse
+        generator.close();
+    }
+
+    /**
+     * Writes the representation.
+     *
+     * @param generator the generator
+     * @param value the representation
+     * @throws IOException if the representation can not be written
+     */
+    protected abstract void write(JsonGenerator generator, T value) throws IOException;
+}
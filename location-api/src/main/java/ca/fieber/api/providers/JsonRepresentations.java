@@ -0,0 +1,152 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.location.Location;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.impl.Utf8Generator;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Reads and writes representations as JSON with a streaming parser and generator, in the natural JSON notation that
+ * the JAXB providers render them in.
+ *
+ * <p>The JsonFactory is shared, and generators and parsers return their buffers to it for reuse by the thread when
+ * they are closed, so creating one per request costs very little.</p>
+ *
+ * @author cfieber
+ */
+public final class JsonRepresentations {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final JsonFactory FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private JsonRepresentations() {
+    }
+
+    /**
+     * Creates a generator writing to a response entity.
+     *
+     * @param output the entity stream
+     * @param mediaType the media type of the entity, whose charset parameter if any is used, otherwise UTF-8
+     * @return the generator, which must be closed once written, leaving the entity stream open
+     * @throws IOException if the generator can not be created
+     */
+    public static JsonGenerator createGenerator(OutputStream output, MediaType mediaType) throws IOException {
+        Charset charset = charset(mediaType);
+        if (charset == null || charset.equals(UTF8)) {
+            return FACTORY.createJsonGenerator(output, JsonEncoding.UTF8);
+        }
+        return FACTORY.createJsonGenerator(new OutputStreamWriter(output, charset));
+    }
+
+    /**
+     * Creates a parser reading a request entity.
+     *
+     * @param input the entity stream
+     * @param mediaType the media type of the entity, whose charset parameter if any is used, otherwise the encoding
+     *                  is detected
+     * @return the parser, which must be closed once read, leaving the entity stream open
+     * @throws IOException if the parser can not be created
+     */
+    public static JsonParser createParser(InputStream input, MediaType mediaType) throws IOException {
+        Charset charset = charset(mediaType);
+        if (charset == null) {
+            return FACTORY.createJsonParser(input);
+        }
+        return FACTORY.createJsonParser(new InputStreamReader(input, charset));
+    }
+
+    /**
+     * Writes a Location object, leaving out its id and name if they are null.
+     *
+     * @param generator the generator
+     * @param location the Location
+     * @throws IOException if the Location can not be written
+     */
+    public static void writeLocation(JsonGenerator generator, Location location) throws IOException {
+        generator.writeStartObject();
+        if (location.getId() != null) {
+            writeStringField(generator, "id", location.getId());
+        }
+        if (location.getName() != null) {
+            writeStringField(generator, "name", location.getName());
+        }
+        writeDoubleField(generator, "longitude", location.getLongitude());
+        writeDoubleField(generator, "latitude", location.getLatitude());
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes a string field.
+     *
+     * <p>The UTF-8 generator escapes characters outside the Basic Multilingual Plane, where JAXB writes them as is,
+     * so strings holding any are encoded first and written as UTF-8.</p>
+     *
+     * @param generator the generator
+     * @param name the name of the field
+     * @param value the value of the field
+     * @throws IOException if the field can not be written
+     */
+    public static void writeStringField(JsonGenerator generator, String name, String value) throws IOException {
+        generator.writeFieldName(name);
+        if (generator instanceof Utf8Generator && hasSurrogates(value)) {
+            byte[] encoded = value.getBytes(UTF8);
+            generator.writeUTF8String(encoded, 0, encoded.length);
+        } else {
+            generator.writeString(value);
+        }
+    }
+
+    /**
+     * Writes a double field, formatted as JAXB formats an xs:double.
+     *
+     * @param generator the generator
+     * @param name the name of the field
+     * @param value the value of the field
+     * @throws IOException if the field can not be written
+     */
+    public static void writeDoubleField(JsonGenerator generator, String name, double value) throws IOException {
+        generator.writeFieldName(name);
+        generator.writeNumber(printDouble(value));
+    }
+
+    /**
+     * Formats a double as JAXB formats an xs:double, as Double.toString does except for infinities.
+     *
+     * @param value the double
+     * @return the formatted double
+     */
+    public static String printDouble(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "INF" : "-INF";
+        }
+        return Double.toString(value);
+    }
+
+    private static boolean hasSurrogates(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch >= Character.MIN_SURROGATE && ch <= Character.MAX_SURROGATE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Charset charset(MediaType mediaType) {
+        String charset = mediaType == null ? null : mediaType.getParameters().get("charset");
+        return charset == null ? null : Charset.forName(charset);
+    }
+}
@@ -0,0 +1,133 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.location.Location;
+import com.google.inject.Singleton;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Reads and writes a Location as JSON with a streaming parser and generator.
+ *
+ * <p>A Location object is read with its fields in any order. Unknown fields are ignored, and a missing longitude or
+ * latitude is read as 0, as the JAXB provider reads them. Coordinates may be numbers or strings holding numbers.</p>
+ *
+ * @author cfieber
+ */
+@Provider
+@Singleton
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class LocationJsonProvider extends JsonMessageBodyWriter<Location> implements MessageBodyReader<Location> {
+
+    public LocationJsonProvider() {
+        super(Location.class);
+    }
+
+    @Override
+    protected void write(JsonGenerator generator, Location location) throws IOException {
+        JsonRepresentations.writeLocation(generator, location);
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == Location.class && mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE);
+    }
+
+    /**
+     * Reads a Location.
+     *
+     * @throws IllegalArgumentException if the entity is not a JSON Location object
+     */
+    @Override
+    public Location readFrom(Class<Location> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                             MultivaluedMap<String, String> httpHeaders, InputStream input)
+            throws IOException, WebApplicationException, IllegalArgumentException {
+        JsonParser parser = JsonRepresentations.createParser(input, mediaType);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Malformed location: expected a location object");
+            }
+            return readLocation(parser);
+        } catch (JsonProcessingException jpe) {
+            throw new IllegalArgumentException("Malformed location: " + jpe.getMessage(), jpe);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Reads the fields of a Location object, the parser must be positioned at its start and is left at its end.
+     *
+     * @param parser the parser
+     * @return the Location
+     * @throws IllegalArgumentException if a field of the Location has a value of the wrong type
+     * @throws IOException if the input can not be read or is malformed
+     */
+    private static Location readLocation(JsonParser parser) throws IllegalArgumentException, IOException {
+        String id = null;
+        String name = null;
+        double longitude = 0;
+        double latitude = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("id")) {
+                id = text(parser, value, field);
+            } else if (field.equals("name")) {
+                name = text(parser, value, field);
+            } else if (field.equals("longitude")) {
+                longitude = coordinate(parser, value, field);
+            } else if (field.equals("latitude")) {
+                latitude = coordinate(parser, value, field);
+            }
+            parser.skipChildren();
+        }
+        return new Location(id, name, longitude, latitude);
+    }
+
+    /**
+     * Reads a text field, which may be any scalar value.
+     *
+     * @return the text, or null if the value is null
+     */
+    private static String text(JsonParser parser, JsonToken value, String field) throws IllegalArgumentException, IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!value.isScalarValue()) {
+            throw new IllegalArgumentException("Invalid " + field + ": expected a string");
+        }
+        return parser.getText();
+    }
+
+    /**
+     * Reads a coordinate, which may be a number or a string holding one.
+     */
+    private static double coordinate(JsonParser parser, JsonToken value, String field) throws IllegalArgumentException, IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDoubleValue();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            try {
+                return Double.parseDouble(parser.getText().trim());
+            } catch (NumberFormatException nfe) {
+                // fall through
+            }
+        }
+        throw new IllegalArgumentException("Invalid " + field + ": " + parser.getText());
+    }
+}
@@ -0,0 +1,51 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationList;
+import com.google.inject.Singleton;
+import org.codehaus.jackson.JsonGenerator;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+
+/**
+ * Writes a LocationList as JSON with a streaming generator.
+ *
+ * <p>The natural notation renders the wrapped location elements as a single object in the locations array, with a
+ * location field per Location, and an empty list as an array holding null. Both are kept so that clients see the
+ * same bytes as before.</p>
+ *
+ * @author cfieber
+ */
+@Provider
+@Singleton
+@Produces(MediaType.APPLICATION_JSON)
+public class LocationListJsonWriter extends JsonMessageBodyWriter<LocationList> {
+
+    public LocationListJsonWriter() {
+        super(LocationList.class);
+    }
+
+    @Override
+    protected void write(JsonGenerator generator, LocationList list) throws IOException {
+        generator.writeStartObject();
+        if (list.getNextPage() != null) {
+            JsonRepresentations.writeStringField(generator, "next-page", list.getNextPage().toString());
+        }
+        generator.writeArrayFieldStart("locations");
+        if (list.getLocations().isEmpty()) {
+            generator.writeNull();
+        } else {
+            generator.writeStartObject();
+            for (Location location : list.getLocations()) {
+                generator.writeFieldName("location");
+                JsonRepresentations.writeLocation(generator, location);
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+}
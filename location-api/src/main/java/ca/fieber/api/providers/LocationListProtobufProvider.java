@@ -0,0 +1,83 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationList;
+import com.google.inject.Singleton;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes a LocationList as a protocol buffers LocationList message.
+ *
+ * @author cfieber
+ * @see ProtobufRepresentations
+ */
+@Provider
+@Singleton
+@Produces(ProtobufRepresentations.APPLICATION_PROTOBUF)
+@Consumes(ProtobufRepresentations.APPLICATION_PROTOBUF)
+public class LocationListProtobufProvider extends ProtobufMessageBodyWriter<LocationList> implements MessageBodyReader<LocationList> {
+
+    public LocationListProtobufProvider() {
+        super(LocationList.class);
+    }
+
+    @Override
+    protected void write(ProtobufOutput output, LocationList list) {
+        for (Location location : list.getLocations()) {
+            int mark = output.beginMessage(ProtobufRepresentations.LOCATION_LIST_LOCATIONS);
+            ProtobufRepresentations.writeLocation(output, location);
+            output.endMessage(mark);
+        }
+        if (list.getNextPage() != null) {
+            output.writeString(ProtobufRepresentations.LOCATION_LIST_NEXT_PAGE, list.getNextPage().toString());
+        }
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == LocationList.class && mediaType.isCompatible(APPLICATION_PROTOBUF_TYPE);
+    }
+
+    /**
+     * Reads a LocationList.
+     *
+     * @throws IllegalArgumentException if the entity is not a LocationList message
+     */
+    @Override
+    public LocationList readFrom(Class<LocationList> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                                 MultivaluedMap<String, String> httpHeaders, InputStream input)
+            throws IOException, WebApplicationException, IllegalArgumentException {
+        ProtobufInput message = new ProtobufInput(input);
+        List<Location> locations = new ArrayList<Location>();
+        URI nextPage = null;
+        for (int field = message.readField(); field != 0; field = message.readField()) {
+            switch (field) {
+                case ProtobufRepresentations.LOCATION_LIST_LOCATIONS:
+                    long outer = message.beginMessage();
+                    locations.add(ProtobufRepresentations.readLocation(message));
+                    message.endMessage(outer);
+                    break;
+                case ProtobufRepresentations.LOCATION_LIST_NEXT_PAGE:
+                    nextPage = URI.create(message.readString());
+                    break;
+                default:
+                    message.skipField();
+            }
+        }
+        return new LocationList(locations, nextPage);
+    }
+}
@@ -0,0 +1,55 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.location.Location;
+import com.google.inject.Singleton;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Reads and writes a Location as a protocol buffers Location message.
+ *
+ * @author cfieber
+ * @see ProtobufRepresentations
+ */
+@Provider
+@Singleton
+@Produces(ProtobufRepresentations.APPLICATION_PROTOBUF)
+@Consumes(ProtobufRepresentations.APPLICATION_PROTOBUF)
+public class LocationProtobufProvider extends ProtobufMessageBodyWriter<Location> implements MessageBodyReader<Location> {
+
+    public LocationProtobufProvider() {
+        super(Location.class);
+    }
+
+    @Override
+    protected void write(ProtobufOutput output, Location location) {
+        ProtobufRepresentations.writeLocation(output, location);
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == Location.class && mediaType.isCompatible(APPLICATION_PROTOBUF_TYPE);
+    }
+
+    /**
+     * Reads a Location.
+     *
+     * @throws IllegalArgumentException if the entity is not a Location message
+     */
+    @Override
+    public Location readFrom(Class<Location> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                             MultivaluedMap<String, String> httpHeaders, InputStream input)
+            throws IOException, WebApplicationException, IllegalArgumentException {
+        return ProtobufRepresentations.readLocation(new ProtobufInput(input));
+    }
+}
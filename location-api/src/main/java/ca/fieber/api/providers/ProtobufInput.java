@@ -0,0 +1,231 @@
+package ca.fieber.api.providers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Decodes a protocol buffers message from a stream, field by field.
+ *
+ * <p>Embedded messages are read by limiting the input to their length while their fields are read. Malformed input
+ * is reported as an IllegalArgumentException.</p>
+ *
+ * @author cfieber
+ */
+final class ProtobufInput {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The longest string read, so that a corrupt length can not exhaust memory.
+     */
+    private static final int MAX_STRING_LENGTH = 1 << 20;
+
+    private final InputStream input;
+    private final byte[] buffer = new byte[512];
+    private int position;
+    private int end;
+
+    /**
+     * The number of bytes read from the stream before the buffer.
+     */
+    private long offset;
+
+    /**
+     * The offset of the end of the current message.
+     */
+    private long limit = Long.MAX_VALUE;
+
+    /**
+     * The wire type of the tag last read.
+     */
+    private int wireType;
+
+    ProtobufInput(InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Reads the tag of the next field of the current message.
+     *
+     * @return the field number, 0 at the end of the message
+     * @throws IllegalArgumentException if the tag is malformed
+     * @throws IOException if the input can not be read
+     */
+    int readField() throws IllegalArgumentException, IOException {
+        if (offset + position == limit || !fill()) {
+            if (limit != Long.MAX_VALUE && offset + position != limit) {
+                throw new IllegalArgumentException("Malformed protobuf: truncated message");
+            }
+            return 0;
+        }
+        long tag = readVarint();
+        int field = (int) (tag >>> 3);
+        if (field <= 0 || tag >>> 32 != 0) {
+            throw new IllegalArgumentException("Malformed protobuf: invalid tag " + tag);
+        }
+        wireType = (int) (tag & 7);
+        return field;
+    }
+
+    /**
+     * Reads a string field.
+     *
+     * @return the string
+     * @throws IllegalArgumentException if the field is not a string
+     */
+    String readString() throws IllegalArgumentException, IOException {
+        int length = readLength();
+        if (length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("Malformed protobuf: string of " + length + " bytes");
+        }
+        if (end - position >= length) {
+            String value = new String(buffer, position, length, UTF8);
+            position += length;
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        for (int read = 0; read < length; ) {
+            require();
+            int chunk = Math.min(length - read, end - position);
+            System.arraycopy(buffer, position, bytes, read, chunk);
+            position += chunk;
+            read += chunk;
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Reads a double field.
+     *
+     * @return the double
+     * @throws IllegalArgumentException if the field is not a double
+     */
+    double readDouble() throws IllegalArgumentException, IOException {
+        if (wireType != ProtobufOutput.WIRE_FIXED64) {
+            throw new IllegalArgumentException("Malformed protobuf: expected a double");
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits |= (long) (readByte() & 0xff) << (8 * i);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Begins reading an embedded message field, whose fields are read next until readField returns 0.
+     *
+     * @return the limit to end the message with
+     * @throws IllegalArgumentException if the field is not an embedded message
+     */
+    long beginMessage() throws IllegalArgumentException, IOException {
+        int length = readLength();
+        long outer = limit;
+        limit = offset + position + length;
+        if (limit > outer) {
+            throw new IllegalArgumentException("Malformed protobuf: embedded message overruns its parent");
+        }
+        return outer;
+    }
+
+    /**
+     * Ends reading an embedded message field.
+     *
+     * @param outer the limit the message was begun with
+     */
+    void endMessage(long outer) {
+        limit = outer;
+    }
+
+    /**
+     * Skips the field whose tag was last read.
+     *
+     * @throws IllegalArgumentException if the field has an unknown wire type
+     */
+    void skipField() throws IllegalArgumentException, IOException {
+        switch (wireType) {
+            case ProtobufOutput.WIRE_VARINT:
+                readVarint();
+                break;
+            case ProtobufOutput.WIRE_FIXED64:
+                skip(8);
+                break;
+            case ProtobufOutput.WIRE_LENGTH_DELIMITED:
+                skip(readLength());
+                break;
+            case ProtobufOutput.WIRE_FIXED32:
+                skip(4);
+                break;
+            default:
+                throw new IllegalArgumentException("Malformed protobuf: unsupported wire type " + wireType);
+        }
+    }
+
+    private int readLength() throws IllegalArgumentException, IOException {
+        if (wireType != ProtobufOutput.WIRE_LENGTH_DELIMITED) {
+            throw new IllegalArgumentException("Malformed protobuf: expected a length delimited field");
+        }
+        long length = readVarint();
+        if (length > Integer.MAX_VALUE || length > limit - offset - position) {
+            throw new IllegalArgumentException("Malformed protobuf: field overruns its message");
+        }
+        return (int) length;
+    }
+
+    private long readVarint() throws IllegalArgumentException, IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed protobuf: varint too long");
+    }
+
+    private void skip(int bytes) throws IOException {
+        while (bytes > 0) {
+            require();
+            int chunk = Math.min(bytes, end - position);
+            position += chunk;
+            bytes -= chunk;
+        }
+    }
+
+    private byte readByte() throws IOException {
+        require();
+        return buffer[position++];
+    }
+
+    /**
+     * Ensures that there is at least one byte in the buffer before the current limit.
+     *
+     * @throws IllegalArgumentException if the input or the current message ends
+     */
+    private void require() throws IllegalArgumentException, IOException {
+        if (offset + position >= limit || !fill()) {
+            throw new IllegalArgumentException("Malformed protobuf: truncated message");
+        }
+    }
+
+    /**
+     * Reads more input into the buffer if it is empty.
+     *
+     * @return false if the input has ended
+     */
+    private boolean fill() throws IOException {
+        if (position < end) {
+            return true;
+        }
+        offset += end;
+        position = 0;
+        end = 0;
+        int read = input.read(buffer);
+        if (read <= 0) {
+            return false;
+        }
+        end = read;
+        return true;
+    }
+}
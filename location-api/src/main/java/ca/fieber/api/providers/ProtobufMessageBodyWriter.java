@@ -0,0 +1,62 @@
+package ca.fieber.api.providers;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * A MessageBodyWriter that writes a representation as a protocol buffers message.
+ *
+ * @param <T> the type of the representation
+ * @author cfieber
+ * @see ProtobufRepresentations
+ */
+public abstract class ProtobufMessageBodyWriter<T> implements MessageBodyWriter<T> {
+
+    static final MediaType APPLICATION_PROTOBUF_TYPE = MediaType.valueOf(ProtobufRepresentations.APPLICATION_PROTOBUF);
+
+    /**
+     * The type of the representation.
+     */
+    private final Class<T> type;
+
+    /**
+     * Constructs a new ProtobufMessageBodyWriter.
+     *
+     * @param type the type of the representation
+     */
+    protected ProtobufMessageBodyWriter(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return this.type == type && mediaType.isCompatible(APPLICATION_PROTOBUF_TYPE);
+    }
+
+    @Override
+    public long getSize(T value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(T value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream output) throws IOException, WebApplicationException {
+        ProtobufOutput message = new ProtobufOutput();
+        write(message, value);
+        message.writeTo(output);
+    }
+
+    /**
+     * Writes the fields of the representation.
+     *
+     * @param output the output
+     * @param value the representation
+     */
+    protected abstract void write(ProtobufOutput output, T value);
+}
@@ -0,0 +1,159 @@
+package ca.fieber.api.providers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encodes a protocol buffers message into memory, field by field, to be written out once complete.
+ *
+ * <p>Strings and embedded messages are length delimited. Rather than sizing them up front, a byte is reserved for
+ * the length when one is begun and the content is moved along in the rare case that the length needs more than one
+ * byte once it ends.</p>
+ *
+ * @author cfieber
+ */
+public final class ProtobufOutput {
+
+    static final int WIRE_VARINT = 0;
+    static final int WIRE_FIXED64 = 1;
+    static final int WIRE_LENGTH_DELIMITED = 2;
+    static final int WIRE_FIXED32 = 5;
+
+    private byte[] buffer = new byte[256];
+    private int position;
+
+    /**
+     * Writes a string field, encoded as UTF-8.
+     *
+     * @param field the field number
+     * @param value the string
+     */
+    public void writeString(int field, String value) {
+        int mark = beginLengthDelimited(field);
+        ensureCapacity(value.length() * 3);
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch < 0x80) {
+                buffer[position++] = (byte) ch;
+            } else if (ch < 0x800) {
+                buffer[position++] = (byte) (0xc0 | ch >> 6);
+                buffer[position++] = (byte) (0x80 | ch & 0x3f);
+            } else if (Character.isHighSurrogate(ch) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(ch, value.charAt(++i));
+                buffer[position++] = (byte) (0xf0 | codePoint >> 18);
+                buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                buffer[position++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (ch >= Character.MIN_SURROGATE && ch <= Character.MAX_SURROGATE) {
+                // an unpaired surrogate, replaced as String.getBytes replaces it
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xe0 | ch >> 12);
+                buffer[position++] = (byte) (0x80 | ch >> 6 & 0x3f);
+                buffer[position++] = (byte) (0x80 | ch & 0x3f);
+            }
+        }
+        endLengthDelimited(mark);
+    }
+
+    /**
+     * Writes a double field.
+     *
+     * @param field the field number
+     * @param value the double
+     */
+    public void writeDouble(int field, double value) {
+        writeTag(field, WIRE_FIXED64);
+        ensureCapacity(8);
+        long bits = Double.doubleToLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            buffer[position++] = (byte) (bits >>> (8 * i));
+        }
+    }
+
+    /**
+     * Begins an embedded message field, whose fields are written next.
+     *
+     * @param field the field number
+     * @return the mark to end the message with
+     */
+    public int beginMessage(int field) {
+        return beginLengthDelimited(field);
+    }
+
+    /**
+     * Ends an embedded message field.
+     *
+     * @param mark the mark the message was begun with
+     */
+    public void endMessage(int mark) {
+        endLengthDelimited(mark);
+    }
+
+    /**
+     * Writes the encoded message.
+     *
+     * @param output the stream to write to
+     * @throws IOException if the message can not be written
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(buffer, 0, position);
+    }
+
+    /**
+     * Gets the length of the encoded message so far.
+     *
+     * @return the length in bytes
+     */
+    public int size() {
+        return position;
+    }
+
+    private void writeTag(int field, int wireType) {
+        writeVarint(field << 3 | wireType);
+    }
+
+    private void writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7f) != 0) {
+            buffer[position++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private int beginLengthDelimited(int field) {
+        writeTag(field, WIRE_LENGTH_DELIMITED);
+        ensureCapacity(1);
+        return position++;
+    }
+
+    private void endLengthDelimited(int mark) {
+        int length = position - mark - 1;
+        int lengthSize = varintSize(length);
+        if (lengthSize > 1) {
+            ensureCapacity(lengthSize - 1);
+            System.arraycopy(buffer, mark + 1, buffer, mark + lengthSize, length);
+        }
+        int end = position + lengthSize - 1;
+        position = mark;
+        writeVarint(length);
+        position = end;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (position + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.location.Location;
+
+import java.io.IOException;
+
+/**
+ * Encodes and decodes representations as protocol buffers messages, following the schema in location.proto.
+ *
+ * <pre>
+ * message Location {
+ *   optional string id = 1;
+ *   optional string name = 2;
+ *   optional double longitude = 3;
+ *   optional double latitude = 4;
+ * }
+ *
+ * message LocationList {
+ *   repeated Location locations = 1;
+ *   optional string next_page = 2;
+ * }
+ *
+ * message ErrorMessage {
+ *   optional string message = 1;
+ * }
+ * </pre>
+ *
+ * @author cfieber
+ */
+public final class ProtobufRepresentations {
+
+    /**
+     * The media type of protocol buffers messages.
+     */
+    public static final String APPLICATION_PROTOBUF = "application/x-protobuf";
+
+    public static final int LOCATION_ID = 1;
+    public static final int LOCATION_NAME = 2;
+    public static final int LOCATION_LONGITUDE = 3;
+    public static final int LOCATION_LATITUDE = 4;
+
+    public static final int LOCATION_LIST_LOCATIONS = 1;
+    public static final int LOCATION_LIST_NEXT_PAGE = 2;
+
+    public static final int ERROR_MESSAGE_MESSAGE = 1;
+
+    private ProtobufRepresentations() {
+    }
+
+    /**
+     * Writes the fields of a Location message, leaving out its id and name if they are null.
+     *
+     * @param output the output
+     * @param location the Location
+     */
+    public static void writeLocation(ProtobufOutput output, Location location) {
+        if (location.getId() != null) {
+            output.writeString(LOCATION_ID, location.getId());
+        }
+        if (location.getName() != null) {
+            output.writeString(LOCATION_NAME, location.getName());
+        }
+        output.writeDouble(LOCATION_LONGITUDE, location.getLongitude());
+        output.writeDouble(LOCATION_LATITUDE, location.getLatitude());
+    }
+
+    /**
+     * Reads the fields of a Location message up to the end of the current message. Unknown fields are skipped and
+     * a missing longitude or latitude is read as 0.
+     *
+     * @param input the input
+     * @return the Location
+     * @throws IllegalArgumentException if the message is malformed
+     * @throws IOException if the input can not be read
+     */
+    static Location readLocation(ProtobufInput input) throws IllegalArgumentException, IOException {
+        String id = null;
+        String name = null;
+        double longitude = 0;
+        double latitude = 0;
+        for (int field = input.readField(); field != 0; field = input.readField()) {
+            switch (field) {
+                case LOCATION_ID:
+                    id = input.readString();
+                    break;
+                case LOCATION_NAME:
+                    name = input.readString();
+                    break;
+                case LOCATION_LONGITUDE:
+                    longitude = input.readDouble();
+                    break;
+                case LOCATION_LATITUDE:
+                    latitude = input.readDouble();
+                    break;
+                default:
+                    input.skipField();
+            }
+        }
+        return new Location(id, name, longitude, latitude);
+    }
+}
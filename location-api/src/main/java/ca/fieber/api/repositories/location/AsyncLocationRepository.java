@@ -0,0 +1,166 @@
+package ca.fieber.api.repositories.location;
+
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationTile;
+
+import java.util.List;
+
+/**
+ * Asynchronous interface for a repository of Locations.
+ *
+ * <p>Every method starts the equivalent LocationRepository call and returns without waiting for it, the result or
+ * failure of the call is delivered through the returned RepositoryFuture. This lets callers such as request
+ * handlers release their thread while a slow repository does its I/O.</p>
+ *
+ * @author cfieber
+ * @see LocationRepository
+ */
+public interface AsyncLocationRepository {
+
+    /**
+     * Pins the current contents of the repository.
+     *
+     * @return the id of the snapshot, or NO_SNAPSHOT
+     * @see LocationRepository#pinSnapshot()
+     */
+    RepositoryFuture<Long> pinSnapshot();
+
+    /**
+     * Retrieves Locations from a snapshot of the repository.
+     *
+     * @param startIndex the index (0 based) into the snapshot from which to retrieve locations.
+     * @param pageSize the maximum number of Locations to return
+     * @param snapshot the id of a snapshot returned by pinSnapshot, or NO_SNAPSHOT
+     * @return the Locations
+     * @see LocationRepository#list(int, int, long)
+     */
+    RepositoryFuture<List<Location>> list(int startIndex, int pageSize, long snapshot);
+
+    /**
+     * Retrieves Locations from a snapshot of the repository in id order, starting with the first Location after the
+     * specified id.
+     *
+     * @param afterId the id after which to retrieve locations
+     * @param pageSize the maximum number of Locations to return
+     * @param snapshot the id of a snapshot returned by pinSnapshot, or NO_SNAPSHOT
+     * @return the Locations
+     * @see LocationRepository#listAfter(String, int, long)
+     */
+    RepositoryFuture<List<Location>> listAfter(String afterId, int pageSize, long snapshot);
+
+    /**
+     * Finds Locations inside a bounding box.
+     *
+     * @param minLongitude the western edge of the box in decimal degrees
+     * @param minLatitude the southern edge of the box in decimal degrees
+     * @param maxLongitude the eastern edge of the box in decimal degrees
+     * @param maxLatitude the northern edge of the box in decimal degrees
+     * @param limit the maximum number of Locations to return
+     * @return the Locations inside the box
+     * @see LocationRepository#findWithin(double, double, double, double, int)
+     */
+    RepositoryFuture<List<Location>> findWithin(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int limit);
+
+    /**
+     * Finds the Locations nearest to a point by great circle distance, nearest first.
+     *
+     * @param longitude the longitude of the point in decimal degrees
+     * @param latitude the latitude of the point in decimal degrees
+     * @param count the maximum number of Locations to return
+     * @param maxDistanceKm the maximum distance in kilometres of returned Locations from the point
+     * @return the nearest Locations
+     * @see LocationRepository#findNearest(double, double, int, double)
+     */
+    RepositoryFuture<List<Location>> findNearest(double longitude, double latitude, int count, double maxDistanceKm);
+
+    /**
+     * Counts the Locations in each map tile at a zoom level that overlaps a bounding box.
+     *
+     * @param minLongitude the western edge of the box in decimal degrees
+     * @param minLatitude the southern edge of the box in decimal degrees
+     * @param maxLongitude the eastern edge of the box in decimal degrees
+     * @param maxLatitude the northern edge of the box in decimal degrees
+     * @param zoom the zoom level
+     * @return the tiles holding Locations
+     * @see LocationRepository#countTiles(double, double, double, double, int)
+     */
+    RepositoryFuture<List<LocationTile>> countTiles(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int zoom);
+
+    /**
+     * Searches for Locations by name, best matches first.
+     *
+     * @param query the query
+     * @param startIndex the index (0 based) into the matches from which to retrieve locations
+     * @param pageSize the maximum number of Locations to return
+     * @return the matching Locations
+     * @see LocationRepository#search(String, int, int)
+     */
+    RepositoryFuture<List<Location>> search(String query, int startIndex, int pageSize);
+
+    /**
+     * Retrieves a Location by id.
+     *
+     * @param id the id of the Location
+     * @return the Location for the id
+     * @see LocationRepository#get(String)
+     */
+    RepositoryFuture<Location> get(String id);
+
+    /**
+     * Updates the Location if it is still at the expected version.
+     *
+     * @param location the Location to update
+     * @param expectedVersion the version the Location must currently be at, or LocationMutation.ANY_VERSION
+     * @return the updated Location with its new version
+     * @see LocationRepository#update(Location, long)
+     */
+    RepositoryFuture<Location> update(Location location, long expectedVersion);
+
+    /**
+     * Removes a Location by id if it is still at the expected version.
+     *
+     * @param id the id of the Location
+     * @param expectedVersion the version the Location must currently be at, or LocationMutation.ANY_VERSION
+     * @return a future that completes when the Location is removed
+     * @see LocationRepository#remove(String, long)
+     */
+    RepositoryFuture<Void> remove(String id, long expectedVersion);
+
+    /**
+     * Creates a new Location with the provided template Location.
+     *
+     * @param location the template Location containing values for the new Location
+     * @return the new Location
+     * @see LocationRepository#create(Location)
+     */
+    RepositoryFuture<Location> create(Location location);
+
+    /**
+     * Applies several mutations in order.
+     *
+     * @param mutations the mutations to apply
+     * @return a result for each mutation, in the same order
+     * @see LocationRepository#apply(List)
+     */
+    RepositoryFuture<List<MutationResult>> apply(List<LocationMutation> mutations);
+
+    /**
+     * Gets the sequence number of the latest change to the repository.
+     *
+     * @return the sequence number of the latest change
+     * @see LocationRepository#latestSequence()
+     */
+    RepositoryFuture<Long> latestSequence();
+
+    /**
+     * Retrieves the changes made to the repository after a sequence number, waiting for one if there are none yet.
+     * The wait should not hold a thread, so that long polls cost no more than the requests they suspend.
+     *
+     * @param sequence the sequence number after which to retrieve changes
+     * @param limit the maximum number of changes to return
+     * @param timeoutMillis the maximum time in milliseconds to wait for a change, 0 to return immediately
+     * @return the changes
+     * @see LocationRepository#changesSince(long, int, long)
+     */
+    RepositoryFuture<LocationChanges> changesSince(long sequence, int limit, long timeoutMillis);
+}
@@ -0,0 +1,18 @@
+package ca.fieber.api.repositories.location;
+
+/**
+ * Generates ids for new Locations.
+ *
+ * @author cfieber
+ */
+public interface IdGenerator {
+
+    /**
+     * Generates a new id, unique across repositories and restarts.
+     *
+     * <p>Ids are at most 36 characters long and are used in URLs without escaping.</p>
+     *
+     * @return the new id
+     */
+    String nextId();
+}
@@ -0,0 +1,67 @@
+package ca.fieber.api.repositories.location;
+
+import ca.fieber.api.representations.location.Location;
+
+/**
+ * A create, update or removal of a Location as recorded in a repository's change feed.
+ *
+ * @author cfieber
+ */
+public final class LocationChange {
+
+    private final long sequence;
+    private final LocationMutation.Type type;
+    private final String id;
+    private final Location location;
+
+    /**
+     * Constructs a new LocationChange.
+     *
+     * @param sequence the sequence number of the change
+     * @param type the type of the change
+     * @param id the id of the changed Location
+     * @param location the created or updated Location, null for a removal
+     */
+    public LocationChange(long sequence, LocationMutation.Type type, String id, Location location) {
+        this.sequence = sequence;
+        this.type = type;
+        this.id = id;
+        this.location = location;
+    }
+
+    /**
+     * Gets the sequence number of the change, greater than that of every earlier change in the same repository.
+     *
+     * @return the sequence number of the change
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the type of the change.
+     *
+     * @return the type of the change
+     */
+    public LocationMutation.Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the id of the changed Location.
+     *
+     * @return the id of the changed Location
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the Location as created or updated by the change.
+     *
+     * @return the Location, null for a removal
+     */
+    public Location getLocation() {
+        return location;
+    }
+}
@@ -0,0 +1,60 @@
+package ca.fieber.api.repositories.location;
+
+import java.util.List;
+
+/**
+ * The changes made to a repository after a sequence number, as returned from
+ * {@link LocationRepository#changesSince(long, int, long)}.
+ *
+ * @author cfieber
+ */
+public final class LocationChanges {
+
+    private final List<LocationChange> changes;
+    private final long sequence;
+    private final boolean truncated;
+
+    /**
+     * Constructs a new LocationChanges.
+     *
+     * @param changes the changes, in sequence order
+     * @param sequence the sequence number to request the following changes from
+     * @param truncated whether changes after the requested sequence number are no longer available
+     */
+    public LocationChanges(List<LocationChange> changes, long sequence, boolean truncated) {
+        this.changes = changes;
+        this.sequence = sequence;
+        this.truncated = truncated;
+    }
+
+    /**
+     * Gets the changes, in sequence order.
+     *
+     * @return the changes, never null
+     */
+    public List<LocationChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Gets the sequence number to request the following changes from, the sequence number of the last change
+     * returned or, if there were none, the latest sequence number of the repository.
+     *
+     * @return the sequence number to request the following changes from
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Determines whether changes after the requested sequence number are no longer available, because they have
+     * been discarded from the bounded change feed or because the sequence number is from before the repository
+     * was started. A consumer must then list the repository again and follow changes from the returned sequence
+     * number.
+     *
+     * @return true iff changes were lost and no changes are returned
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+}
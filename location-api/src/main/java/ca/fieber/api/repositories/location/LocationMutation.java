@@ -0,0 +1,136 @@
+package ca.fieber.api.repositories.location;
+
+import ca.fieber.api.representations.location.Location;
+
+/**
+ * A create, update or remove of a Location, for applying several of them to a LocationRepository at once.
+ *
+ * @author cfieber
+ */
+public final class LocationMutation {
+
+    /**
+     * The expected version of a mutation that applies whatever the current version of the Location is.
+     */
+    public static final long ANY_VERSION = 0L;
+
+    /**
+     * The kinds of LocationMutation.
+     */
+    public enum Type {
+        /**
+         * Creates a new Location from a template, see LocationRepository.create.
+         */
+        CREATE,
+
+        /**
+         * Updates an existing Location, see LocationRepository.update.
+         */
+        UPDATE,
+
+        /**
+         * Removes an existing Location, see LocationRepository.remove.
+         */
+        REMOVE
+    }
+
+    private final Type type;
+    private final Location location;
+    private final String id;
+    private final long expectedVersion;
+
+    private LocationMutation(Type type, Location location, String id, long expectedVersion) {
+        this.type = type;
+        this.location = location;
+        this.id = id;
+        this.expectedVersion = expectedVersion;
+    }
+
+    /**
+     * Creates a LocationMutation that creates a new Location.
+     *
+     * @param template the template Location containing values for the new Location
+     * @return the LocationMutation
+     */
+    public static LocationMutation create(Location template) {
+        return new LocationMutation(Type.CREATE, template, null, ANY_VERSION);
+    }
+
+    /**
+     * Creates a LocationMutation that updates a Location.
+     *
+     * @param location the Location to update
+     * @return the LocationMutation
+     */
+    public static LocationMutation update(Location location) {
+        return update(location, ANY_VERSION);
+    }
+
+    /**
+     * Creates a LocationMutation that updates a Location if it is at the expected version.
+     *
+     * @param location the Location to update
+     * @param expectedVersion the version the Location must currently be at, or ANY_VERSION
+     * @return the LocationMutation
+     */
+    public static LocationMutation update(Location location, long expectedVersion) {
+        return new LocationMutation(Type.UPDATE, location, location.getId(), expectedVersion);
+    }
+
+    /**
+     * Creates a LocationMutation that removes a Location.
+     *
+     * @param id the id of the Location to remove
+     * @return the LocationMutation
+     */
+    public static LocationMutation remove(String id) {
+        return remove(id, ANY_VERSION);
+    }
+
+    /**
+     * Creates a LocationMutation that removes a Location if it is at the expected version.
+     *
+     * @param id the id of the Location to remove
+     * @param expectedVersion the version the Location must currently be at, or ANY_VERSION
+     * @return the LocationMutation
+     */
+    public static LocationMutation remove(String id, long expectedVersion) {
+        return new LocationMutation(Type.REMOVE, null, id, expectedVersion);
+    }
+
+    /**
+     * Gets the type of this LocationMutation.
+     *
+     * @return the type of this LocationMutation
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the Location for a CREATE or UPDATE.
+     *
+     * @return the Location, null for a REMOVE
+     */
+    public Location getLocation() {
+        return location;
+    }
+
+    /**
+     * Gets the id of the Location for an UPDATE or REMOVE.
+     *
+     * @return the id, null for a CREATE
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the version the Location must be at for an UPDATE or REMOVE to apply.
+     *
+     * @return the expected version, or ANY_VERSION
+     */
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+}
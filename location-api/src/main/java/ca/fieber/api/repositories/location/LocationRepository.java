@@ -1,6 +1,7 @@
 package ca.fieber.api.repositories.location;
 
 import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationTile;
 
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -8,10 +9,18 @@ import java.util.NoSuchElementException;
 /**
  * Interface for a repository of Locations.
  *
+ * <p>Every stored Location has a version, starting at 1 when it is created and incremented by each update, that
+ * callers can use for conditional updates and removals.</p>
+ *
  * @author cfieber
  */
 public interface LocationRepository {
 
+    /**
+     * The snapshot id meaning the current contents of the repository rather than a pinned snapshot.
+     */
+    long NO_SNAPSHOT = 0L;
+
     /**
      * Retrieves Locations from the repository.
      *
@@ -23,6 +32,118 @@ public interface LocationRepository {
      */
     List<Location> list(int startIndex, int pageSize);
 
+    /**
+     * Retrieves Locations from the repository in id order, starting with the first Location after the specified id.
+     *
+     * <p>The id does not need to identify a Location that is still in the repository, so a client can keep paging
+     * from the last Location it has seen while other clients create and remove Locations.</p>
+     *
+     * @param afterId the id after which to retrieve locations
+     * @param pageSize the maximum number of Locations to return
+     * @return the Locations, never null
+     */
+    List<Location> listAfter(String afterId, int pageSize);
+
+    /**
+     * Pins the current contents of the repository so that they can be paged through later without seeing changes
+     * made meanwhile.
+     *
+     * <p>Pinning does not block writers, and a pinned snapshot is dropped some time after it was last used.
+     * Implementations that cannot keep snapshots return NO_SNAPSHOT.</p>
+     *
+     * @return the id of the snapshot, or NO_SNAPSHOT
+     */
+    long pinSnapshot();
+
+    /**
+     * Retrieves Locations from a snapshot of the repository.
+     *
+     * <p>If the snapshot is NO_SNAPSHOT or has been dropped, Locations are retrieved from the current contents of
+     * the repository as if by list(startIndex, pageSize).</p>
+     *
+     * @param startIndex the index (0 based) into the snapshot from which to retrieve locations.
+     * @param pageSize the maximum number of Locations to return
+     * @param snapshot the id of a snapshot returned by pinSnapshot
+     * @return the Locations, never null
+     */
+    List<Location> list(int startIndex, int pageSize, long snapshot);
+
+    /**
+     * Retrieves Locations from a snapshot of the repository in id order, starting with the first Location after the
+     * specified id.
+     *
+     * <p>If the snapshot is NO_SNAPSHOT or has been dropped, Locations are retrieved from the current contents of
+     * the repository as if by listAfter(afterId, pageSize).</p>
+     *
+     * @param afterId the id after which to retrieve locations
+     * @param pageSize the maximum number of Locations to return
+     * @param snapshot the id of a snapshot returned by pinSnapshot
+     * @return the Locations, never null
+     */
+    List<Location> listAfter(String afterId, int pageSize, long snapshot);
+
+    /**
+     * Finds Locations inside a bounding box.
+     *
+     * <p>If minLongitude is greater than maxLongitude the box is taken to cross the antimeridian.</p>
+     *
+     * @param minLongitude the western edge of the box in decimal degrees
+     * @param minLatitude the southern edge of the box in decimal degrees
+     * @param maxLongitude the eastern edge of the box in decimal degrees
+     * @param maxLatitude the northern edge of the box in decimal degrees
+     * @param limit the maximum number of Locations to return
+     * @return the Locations inside the box, never null
+     * @throws IllegalArgumentException if the box is not a valid range of longitudes and latitudes
+     */
+    List<Location> findWithin(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int limit)
+            throws IllegalArgumentException;
+
+    /**
+     * Finds the Locations nearest to a point by great circle distance, nearest first.
+     *
+     * @param longitude the longitude of the point in decimal degrees
+     * @param latitude the latitude of the point in decimal degrees
+     * @param count the maximum number of Locations to return
+     * @param maxDistanceKm the maximum distance in kilometres of returned Locations from the point,
+     *                      <code>Double.POSITIVE_INFINITY</code> for no maximum
+     * @return the nearest Locations, never null
+     * @throws IllegalArgumentException if the point is not a valid longitude and latitude
+     */
+    List<Location> findNearest(double longitude, double latitude, int count, double maxDistanceKm)
+            throws IllegalArgumentException;
+
+    /**
+     * Counts the Locations in each slippy map tile at a zoom level that overlaps a bounding box.
+     *
+     * <p>Every Location in a tile is counted, including those outside the box. If minLongitude is greater than
+     * maxLongitude the box is taken to cross the antimeridian.</p>
+     *
+     * @param minLongitude the western edge of the box in decimal degrees
+     * @param minLatitude the southern edge of the box in decimal degrees
+     * @param maxLongitude the eastern edge of the box in decimal degrees
+     * @param maxLatitude the northern edge of the box in decimal degrees
+     * @param zoom the zoom level, from 0 for a single tile covering the world to 22
+     * @return the tiles holding Locations, ordered by y and then x, never null
+     * @throws IllegalArgumentException if the box or zoom level is invalid, or the box spans more than 16384 tiles
+     */
+    List<LocationTile> countTiles(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int zoom)
+            throws IllegalArgumentException;
+
+    /**
+     * Searches for Locations by name, best matches first.
+     *
+     * <p>Names and the query are compared ignoring case, accents and punctuation. A Location matches if its name,
+     * or a word of its name, starts with the query. Locations whose name equals the query rank first, then those
+     * whose name starts with the query, then those with a later word starting with the query.</p>
+     *
+     * @param query the query
+     * @param startIndex the index (0 based) into the matches from which to retrieve locations
+     * @param pageSize the maximum number of Locations to return
+     * @return the matching Locations, never null
+     * @throws IllegalArgumentException if the query has no letters or digits
+     */
+    List<Location> search(String query, int startIndex, int pageSize) throws IllegalArgumentException;
+
     /**
      * Retrieves a Location by id
      * @param id the id of the Location
@@ -34,9 +155,20 @@ public interface LocationRepository {
     /**
      * Updates the Location
      * @param location the Location to update
+     * @return the updated Location with its new version
      * @throws NoSuchElementException if a Location doesn't already exist in the repository for the provided Location's id
      */
-    void update(Location location) throws NoSuchElementException;
+    Location update(Location location) throws NoSuchElementException;
+
+    /**
+     * Updates the Location if it is still at the expected version.
+     * @param location the Location to update
+     * @param expectedVersion the version the Location must currently be at
+     * @return the updated Location with its new version
+     * @throws NoSuchElementException if a Location doesn't already exist in the repository for the provided Location's id
+     * @throws VersionConflictException if the Location is not at the expected version
+     */
+    Location update(Location location, long expectedVersion) throws NoSuchElementException, VersionConflictException;
 
     /**
      * Removes a Location by id
@@ -45,12 +177,83 @@ public interface LocationRepository {
      */
     void remove(String id) throws NoSuchElementException;
 
+    /**
+     * Removes a Location by id if it is still at the expected version.
+     * @param id the id of the Location
+     * @param expectedVersion the version the Location must currently be at
+     * @throws NoSuchElementException if there is no Location with the specified id in the repository
+     * @throws VersionConflictException if the Location is not at the expected version
+     */
+    void remove(String id, long expectedVersion) throws NoSuchElementException, VersionConflictException;
+
     /**
      * Creates a new Location with the provided template Location.
      *
      * <p>The provided Location must not already have an id.</p>
      * @param location the template Location containing values for the new Location
-     * @return a new Location with the template Location's values and an id assigned by the repository
+     * @return a new Location with the template Location's values, an id assigned by the repository and version 1
      */
     Location create(Location location);
+
+    /**
+     * Applies several mutations in order, as if by calling create, update and remove for each of them.
+     *
+     * <p>A mutation that fails with an IllegalArgumentException, NoSuchElementException or VersionConflictException
+     * does not stop the remaining mutations from being applied, its failure is reported in its result instead.
+     * Implementations apply the whole list in one pass, so this is much cheaper than the equivalent individual
+     * calls.</p>
+     *
+     * @param mutations the mutations to apply
+     * @return a result for each mutation, in the same order
+     */
+    List<MutationResult> apply(List<LocationMutation> mutations);
+
+    /**
+     * Gets the sequence number of the latest change to the repository.
+     *
+     * <p>A consumer keeping a copy of the repository in sync gets the latest sequence number, lists the repository,
+     * and from then on applies the changes since that sequence number. Changes already reflected in the listing are
+     * applied again, which is harmless as each carries the whole Location.</p>
+     *
+     * @return the sequence number of the latest change
+     */
+    long latestSequence();
+
+    /**
+     * Retrieves the changes made to the repository after a sequence number, waiting for one if there are none yet.
+     *
+     * <p>Every create, update and removal is recorded in a bounded change feed. Sequence numbers are not
+     * contiguous across restarts, so a sequence number from before a restart, or one so old that its following
+     * changes have been discarded, returns no changes and is reported as truncated.</p>
+     *
+     * @param sequence the sequence number after which to retrieve changes
+     * @param limit the maximum number of changes to return
+     * @param timeoutMillis the maximum time in milliseconds to wait for a change if there are none after the
+     *                      sequence number, 0 to return immediately
+     * @return the changes, never null
+     * @throws IllegalArgumentException if the sequence number is negative
+     */
+    LocationChanges changesSince(long sequence, int limit, long timeoutMillis) throws IllegalArgumentException;
+
+    /**
+     * Adds a listener to be run once there are changes after a sequence number, so that callers can wait for a change
+     * without holding a thread.
+     *
+     * <p>The listener is run on the calling thread if there already are changes after the sequence number, or if it
+     * is invalid or truncated, and otherwise on the thread that makes the next change, possibly while it holds the
+     * repository's locks. Listeners are run once, and must be quick and must not block or call the repository; they
+     * typically hand off to another thread that calls {@link #changesSince}.</p>
+     *
+     * @param sequence the sequence number after which to wait for changes
+     * @param listener the listener
+     */
+    void addChangeListener(long sequence, Runnable listener);
+
+    /**
+     * Removes a listener added by {@link #addChangeListener} that has not been run, such as when the caller has
+     * stopped waiting.
+     *
+     * @param listener the listener
+     */
+    void removeChangeListener(Runnable listener);
 }
@@ -0,0 +1,67 @@
+package ca.fieber.api.repositories.location;
+
+import ca.fieber.api.representations.location.Location;
+
+/**
+ * The outcome of applying a LocationMutation.
+ *
+ * @author cfieber
+ */
+public final class MutationResult {
+
+    private final Location location;
+    private final RuntimeException failure;
+
+    private MutationResult(Location location, RuntimeException failure) {
+        this.location = location;
+        this.failure = failure;
+    }
+
+    /**
+     * Creates the result of a LocationMutation that was applied.
+     *
+     * @param location the created or updated Location, null for a removal
+     * @return the MutationResult
+     */
+    public static MutationResult success(Location location) {
+        return new MutationResult(location, null);
+    }
+
+    /**
+     * Creates the result of a LocationMutation that failed.
+     *
+     * @param failure the reason the LocationMutation failed, as it would have been thrown by the single operation
+     * @return the MutationResult
+     */
+    public static MutationResult failure(RuntimeException failure) {
+        return new MutationResult(null, failure);
+    }
+
+    /**
+     * Determines whether the LocationMutation was applied.
+     *
+     * @return true iff the LocationMutation was applied
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * Gets the created or updated Location.
+     *
+     * @return the Location, null for a removal or a failure
+     */
+    public Location getLocation() {
+        return location;
+    }
+
+    /**
+     * Gets the reason the LocationMutation failed.
+     *
+     * @return an IllegalArgumentException, NoSuchElementException or VersionConflictException, null if the
+     *         LocationMutation was applied
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+}
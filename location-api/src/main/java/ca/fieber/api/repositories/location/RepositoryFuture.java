@@ -0,0 +1,26 @@
+package ca.fieber.api.repositories.location;
+
+import java.util.concurrent.Future;
+
+/**
+ * A Future for the result of a call to an AsyncLocationRepository, which can notify listeners when the call
+ * completes so that callers need not block on it.
+ *
+ * <p>A call that fails completes with the exception the equivalent LocationRepository call would have thrown as the
+ * cause of the ExecutionException thrown by get.</p>
+ *
+ * @param <T> the type of the result
+ * @author cfieber
+ */
+public interface RepositoryFuture<T> extends Future<T> {
+
+    /**
+     * Adds a listener to run once the call completes, successfully or not.
+     *
+     * <p>If the call has already completed the listener is run immediately by the calling thread, otherwise it is
+     * run by the thread that completes the call, so listeners should be quick and must not block.</p>
+     *
+     * @param listener the listener
+     */
+    void addListener(Runnable listener);
+}
@@ -0,0 +1,22 @@
+package ca.fieber.api.repositories.location;
+
+/**
+ * Thrown when a conditional update or removal finds a Location at a different version than expected.
+ *
+ * @author cfieber
+ */
+public class VersionConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new VersionConflictException.
+     *
+     * @param id the id of the Location
+     * @param expectedVersion the version the caller expected
+     * @param currentVersion the current version of the Location
+     */
+    public VersionConflictException(String id, long expectedVersion, long currentVersion) {
+        super("Location: " + id + " is at version " + currentVersion + ", not " + expectedVersion);
+    }
+}
@@ -0,0 +1,159 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import ca.fieber.api.representations.location.Location;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads Locations from comma separated values.
+ *
+ * <p>The first record is a header naming the columns, which may appear in any order: name, longitude (or lon or lng)
+ * and latitude (or lat). Other columns, including id, are ignored. Fields may be quoted with double quotes, in which
+ * case they may contain commas, line breaks and doubled double quotes, as described in RFC 4180.</p>
+ *
+ * @author cfieber
+ */
+public final class CsvLocationReader implements LocationReader {
+
+    private final Reader reader;
+    private final StringBuilder field = new StringBuilder();
+
+    /**
+     * The first character of the next record, -1 at the end of the input.
+     */
+    private int lookahead;
+
+    private int nameColumn = -1;
+    private int longitudeColumn = -1;
+    private int latitudeColumn = -1;
+    private int columns;
+
+    /**
+     * The line the next record starts on, 1 based.
+     */
+    private long line = 1;
+
+    /**
+     * Constructs a new CsvLocationReader.
+     *
+     * @param input the UTF-8 encoded input
+     * @throws IOException if the input can not be read
+     * @throws IllegalArgumentException if the header does not name the longitude and latitude columns
+     */
+    public CsvLocationReader(InputStream input) throws IOException, IllegalArgumentException {
+        this.reader = new BufferedReader(new InputStreamReader(input, "UTF-8"), 1 << 16);
+        this.lookahead = reader.read();
+        // skip a byte order mark
+        if (lookahead == '\uFEFF') {
+            lookahead = reader.read();
+        }
+        List<String> header = readRecord();
+        if (header == null) {
+            header = new ArrayList<String>();
+        }
+        for (int i = 0; i < header.size(); i++) {
+            String column = header.get(i).trim().toLowerCase(Locale.ENGLISH);
+            if (column.equals("name")) {
+                nameColumn = i;
+            } else if (column.equals("longitude") || column.equals("lon") || column.equals("lng")) {
+                longitudeColumn = i;
+            } else if (column.equals("latitude") || column.equals("lat")) {
+                latitudeColumn = i;
+            }
+        }
+        if (longitudeColumn < 0 || latitudeColumn < 0) {
+            throw new IllegalArgumentException("CSV header must name longitude and latitude columns: " + header);
+        }
+        columns = header.size();
+    }
+
+    @Override
+    public Location next() throws IllegalArgumentException, IOException {
+        long start = line;
+        List<String> record = readRecord();
+        while (record != null && record.size() == 1 && record.get(0).length() == 0) {
+            // blank line
+            start = line;
+            record = readRecord();
+        }
+        if (record == null) {
+            return null;
+        }
+        if (record.size() != columns) {
+            throw new IllegalArgumentException("Line " + start + ": expected " + columns + " fields but found " + record.size());
+        }
+        try {
+            String name = nameColumn < 0 || record.get(nameColumn).length() == 0 ? null : record.get(nameColumn);
+            return new Location(name,
+                    Double.parseDouble(record.get(longitudeColumn).trim()),
+                    Double.parseDouble(record.get(latitudeColumn).trim()));
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Line " + start + ": invalid coordinates " + record.get(longitudeColumn) + ", " + record.get(latitudeColumn));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Reads the fields of the next record.
+     *
+     * @return the fields, or null at the end of the input
+     * @throws IOException if the input can not be read or a quoted field is not terminated
+     */
+    private List<String> readRecord() throws IOException {
+        if (lookahead < 0) {
+            return null;
+        }
+        List<String> record = new ArrayList<String>(Math.max(columns, 4));
+        int c = lookahead;
+        while (true) {
+            field.setLength(0);
+            if (c == '"') {
+                while (true) {
+                    c = reader.read();
+                    if (c < 0) {
+                        throw new EOFException("Unterminated quoted field at line " + line);
+                    } else if (c == '"') {
+                        c = reader.read();
+                        if (c != '"') {
+                            break;
+                        }
+                    } else if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                }
+            }
+            while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                field.append((char) c);
+                c = reader.read();
+            }
+            record.add(field.toString());
+            if (c == ',') {
+                c = reader.read();
+                continue;
+            }
+            if (c == '\r') {
+                c = reader.read();
+                if (c != '\n') {
+                    // a lone carriage return ends the line by itself
+                    line++;
+                    lookahead = c;
+                    return record;
+                }
+            }
+            if (c == '\n') {
+                line++;
+                c = reader.read();
+            }
+            lookahead = c;
+            return record;
+        }
+    }
+}
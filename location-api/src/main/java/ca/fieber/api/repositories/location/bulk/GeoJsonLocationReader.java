@@ -0,0 +1,147 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import ca.fieber.api.representations.location.Location;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads Locations from the Point features of a GeoJSON FeatureCollection with a streaming parser.
+ *
+ * <p>Each feature must have a Point geometry, whose first two coordinates are the longitude and latitude of the
+ * Location. The Location's name is the feature's name property. Members of the FeatureCollection other than its
+ * features, and other properties of the features, are ignored.</p>
+ *
+ * @author cfieber
+ */
+public final class GeoJsonLocationReader implements LocationReader {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final JsonParser parser;
+
+    /**
+     * Whether the parser is inside the features array.
+     */
+    private boolean inFeatures;
+
+    /**
+     * The number of features read, for error messages.
+     */
+    private long count;
+
+    /**
+     * Constructs a new GeoJsonLocationReader.
+     *
+     * @param input the input
+     * @throws IOException if the input can not be read or is not a JSON object
+     */
+    public GeoJsonLocationReader(InputStream input) throws IOException {
+        this.parser = FACTORY.createJsonParser(input);
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected a GeoJSON FeatureCollection", parser.getCurrentLocation());
+        }
+    }
+
+    @Override
+    public Location next() throws IllegalArgumentException, IOException {
+        while (!inFeatures) {
+            if (parser.nextToken() != JsonToken.FIELD_NAME) {
+                return null;
+            }
+            if (parser.getCurrentName().equals("features") && parser.nextToken() == JsonToken.START_ARRAY) {
+                inFeatures = true;
+            } else {
+                parser.nextToken();
+                parser.skipChildren();
+            }
+        }
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            inFeatures = false;
+            return next();
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected a GeoJSON Feature", parser.getCurrentLocation());
+        }
+        count++;
+        return readFeature();
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    /**
+     * Reads the members of a Feature, the parser must be positioned at its start and is left at its end.
+     */
+    private Location readFeature() throws IllegalArgumentException, IOException {
+        String name = null;
+        double[] point = null;
+        String invalid = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String member = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (member.equals("properties") && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String property = parser.getCurrentName();
+                    if (parser.nextToken() != JsonToken.VALUE_NULL && property.equals("name")) {
+                        name = parser.getText();
+                    }
+                    parser.skipChildren();
+                }
+            } else if (member.equals("geometry") && value == JsonToken.START_OBJECT) {
+                String type = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken fieldValue = parser.nextToken();
+                    if (field.equals("type")) {
+                        type = parser.getText();
+                    } else if (field.equals("coordinates") && fieldValue == JsonToken.START_ARRAY) {
+                        point = readPosition();
+                    }
+                    parser.skipChildren();
+                }
+                if (!"Point".equals(type)) {
+                    invalid = "unsupported geometry type " + type;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (invalid != null) {
+            throw new IllegalArgumentException("Feature " + count + ": " + invalid);
+        }
+        if (point == null) {
+            throw new IllegalArgumentException("Feature " + count + ": missing point coordinates");
+        }
+        return new Location(name, point[0], point[1]);
+    }
+
+    /**
+     * Reads a position, the parser must be positioned at the start of its array and is left at its end.
+     *
+     * @return the longitude and latitude of the position, or null if it does not start with two numbers
+     */
+    private double[] readPosition() throws IOException {
+        double[] position = new double[2];
+        int coordinates = 0;
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                if (coordinates < 2) {
+                    position[coordinates] = parser.getDoubleValue();
+                }
+                coordinates++;
+            } else {
+                parser.skipChildren();
+                coordinates = Integer.MIN_VALUE;
+            }
+        }
+        return coordinates >= 2 ? position : null;
+    }
+}
@@ -0,0 +1,55 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import java.util.List;
+
+/**
+ * The outcome of importing Locations with a LocationImporter.
+ *
+ * @author cfieber
+ */
+public final class ImportSummary {
+
+    private final long imported;
+    private final long rejected;
+    private final List<String> errors;
+
+    /**
+     * Constructs a new ImportSummary.
+     *
+     * @param imported the number of Locations created
+     * @param rejected the number of records that were not valid Locations
+     * @param errors messages describing the first rejected records
+     */
+    public ImportSummary(long imported, long rejected, List<String> errors) {
+        this.imported = imported;
+        this.rejected = rejected;
+        this.errors = errors;
+    }
+
+    /**
+     * Gets the number of Locations created.
+     *
+     * @return the number of Locations created
+     */
+    public long getImported() {
+        return imported;
+    }
+
+    /**
+     * Gets the number of records that were not valid Locations.
+     *
+     * @return the number of rejected records
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Gets messages describing the first rejected records, at most {@link LocationImporter#MAX_ERRORS} of them.
+     *
+     * @return the error messages, never null
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,121 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import ca.fieber.api.representations.location.Location;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads Locations from JSON, either a stream of Location objects such as newline delimited JSON or an array of
+ * them, with a streaming parser.
+ *
+ * <p>Each Location object has name, longitude and latitude fields as in the JSON representation of a Location. Other
+ * fields, including id, are ignored.</p>
+ *
+ * @author cfieber
+ */
+public final class JsonLocationReader implements LocationReader {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final JsonParser parser;
+
+    /**
+     * The number of Location objects read, for error messages.
+     */
+    private long count;
+
+    /**
+     * Constructs a new JsonLocationReader.
+     *
+     * @param input the input
+     * @throws IOException if the input can not be read
+     */
+    public JsonLocationReader(InputStream input) throws IOException {
+        this.parser = FACTORY.createJsonParser(input);
+    }
+
+    @Override
+    public Location next() throws IllegalArgumentException, IOException {
+        JsonToken token = parser.nextToken();
+        while (token == JsonToken.START_ARRAY || token == JsonToken.END_ARRAY) {
+            token = parser.nextToken();
+        }
+        if (token == null) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected a location object", parser.getCurrentLocation());
+        }
+        count++;
+        return readLocation(parser, "Location " + count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    /**
+     * Reads the fields of a Location object, the parser must be positioned at its start and is left at its end.
+     *
+     * @param parser the parser
+     * @param description a description of the object for error messages
+     * @return the Location
+     * @throws IllegalArgumentException if the object is not a valid Location
+     * @throws IOException if the input can not be read or is malformed
+     */
+    private static Location readLocation(JsonParser parser, String description) throws IllegalArgumentException, IOException {
+        String name = null;
+        Double longitude = null;
+        Double latitude = null;
+        String invalid = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("name")) {
+                name = value == JsonToken.VALUE_NULL ? null : parser.getText();
+            } else if (field.equals("longitude") || field.equals("latitude")) {
+                Double coordinate = coordinate(parser, value);
+                if (coordinate == null) {
+                    invalid = field + " " + parser.getText();
+                } else if (field.equals("longitude")) {
+                    longitude = coordinate;
+                } else {
+                    latitude = coordinate;
+                }
+            }
+            parser.skipChildren();
+        }
+        if (invalid != null) {
+            throw new IllegalArgumentException(description + ": invalid " + invalid);
+        }
+        if (longitude == null || latitude == null) {
+            throw new IllegalArgumentException(description + ": missing longitude or latitude");
+        }
+        return new Location(name, longitude, latitude);
+    }
+
+    /**
+     * Reads a coordinate, which may be a number or a string holding one.
+     *
+     * @return the coordinate, or null if the value is not a number
+     */
+    private static Double coordinate(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDoubleValue();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            try {
+                return Double.valueOf(parser.getText().trim());
+            } catch (NumberFormatException nfe) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,143 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.representations.location.Location;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.core.TimerMetric;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates Locations in a LocationRepository from a LocationReader, in batches.
+ *
+ * <p>Locations are read and validated one at a time and created with a single call to
+ * {@link LocationRepository#apply(List)} per batch of {@link #BATCH_SIZE}, so an import takes the repository's write
+ * lock, and syncs its log if it has one, once per batch rather than once per Location. Only one batch is held at a
+ * time, so memory use does not grow with the size of the input.</p>
+ *
+ * <p>Ids in the input are ignored, every imported Location is created with a new id.</p>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class LocationImporter {
+
+    /**
+     * The number of Locations created at a time.
+     */
+    static final int BATCH_SIZE = 5000;
+
+    /**
+     * The maximum number of error messages kept in an ImportSummary.
+     */
+    public static final int MAX_ERRORS = 100;
+
+    private final LocationRepository locationRepository;
+
+    /**
+     * A Counter of the number of Locations imported.
+     */
+    private final CounterMetric importedCounter = Metrics.newCounter(LocationImporter.class, "imported");
+
+    /**
+     * A Counter of the number of records rejected.
+     */
+    private final CounterMetric rejectedCounter = Metrics.newCounter(LocationImporter.class, "rejected");
+
+    /**
+     * A Timer on imports.
+     */
+    private final TimerMetric importMetric = Metrics.newTimer(LocationImporter.class, "import-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * Constructs a new LocationImporter.
+     *
+     * @param locationRepository the LocationRepository to create Locations in
+     */
+    @Inject
+    public LocationImporter(LocationRepository locationRepository) {
+        this.locationRepository = locationRepository;
+    }
+
+    /**
+     * Creates a Location for every valid record of a LocationReader, skipping invalid records.
+     *
+     * <p>If the input turns out to be malformed part way through, the batches already created remain imported and
+     * the Locations read since are discarded.</p>
+     *
+     * @param reader the LocationReader, which is not closed
+     * @return a summary of the import
+     * @throws IOException if the input can not be read or is malformed
+     */
+    public ImportSummary importFrom(LocationReader reader) throws IOException {
+        long imported = 0;
+        long rejected = 0;
+        List<String> errors = new ArrayList<String>();
+        List<LocationMutation> batch = new ArrayList<LocationMutation>(BATCH_SIZE);
+        final TimerContext timerContext = importMetric.time();
+        try {
+            while (true) {
+                Location location;
+                try {
+                    location = reader.next();
+                    if (location != null) {
+                        checkCoordinates(location);
+                    }
+                } catch (IllegalArgumentException iae) {
+                    rejected++;
+                    if (errors.size() < MAX_ERRORS) {
+                        errors.add(iae.getMessage());
+                    }
+                    continue;
+                }
+                if (location != null) {
+                    batch.add(LocationMutation.create(location));
+                }
+                if (batch.size() == BATCH_SIZE || (location == null && !batch.isEmpty())) {
+                    for (MutationResult result : locationRepository.apply(batch)) {
+                        if (result.isSuccess()) {
+                            imported++;
+                        } else {
+                            rejected++;
+                            if (errors.size() < MAX_ERRORS) {
+                                errors.add(result.getFailure().getMessage());
+                            }
+                        }
+                    }
+                    batch.clear();
+                }
+                if (location == null) {
+                    break;
+                }
+            }
+        } finally {
+            importedCounter.inc(imported);
+            rejectedCounter.inc(rejected);
+            timerContext.stop();
+        }
+        return new ImportSummary(imported, rejected, errors);
+    }
+
+    /**
+     * Checks that a Location's coordinates are a valid longitude and latitude.
+     *
+     * @param location the Location
+     * @throws IllegalArgumentException if they are not
+     */
+    private static void checkCoordinates(Location location) throws IllegalArgumentException {
+        if (!(location.getLongitude() >= -180 && location.getLongitude() <= 180
+                && location.getLatitude() >= -90 && location.getLatitude() <= 90)) {
+            throw new IllegalArgumentException("Invalid coordinates for " + location.getName() + ": "
+                    + location.getLongitude() + ", " + location.getLatitude());
+        }
+    }
+}
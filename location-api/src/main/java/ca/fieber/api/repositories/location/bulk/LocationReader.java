@@ -0,0 +1,27 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import ca.fieber.api.representations.location.Location;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads Locations one at a time from a file or stream of some format, without reading ahead more than is needed for
+ * the next Location.
+ *
+ * @author cfieber
+ */
+public interface LocationReader extends Closeable {
+
+    /**
+     * Reads the next Location.
+     *
+     * <p>An invalid record is skipped entirely before its IllegalArgumentException is thrown, so reading can carry on
+     * with the following record.</p>
+     *
+     * @return the next Location, without an id, or null once there are no more Locations
+     * @throws IllegalArgumentException if the next record is not a valid Location
+     * @throws IOException if the input can not be read or is malformed beyond the current record
+     */
+    Location next() throws IllegalArgumentException, IOException;
+}
@@ -0,0 +1,89 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import ca.fieber.api.repositories.location.LocationRepository;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Seeds an empty LocationRepository from a file when the application starts.
+ *
+ * <p>The file is named by the location.import-file setting, and its format is chosen by its extension: .csv for
+ * CsvLocationReader, .geojson for GeoJsonLocationReader and .json or .ndjson for JsonLocationReader. Nothing is
+ * imported if the setting is empty, or if the repository already holds Locations, so a DURABLE repository is only
+ * seeded once.</p>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class StartupImport {
+
+    private static final Logger LOG = Logger.getLogger(StartupImport.class.getName());
+
+    /**
+     * Size of the buffer used to read the file.
+     */
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    /**
+     * Imports the file named by the location.import-file setting, if any.
+     *
+     * @param locationRepository the LocationRepository to seed
+     * @param importer the LocationImporter to import with
+     * @param importFile the path of the file to import, empty for none
+     * @throws IOException if the file can not be read or is malformed
+     * @throws IllegalArgumentException if the file's format is not known
+     */
+    @Inject
+    public StartupImport(LocationRepository locationRepository, LocationImporter importer,
+                         @Named("location.import-file") String importFile) throws IOException, IllegalArgumentException {
+        if (importFile.length() == 0) {
+            return;
+        }
+        if (!locationRepository.list(0, 1).isEmpty()) {
+            LOG.info("Skipping import of " + importFile + ", the repository already holds locations");
+            return;
+        }
+        File file = new File(importFile);
+        InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_BYTES);
+        try {
+            LocationReader reader = reader(file.getName(), input);
+            ImportSummary summary = importer.importFrom(reader);
+            LOG.info("Imported " + summary.getImported() + " locations from " + file + ", rejected " + summary.getRejected());
+            for (String error : summary.getErrors()) {
+                LOG.warning("Rejected location from " + file + ": " + error);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Creates the LocationReader for a file.
+     *
+     * @param fileName the name of the file
+     * @param input the contents of the file
+     * @return the LocationReader for the file's extension
+     * @throws IOException if the file can not be read
+     * @throws IllegalArgumentException if the file's extension is not known
+     */
+    private static LocationReader reader(String fileName, InputStream input) throws IOException, IllegalArgumentException {
+        String name = fileName.toLowerCase(Locale.ENGLISH);
+        if (name.endsWith(".csv")) {
+            return new CsvLocationReader(input);
+        } else if (name.endsWith(".geojson")) {
+            return new GeoJsonLocationReader(input);
+        } else if (name.endsWith(".json") || name.endsWith(".ndjson")) {
+            return new JsonLocationReader(input);
+        }
+        throw new IllegalArgumentException("Unknown import file format, expected .csv, .json, .ndjson or .geojson: " + fileName);
+    }
+}
@@ -0,0 +1,177 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.representations.location.Location;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.core.TimerMetric;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A LocationRepository that caches Locations read by id from another LocationRepository.
+ *
+ * <p>Locations are cached in a LocationCache of bounded size, optionally for a limited time. Every write through this
+ * repository invalidates the cached entries for the Locations it touches, whether or not it succeeds, so reads by id
+ * see writes made through this repository as soon as they return. Writes made to the underlying repository by other
+ * means are only seen once their entries expire.</p>
+ *
+ * <p>Ids that are not found may also be cached, so that repeated requests for them do not reach the underlying
+ * repository. All other calls are forwarded to the underlying repository.</p>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class CachingLocationRepository extends ForwardingLocationRepository {
+
+    private final LocationRepository delegate;
+
+    private final LocationCache cache;
+
+    /**
+     * Whether ids that are not found are cached.
+     */
+    private final boolean cacheNotFound;
+
+    /**
+     * A Counter of the number of reads by id answered from the cache.
+     */
+    private final CounterMetric hitCounter = Metrics.newCounter(CachingLocationRepository.class, "cache-hit");
+
+    /**
+     * A Counter of the number of reads by id loaded from the underlying repository.
+     */
+    private final CounterMetric missCounter = Metrics.newCounter(CachingLocationRepository.class, "cache-miss");
+
+    /**
+     * A Counter of the number of requests for non existant Locations answered from the cache.
+     */
+    private final CounterMetric notFoundCounter = Metrics.newCounter(CachingLocationRepository.class, "not-found");
+
+    /**
+     * A Timer on loading Locations from the underlying repository.
+     */
+    private final TimerMetric loadMetric = Metrics.newTimer(CachingLocationRepository.class, "cache-load-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * Constructs a new CachingLocationRepository.
+     *
+     * @param delegate the LocationRepository to cache
+     * @param maximumSize the maximum number of cached entries
+     * @param ttlSeconds the time to live of cached entries in seconds, 0 for no limit
+     * @param cacheNotFound whether to cache ids that are not found
+     */
+    @Inject
+    public CachingLocationRepository(@Named("location.cache-delegate") LocationRepository delegate,
+                                     @Named("location.cache-size") int maximumSize,
+                                     @Named("location.cache-ttl-seconds") long ttlSeconds,
+                                     @Named("location.cache-not-found") boolean cacheNotFound) {
+        this.delegate = delegate;
+        this.cache = new LocationCache(CachingLocationRepository.class, maximumSize, TimeUnit.SECONDS.toNanos(ttlSeconds));
+        this.cacheNotFound = cacheNotFound;
+    }
+
+    @Override
+    protected LocationRepository delegate() {
+        return delegate;
+    }
+
+    @Override
+    public Location get(String id) throws NoSuchElementException {
+        LocationCache.Entry entry = cache.get(id);
+        if (entry != null) {
+            hitCounter.inc();
+            if (entry.location == null) {
+                notFoundCounter.inc();
+                throw new NoSuchElementException("Location: " + id);
+            }
+            return entry.location;
+        }
+
+        missCounter.inc();
+        long stamp = cache.stamp(id);
+        final TimerContext timerContext = loadMetric.time();
+        try {
+            Location location = delegate.get(id);
+            cache.put(id, location, stamp);
+            return location;
+        } catch (NoSuchElementException nse) {
+            if (cacheNotFound) {
+                cache.put(id, null, stamp);
+            }
+            throw nse;
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    @Override
+    public Location update(Location location) throws NoSuchElementException {
+        try {
+            return delegate.update(location);
+        } finally {
+            cache.invalidate(location.getId());
+        }
+    }
+
+    @Override
+    public Location update(Location location, long expectedVersion) throws NoSuchElementException {
+        try {
+            return delegate.update(location, expectedVersion);
+        } finally {
+            cache.invalidate(location.getId());
+        }
+    }
+
+    @Override
+    public void remove(String id) throws NoSuchElementException {
+        try {
+            delegate.remove(id);
+        } finally {
+            cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public void remove(String id, long expectedVersion) throws NoSuchElementException {
+        try {
+            delegate.remove(id, expectedVersion);
+        } finally {
+            cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public Location create(Location location) {
+        Location created = delegate.create(location);
+        // the new id may have been cached as not found
+        cache.invalidate(created.getId());
+        return created;
+    }
+
+    @Override
+    public List<MutationResult> apply(List<LocationMutation> mutations) {
+        List<MutationResult> results = null;
+        try {
+            results = delegate.apply(mutations);
+            return results;
+        } finally {
+            for (int i = 0; i < mutations.size(); i++) {
+                LocationMutation mutation = mutations.get(i);
+                if (mutation.getType() != LocationMutation.Type.CREATE) {
+                    cache.invalidate(mutation.getId());
+                } else if (results != null && results.get(i).isSuccess()) {
+                    cache.invalidate(results.get(i).getLocation().getId());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.LocationChange;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.representations.location.Location;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.HistogramMetric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded feed of the latest changes to a repository, kept in a ring buffer indexed by sequence number.
+ *
+ * <p>Recording a change overwrites the oldest one once the buffer is full, so the feed costs a fixed amount of memory
+ * and reading the changes after a sequence number costs only the number of changes returned. Readers waiting for a
+ * change are woken, and listeners waiting for one are run, when one is recorded.</p>
+ *
+ * <p>Recording does not lock, so writers to independent partitions of a repository that share a feed are not
+ * serialized by it: a writer takes the next sequence number from a counter, fills its slot of the ring, and
+ * publishes every filled slot that follows the latest published change. Readers only see published changes, which
+ * never have gaps. The monitor of the feed is only taken by writers when readers or listeners are waiting.</p>
+ *
+ * <p>Sequence numbers start from the current time in milliseconds shifted left by 20 bits, rather than from 0, so
+ * that a sequence number handed out before a restart is older than every sequence number handed out after it unless
+ * the repository made more than a million changes per millisecond of its uptime.</p>
+ *
+ * @author cfieber
+ */
+final class ChangeFeed {
+
+    /**
+     * The number of changes kept by default.
+     */
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final AtomicReferenceArray<LocationChange> changes;
+
+    /**
+     * The sequence number the feed started from, before its first change.
+     */
+    private final long start;
+
+    /**
+     * The sequence number of the latest change handed out to a writer.
+     */
+    private final AtomicLong assigned;
+
+    /**
+     * The sequence number of the latest change visible to readers, every change up to which has been recorded.
+     */
+    private final AtomicLong published;
+
+    /**
+     * The number of readers and listeners waiting for a change, which writers must wake.
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * The listeners waiting for the next change, guarded by this.
+     */
+    private final Set<Runnable> listeners = new LinkedHashSet<Runnable>();
+
+    /**
+     * A Counter of the number of reads of changes that had already been discarded.
+     */
+    private final CounterMetric truncatedCounter;
+
+    /**
+     * A Histogram of the number of changes returned from reads.
+     */
+    private final HistogramMetric readSizeMetric;
+
+    /**
+     * Constructs a new ChangeFeed.
+     *
+     * @param owner the repository class the feed's metrics are registered for
+     * @param capacity the number of changes to keep
+     */
+    ChangeFeed(Class<?> owner, int capacity) {
+        this.changes = new AtomicReferenceArray<LocationChange>(capacity);
+        this.start = System.currentTimeMillis() << 20;
+        this.assigned = new AtomicLong(start);
+        this.published = new AtomicLong(start);
+        this.truncatedCounter = Metrics.newCounter(owner, "changes-truncated");
+        this.readSizeMetric = Metrics.newHistogram(owner, "changes-size");
+    }
+
+    /**
+     * Records a change, and wakes the readers and runs the listeners waiting for it once the change can be read.
+     *
+     * <p>Writers are expected to be far fewer than the capacity of the feed, so that a slot is never filled again
+     * before the change in it has been published.</p>
+     *
+     * @param type the type of the change
+     * @param id the id of the changed Location
+     * @param location the created or updated Location, null for a removal
+     * @return true if the change was contended: it could not be published straight away because an earlier change was
+     *         still being recorded, or readers or listeners had to be woken
+     */
+    boolean record(LocationMutation.Type type, String id, Location location) {
+        long sequence = assigned.incrementAndGet();
+        changes.set(index(sequence), new LocationChange(sequence, type, id, location));
+        boolean contended = published.get() != sequence - 1;
+        publish();
+        if (published.get() < sequence || waiting.get() == 0) {
+            // a change still being recorded is ahead of this one, and its writer wakes the waiters for both
+            return contended;
+        }
+        List<Runnable> notified;
+        synchronized (this) {
+            notifyAll();
+            notified = new ArrayList<Runnable>(listeners);
+            listeners.clear();
+            waiting.addAndGet(-notified.size());
+        }
+        for (Runnable listener : notified) {
+            listener.run();
+        }
+        return true;
+    }
+
+    /**
+     * Publishes every filled slot following the latest published change, on behalf of whichever writers filled them.
+     */
+    private void publish() {
+        while (true) {
+            long latest = published.get();
+            LocationChange next = changes.get(index(latest + 1));
+            if (next == null || next.getSequence() != latest + 1) {
+                return;
+            }
+            published.compareAndSet(latest, latest + 1);
+        }
+    }
+
+    /**
+     * Gets the sequence number of the latest change.
+     *
+     * @return the sequence number of the latest change
+     */
+    long latest() {
+        return published.get();
+    }
+
+    /**
+     * Adds a listener to be run once there are changes after a sequence number. The listener is run on the calling
+     * thread if there already are, or if the sequence number is not that of the latest change, and otherwise on the
+     * thread that records the next change. Listeners are run once, and must be quick and must not block.
+     *
+     * @param after the sequence number after which to wait for changes
+     * @param listener the listener
+     */
+    void addListener(long after, Runnable listener) {
+        synchronized (this) {
+            // counted before the check, so that a writer publishing meanwhile either is seen or sees the listener
+            waiting.incrementAndGet();
+            if (after == published.get()) {
+                if (!listeners.add(listener)) {
+                    waiting.decrementAndGet();
+                }
+                return;
+            }
+            waiting.decrementAndGet();
+        }
+        listener.run();
+    }
+
+    /**
+     * Removes a listener that has not been run.
+     *
+     * @param listener the listener
+     */
+    synchronized void removeListener(Runnable listener) {
+        if (listeners.remove(listener)) {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Retrieves the changes after a sequence number, waiting for one if there are none yet.
+     *
+     * @param after the sequence number after which to retrieve changes
+     * @param limit the maximum number of changes to return
+     * @param timeoutMillis the maximum time in milliseconds to wait for a change
+     * @return the changes
+     * @throws IllegalArgumentException if the sequence number is negative
+     */
+    LocationChanges since(long after, int limit, long timeoutMillis) throws IllegalArgumentException {
+        if (after < 0) {
+            throw new IllegalArgumentException("Invalid sequence: " + after);
+        }
+        if (after == published.get() && timeoutMillis > 0) {
+            await(after, timeoutMillis);
+        }
+
+        long sequence = published.get();
+        long oldest = Math.max(start, sequence - changes.length()) + 1;
+        if (after > sequence || after + 1 < oldest) {
+            truncatedCounter.inc();
+            return new LocationChanges(Collections.<LocationChange>emptyList(), sequence, true);
+        }
+        int count = (int) Math.min(sequence - after, Math.max(limit, 0));
+        List<LocationChange> page = new ArrayList<LocationChange>(count);
+        for (long next = after + 1; next <= after + count; next++) {
+            LocationChange change = changes.get(index(next));
+            if (change.getSequence() != next) {
+                // overwritten by later changes while it was read
+                truncatedCounter.inc();
+                return new LocationChanges(Collections.<LocationChange>emptyList(), published.get(), true);
+            }
+            page.add(change);
+        }
+        readSizeMetric.update(count);
+        return new LocationChanges(page, after + count, false);
+    }
+
+    /**
+     * Waits until a change is published after a sequence number, or the timeout expires.
+     *
+     * @param after the sequence number
+     * @param timeoutMillis the maximum time in milliseconds to wait
+     */
+    private void await(long after, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        synchronized (this) {
+            waiting.incrementAndGet();
+            try {
+                while (after == published.get() && remaining > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+
+    private int index(long sequenceNumber) {
+        return (int) (sequenceNumber % changes.length());
+    }
+}
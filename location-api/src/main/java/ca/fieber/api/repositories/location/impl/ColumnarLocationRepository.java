@@ -0,0 +1,699 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.IdGenerator;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.repositories.location.VersionConflictException;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationTile;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.GaugeMetric;
+import com.yammer.metrics.core.HistogramMetric;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.core.TimerMetric;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A (non durable!) implementation of LocationRepository for very large numbers of Locations that keeps them in
+ * LocationColumns outside of the Java heap.
+ *
+ * <p>The heap only holds a RowHashIndex from id to row and an array of row numbers sorted by id, around a dozen
+ * bytes per Location, so the garbage collector has next to nothing to trace. Location objects are only created
+ * for the results of a call.</p>
+ *
+ * <p>The sorted rows are brought up to date lazily: creates and removes are recorded, and the next list call
+ * sorts the new rows and merges them in. This suits bulk loaded, read mostly data sets. Spatial queries scan the
+ * coordinate columns, and nearest queries over many Locations split the scan across several threads, see
+ * NearestScan. Tile counts of zoomed out levels are kept up to date in a TilePyramid.</p>
+ *
+ * <p>Name searches use a NameIndex of row numbers, which does keep normalized names on the heap, and is counted in
+ * the heap-bytes metric.</p>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class ColumnarLocationRepository implements LocationRepository {
+
+    /**
+     * The heap bytes of the Integer a row number is boxed into when it is added to the name index.
+     */
+    private static final int ROW_BOX_BYTES = 16;
+
+    private final LocationColumns columns = new LocationColumns();
+
+    private final RowHashIndex idIndex = new RowHashIndex(columns);
+
+    /**
+     * Rows by name, rows must be removed before their name is replaced or they are freed.
+     */
+    private final NameIndex<Integer> nameIndex = new NameIndex<Integer>(new Comparator<Integer>() {
+        @Override
+        public int compare(Integer row1, Integer row2) {
+            return columns.compareIds(row1, row2);
+        }
+    }) {
+        @Override
+        String nameOf(Integer row) {
+            return columns.name(row);
+        }
+    };
+
+    /**
+     * The number of Locations in each map tile of the zoomed out levels.
+     */
+    private final TilePyramid tilePyramid = new TilePyramid();
+
+    /**
+     * Rows sorted by id as of the last merge, the first sortedCount entries are used.
+     */
+    private int[] sortedRows = new int[0];
+    private int sortedCount;
+
+    /**
+     * Rows created since the last merge.
+     */
+    private int[] createdRows = new int[16];
+    private int createdCount;
+
+    /**
+     * Rows removed since the last merge, they are not reused until the merge has dropped them from sortedRows.
+     */
+    private int[] removedRows = new int[16];
+    private int removedCount;
+
+    /**
+     * Rows free for reuse.
+     */
+    private int[] freeRows = new int[16];
+    private int freeCount;
+
+    /**
+     * Guards all of the above.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The latest changes to this repository.
+     */
+    private final ChangeFeed changeFeed = new ChangeFeed(ColumnarLocationRepository.class, ChangeFeed.DEFAULT_CAPACITY);
+
+    /**
+     * A Counter of the number of requests to this repository for non existant Locations.
+     */
+    private final CounterMetric notFoundCounter = Metrics.newCounter(ColumnarLocationRepository.class, "not-found");
+
+    /**
+     * A Counter of the number of invalid requests to this repository.
+     */
+    private final CounterMetric badRequestCounter = Metrics.newCounter(ColumnarLocationRepository.class, "bad-request");
+
+    /**
+     * A Counter of the number of conditional requests to this repository for Locations at another version.
+     */
+    private final CounterMetric conflictCounter = Metrics.newCounter(ColumnarLocationRepository.class, "version-conflict");
+
+    /**
+     * A Histogram of the sizes of lists returned from this repository.
+     */
+    private final HistogramMetric listSizeMetric = Metrics.newHistogram(ColumnarLocationRepository.class, "list-size");
+
+    /**
+     * A Histogram of the number of mutations applied at once to this repository.
+     */
+    private final HistogramMetric batchSizeMetric = Metrics.newHistogram(ColumnarLocationRepository.class, "batch-size");
+
+    /**
+     * A Timer on merging created and removed rows into the sorted rows.
+     */
+    private final TimerMetric listSortMetric = Metrics.newTimer(ColumnarLocationRepository.class, "list-sort-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on compactions of the string blocks.
+     */
+    private final TimerMetric compactMetric = Metrics.newTimer(ColumnarLocationRepository.class, "compact-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on scans of the coordinate columns.
+     */
+    private final TimerMetric scanMetric = Metrics.newTimer(ColumnarLocationRepository.class, "scan-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on name searches against this repository.
+     */
+    private final TimerMetric searchMetric = Metrics.newTimer(ColumnarLocationRepository.class, "search-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * Generates the ids of new Locations.
+     */
+    private final IdGenerator idGenerator;
+
+    /**
+     * The number of threads a nearest scan is split across, including the calling thread.
+     */
+    private final int scanThreads;
+
+    /**
+     * Runs the parts of split nearest scans that the calling thread does not, null if scans are not split.
+     */
+    private final ExecutorService scanExecutor;
+
+    /**
+     * Constructs a new ColumnarLocationRepository that generates time ordered ids.
+     */
+    public ColumnarLocationRepository() {
+        this(new UlidIdGenerator());
+    }
+
+    /**
+     * Constructs a new ColumnarLocationRepository that scans on the calling thread.
+     *
+     * @param idGenerator the generator of ids for new Locations
+     */
+    public ColumnarLocationRepository(IdGenerator idGenerator) {
+        this(idGenerator, 1);
+    }
+
+    /**
+     * Constructs a new ColumnarLocationRepository and registers gauges for its memory use.
+     *
+     * @param idGenerator the generator of ids for new Locations
+     * @param scanThreads the number of threads to split nearest scans of large numbers of Locations across,
+     *                    including the calling thread
+     */
+    @Inject
+    public ColumnarLocationRepository(IdGenerator idGenerator, @Named("location.scan-threads") int scanThreads) {
+        if (scanThreads <= 0) {
+            throw new IllegalArgumentException("Invalid scan thread count: " + scanThreads);
+        }
+        this.idGenerator = idGenerator;
+        this.scanThreads = scanThreads;
+        if (scanThreads == 1) {
+            this.scanExecutor = null;
+        } else {
+            final AtomicInteger count = new AtomicInteger();
+            this.scanExecutor = Executors.newFixedThreadPool(scanThreads - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "columnar-scan-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        Metrics.newGauge(ColumnarLocationRepository.class, "heap-bytes", new GaugeMetric<Long>() {
+            @Override
+            public Long value() {
+                lock.readLock().lock();
+                try {
+                    return heapBytes();
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        });
+        Metrics.newGauge(ColumnarLocationRepository.class, "off-heap-bytes", new GaugeMetric<Long>() {
+            @Override
+            public Long value() {
+                lock.readLock().lock();
+                try {
+                    return columns.offHeapBytes();
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        });
+        Metrics.newGauge(ColumnarLocationRepository.class, "garbage-bytes", new GaugeMetric<Long>() {
+            @Override
+            public Long value() {
+                lock.readLock().lock();
+                try {
+                    return columns.garbageBytes();
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        });
+    }
+
+    @Override
+    public List<Location> list(int startIndex, int pageSize) {
+        lockSortedForRead();
+        try {
+            if (startIndex < 0 || startIndex >= sortedCount) {
+                listSizeMetric.update(0);
+                return Collections.emptyList();
+            }
+            return materialize(startIndex, pageSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Location> listAfter(String afterId, int pageSize) {
+        byte[] key = LocationColumns.encode(afterId);
+        lockSortedForRead();
+        try {
+            int low = 0;
+            int high = sortedCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (columns.compareId(sortedRows[middle], key) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return materialize(low, pageSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Snapshots are not kept, the sorted rows are rebuilt in place.
+     */
+    @Override
+    public long pinSnapshot() {
+        return NO_SNAPSHOT;
+    }
+
+    @Override
+    public List<Location> list(int startIndex, int pageSize, long snapshot) {
+        return list(startIndex, pageSize);
+    }
+
+    @Override
+    public List<Location> listAfter(String afterId, int pageSize, long snapshot) {
+        return listAfter(afterId, pageSize);
+    }
+
+    @Override
+    public List<Location> findWithin(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int limit) {
+        try {
+            GreatCircle.checkLongitude(minLongitude);
+            GreatCircle.checkLongitude(maxLongitude);
+            GreatCircle.checkLatitude(minLatitude);
+            GreatCircle.checkLatitude(maxLatitude);
+            if (minLatitude > maxLatitude) {
+                throw new IllegalArgumentException("Invalid latitude range: " + minLatitude + " to " + maxLatitude);
+            }
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+
+        List<Location> found = new ArrayList<Location>();
+        final TimerContext timerContext = scanMetric.time();
+        lock.readLock().lock();
+        try {
+            boolean crossesAntimeridian = minLongitude > maxLongitude;
+            int rowCount = columns.rowCount();
+            for (int row = 0; row < rowCount && found.size() < limit; row++) {
+                double lat = columns.latitude(row);
+                if (lat < minLatitude || lat > maxLatitude) {
+                    continue;
+                }
+                double lon = columns.longitude(row);
+                boolean lonInside = crossesAntimeridian
+                        ? lon >= minLongitude || lon <= maxLongitude
+                        : lon >= minLongitude && lon <= maxLongitude;
+                if (lonInside && columns.isLive(row)) {
+                    found.add(columns.location(row));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+            timerContext.stop();
+        }
+        return found;
+    }
+
+    @Override
+    public List<Location> findNearest(double longitude, double latitude, int count, double maxDistanceKm) {
+        try {
+            GreatCircle.checkLongitude(longitude);
+            GreatCircle.checkLatitude(latitude);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+
+        final TimerContext timerContext = scanMetric.time();
+        lock.readLock().lock();
+        try {
+            List<NearestScan.ScoredRow> rows = NearestScan.nearest(columns, longitude, latitude, count, maxDistanceKm, scanExecutor, scanThreads);
+            List<Location> nearest = new ArrayList<Location>(rows.size());
+            for (NearestScan.ScoredRow row : rows) {
+                nearest.add(columns.location(row.row));
+            }
+            return nearest;
+        } finally {
+            lock.readLock().unlock();
+            timerContext.stop();
+        }
+    }
+
+    /**
+     * Reads the counts of zoomed out levels from the TilePyramid, and scans the coordinate columns to count deeper
+     * levels.
+     */
+    @Override
+    public List<LocationTile> countTiles(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int zoom) {
+        TilePyramid.TileRange range;
+        try {
+            range = TilePyramid.TileRange.of(minLongitude, minLatitude, maxLongitude, maxLatitude, zoom);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+
+        lock.readLock().lock();
+        try {
+            if (zoom <= TilePyramid.PRECOMPUTED_ZOOM) {
+                return tilePyramid.tiles(range);
+            }
+            final TimerContext timerContext = scanMetric.time();
+            try {
+                TilePyramid.TileCounter counter = new TilePyramid.TileCounter(range);
+                double south = range.south();
+                double north = range.north();
+                int rowCount = columns.rowCount();
+                for (int row = 0; row < rowCount; row++) {
+                    double lat = columns.latitude(row);
+                    if (lat >= south && lat <= north && columns.isLive(row)) {
+                        counter.add(columns.longitude(row), lat);
+                    }
+                }
+                return counter.tiles();
+            } finally {
+                timerContext.stop();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Location> search(String query, int startIndex, int pageSize) {
+        final TimerContext timerContext = searchMetric.time();
+        lock.readLock().lock();
+        try {
+            List<Integer> rows = nameIndex.search(query, startIndex, pageSize);
+            List<Location> found = new ArrayList<Location>(rows.size());
+            for (int row : rows) {
+                found.add(columns.location(row));
+            }
+            return found;
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        } finally {
+            lock.readLock().unlock();
+            timerContext.stop();
+        }
+    }
+
+    @Override
+    public Location get(String id) throws NoSuchElementException {
+        byte[] key = LocationColumns.encode(id);
+        lock.readLock().lock();
+        try {
+            int row = idIndex.find(key);
+            if (row >= 0) {
+                return columns.location(row);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        notFoundCounter.inc();
+        throw new NoSuchElementException("Location: " + id);
+    }
+
+    @Override
+    public Location update(Location location) throws NoSuchElementException {
+        return update(location, LocationMutation.ANY_VERSION);
+    }
+
+    @Override
+    public Location update(Location location, long expectedVersion) throws NoSuchElementException {
+        byte[] key = LocationColumns.encode(location.getId());
+        lock.writeLock().lock();
+        try {
+            int row = currentRow(location.getId(), key, expectedVersion);
+            Location updated = location.withVersion(columns.version(row) + 1);
+            nameIndex.remove(row);
+            tilePyramid.remove(columns.longitude(row), columns.latitude(row));
+            columns.writeValues(row, updated);
+            nameIndex.add(row);
+            tilePyramid.add(updated.getLongitude(), updated.getLatitude());
+            compactIfWasteful();
+            changeFeed.record(LocationMutation.Type.UPDATE, updated.getId(), updated);
+            return updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String id) throws NoSuchElementException {
+        remove(id, LocationMutation.ANY_VERSION);
+    }
+
+    @Override
+    public void remove(String id, long expectedVersion) throws NoSuchElementException {
+        byte[] key = LocationColumns.encode(id);
+        lock.writeLock().lock();
+        try {
+            int row = currentRow(id, key, expectedVersion);
+            idIndex.remove(row);
+            nameIndex.remove(row);
+            tilePyramid.remove(columns.longitude(row), columns.latitude(row));
+            columns.free(row);
+            removedRows = append(removedRows, removedCount++, row);
+            compactIfWasteful();
+            changeFeed.record(LocationMutation.Type.REMOVE, id, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Location create(Location location) {
+        if (location.getId() != null) {
+            badRequestCounter.inc();
+            throw new IllegalArgumentException("Location already has an id: " + location.getId());
+        }
+        Location withId = new Location(idGenerator.nextId(), location).withVersion(1L);
+        byte[] key = LocationColumns.encode(withId.getId());
+        lock.writeLock().lock();
+        try {
+            if (idIndex.find(key) >= 0) {
+                throw new IllegalStateException("Repository already contains location with id: " + withId.getId());
+            }
+            int row = freeCount > 0 ? freeRows[--freeCount] : columns.appendRow();
+            columns.write(row, key, withId);
+            idIndex.add(row);
+            nameIndex.add(row);
+            tilePyramid.add(withId.getLongitude(), withId.getLatitude());
+            createdRows = append(createdRows, createdCount++, row);
+            changeFeed.record(LocationMutation.Type.CREATE, withId.getId(), withId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return withId;
+    }
+
+    @Override
+    public List<MutationResult> apply(List<LocationMutation> mutations) {
+        batchSizeMetric.update(mutations.size());
+        lock.writeLock().lock();
+        try {
+            return Mutations.applyEach(this, mutations);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long latestSequence() {
+        return changeFeed.latest();
+    }
+
+    @Override
+    public LocationChanges changesSince(long sequence, int limit, long timeoutMillis) {
+        try {
+            return changeFeed.since(sequence, limit, timeoutMillis);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+    }
+
+    @Override
+    public void addChangeListener(long sequence, Runnable listener) {
+        changeFeed.addListener(sequence, listener);
+    }
+
+    @Override
+    public void removeChangeListener(Runnable listener) {
+        changeFeed.removeListener(listener);
+    }
+
+    /**
+     * Finds the row holding an id, checking that it is at the expected version. The write lock must be held.
+     *
+     * @param id the id
+     * @param key the encoded id
+     * @param expectedVersion the version the Location must be at, or ANY_VERSION
+     * @return the row number
+     * @throws NoSuchElementException if there is no Location with the id
+     * @throws VersionConflictException if the Location is not at the expected version
+     */
+    private int currentRow(String id, byte[] key, long expectedVersion) throws NoSuchElementException, VersionConflictException {
+        int row = idIndex.find(key);
+        if (row < 0) {
+            notFoundCounter.inc();
+            throw new NoSuchElementException("Location: " + id);
+        }
+        if (expectedVersion != LocationMutation.ANY_VERSION && columns.version(row) != expectedVersion) {
+            conflictCounter.inc();
+            throw new VersionConflictException(id, expectedVersion, columns.version(row));
+        }
+        return row;
+    }
+
+    /**
+     * Acquires the read lock with sortedRows up to date, merging pending creates and removes first if necessary.
+     */
+    private void lockSortedForRead() {
+        lock.readLock().lock();
+        if (createdCount == 0 && removedCount == 0) {
+            return;
+        }
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            if (createdCount > 0 || removedCount > 0) {
+                final TimerContext timerContext = listSortMetric.time();
+                try {
+                    mergeSortedRows();
+                } finally {
+                    timerContext.stop();
+                }
+            }
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Compacts the string blocks once garbage from replaced names and freed rows is more than half of them, the write
+     * lock must be held. Compacting copies the live strings, so its cost is paid for by the garbage created since the
+     * last compaction.
+     */
+    private void compactIfWasteful() {
+        if (columns.shouldCompactStrings()) {
+            final TimerContext timerContext = compactMetric.time();
+            try {
+                columns.compactStrings();
+            } finally {
+                timerContext.stop();
+            }
+        }
+    }
+
+    /**
+     * Drops removed rows from sortedRows and merges in the sorted created rows.
+     */
+    private void mergeSortedRows() {
+        int created = 0;
+        for (int i = 0; i < createdCount; i++) {
+            if (columns.isLive(createdRows[i])) {
+                createdRows[created++] = createdRows[i];
+            }
+        }
+        columns.sortById(createdRows, created);
+
+        int[] merged = new int[idIndex.size()];
+        int count = 0;
+        int next = 0;
+        for (int i = 0; i < sortedCount; i++) {
+            int row = sortedRows[i];
+            if (!columns.isLive(row)) {
+                continue;
+            }
+            while (next < created && columns.compareIds(createdRows[next], row) < 0) {
+                merged[count++] = createdRows[next++];
+            }
+            merged[count++] = row;
+        }
+        while (next < created) {
+            merged[count++] = createdRows[next++];
+        }
+        sortedRows = merged;
+        sortedCount = count;
+        createdRows = new int[16];
+        createdCount = 0;
+
+        for (int i = 0; i < removedCount; i++) {
+            freeRows = append(freeRows, freeCount++, removedRows[i]);
+        }
+        removedRows = new int[16];
+        removedCount = 0;
+    }
+
+    /**
+     * Materializes a page of sortedRows, the read lock must be held.
+     *
+     * @param from the index into sortedRows of the first Location
+     * @param pageSize the maximum number of Locations
+     * @return the Locations
+     */
+    private List<Location> materialize(int from, int pageSize) {
+        int to = (int) Math.min((long) from + Math.max(pageSize, 0), sortedCount);
+        List<Location> page = new ArrayList<Location>(Math.max(to - from, 0));
+        for (int i = from; i < to; i++) {
+            page.add(columns.location(sortedRows[i]));
+        }
+        listSizeMetric.update(page.size());
+        return page;
+    }
+
+    /**
+     * Gets the heap bytes used by the indexes, the read lock must be held.
+     *
+     * @return the number of heap bytes used
+     */
+    private long heapBytes() {
+        return idIndex.heapBytes() + tilePyramid.heapBytes() + nameIndex.heapBytes(ROW_BOX_BYTES)
+                + 4L * (sortedRows.length + createdRows.length + removedRows.length + freeRows.length);
+    }
+
+    private static int[] append(int[] array, int index, int value) {
+        int[] target = array;
+        if (index == array.length) {
+            target = Arrays.copyOf(array, array.length * 2);
+        }
+        target[index] = value;
+        return target;
+    }
+}
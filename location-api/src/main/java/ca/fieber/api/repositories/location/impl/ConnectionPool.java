@@ -0,0 +1,205 @@
+package ca.fieber.api.repositories.location.impl;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.core.TimerMetric;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fixed size pool of JDBC connections, each with a cache of prepared statements.
+ *
+ * <p>Connections are opened when first needed and kept open. A connection that fails is closed rather than returned
+ * to the pool, and is replaced by a new one the next time one is needed. Threads wait for a connection when all of
+ * them are in use, which is timed separately from the statements they run.</p>
+ *
+ * @author cfieber
+ */
+final class ConnectionPool {
+
+    private static final Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
+
+    /**
+     * The maximum number of prepared statements cached per connection.
+     */
+    static final int STATEMENT_CACHE_SIZE = 32;
+
+    /**
+     * The maximum time in seconds to wait for a connection.
+     */
+    private static final long ACQUIRE_TIMEOUT_SECONDS = 30;
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    /**
+     * Idle connections, with a CLOSED entry for each connection not yet opened.
+     */
+    private final BlockingQueue<Session> idle;
+
+    /**
+     * A Timer on waiting for connections.
+     */
+    private final TimerMetric waitMetric;
+
+    /**
+     * A JDBC connection and its cached statements, used by one thread at a time.
+     */
+    static final class Session {
+
+        /**
+         * Marks a place in the pool for a connection that has not been opened.
+         */
+        private static final Session CLOSED = new Session(null);
+
+        final Connection connection;
+
+        private final Map<String, PreparedStatement> statements =
+                new LinkedHashMap<String, PreparedStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() <= STATEMENT_CACHE_SIZE) {
+                            return false;
+                        }
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                };
+
+        private Session(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Gets a prepared statement for some SQL, preparing it only if it is not cached.
+         *
+         * @param sql the SQL
+         * @return the prepared statement, which must not be closed
+         * @throws SQLException if the statement can not be prepared
+         */
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        private void close() {
+            for (PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            try {
+                connection.close();
+            } catch (SQLException sqle) {
+                LOG.log(Level.FINE, "Failed to close connection", sqle);
+            }
+        }
+
+        private static void closeQuietly(PreparedStatement statement) {
+            try {
+                statement.close();
+            } catch (SQLException sqle) {
+                LOG.log(Level.FINE, "Failed to close statement", sqle);
+            }
+        }
+    }
+
+    /**
+     * Constructs a new ConnectionPool.
+     *
+     * @param owner the repository class the pool's metrics are registered for
+     * @param url the JDBC URL of the database
+     * @param user the database user
+     * @param password the database password
+     * @param size the maximum number of connections
+     */
+    ConnectionPool(Class<?> owner, String url, String user, String password, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Invalid pool size: " + size);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.idle = new ArrayBlockingQueue<Session>(size);
+        for (int i = 0; i < size; i++) {
+            idle.add(Session.CLOSED);
+        }
+        this.waitMetric = Metrics.newTimer(owner, "pool-wait-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Takes a connection from the pool, waiting for one if they are all in use.
+     *
+     * @return the connection, which must be released
+     * @throws SQLException if a new connection can not be opened
+     * @throws IllegalStateException if no connection became available in time
+     */
+    Session acquire() throws SQLException, IllegalStateException {
+        Session session;
+        final TimerContext timerContext = waitMetric.time();
+        try {
+            session = idle.poll(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a connection to " + url, ie);
+        } finally {
+            timerContext.stop();
+        }
+        if (session == null) {
+            throw new IllegalStateException("Timed out waiting for a connection to " + url);
+        }
+        if (session != Session.CLOSED) {
+            return session;
+        }
+        try {
+            return new Session(DriverManager.getConnection(url, user, password));
+        } catch (SQLException sqle) {
+            idle.add(Session.CLOSED);
+            throw sqle;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool.
+     *
+     * @param session the connection
+     * @param failed whether the connection failed, in which case it is closed rather than reused
+     */
+    void release(Session session, boolean failed) {
+        if (failed) {
+            session.close();
+            idle.add(Session.CLOSED);
+        } else {
+            idle.add(session);
+        }
+    }
+
+    /**
+     * Closes the idle connections, once the pool is no longer in use.
+     */
+    void close() {
+        for (int i = idle.size(); i > 0; i--) {
+            Session session = idle.poll();
+            if (session == null) {
+                break;
+            }
+            if (session != Session.CLOSED) {
+                session.close();
+            }
+            idle.add(Session.CLOSED);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.IdGenerator;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.repositories.location.VersionConflictException;
+import ca.fieber.api.representations.location.Location;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.core.TimerMetric;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A durable implementation of LocationRepository that serves Locations from an InMemoryLocationRepository and
+ * records every mutation in a WriteAheadLog.
+ *
+ * <p>A mutation is appended to the log and applied in memory under a single lock, so the log holds mutations in
+ * the order they were applied, and then waits outside the lock for the log to be synced. Concurrent writers share
+ * fsyncs through the log's group commit, and a write only returns once it is durable. Readers may see a mutation
+ * slightly before it is durable, and the same goes for consumers of the change feed. The mutations passed to apply
+ * are appended together and synced once.</p>
+ *
+ * <p>Periodically the repository is written to a SnapshotFile and log segments covered by it are deleted. On
+ * startup the latest snapshot is loaded and the log records following it are replayed.</p>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class DurableLocationRepository extends ForwardingLocationRepository implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(DurableLocationRepository.class.getName());
+
+    /**
+     * The Locations, as recovered from disk and kept up to date with the log.
+     */
+    private final InMemoryLocationRepository locations = new InMemoryLocationRepository();
+
+    /**
+     * Generates the ids of new Locations.
+     */
+    private final IdGenerator idGenerator;
+
+    /**
+     * Orders mutations so that they are applied in the order they are logged.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * The latest changes to this repository, recorded in the order they are logged. Changes recovered on startup
+     * are not recorded.
+     */
+    private final ChangeFeed changeFeed = new ChangeFeed(DurableLocationRepository.class, ChangeFeed.DEFAULT_CAPACITY);
+
+    /**
+     * A Counter of the number of invalid requests to this repository.
+     */
+    private final CounterMetric badRequestCounter = Metrics.newCounter(DurableLocationRepository.class, "bad-request");
+
+    /**
+     * A Counter of the number of conditional requests to this repository for Locations at another version.
+     */
+    private final CounterMetric conflictCounter = Metrics.newCounter(DurableLocationRepository.class, "version-conflict");
+
+    /**
+     * A Timer on appending mutations to the log until they are durable.
+     */
+    private final TimerMetric appendMetric = Metrics.newTimer(DurableLocationRepository.class, "append-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on writing snapshots.
+     */
+    private final TimerMetric snapshotMetric = Metrics.newTimer(DurableLocationRepository.class, "snapshot-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on recovering the repository from disk.
+     */
+    private final TimerMetric recoveryMetric = Metrics.newTimer(DurableLocationRepository.class, "recovery-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    private final File directory;
+    private final WriteAheadLog log;
+    private final ScheduledExecutorService snapshotExecutor;
+
+    /**
+     * The sequence number of the last snapshot, guarded by snapshotExecutor.
+     */
+    private long snapshotSequence;
+
+    /**
+     * Constructs a new DurableLocationRepository, recovering any Locations already stored in the data directory.
+     *
+     * @param dataDirectory the directory holding the log and snapshots, created if it does not exist
+     * @param snapshotIntervalSeconds the interval between snapshots, snapshots are skipped while nothing changes
+     * @throws IOException if the repository can not be recovered
+     */
+    public DurableLocationRepository(String dataDirectory, int snapshotIntervalSeconds) throws IOException {
+        this(dataDirectory, snapshotIntervalSeconds, new UlidIdGenerator());
+    }
+
+    /**
+     * Constructs a new DurableLocationRepository, recovering any Locations already stored in the data directory.
+     *
+     * @param dataDirectory the directory holding the log and snapshots, created if it does not exist
+     * @param snapshotIntervalSeconds the interval between snapshots, snapshots are skipped while nothing changes
+     * @param idGenerator the generator of ids for new Locations
+     * @throws IOException if the repository can not be recovered
+     */
+    @Inject
+    public DurableLocationRepository(@Named("location.data-directory") String dataDirectory,
+                                     @Named("location.snapshot-interval-seconds") int snapshotIntervalSeconds,
+                                     IdGenerator idGenerator) throws IOException {
+        this.idGenerator = idGenerator;
+        this.directory = new File(dataDirectory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create data directory: " + directory);
+        }
+
+        final TimerContext timerContext = recoveryMetric.time();
+        try {
+            LocationRecords.Handler recovery = new LocationRecords.Handler() {
+                @Override
+                public void put(Location location) {
+                    locations.restore(location);
+                }
+
+                @Override
+                public void remove(String id) {
+                    locations.discard(id);
+                }
+            };
+            snapshotSequence = SnapshotFile.readLatest(directory, recovery);
+            long nextSequence = WriteAheadLog.replay(directory, snapshotSequence, recovery);
+            log = new WriteAheadLog(directory, nextSequence);
+            LOG.info("Recovered locations from " + directory + " up to log sequence " + nextSequence);
+        } finally {
+            timerContext.stop();
+        }
+
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "location-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot(false);
+                } catch (IOException ioe) {
+                    LOG.log(Level.WARNING, "Failed to write snapshot to " + directory, ioe);
+                }
+            }
+        }, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    protected LocationRepository delegate() {
+        return locations;
+    }
+
+    @Override
+    public Location update(Location location) throws NoSuchElementException {
+        return applyOne(LocationMutation.update(location));
+    }
+
+    @Override
+    public Location update(Location location, long expectedVersion) throws NoSuchElementException {
+        return applyOne(LocationMutation.update(location, expectedVersion));
+    }
+
+    @Override
+    public void remove(String id) throws NoSuchElementException {
+        applyOne(LocationMutation.remove(id));
+    }
+
+    @Override
+    public void remove(String id, long expectedVersion) throws NoSuchElementException {
+        applyOne(LocationMutation.remove(id, expectedVersion));
+    }
+
+    @Override
+    public Location create(Location location) {
+        return applyOne(LocationMutation.create(location));
+    }
+
+    /**
+     * Applies mutations with a single sync of the log once all of them have been appended.
+     */
+    @Override
+    public List<MutationResult> apply(List<LocationMutation> mutations) {
+        List<MutationResult> results = new ArrayList<MutationResult>(mutations.size());
+        long sequence = 0;
+        final TimerContext timerContext = appendMetric.time();
+        try {
+            synchronized (writeLock) {
+                for (LocationMutation mutation : mutations) {
+                    try {
+                        sequence = Math.max(sequence, append(mutation, results));
+                    } catch (IllegalArgumentException iae) {
+                        results.add(MutationResult.failure(iae));
+                    } catch (NoSuchElementException nse) {
+                        results.add(MutationResult.failure(nse));
+                    } catch (VersionConflictException vce) {
+                        results.add(MutationResult.failure(vce));
+                    }
+                }
+            }
+            if (sequence > 0) {
+                log.sync(sequence);
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Failed to log location changes to " + directory, ioe);
+        } finally {
+            timerContext.stop();
+        }
+        return results;
+    }
+
+    @Override
+    public long latestSequence() {
+        return changeFeed.latest();
+    }
+
+    @Override
+    public LocationChanges changesSince(long sequence, int limit, long timeoutMillis) {
+        try {
+            return changeFeed.since(sequence, limit, timeoutMillis);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+    }
+
+    @Override
+    public void addChangeListener(long sequence, Runnable listener) {
+        changeFeed.addListener(sequence, listener);
+    }
+
+    @Override
+    public void removeChangeListener(Runnable listener) {
+        changeFeed.removeListener(listener);
+    }
+
+    /**
+     * Applies a single mutation, throwing its failure.
+     *
+     * @param mutation the mutation
+     * @return the created or updated Location, null for a removal
+     */
+    private Location applyOne(LocationMutation mutation) {
+        MutationResult result = apply(Collections.singletonList(mutation)).get(0);
+        if (!result.isSuccess()) {
+            throw result.getFailure();
+        }
+        return result.getLocation();
+    }
+
+    /**
+     * Checks a mutation against the current Locations, appends it to the log and applies it in memory. Must be
+     * called holding writeLock.
+     *
+     * @param mutation the mutation
+     * @param results the results to add the result of the mutation to
+     * @return the sequence number to sync the log to
+     * @throws IOException if the mutation could not be appended to the log
+     */
+    private long append(LocationMutation mutation, List<MutationResult> results) throws IOException {
+        long sequence;
+        switch (mutation.getType()) {
+            case CREATE:
+                if (mutation.getLocation().getId() != null) {
+                    badRequestCounter.inc();
+                    throw new IllegalArgumentException("Location already has an id: " + mutation.getLocation().getId());
+                }
+                Location withId = new Location(idGenerator.nextId(), mutation.getLocation()).withVersion(1L);
+                sequence = log.append(LocationRecords.put(withId));
+                locations.restore(withId);
+                changeFeed.record(LocationMutation.Type.CREATE, withId.getId(), withId);
+                results.add(MutationResult.success(withId));
+                break;
+            case UPDATE:
+                Location current = current(mutation);
+                Location updated = mutation.getLocation().withVersion(current.getVersion() + 1);
+                sequence = log.append(LocationRecords.put(updated));
+                locations.restore(updated);
+                changeFeed.record(LocationMutation.Type.UPDATE, updated.getId(), updated);
+                results.add(MutationResult.success(updated));
+                break;
+            default:
+                current(mutation);
+                sequence = log.append(LocationRecords.remove(mutation.getId()));
+                locations.discard(mutation.getId());
+                changeFeed.record(LocationMutation.Type.REMOVE, mutation.getId(), null);
+                results.add(MutationResult.success(null));
+                break;
+        }
+        return sequence;
+    }
+
+    /**
+     * Gets the current Location for an UPDATE or REMOVE, checking that it is at the expected version. Must be called
+     * holding writeLock.
+     *
+     * @param mutation the mutation
+     * @return the current Location
+     * @throws NoSuchElementException if there is no Location with the id
+     * @throws VersionConflictException if the Location is not at the expected version
+     */
+    private Location current(LocationMutation mutation) throws NoSuchElementException, VersionConflictException {
+        Location current = locations.get(mutation.getId());
+        long expectedVersion = mutation.getExpectedVersion();
+        if (expectedVersion != LocationMutation.ANY_VERSION && current.getVersion() != expectedVersion) {
+            conflictCounter.inc();
+            throw new VersionConflictException(mutation.getId(), expectedVersion, current.getVersion());
+        }
+        return current;
+    }
+
+    /**
+     * Writes a snapshot of the repository and deletes the log segments covered by the snapshot before it.
+     *
+     * <p>Only the log is rolled and the immutable index of the Locations taken while holding the write lock, so
+     * writers are not held up while the Locations are written out.</p>
+     *
+     * @param force whether to write a snapshot even if nothing has changed since the last one
+     * @throws IOException if the snapshot could not be written
+     */
+    void snapshot(boolean force) throws IOException {
+        synchronized (snapshotExecutor) {
+            long sequence;
+            SortedLocationIndex.Snapshot contents;
+            synchronized (writeLock) {
+                sequence = log.roll();
+                if (sequence == snapshotSequence && !force) {
+                    return;
+                }
+                contents = locations.snapshot(NO_SNAPSHOT);
+            }
+            final TimerContext timerContext = snapshotMetric.time();
+            try {
+                SnapshotFile.write(directory, sequence, contents.locations());
+                // the previous snapshot is kept in case the new one is lost in a crash, see SnapshotFile.write
+                WriteAheadLog.deleteBefore(directory, snapshotSequence);
+                snapshotSequence = sequence;
+            } finally {
+                timerContext.stop();
+            }
+        }
+    }
+
+    /**
+     * Stops taking snapshots and closes the log, after which the repository can not be modified.
+     *
+     * @throws IOException if buffered log records could not be made durable
+     */
+    @Override
+    public void close() throws IOException {
+        snapshotExecutor.shutdownNow();
+        synchronized (writeLock) {
+            log.close();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.AsyncLocationRepository;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.repositories.location.RepositoryFuture;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationTile;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.GaugeMetric;
+import com.yammer.metrics.core.TimerMetric;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An implementation of AsyncLocationRepository that makes blocking LocationRepository calls on a fixed pool of
+ * threads.
+ *
+ * <p>The pool should be sized to the concurrency the repository can make use of, such as the number of pooled JDBC
+ * connections, so that callers are limited by the repository rather than by their own threads. Calls wait in an
+ * unbounded queue for a thread. With no threads, calls are made by the calling thread and the returned futures are
+ * already complete, which suits repositories that never block for long such as the in memory ones.</p>
+ *
+ * <p>Long polls of the change feed hold no thread while they wait: they listen for the next change, and the changes
+ * are read, or the poll times out, on a single timer thread of their own rather than on the pool, so waiting polls
+ * neither occupy the pool's threads nor queue behind its calls.</p>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class ExecutorAsyncLocationRepository implements AsyncLocationRepository, Closeable {
+
+    /**
+     * The blocking repository.
+     */
+    private final LocationRepository repository;
+
+    /**
+     * The threads that make calls, null to make them on the calling thread.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The thread that times out long polls of the change feed and reads the changes that answer them.
+     */
+    private final ScheduledExecutorService changeTimer;
+
+    /**
+     * A Timer on the time calls wait for a thread.
+     */
+    private final TimerMetric waitMetric = Metrics.newTimer(ExecutorAsyncLocationRepository.class, "async-wait-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * Constructs a new ExecutorAsyncLocationRepository and registers a gauge for the number of calls waiting for a
+     * thread.
+     *
+     * @param repository the blocking repository
+     * @param threads the number of threads to make calls on, 0 to make them on the calling thread
+     */
+    @Inject
+    public ExecutorAsyncLocationRepository(LocationRepository repository, @Named("location.async-threads") int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Invalid async thread count: " + threads);
+        }
+        this.repository = repository;
+        if (threads == 0) {
+            this.executor = null;
+        } else {
+            final AtomicInteger count = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "location-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        this.changeTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "location-changes");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Metrics.newGauge(ExecutorAsyncLocationRepository.class, "async-queue-size", new GaugeMetric<Integer>() {
+            @Override
+            public Integer value() {
+                return executor == null ? 0 : executor.getQueue().size();
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<Long> pinSnapshot() {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return repository.pinSnapshot();
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<List<Location>> list(final int startIndex, final int pageSize, final long snapshot) {
+        return submit(new Callable<List<Location>>() {
+            @Override
+            public List<Location> call() {
+                return repository.list(startIndex, pageSize, snapshot);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<List<Location>> listAfter(final String afterId, final int pageSize, final long snapshot) {
+        return submit(new Callable<List<Location>>() {
+            @Override
+            public List<Location> call() {
+                return repository.listAfter(afterId, pageSize, snapshot);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<List<Location>> findWithin(final double minLongitude, final double minLatitude,
+                                                       final double maxLongitude, final double maxLatitude, final int limit) {
+        return submit(new Callable<List<Location>>() {
+            @Override
+            public List<Location> call() {
+                return repository.findWithin(minLongitude, minLatitude, maxLongitude, maxLatitude, limit);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<List<Location>> findNearest(final double longitude, final double latitude,
+                                                        final int count, final double maxDistanceKm) {
+        return submit(new Callable<List<Location>>() {
+            @Override
+            public List<Location> call() {
+                return repository.findNearest(longitude, latitude, count, maxDistanceKm);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<List<LocationTile>> countTiles(final double minLongitude, final double minLatitude,
+                                                           final double maxLongitude, final double maxLatitude, final int zoom) {
+        return submit(new Callable<List<LocationTile>>() {
+            @Override
+            public List<LocationTile> call() {
+                return repository.countTiles(minLongitude, minLatitude, maxLongitude, maxLatitude, zoom);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<List<Location>> search(final String query, final int startIndex, final int pageSize) {
+        return submit(new Callable<List<Location>>() {
+            @Override
+            public List<Location> call() {
+                return repository.search(query, startIndex, pageSize);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<Location> get(final String id) {
+        return submit(new Callable<Location>() {
+            @Override
+            public Location call() {
+                return repository.get(id);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<Location> update(final Location location, final long expectedVersion) {
+        return submit(new Callable<Location>() {
+            @Override
+            public Location call() {
+                return repository.update(location, expectedVersion);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<Void> remove(final String id, final long expectedVersion) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                repository.remove(id, expectedVersion);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<Location> create(final Location location) {
+        return submit(new Callable<Location>() {
+            @Override
+            public Location call() {
+                return repository.create(location);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<List<MutationResult>> apply(final List<LocationMutation> mutations) {
+        return submit(new Callable<List<MutationResult>>() {
+            @Override
+            public List<MutationResult> call() {
+                return repository.apply(mutations);
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<Long> latestSequence() {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return repository.latestSequence();
+            }
+        });
+    }
+
+    @Override
+    public RepositoryFuture<LocationChanges> changesSince(final long sequence, final int limit, final long timeoutMillis) {
+        final RepositoryFutureTask<LocationChanges> task = new RepositoryFutureTask<LocationChanges>(new Callable<LocationChanges>() {
+            @Override
+            public LocationChanges call() {
+                return repository.changesSince(sequence, limit, 0);
+            }
+        });
+        if (timeoutMillis <= 0) {
+            task.run();
+            return task;
+        }
+        // run on the timer rather than by the writer, which may hold the repository's locks; running twice is harmless
+        final Runnable changed = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    changeTimer.execute(task);
+                } catch (RejectedExecutionException ree) {
+                    task.run();
+                }
+            }
+        };
+        final ScheduledFuture<?> timeout = changeTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                repository.removeChangeListener(changed);
+                task.run();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        task.addListener(new Runnable() {
+            @Override
+            public void run() {
+                timeout.cancel(false);
+            }
+        });
+        repository.addChangeListener(sequence, changed);
+        return task;
+    }
+
+    /**
+     * Makes a call on the pool, or on the calling thread if there is no pool.
+     *
+     * @param call the call
+     * @param <T> the type of the result
+     * @return the future result of the call
+     */
+    private <T> RepositoryFuture<T> submit(final Callable<T> call) {
+        if (executor == null) {
+            RepositoryFutureTask<T> task = new RepositoryFutureTask<T>(call);
+            task.run();
+            return task;
+        }
+        final long submitted = System.nanoTime();
+        RepositoryFutureTask<T> task = new RepositoryFutureTask<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                waitMetric.update(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+                return call.call();
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Stops the threads, abandoning calls and long polls that have not completed.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        changeTimer.shutdownNow();
+    }
+}
@@ -0,0 +1,127 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationTile;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A LocationRepository that forwards all calls to a delegate, for implementations that decorate another
+ * LocationRepository and only need to override some of its methods.
+ *
+ * @author cfieber
+ */
+public abstract class ForwardingLocationRepository implements LocationRepository {
+
+    /**
+     * Gets the LocationRepository that calls are forwarded to.
+     *
+     * @return the delegate LocationRepository
+     */
+    protected abstract LocationRepository delegate();
+
+    @Override
+    public List<Location> list(int startIndex, int pageSize) {
+        return delegate().list(startIndex, pageSize);
+    }
+
+    @Override
+    public List<Location> listAfter(String afterId, int pageSize) {
+        return delegate().listAfter(afterId, pageSize);
+    }
+
+    @Override
+    public long pinSnapshot() {
+        return delegate().pinSnapshot();
+    }
+
+    @Override
+    public List<Location> list(int startIndex, int pageSize, long snapshot) {
+        return delegate().list(startIndex, pageSize, snapshot);
+    }
+
+    @Override
+    public List<Location> listAfter(String afterId, int pageSize, long snapshot) {
+        return delegate().listAfter(afterId, pageSize, snapshot);
+    }
+
+    @Override
+    public List<Location> findWithin(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int limit) {
+        return delegate().findWithin(minLongitude, minLatitude, maxLongitude, maxLatitude, limit);
+    }
+
+    @Override
+    public List<Location> findNearest(double longitude, double latitude, int count, double maxDistanceKm) {
+        return delegate().findNearest(longitude, latitude, count, maxDistanceKm);
+    }
+
+    @Override
+    public List<LocationTile> countTiles(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int zoom) {
+        return delegate().countTiles(minLongitude, minLatitude, maxLongitude, maxLatitude, zoom);
+    }
+
+    @Override
+    public List<Location> search(String query, int startIndex, int pageSize) {
+        return delegate().search(query, startIndex, pageSize);
+    }
+
+    @Override
+    public Location get(String id) throws NoSuchElementException {
+        return delegate().get(id);
+    }
+
+    @Override
+    public Location update(Location location) throws NoSuchElementException {
+        return delegate().update(location);
+    }
+
+    @Override
+    public Location update(Location location, long expectedVersion) throws NoSuchElementException {
+        return delegate().update(location, expectedVersion);
+    }
+
+    @Override
+    public void remove(String id) throws NoSuchElementException {
+        delegate().remove(id);
+    }
+
+    @Override
+    public void remove(String id, long expectedVersion) throws NoSuchElementException {
+        delegate().remove(id, expectedVersion);
+    }
+
+    @Override
+    public Location create(Location location) {
+        return delegate().create(location);
+    }
+
+    @Override
+    public List<MutationResult> apply(List<LocationMutation> mutations) {
+        return delegate().apply(mutations);
+    }
+
+    @Override
+    public long latestSequence() {
+        return delegate().latestSequence();
+    }
+
+    @Override
+    public LocationChanges changesSince(long sequence, int limit, long timeoutMillis) {
+        return delegate().changesSince(sequence, limit, timeoutMillis);
+    }
+
+    @Override
+    public void addChangeListener(long sequence, Runnable listener) {
+        delegate().addChangeListener(sequence, listener);
+    }
+
+    @Override
+    public void removeChangeListener(Runnable listener) {
+        delegate().removeChangeListener(listener);
+    }
+}
@@ -0,0 +1,271 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+
+import java.util.*;
+
+/**
+ * A spatial index of Locations that buckets them into a grid of fixed size cells in decimal degrees.
+ *
+ * <p>Only occupied cells are stored. Bounding box queries visit the cells overlapping the box, or every occupied
+ * cell if that is cheaper. Nearest neighbour queries visit rings of cells around the query point and stop as soon
+ * as no unvisited cell can hold a closer Location than the ones found so far.</p>
+ *
+ * <p>This class is not thread safe, callers are responsible for guarding access to it.</p>
+ *
+ * @author cfieber
+ */
+class GeoGridIndex {
+
+    /**
+     * The default cell size in decimal degrees, roughly 5.5km of latitude.
+     */
+    static final double DEFAULT_CELL_DEGREES = 0.05d;
+
+    /**
+     * A Location paired with its distance from a query point.
+     */
+    static class Candidate {
+        final Location location;
+        final double distanceKm;
+
+        Candidate(Location location, double distanceKm) {
+            this.location = location;
+            this.distanceKm = distanceKm;
+        }
+    }
+
+    /**
+     * Orders Candidates from farthest to nearest, so that a PriorityQueue using it keeps the farthest at its head.
+     */
+    static final Comparator<Candidate> FARTHEST_FIRST = new Comparator<Candidate>() {
+        public int compare(Candidate c1, Candidate c2) {
+            return Double.compare(c2.distanceKm, c1.distanceKm);
+        }
+    };
+
+    /**
+     * The cell size in decimal degrees.
+     */
+    private final double cellDegrees;
+
+    /**
+     * The number of columns of cells spanning longitudes -180 to 180.
+     */
+    private final int columns;
+
+    /**
+     * The number of rows of cells spanning latitudes -90 to 90.
+     */
+    private final int rows;
+
+    /**
+     * The occupied cells keyed by <code>row * columns + column</code>.
+     */
+    private final Map<Long, Map<String, Location>> cells = new HashMap<Long, Map<String, Location>>();
+
+    /**
+     * Constructs a new GeoGridIndex with the default cell size.
+     */
+    GeoGridIndex() {
+        this(DEFAULT_CELL_DEGREES);
+    }
+
+    /**
+     * Constructs a new GeoGridIndex with the provided cell size.
+     *
+     * @param cellDegrees the size of a cell in decimal degrees
+     */
+    GeoGridIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+        this.columns = (int) Math.ceil(360.0d / cellDegrees);
+        this.rows = (int) Math.ceil(180.0d / cellDegrees);
+    }
+
+    /**
+     * Adds a Location to this index.
+     *
+     * @param location the Location to add
+     */
+    void add(Location location) {
+        Long key = cellKey(location);
+        Map<String, Location> cell = cells.get(key);
+        if (cell == null) {
+            cell = new HashMap<String, Location>();
+            cells.put(key, cell);
+        }
+        cell.put(location.getId(), location);
+    }
+
+    /**
+     * Removes a Location from this index.
+     *
+     * @param location the Location to remove, as it was when it was added
+     */
+    void remove(Location location) {
+        Long key = cellKey(location);
+        Map<String, Location> cell = cells.get(key);
+        if (cell != null) {
+            cell.remove(location.getId());
+            if (cell.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Finds Locations inside a bounding box.
+     *
+     * <p>If minLongitude is greater than maxLongitude the box crosses the antimeridian.</p>
+     *
+     * @param minLongitude the western edge of the box
+     * @param minLatitude the southern edge of the box
+     * @param maxLongitude the eastern edge of the box
+     * @param maxLatitude the northern edge of the box
+     * @param limit the maximum number of Locations to return
+     * @return the Locations inside the box, never null
+     */
+    List<Location> within(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int limit) {
+        List<Location> found = new ArrayList<Location>();
+        if (limit <= 0) {
+            return found;
+        }
+
+        int minRow = row(minLatitude);
+        int maxRow = row(maxLatitude);
+        int minColumn = column(minLongitude);
+        int maxColumn = column(maxLongitude);
+        int columnSpan = minLongitude <= maxLongitude ? maxColumn - minColumn + 1 : columns - minColumn + maxColumn + 1;
+        long cellCount = (long) (maxRow - minRow + 1) * Math.min(columnSpan, columns);
+
+        if (cellCount > cells.size()) {
+            for (Map<String, Location> cell : cells.values()) {
+                if (collectWithin(cell, minLongitude, minLatitude, maxLongitude, maxLatitude, limit, found)) {
+                    return found;
+                }
+            }
+            return found;
+        }
+
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int i = 0; i < columnSpan; i++) {
+                Map<String, Location> cell = cells.get(key(row, (minColumn + i) % columns));
+                if (cell != null && collectWithin(cell, minLongitude, minLatitude, maxLongitude, maxLatitude, limit, found)) {
+                    return found;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the Locations nearest to a point, nearest first.
+     *
+     * @param longitude the longitude of the point
+     * @param latitude the latitude of the point
+     * @param count the maximum number of Locations to return
+     * @param maxDistanceKm the maximum distance from the point in kilometres
+     * @return the nearest Locations with their distances, never null
+     */
+    List<Candidate> nearest(double longitude, double latitude, int count, double maxDistanceKm) {
+        if (count <= 0 || cells.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(count, FARTHEST_FIRST);
+        int centerRow = row(latitude);
+        int centerColumn = column(longitude);
+        int visited = 0;
+        for (int ring = 0; ; ring++) {
+            double ringDegrees = ring * cellDegrees;
+            if (ringDegrees >= 90.0d || 2 * ring + 1 >= columns || visited > cells.size()) {
+                best.clear();
+                for (Map<String, Location> cell : cells.values()) {
+                    offerAll(cell, longitude, latitude, count, maxDistanceKm, best);
+                }
+                break;
+            }
+
+            for (int dy = -ring; dy <= ring; dy++) {
+                int row = centerRow + dy;
+                if (row < 0 || row >= rows) {
+                    continue;
+                }
+                int step = (dy == -ring || dy == ring) ? 1 : 2 * ring;
+                for (int dx = -ring; dx <= ring; dx += step) {
+                    visited++;
+                    Map<String, Location> cell = cells.get(key(row, ((centerColumn + dx) % columns + columns) % columns));
+                    if (cell != null) {
+                        offerAll(cell, longitude, latitude, count, maxDistanceKm, best);
+                    }
+                }
+            }
+
+            // Unvisited cells are at least ringDegrees away in latitude and longitude, the cross track distance to
+            // the nearest unvisited meridian bounds how close any Location in them can be.
+            double unvisitedKm = GreatCircle.EARTH_RADIUS_KM
+                    * Math.asin(Math.cos(Math.toRadians(latitude)) * Math.sin(Math.toRadians(ringDegrees)));
+            if (unvisitedKm > maxDistanceKm || (best.size() == count && unvisitedKm >= best.peek().distanceKm)) {
+                break;
+            }
+        }
+
+        List<Candidate> nearest = new ArrayList<Candidate>(best);
+        Collections.sort(nearest, Collections.reverseOrder(FARTHEST_FIRST));
+        return nearest;
+    }
+
+    private static boolean collectWithin(Map<String, Location> cell, double minLongitude, double minLatitude,
+                                         double maxLongitude, double maxLatitude, int limit, List<Location> found) {
+        for (Location location : cell.values()) {
+            double lon = location.getLongitude();
+            double lat = location.getLatitude();
+            boolean lonInside = minLongitude <= maxLongitude
+                    ? lon >= minLongitude && lon <= maxLongitude
+                    : lon >= minLongitude || lon <= maxLongitude;
+            if (lonInside && lat >= minLatitude && lat <= maxLatitude) {
+                found.add(location);
+                if (found.size() >= limit) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void offerAll(Map<String, Location> cell, double longitude, double latitude, int count,
+                                 double maxDistanceKm, PriorityQueue<Candidate> best) {
+        for (Location location : cell.values()) {
+            double distance = GreatCircle.distanceKm(longitude, latitude, location.getLongitude(), location.getLatitude());
+            if (distance > maxDistanceKm) {
+                continue;
+            }
+            if (best.size() < count) {
+                best.add(new Candidate(location, distance));
+            } else if (distance < best.peek().distanceKm) {
+                best.poll();
+                best.add(new Candidate(location, distance));
+            }
+        }
+    }
+
+    private Long cellKey(Location location) {
+        return key(row(location.getLatitude()), column(location.getLongitude()));
+    }
+
+    private Long key(int row, int column) {
+        return (long) row * columns + column;
+    }
+
+    private int row(double latitude) {
+        return clamp((int) Math.floor((latitude + 90.0d) / cellDegrees), rows);
+    }
+
+    private int column(double longitude) {
+        return clamp((int) Math.floor((longitude + 180.0d) / cellDegrees), columns);
+    }
+
+    private static int clamp(int value, int bound) {
+        return value < 0 ? 0 : value >= bound ? bound - 1 : value;
+    }
+}
@@ -0,0 +1,60 @@
+package ca.fieber.api.repositories.location.impl;
+
+/**
+ * Great circle distance calculations on a spherical earth.
+ *
+ * @author cfieber
+ */
+final class GreatCircle {
+
+    /**
+     * Mean radius of the earth in kilometres.
+     */
+    static final double EARTH_RADIUS_KM = 6371.0088d;
+
+    private GreatCircle() {
+    }
+
+    /**
+     * Computes the haversine distance between two points.
+     *
+     * @param longitude1 the longitude of the first point in decimal degrees
+     * @param latitude1 the latitude of the first point in decimal degrees
+     * @param longitude2 the longitude of the second point in decimal degrees
+     * @param latitude2 the latitude of the second point in decimal degrees
+     * @return the distance between the points in kilometres
+     */
+    static double distanceKm(double longitude1, double latitude1, double longitude2, double latitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double sinHalfDeltaPhi = Math.sin((phi2 - phi1) / 2);
+        double sinHalfDeltaLambda = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double h = sinHalfDeltaPhi * sinHalfDeltaPhi
+                + Math.cos(phi1) * Math.cos(phi2) * sinHalfDeltaLambda * sinHalfDeltaLambda;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0d, Math.sqrt(h)));
+    }
+
+    /**
+     * Validates a longitude.
+     *
+     * @param longitude the longitude in decimal degrees
+     * @throws IllegalArgumentException if the longitude is not between -180 and 180
+     */
+    static void checkLongitude(double longitude) throws IllegalArgumentException {
+        if (!(longitude >= -180.0d && longitude <= 180.0d)) {
+            throw new IllegalArgumentException("Invalid longitude: " + longitude);
+        }
+    }
+
+    /**
+     * Validates a latitude.
+     *
+     * @param latitude the latitude in decimal degrees
+     * @throws IllegalArgumentException if the latitude is not between -90 and 90
+     */
+    static void checkLatitude(double latitude) throws IllegalArgumentException {
+        if (!(latitude >= -90.0d && latitude <= 90.0d)) {
+            throw new IllegalArgumentException("Invalid latitude: " + latitude);
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package ca.fieber.api.repositories.location.impl;
 
+import ca.fieber.api.repositories.location.IdGenerator;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
 import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.repositories.location.VersionConflictException;
 import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationTile;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.CounterMetric;
@@ -13,19 +20,91 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A simple (non durable!) implementation of LocationRepository that just keeps locations in a ConcurrentMap in memory.
  *
+ * <p>Alongside the map, Locations are kept in a SortedLocationIndex so that pages can be served without sorting the
+ * whole repository, in a GeoGridIndex for spatial queries and in a NameIndex for name searches, and are counted in
+ * a TilePyramid for zoomed out tile counts. Mutations take the
+ * write lock so that the map and the indexes always agree, lookups by id go straight to the map.</p>
+ *
+ * <p>Pages are read without locking from immutable snapshots of the SortedLocationIndex, so writers never stall
+ * them and a page is always a consistent view. Snapshots pinned with pinSnapshot are kept for a while so that a
+ * client can read every page of a listing from the same version of the repository.</p>
+ *
  * @author cfieber
  */
 @Singleton
 public class InMemoryLocationRepository implements LocationRepository {
+    /**
+     * Orders Locations by id.
+     */
+    private static final Comparator<Location> BY_ID = new Comparator<Location>() {
+        @Override
+        public int compare(Location location1, Location location2) {
+            return location1.getId().compareTo(location2.getId());
+        }
+    };
+
     /**
      * The storage for this location repository, initially empty.
      */
     private final ConcurrentMap<String, Location> locations = new ConcurrentHashMap<String, Location>();
 
+    /**
+     * The Locations ordered by id, changed under indexLock and read without it.
+     */
+    private final SortedLocationIndex sortedIndex = new SortedLocationIndex();
+
+    /**
+     * The snapshots of sortedIndex that clients are paging through, by version.
+     */
+    private final PinnedSnapshots<SortedLocationIndex.Snapshot> pinnedSnapshots = new PinnedSnapshots<SortedLocationIndex.Snapshot>(InMemoryLocationRepository.class);
+
+    /**
+     * The Locations bucketed by coordinates, guarded by indexLock.
+     */
+    private final GeoGridIndex spatialIndex = new GeoGridIndex();
+
+    /**
+     * The number of Locations in each map tile of the zoomed out levels, guarded by indexLock.
+     */
+    private final TilePyramid tilePyramid = new TilePyramid();
+
+    /**
+     * The Locations by name, guarded by indexLock.
+     */
+    private final NameIndex<Location> nameIndex = new NameIndex<Location>(BY_ID) {
+        @Override
+        String nameOf(Location location) {
+            return location.getName();
+        }
+    };
+
+    /**
+     * The latest changes to this repository.
+     */
+    private final ChangeFeed changeFeed;
+
+    /**
+     * The number of changes this repository recorded in its change feed that contended with changes recorded by others.
+     */
+    private final AtomicLong feedContention = new AtomicLong();
+
+    /**
+     * Generates the ids of new Locations.
+     */
+    private final IdGenerator idGenerator;
+
+    /**
+     * Guards the indexes and keeps mutations of locations and the indexes atomic with respect to each other.
+     */
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+
     /**
      * A Counter of the number of requests to this repository for non existant Locations.
      */
@@ -36,47 +115,215 @@ public class InMemoryLocationRepository implements LocationRepository {
      */
     private final CounterMetric badRequestCounter = Metrics.newCounter(InMemoryLocationRepository.class, "bad-request");
 
+    /**
+     * A Counter of the number of conditional requests to this repository for Locations at another version.
+     */
+    private final CounterMetric conflictCounter = Metrics.newCounter(InMemoryLocationRepository.class, "version-conflict");
+
     /**
      * A Histogram of the sizes of lists returned from this repository.
      */
     private final HistogramMetric listSizeMetric = Metrics.newHistogram(InMemoryLocationRepository.class, "list-size");
 
     /**
-     * A Timer on sorting the list results from this repository.
+     * A Histogram of the number of mutations applied at once to this repository.
+     */
+    private final HistogramMetric batchSizeMetric = Metrics.newHistogram(InMemoryLocationRepository.class, "batch-size");
+
+    /**
+     * A Timer on retrieving the ordered list results from this repository.
      */
     private final TimerMetric listSortMetric = Metrics.newTimer(InMemoryLocationRepository.class, "list-sort-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
 
+    /**
+     * A Timer on bounding box queries against this repository.
+     */
+    private final TimerMetric withinMetric = Metrics.newTimer(InMemoryLocationRepository.class, "within-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
 
     /**
-     * A Comparator for Location that orders by id.
+     * A Timer on nearest neighbour queries against this repository.
      */
-    private static class LocationComparator implements Comparator<Location> {
-        public int compare(Location l1, Location l2) {
-            return l1.getId().compareTo(l2.getId());
-        }
+    private final TimerMetric nearestMetric = Metrics.newTimer(InMemoryLocationRepository.class, "nearest-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on tile counts against this repository.
+     */
+    private final TimerMetric tilesMetric = Metrics.newTimer(InMemoryLocationRepository.class, "tiles-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on name searches against this repository.
+     */
+    private final TimerMetric searchMetric = Metrics.newTimer(InMemoryLocationRepository.class, "search-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * Constructs a new, empty InMemoryLocationRepository that generates time ordered ids.
+     */
+    public InMemoryLocationRepository() {
+        this(new UlidIdGenerator());
+    }
+
+    /**
+     * Constructs a new, empty InMemoryLocationRepository.
+     *
+     * @param idGenerator the generator of ids for new Locations
+     */
+    @Inject
+    public InMemoryLocationRepository(IdGenerator idGenerator) {
+        this(idGenerator, new ChangeFeed(InMemoryLocationRepository.class, ChangeFeed.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Constructs a new, empty InMemoryLocationRepository that records its changes in a change feed it may share with
+     * other repositories.
+     *
+     * @param idGenerator the generator of ids for new Locations
+     * @param changeFeed the change feed
+     */
+    InMemoryLocationRepository(IdGenerator idGenerator, ChangeFeed changeFeed) {
+        this.idGenerator = idGenerator;
+        this.changeFeed = changeFeed;
     }
 
     @Override
     public List<Location> list(int startIndex, int pageSize) {
-        if (startIndex >= locations.size()) {
-            listSizeMetric.update(0);
-            return Collections.emptyList();
+        return list(startIndex, pageSize, NO_SNAPSHOT);
+    }
+
+    @Override
+    public List<Location> listAfter(String afterId, int pageSize) {
+        return listAfter(afterId, pageSize, NO_SNAPSHOT);
+    }
+
+    @Override
+    public long pinSnapshot() {
+        SortedLocationIndex.Snapshot snapshot = sortedIndex.snapshot();
+        pinnedSnapshots.pin(snapshot.version, snapshot);
+        return snapshot.version;
+    }
+
+    @Override
+    public List<Location> list(int startIndex, int pageSize, long snapshot) {
+        final TimerContext timerContext = listSortMetric.time();
+        List<Location> locationList;
+        try {
+            locationList = snapshot(snapshot).page(startIndex, pageSize);
+        } finally {
+            timerContext.stop();
         }
-        
-        List<Location> locationList = new ArrayList<Location>(locations.values());
+        listSizeMetric.update(locationList.size());
+        return locationList;
+    }
+
+    @Override
+    public List<Location> listAfter(String afterId, int pageSize, long snapshot) {
         final TimerContext timerContext = listSortMetric.time();
+        List<Location> locationList;
+        try {
+            locationList = snapshot(snapshot).pageAfter(afterId, pageSize);
+        } finally {
+            timerContext.stop();
+        }
+        listSizeMetric.update(locationList.size());
+        return locationList;
+    }
+
+    @Override
+    public List<Location> findWithin(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int limit) {
+        try {
+            GreatCircle.checkLongitude(minLongitude);
+            GreatCircle.checkLongitude(maxLongitude);
+            GreatCircle.checkLatitude(minLatitude);
+            GreatCircle.checkLatitude(maxLatitude);
+            if (minLatitude > maxLatitude) {
+                throw new IllegalArgumentException("Invalid latitude range: " + minLatitude + " to " + maxLatitude);
+            }
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+
+        final TimerContext timerContext = withinMetric.time();
+        indexLock.readLock().lock();
+        try {
+            return spatialIndex.within(minLongitude, minLatitude, maxLongitude, maxLatitude, limit);
+        } finally {
+            indexLock.readLock().unlock();
+            timerContext.stop();
+        }
+    }
+
+    @Override
+    public List<Location> findNearest(double longitude, double latitude, int count, double maxDistanceKm) {
         try {
-            Collections.sort(locationList, new LocationComparator());
+            GreatCircle.checkLongitude(longitude);
+            GreatCircle.checkLatitude(latitude);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+
+        List<GeoGridIndex.Candidate> candidates;
+        final TimerContext timerContext = nearestMetric.time();
+        indexLock.readLock().lock();
+        try {
+            candidates = spatialIndex.nearest(longitude, latitude, count, maxDistanceKm);
         } finally {
+            indexLock.readLock().unlock();
             timerContext.stop();
         }
-        
-        final int fromIndex = Math.min(startIndex, locationList.size());
-        final int toIndex = Math.min(startIndex + pageSize, locationList.size());
-        listSizeMetric.update(toIndex - fromIndex);
-        return locationList.subList(fromIndex, toIndex);
+        List<Location> nearest = new ArrayList<Location>(candidates.size());
+        for (GeoGridIndex.Candidate candidate : candidates) {
+            nearest.add(candidate.location);
+        }
+        return nearest;
     }
-    
+
+    /**
+     * Reads the counts of zoomed out levels from the TilePyramid, and counts the Locations in the requested tiles
+     * of deeper levels.
+     */
+    @Override
+    public List<LocationTile> countTiles(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int zoom) {
+        TilePyramid.TileRange range;
+        try {
+            range = TilePyramid.TileRange.of(minLongitude, minLatitude, maxLongitude, maxLatitude, zoom);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+
+        final TimerContext timerContext = tilesMetric.time();
+        indexLock.readLock().lock();
+        try {
+            if (zoom <= TilePyramid.PRECOMPUTED_ZOOM) {
+                return tilePyramid.tiles(range);
+            }
+            TilePyramid.TileCounter counter = new TilePyramid.TileCounter(range);
+            for (Location location : spatialIndex.within(range.west(), range.south(), range.east(), range.north(), Integer.MAX_VALUE)) {
+                counter.add(location.getLongitude(), location.getLatitude());
+            }
+            return counter.tiles();
+        } finally {
+            indexLock.readLock().unlock();
+            timerContext.stop();
+        }
+    }
+
+    @Override
+    public List<Location> search(String query, int startIndex, int pageSize) {
+        final TimerContext timerContext = searchMetric.time();
+        indexLock.readLock().lock();
+        try {
+            return nameIndex.search(query, startIndex, pageSize);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        } finally {
+            indexLock.readLock().unlock();
+            timerContext.stop();
+        }
+    }
+
     @Override
     public Location get(String id) throws NoSuchElementException {
         Location location = locations.get(id);
@@ -88,20 +335,49 @@ public class InMemoryLocationRepository implements LocationRepository {
     }
 
     @Override
-    public void update(Location location) {
-        Location replaced = locations.replace(location.getId(), location);
-        if (replaced == null) {
-            notFoundCounter.inc();
-            throw new NoSuchElementException("Location: " + location.getId());
+    public Location update(Location location) {
+        return update(location, LocationMutation.ANY_VERSION);
+    }
+
+    @Override
+    public Location update(Location location, long expectedVersion) {
+        indexLock.writeLock().lock();
+        try {
+            Location replaced = current(location.getId(), expectedVersion);
+            Location updated = location.withVersion(replaced.getVersion() + 1);
+            locations.put(updated.getId(), updated);
+            sortedIndex.put(updated);
+            spatialIndex.remove(replaced);
+            tilePyramid.remove(replaced.getLongitude(), replaced.getLatitude());
+            spatialIndex.add(updated);
+            tilePyramid.add(updated.getLongitude(), updated.getLatitude());
+            nameIndex.remove(replaced);
+            nameIndex.add(updated);
+            record(LocationMutation.Type.UPDATE, updated.getId(), updated);
+            return updated;
+        } finally {
+            indexLock.writeLock().unlock();
         }
     }
 
     @Override
     public void remove(String id) {
-        Location removed = locations.remove(id);
-        if (removed == null) {
-            notFoundCounter.inc();
-            throw new NoSuchElementException("Location: " + id);
+        remove(id, LocationMutation.ANY_VERSION);
+    }
+
+    @Override
+    public void remove(String id, long expectedVersion) {
+        indexLock.writeLock().lock();
+        try {
+            Location removed = current(id, expectedVersion);
+            locations.remove(id);
+            sortedIndex.remove(id);
+            spatialIndex.remove(removed);
+            tilePyramid.remove(removed.getLongitude(), removed.getLatitude());
+            nameIndex.remove(removed);
+            record(LocationMutation.Type.REMOVE, id, null);
+        } finally {
+            indexLock.writeLock().unlock();
         }
     }
 
@@ -111,11 +387,204 @@ public class InMemoryLocationRepository implements LocationRepository {
             badRequestCounter.inc();
             throw new IllegalArgumentException("Location already has an id: " + location.getId());
         }
-        Location withId = new Location(UUID.randomUUID().toString(), location);
-        Location existing = locations.putIfAbsent(withId.getId(), withId);
-        if (existing != null) {
-            throw new IllegalStateException("Map already contains location with id: " + existing.getId());
+        return insert(new Location(idGenerator.nextId(), location).withVersion(1L));
+    }
+
+    /**
+     * Creates a Location that has already been assigned an id and version 1.
+     *
+     * <p>This is for implementations that assign ids themselves, such as ShardedLocationRepository.</p>
+     *
+     * @param withId the Location
+     * @return the Location
+     * @throws IllegalStateException if there is already a Location with the id
+     */
+    Location insert(Location withId) throws IllegalStateException {
+        indexLock.writeLock().lock();
+        try {
+            Location existing = locations.putIfAbsent(withId.getId(), withId);
+            if (existing != null) {
+                throw new IllegalStateException("Map already contains location with id: " + existing.getId());
+            }
+            sortedIndex.put(withId);
+            spatialIndex.add(withId);
+            tilePyramid.add(withId.getLongitude(), withId.getLatitude());
+            nameIndex.add(withId);
+            record(LocationMutation.Type.CREATE, withId.getId(), withId);
+        } finally {
+            indexLock.writeLock().unlock();
         }
         return withId;
     }
+
+    @Override
+    public List<MutationResult> apply(List<LocationMutation> mutations) {
+        batchSizeMetric.update(mutations.size());
+        indexLock.writeLock().lock();
+        try {
+            return Mutations.applyEach(this, mutations);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long latestSequence() {
+        return changeFeed.latest();
+    }
+
+    @Override
+    public LocationChanges changesSince(long sequence, int limit, long timeoutMillis) {
+        try {
+            return changeFeed.since(sequence, limit, timeoutMillis);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+    }
+
+    @Override
+    public void addChangeListener(long sequence, Runnable listener) {
+        changeFeed.addListener(sequence, listener);
+    }
+
+    @Override
+    public void removeChangeListener(Runnable listener) {
+        changeFeed.removeListener(listener);
+    }
+
+    /**
+     * Gets the current Location for an id, checking that it is at the expected version. The write lock must be held.
+     *
+     * @param id the id of the Location
+     * @param expectedVersion the version the Location must be at, or ANY_VERSION
+     * @return the current Location
+     * @throws NoSuchElementException if there is no Location with the id
+     * @throws VersionConflictException if the Location is not at the expected version
+     */
+    private Location current(String id, long expectedVersion) throws NoSuchElementException, VersionConflictException {
+        Location current = locations.get(id);
+        if (current == null) {
+            notFoundCounter.inc();
+            throw new NoSuchElementException("Location: " + id);
+        }
+        if (expectedVersion != LocationMutation.ANY_VERSION && current.getVersion() != expectedVersion) {
+            conflictCounter.inc();
+            throw new VersionConflictException(id, expectedVersion, current.getVersion());
+        }
+        return current;
+    }
+
+    /**
+     * Gets a pinned snapshot of the sorted index, falling back to the latest snapshot.
+     *
+     * @param id the id of the snapshot, or NO_SNAPSHOT
+     * @return the snapshot
+     */
+    SortedLocationIndex.Snapshot snapshot(long id) {
+        if (id != NO_SNAPSHOT) {
+            SortedLocationIndex.Snapshot pinned = pinnedSnapshots.get(id);
+            if (pinned != null) {
+                return pinned;
+            }
+        }
+        return sortedIndex.snapshot();
+    }
+
+    /**
+     * Gets the lock that writes to this repository hold.
+     *
+     * @return the write lock
+     */
+    Lock writeLock() {
+        return indexLock.writeLock();
+    }
+
+    /**
+     * Gets the number of Locations in this repository.
+     *
+     * @return the number of Locations
+     */
+    int size() {
+        return locations.size();
+    }
+
+    /**
+     * Estimates the number of threads waiting to read or write this repository.
+     *
+     * @return the number of waiting threads
+     */
+    int lockQueueLength() {
+        return indexLock.getQueueLength();
+    }
+
+    /**
+     * Gets the number of changes this repository recorded in its change feed that contended with changes recorded by
+     * other repositories sharing the feed, or had to wake readers of it.
+     *
+     * @return the number of contended changes
+     */
+    long feedContention() {
+        return feedContention.get();
+    }
+
+    /**
+     * Records a change in the change feed, counting it if it was contended.
+     *
+     * @param type the type of the change
+     * @param id the id of the changed Location
+     * @param location the created or updated Location, null for a removal
+     */
+    private void record(LocationMutation.Type type, String id, Location location) {
+        if (changeFeed.record(type, id, location)) {
+            feedContention.incrementAndGet();
+        }
+    }
+
+    /**
+     * Adds or replaces a Location that already has an id and version, without any of the checks of create and
+     * update.
+     *
+     * <p>This is for implementations that layer on top of this repository and assign ids themselves, such as
+     * DurableLocationRepository when creating Locations or recovering them from disk.</p>
+     *
+     * @param location the Location to add or replace
+     */
+    void restore(Location location) {
+        indexLock.writeLock().lock();
+        try {
+            Location replaced = locations.put(location.getId(), location);
+            sortedIndex.put(location);
+            if (replaced != null) {
+                spatialIndex.remove(replaced);
+                tilePyramid.remove(replaced.getLongitude(), replaced.getLatitude());
+                nameIndex.remove(replaced);
+            }
+            spatialIndex.add(location);
+            tilePyramid.add(location.getLongitude(), location.getLatitude());
+            nameIndex.add(location);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a Location if it is present, without counting a missing Location as not found.
+     *
+     * @param id the id of the Location to remove
+     */
+    void discard(String id) {
+        indexLock.writeLock().lock();
+        try {
+            Location removed = locations.remove(id);
+            if (removed != null) {
+                sortedIndex.remove(id);
+                spatialIndex.remove(removed);
+                tilePyramid.remove(removed.getLongitude(), removed.getLatitude());
+                nameIndex.remove(removed);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
 }
@@ -0,0 +1,823 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.IdGenerator;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.repositories.location.VersionConflictException;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationTile;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.HistogramMetric;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.core.TimerMetric;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An implementation of LocationRepository that stores Locations in a relational database through JDBC.
+ *
+ * <p>Connections come from a ConnectionPool that caches prepared statements per connection. Pages are read with
+ * keyset queries on the primary key, and bounding box queries use an index on latitude and longitude. Name searches
+ * run two queries that can each use an index: one for names starting with the query on the normalized name, and one
+ * for names with a later word starting with the query on a table of the suffixes of normalized names from each word
+ * after the first. Nearest neighbour queries scan the latitude band within the maximum distance, or the whole table
+ * if there is none.</p>
+ *
+ * <p>Mutations are applied in a transaction per call, with consecutive creates sent as a single JDBC batch.
+ * Transactions are committed and recorded in the change feed under one lock, so the change feed holds them in commit
+ * order. The change feed only holds changes made through this repository.</p>
+ *
+ * <p>The schema is created if it does not exist. The SQL has been used with H2, in MVCC mode so that readers do not
+ * block on writers.</p>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class JdbcLocationRepository implements LocationRepository, Closeable {
+
+    private static final String COLUMNS = "id, name, longitude, latitude, version";
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS location (id VARCHAR(36) NOT NULL PRIMARY KEY, name VARCHAR(4096), "
+                    + "search_name VARCHAR(4096), longitude DOUBLE NOT NULL, latitude DOUBLE NOT NULL, version BIGINT NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS location_coordinates ON location (latitude, longitude)",
+            "CREATE INDEX IF NOT EXISTS location_search_name ON location (search_name)",
+            "CREATE TABLE IF NOT EXISTS location_word (suffix VARCHAR(4096) NOT NULL, id VARCHAR(36) NOT NULL, "
+                    + "PRIMARY KEY (suffix, id), FOREIGN KEY (id) REFERENCES location (id) ON DELETE CASCADE)"
+    };
+
+    private static final String LOCATION_COLUMNS = "l.id, l.name, l.longitude, l.latitude, l.version";
+
+    private static final String LIST = "SELECT " + COLUMNS + " FROM location ORDER BY id LIMIT ? OFFSET ?";
+    private static final String LIST_AFTER = "SELECT " + COLUMNS + " FROM location WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String WITHIN = "SELECT " + COLUMNS + " FROM location WHERE latitude BETWEEN ? AND ? "
+            + "AND longitude BETWEEN ? AND ? ORDER BY id LIMIT ?";
+    private static final String WITHIN_ACROSS_ANTIMERIDIAN = "SELECT " + COLUMNS + " FROM location WHERE latitude BETWEEN ? AND ? "
+            + "AND (longitude >= ? OR longitude <= ?) ORDER BY id LIMIT ?";
+    private static final String TILE_SCAN = "SELECT longitude, latitude FROM location WHERE latitude BETWEEN ? AND ? "
+            + "AND longitude BETWEEN ? AND ?";
+    private static final String TILE_SCAN_ACROSS_ANTIMERIDIAN = "SELECT longitude, latitude FROM location WHERE latitude BETWEEN ? AND ? "
+            + "AND (longitude >= ? OR longitude <= ?)";
+    private static final String LATITUDE_BAND = "SELECT " + COLUMNS + " FROM location WHERE latitude BETWEEN ? AND ?";
+    private static final String SEARCH_PREFIX = "SELECT " + COLUMNS + " FROM location WHERE search_name LIKE ? "
+            + "ORDER BY search_name, id LIMIT ? OFFSET ?";
+    private static final String COUNT_PREFIX = "SELECT COUNT(*) FROM location WHERE search_name LIKE ?";
+    // each Location is matched under its last matching word, the shortest matching suffix, as by NameIndex
+    private static final String SEARCH_LATER_WORD = "SELECT " + LOCATION_COLUMNS + " FROM location_word w "
+            + "JOIN location l ON l.id = w.id WHERE w.suffix LIKE ? AND l.search_name NOT LIKE ? "
+            + "AND NOT EXISTS (SELECT 1 FROM location_word m WHERE m.id = w.id AND m.suffix LIKE ? "
+            + "AND LENGTH(m.suffix) < LENGTH(w.suffix)) ORDER BY w.suffix, w.id LIMIT ? OFFSET ?";
+    private static final String SEARCH_NAMES_WITH_WORDS = "SELECT id, search_name FROM location WHERE search_name LIKE '% %'";
+    private static final String GET = "SELECT " + COLUMNS + " FROM location WHERE id = ?";
+    private static final String GET_VERSION = "SELECT version FROM location WHERE id = ?";
+    private static final String INSERT = "INSERT INTO location (id, name, search_name, longitude, latitude, version) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE location SET name = ?, search_name = ?, longitude = ?, latitude = ?, "
+            + "version = version + 1 WHERE id = ?";
+    private static final String UPDATE_IF_VERSION = UPDATE + " AND version = ?";
+    private static final String DELETE = "DELETE FROM location WHERE id = ?";
+    private static final String DELETE_IF_VERSION = DELETE + " AND version = ?";
+    private static final String INSERT_WORD = "INSERT INTO location_word (suffix, id) VALUES (?, ?)";
+    private static final String DELETE_WORDS = "DELETE FROM location_word WHERE id = ?";
+
+    /**
+     * The number of rows fetched at a time by scans.
+     */
+    private static final int SCAN_FETCH_SIZE = 1000;
+
+    private final ConnectionPool pool;
+
+    /**
+     * Generates the ids of new Locations.
+     */
+    private final IdGenerator idGenerator;
+
+    /**
+     * The latest changes to this repository.
+     */
+    private final ChangeFeed changeFeed = new ChangeFeed(JdbcLocationRepository.class, ChangeFeed.DEFAULT_CAPACITY);
+
+    /**
+     * Orders commits with the change feed.
+     */
+    private final Object commitLock = new Object();
+
+    /**
+     * A Counter of the number of requests to this repository for non existant Locations.
+     */
+    private final CounterMetric notFoundCounter = Metrics.newCounter(JdbcLocationRepository.class, "not-found");
+
+    /**
+     * A Counter of the number of invalid requests to this repository.
+     */
+    private final CounterMetric badRequestCounter = Metrics.newCounter(JdbcLocationRepository.class, "bad-request");
+
+    /**
+     * A Counter of the number of conditional requests to this repository for Locations at another version.
+     */
+    private final CounterMetric conflictCounter = Metrics.newCounter(JdbcLocationRepository.class, "version-conflict");
+
+    /**
+     * A Histogram of the sizes of lists returned from this repository.
+     */
+    private final HistogramMetric listSizeMetric = Metrics.newHistogram(JdbcLocationRepository.class, "list-size");
+
+    /**
+     * A Histogram of the number of mutations applied at once to this repository.
+     */
+    private final HistogramMetric batchSizeMetric = Metrics.newHistogram(JdbcLocationRepository.class, "batch-size");
+
+    /**
+     * A Timer on list queries, excluding the wait for a connection.
+     */
+    private final TimerMetric listMetric = Metrics.newTimer(JdbcLocationRepository.class, "list-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on bounding box queries, excluding the wait for a connection.
+     */
+    private final TimerMetric withinMetric = Metrics.newTimer(JdbcLocationRepository.class, "within-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on tile counts, excluding the wait for a connection.
+     */
+    private final TimerMetric tilesMetric = Metrics.newTimer(JdbcLocationRepository.class, "tiles-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on nearest neighbour queries, excluding the wait for a connection.
+     */
+    private final TimerMetric nearestMetric = Metrics.newTimer(JdbcLocationRepository.class, "nearest-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on name searches, excluding the wait for a connection.
+     */
+    private final TimerMetric searchMetric = Metrics.newTimer(JdbcLocationRepository.class, "search-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on lookups by id, excluding the wait for a connection.
+     */
+    private final TimerMetric getMetric = Metrics.newTimer(JdbcLocationRepository.class, "get-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Timer on applying and committing mutations, excluding the wait for a connection.
+     */
+    private final TimerMetric writeMetric = Metrics.newTimer(JdbcLocationRepository.class, "write-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * Work done with a pooled connection.
+     *
+     * @param <T> the result of the work
+     */
+    private interface Work<T> {
+        T run(ConnectionPool.Session session) throws SQLException;
+    }
+
+    /**
+     * Constructs a new JdbcLocationRepository, creating its schema if it does not exist.
+     *
+     * @param url the JDBC URL of the database
+     * @param user the database user
+     * @param password the database password
+     * @param poolSize the maximum number of connections to the database
+     * @throws SQLException if the schema can not be created
+     */
+    public JdbcLocationRepository(String url, String user, String password, int poolSize) throws SQLException {
+        this(url, user, password, poolSize, new UlidIdGenerator());
+    }
+
+    /**
+     * Constructs a new JdbcLocationRepository, creating its schema if it does not exist.
+     *
+     * @param url the JDBC URL of the database
+     * @param user the database user
+     * @param password the database password
+     * @param poolSize the maximum number of connections to the database
+     * @param idGenerator the generator of ids for new Locations
+     * @throws SQLException if the schema can not be created
+     */
+    @Inject
+    public JdbcLocationRepository(@Named("location.jdbc-url") String url,
+                                  @Named("location.jdbc-user") String user,
+                                  @Named("location.jdbc-password") String password,
+                                  @Named("location.jdbc-pool-size") int poolSize,
+                                  IdGenerator idGenerator) throws SQLException {
+        this.idGenerator = idGenerator;
+        this.pool = new ConnectionPool(JdbcLocationRepository.class, url, user, password, poolSize);
+        ConnectionPool.Session session = pool.acquire();
+        boolean failed = true;
+        try {
+            boolean withoutWords = hasTable(session, "LOCATION") && !hasTable(session, "LOCATION_WORD");
+            Statement statement = session.connection.createStatement();
+            try {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+                if (withoutWords) {
+                    // the table of later words was added to an existing schema
+                    ResultSet resultSet = statement.executeQuery(SEARCH_NAMES_WITH_WORDS);
+                    try {
+                        PreparedStatement insert = session.prepare(INSERT_WORD);
+                        while (resultSet.next()) {
+                            addWords(insert, resultSet.getString(1), resultSet.getString(2));
+                        }
+                        insert.executeBatch();
+                    } finally {
+                        resultSet.close();
+                    }
+                }
+            } finally {
+                statement.close();
+            }
+            failed = false;
+        } finally {
+            pool.release(session, failed);
+        }
+    }
+
+    @Override
+    public List<Location> list(final int startIndex, final int pageSize) {
+        if (pageSize <= 0) {
+            return Collections.emptyList();
+        }
+        List<Location> locationList = run(listMetric, new Work<List<Location>>() {
+            @Override
+            public List<Location> run(ConnectionPool.Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(LIST);
+                statement.setInt(1, pageSize);
+                statement.setInt(2, Math.max(startIndex, 0));
+                return locations(statement);
+            }
+        });
+        listSizeMetric.update(locationList.size());
+        return locationList;
+    }
+
+    @Override
+    public List<Location> listAfter(final String afterId, final int pageSize) {
+        if (pageSize <= 0) {
+            return Collections.emptyList();
+        }
+        List<Location> locationList = run(listMetric, new Work<List<Location>>() {
+            @Override
+            public List<Location> run(ConnectionPool.Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(LIST_AFTER);
+                statement.setString(1, afterId);
+                statement.setInt(2, pageSize);
+                return locations(statement);
+            }
+        });
+        listSizeMetric.update(locationList.size());
+        return locationList;
+    }
+
+    /**
+     * Snapshots are not kept, a snapshot would need a transaction held open across requests.
+     */
+    @Override
+    public long pinSnapshot() {
+        return NO_SNAPSHOT;
+    }
+
+    @Override
+    public List<Location> list(int startIndex, int pageSize, long snapshot) {
+        return list(startIndex, pageSize);
+    }
+
+    @Override
+    public List<Location> listAfter(String afterId, int pageSize, long snapshot) {
+        return listAfter(afterId, pageSize);
+    }
+
+    @Override
+    public List<Location> findWithin(final double minLongitude, final double minLatitude,
+                                     final double maxLongitude, final double maxLatitude, final int limit) {
+        try {
+            GreatCircle.checkLongitude(minLongitude);
+            GreatCircle.checkLongitude(maxLongitude);
+            GreatCircle.checkLatitude(minLatitude);
+            GreatCircle.checkLatitude(maxLatitude);
+            if (minLatitude > maxLatitude) {
+                throw new IllegalArgumentException("Invalid latitude range: " + minLatitude + " to " + maxLatitude);
+            }
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        return run(withinMetric, new Work<List<Location>>() {
+            @Override
+            public List<Location> run(ConnectionPool.Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(minLongitude > maxLongitude ? WITHIN_ACROSS_ANTIMERIDIAN : WITHIN);
+                statement.setDouble(1, minLatitude);
+                statement.setDouble(2, maxLatitude);
+                statement.setDouble(3, minLongitude);
+                statement.setDouble(4, maxLongitude);
+                statement.setInt(5, limit);
+                return locations(statement);
+            }
+        });
+    }
+
+    @Override
+    public List<Location> findNearest(final double longitude, final double latitude, final int count, final double maxDistanceKm) {
+        try {
+            GreatCircle.checkLongitude(longitude);
+            GreatCircle.checkLatitude(latitude);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+
+        final PriorityQueue<GeoGridIndex.Candidate> best = new PriorityQueue<GeoGridIndex.Candidate>(count, GeoGridIndex.FARTHEST_FIRST);
+        run(nearestMetric, new Work<Void>() {
+            @Override
+            public Void run(ConnectionPool.Session session) throws SQLException {
+                double band = Math.toDegrees(maxDistanceKm / GreatCircle.EARTH_RADIUS_KM);
+                PreparedStatement statement = session.prepare(LATITUDE_BAND);
+                statement.setDouble(1, Math.max(latitude - band, -90));
+                statement.setDouble(2, Math.min(latitude + band, 90));
+                statement.setFetchSize(SCAN_FETCH_SIZE);
+                ResultSet resultSet = statement.executeQuery();
+                try {
+                    while (resultSet.next()) {
+                        double distance = GreatCircle.distanceKm(longitude, latitude, resultSet.getDouble(3), resultSet.getDouble(4));
+                        if (distance > maxDistanceKm || (best.size() == count && distance >= best.peek().distanceKm)) {
+                            continue;
+                        }
+                        if (best.size() == count) {
+                            best.poll();
+                        }
+                        best.add(new GeoGridIndex.Candidate(location(resultSet), distance));
+                    }
+                } finally {
+                    resultSet.close();
+                }
+                return null;
+            }
+        });
+
+        List<GeoGridIndex.Candidate> candidates = new ArrayList<GeoGridIndex.Candidate>(best);
+        Collections.sort(candidates, Collections.reverseOrder(GeoGridIndex.FARTHEST_FIRST));
+        List<Location> nearest = new ArrayList<Location>(candidates.size());
+        for (GeoGridIndex.Candidate candidate : candidates) {
+            nearest.add(candidate.location);
+        }
+        return nearest;
+    }
+
+    /**
+     * Counts the coordinates of the Locations in the requested tiles, read from the coordinate index.
+     *
+     * <p>No counts are kept between requests because other writers may share the table, so zoomed out views read
+     * every row in view. Cache the responses, or use another engine, for heavy use of zoomed out views.</p>
+     */
+    @Override
+    public List<LocationTile> countTiles(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int zoom) {
+        final TilePyramid.TileRange range;
+        try {
+            range = TilePyramid.TileRange.of(minLongitude, minLatitude, maxLongitude, maxLatitude, zoom);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+
+        return run(tilesMetric, new Work<List<LocationTile>>() {
+            @Override
+            public List<LocationTile> run(ConnectionPool.Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(range.wraps ? TILE_SCAN_ACROSS_ANTIMERIDIAN : TILE_SCAN);
+                statement.setDouble(1, range.south());
+                statement.setDouble(2, range.north());
+                statement.setDouble(3, range.west());
+                statement.setDouble(4, range.east());
+                statement.setFetchSize(SCAN_FETCH_SIZE);
+                TilePyramid.TileCounter counter = new TilePyramid.TileCounter(range);
+                ResultSet resultSet = statement.executeQuery();
+                try {
+                    while (resultSet.next()) {
+                        counter.add(resultSet.getDouble(1), resultSet.getDouble(2));
+                    }
+                } finally {
+                    resultSet.close();
+                }
+                return counter.tiles();
+            }
+        });
+    }
+
+    /**
+     * Searches for Locations by name, best matches first.
+     *
+     * <p>Matches are ranked as by the other implementations. Names starting with the query are read first, and names
+     * with only a later word starting with it are read from the table of later words, after counting the names
+     * starting with the query if the page starts past them. The two queries are not isolated from writes made
+     * between them.</p>
+     */
+    @Override
+    public List<Location> search(String query, final int startIndex, final int pageSize) {
+        final String prefix = NameIndex.normalize(query);
+        if (prefix.length() == 0) {
+            badRequestCounter.inc();
+            throw new IllegalArgumentException("Invalid search query: " + query);
+        }
+        if (pageSize <= 0) {
+            return Collections.emptyList();
+        }
+
+        return run(searchMetric, new Work<List<Location>>() {
+            @Override
+            public List<Location> run(ConnectionPool.Session session) throws SQLException {
+                // normalized names and queries are only letters, digits and spaces, so need no escaping
+                int start = Math.max(startIndex, 0);
+                PreparedStatement statement = session.prepare(SEARCH_PREFIX);
+                statement.setString(1, prefix + "%");
+                statement.setInt(2, pageSize);
+                statement.setInt(3, start);
+                List<Location> page = locations(statement);
+                if (page.size() == pageSize) {
+                    return page;
+                }
+
+                int laterStart = 0;
+                if (page.isEmpty() && start > 0) {
+                    PreparedStatement count = session.prepare(COUNT_PREFIX);
+                    count.setString(1, prefix + "%");
+                    ResultSet resultSet = count.executeQuery();
+                    try {
+                        resultSet.next();
+                        laterStart = (int) Math.max(start - resultSet.getLong(1), 0);
+                    } finally {
+                        resultSet.close();
+                    }
+                }
+                statement = session.prepare(SEARCH_LATER_WORD);
+                statement.setString(1, prefix + "%");
+                statement.setString(2, prefix + "%");
+                statement.setString(3, prefix + "%");
+                statement.setInt(4, pageSize - page.size());
+                statement.setInt(5, laterStart);
+                page.addAll(locations(statement));
+                return page;
+            }
+        });
+    }
+
+    @Override
+    public Location get(final String id) throws NoSuchElementException {
+        List<Location> found = run(getMetric, new Work<List<Location>>() {
+            @Override
+            public List<Location> run(ConnectionPool.Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(GET);
+                statement.setString(1, id);
+                return locations(statement);
+            }
+        });
+        if (found.isEmpty()) {
+            notFoundCounter.inc();
+            throw new NoSuchElementException("Location: " + id);
+        }
+        return found.get(0);
+    }
+
+    @Override
+    public Location update(Location location) throws NoSuchElementException {
+        return applyOne(LocationMutation.update(location));
+    }
+
+    @Override
+    public Location update(Location location, long expectedVersion) throws NoSuchElementException {
+        return applyOne(LocationMutation.update(location, expectedVersion));
+    }
+
+    @Override
+    public void remove(String id) throws NoSuchElementException {
+        applyOne(LocationMutation.remove(id));
+    }
+
+    @Override
+    public void remove(String id, long expectedVersion) throws NoSuchElementException {
+        applyOne(LocationMutation.remove(id, expectedVersion));
+    }
+
+    @Override
+    public Location create(Location location) {
+        return applyOne(LocationMutation.create(location));
+    }
+
+    /**
+     * Applies mutations in a single transaction, sending consecutive creates as one JDBC batch.
+     */
+    @Override
+    public List<MutationResult> apply(final List<LocationMutation> mutations) {
+        batchSizeMetric.update(mutations.size());
+        return run(writeMetric, new Work<List<MutationResult>>() {
+            @Override
+            public List<MutationResult> run(ConnectionPool.Session session) throws SQLException {
+                session.connection.setAutoCommit(false);
+                boolean committed = false;
+                try {
+                    List<MutationResult> results = new ArrayList<MutationResult>(mutations.size());
+                    List<Location> inserts = new ArrayList<Location>();
+                    for (LocationMutation mutation : mutations) {
+                        if (mutation.getType() != LocationMutation.Type.CREATE) {
+                            insert(session, inserts);
+                        }
+                        try {
+                            results.add(MutationResult.success(write(session, mutation, inserts)));
+                        } catch (IllegalArgumentException iae) {
+                            results.add(MutationResult.failure(iae));
+                        } catch (NoSuchElementException nse) {
+                            results.add(MutationResult.failure(nse));
+                        } catch (VersionConflictException vce) {
+                            results.add(MutationResult.failure(vce));
+                        }
+                    }
+                    insert(session, inserts);
+                    synchronized (commitLock) {
+                        session.connection.commit();
+                        committed = true;
+                        for (int i = 0; i < mutations.size(); i++) {
+                            if (results.get(i).isSuccess()) {
+                                LocationMutation mutation = mutations.get(i);
+                                Location location = results.get(i).getLocation();
+                                changeFeed.record(mutation.getType(), location == null ? mutation.getId() : location.getId(), location);
+                            }
+                        }
+                    }
+                    return results;
+                } finally {
+                    if (!committed) {
+                        session.connection.rollback();
+                    }
+                    session.connection.setAutoCommit(true);
+                }
+            }
+        });
+    }
+
+    @Override
+    public long latestSequence() {
+        return changeFeed.latest();
+    }
+
+    @Override
+    public LocationChanges changesSince(long sequence, int limit, long timeoutMillis) {
+        try {
+            return changeFeed.since(sequence, limit, timeoutMillis);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+    }
+
+    @Override
+    public void addChangeListener(long sequence, Runnable listener) {
+        changeFeed.addListener(sequence, listener);
+    }
+
+    @Override
+    public void removeChangeListener(Runnable listener) {
+        changeFeed.removeListener(listener);
+    }
+
+    /**
+     * Closes the connections to the database, after which the repository can not be used.
+     */
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Applies a single mutation, throwing its failure.
+     *
+     * @param mutation the mutation
+     * @return the created or updated Location, null for a removal
+     */
+    private Location applyOne(LocationMutation mutation) {
+        MutationResult result = apply(Collections.singletonList(mutation)).get(0);
+        if (!result.isSuccess()) {
+            throw result.getFailure();
+        }
+        return result.getLocation();
+    }
+
+    /**
+     * Writes a mutation within the current transaction, except that creates are added to the pending inserts.
+     *
+     * @param session the connection
+     * @param mutation the mutation
+     * @param inserts the pending inserts
+     * @return the created or updated Location, null for a removal
+     * @throws SQLException if the mutation can not be written
+     */
+    private Location write(ConnectionPool.Session session, LocationMutation mutation, List<Location> inserts) throws SQLException {
+        long expectedVersion = mutation.getExpectedVersion();
+        boolean conditional = expectedVersion != LocationMutation.ANY_VERSION;
+        switch (mutation.getType()) {
+            case CREATE:
+                if (mutation.getLocation().getId() != null) {
+                    badRequestCounter.inc();
+                    throw new IllegalArgumentException("Location already has an id: " + mutation.getLocation().getId());
+                }
+                Location withId = new Location(idGenerator.nextId(), mutation.getLocation()).withVersion(1L);
+                inserts.add(withId);
+                return withId;
+            case UPDATE:
+                Location location = mutation.getLocation();
+                PreparedStatement update = session.prepare(conditional ? UPDATE_IF_VERSION : UPDATE);
+                update.setString(1, location.getName());
+                update.setString(2, searchName(location));
+                update.setDouble(3, location.getLongitude());
+                update.setDouble(4, location.getLatitude());
+                update.setString(5, location.getId());
+                if (conditional) {
+                    update.setLong(6, expectedVersion);
+                }
+                if (update.executeUpdate() == 0) {
+                    throw missingOrConflict(session, mutation);
+                }
+                PreparedStatement deleteWords = session.prepare(DELETE_WORDS);
+                deleteWords.setString(1, location.getId());
+                deleteWords.executeUpdate();
+                PreparedStatement insertWords = session.prepare(INSERT_WORD);
+                if (addWords(insertWords, location.getId(), searchName(location))) {
+                    insertWords.executeBatch();
+                }
+                return location.withVersion(conditional ? expectedVersion + 1 : currentVersion(session, location.getId()));
+            default:
+                PreparedStatement delete = session.prepare(conditional ? DELETE_IF_VERSION : DELETE);
+                delete.setString(1, mutation.getId());
+                if (conditional) {
+                    delete.setLong(2, expectedVersion);
+                }
+                if (delete.executeUpdate() == 0) {
+                    throw missingOrConflict(session, mutation);
+                }
+                return null;
+        }
+    }
+
+    /**
+     * Sends the pending inserts as a single batch and clears them.
+     *
+     * @param session the connection
+     * @param inserts the pending inserts
+     * @throws SQLException if the inserts fail
+     */
+    private static void insert(ConnectionPool.Session session, List<Location> inserts) throws SQLException {
+        if (inserts.isEmpty()) {
+            return;
+        }
+        PreparedStatement insert = session.prepare(INSERT);
+        for (Location location : inserts) {
+            insert.setString(1, location.getId());
+            insert.setString(2, location.getName());
+            insert.setString(3, searchName(location));
+            insert.setDouble(4, location.getLongitude());
+            insert.setDouble(5, location.getLatitude());
+            insert.setLong(6, location.getVersion());
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        PreparedStatement insertWords = session.prepare(INSERT_WORD);
+        boolean words = false;
+        for (Location location : inserts) {
+            words |= addWords(insertWords, location.getId(), searchName(location));
+        }
+        if (words) {
+            insertWords.executeBatch();
+        }
+        inserts.clear();
+    }
+
+    /**
+     * Adds the later words of a name to a batch of inserts into the table of later words: every suffix of the
+     * normalized name that starts at a word after the first.
+     *
+     * @param insert the insert statement
+     * @param id the id of the Location
+     * @param searchName the normalized name of the Location, may be null
+     * @return true iff any later words were added
+     * @throws SQLException if the words can not be added
+     */
+    private static boolean addWords(PreparedStatement insert, String id, String searchName) throws SQLException {
+        if (searchName == null) {
+            return false;
+        }
+        boolean added = false;
+        for (int i = searchName.indexOf(' '); i >= 0; i = searchName.indexOf(' ', i + 1)) {
+            insert.setString(1, searchName.substring(i + 1));
+            insert.setString(2, id);
+            insert.addBatch();
+            added = true;
+        }
+        return added;
+    }
+
+    private static boolean hasTable(ConnectionPool.Session session, String table) throws SQLException {
+        ResultSet resultSet = session.connection.getMetaData().getTables(null, null, table, null);
+        try {
+            return resultSet.next();
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * Determines why an update or removal matched no rows.
+     *
+     * @return a NoSuchElementException if there is no Location with the id, otherwise a VersionConflictException
+     */
+    private RuntimeException missingOrConflict(ConnectionPool.Session session, LocationMutation mutation) throws SQLException {
+        PreparedStatement statement = session.prepare(GET_VERSION);
+        statement.setString(1, mutation.getId());
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            if (!resultSet.next()) {
+                notFoundCounter.inc();
+                return new NoSuchElementException("Location: " + mutation.getId());
+            }
+            conflictCounter.inc();
+            return new VersionConflictException(mutation.getId(), mutation.getExpectedVersion(), resultSet.getLong(1));
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    private static long currentVersion(ConnectionPool.Session session, String id) throws SQLException {
+        PreparedStatement statement = session.prepare(GET_VERSION);
+        statement.setString(1, id);
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            resultSet.next();
+            return resultSet.getLong(1);
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    /**
+     * Runs work with a pooled connection, timing it once the connection has been acquired.
+     *
+     * @param timer the Timer for the work
+     * @param work the work
+     * @return the result of the work
+     * @throws IllegalStateException if the database fails
+     */
+    private <T> T run(TimerMetric timer, Work<T> work) throws IllegalStateException {
+        ConnectionPool.Session session;
+        try {
+            session = pool.acquire();
+        } catch (SQLException sqle) {
+            throw new IllegalStateException("Failed to connect to location database", sqle);
+        }
+        boolean failed = false;
+        final TimerContext timerContext = timer.time();
+        try {
+            return work.run(session);
+        } catch (SQLException sqle) {
+            failed = true;
+            throw new IllegalStateException("Failed to access location database", sqle);
+        } finally {
+            timerContext.stop();
+            pool.release(session, failed);
+        }
+    }
+
+    private static List<Location> locations(PreparedStatement statement) throws SQLException {
+        ResultSet resultSet = statement.executeQuery();
+        try {
+            List<Location> locations = new ArrayList<Location>();
+            while (resultSet.next()) {
+                locations.add(location(resultSet));
+            }
+            return locations;
+        } finally {
+            resultSet.close();
+        }
+    }
+
+    private static Location location(ResultSet resultSet) throws SQLException {
+        return new Location(resultSet.getString(1), resultSet.getString(2), resultSet.getDouble(3), resultSet.getDouble(4), resultSet.getLong(5));
+    }
+
+    private static String searchName(Location location) {
+        return location.getName() == null ? null : NameIndex.normalize(location.getName());
+    }
+}
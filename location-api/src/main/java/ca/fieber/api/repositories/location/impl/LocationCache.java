@@ -0,0 +1,260 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.GaugeMetric;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of Locations by id, split into independently locked segments that each evict by segmented LRU.
+ *
+ * <p>A segment keeps entries in two LRU lists. New entries go into the probationary list and are promoted to the
+ * protected list when they are read again, and the protected list is limited to most of the segment so that its least
+ * recently used entries are demoted back to probation. Entries are evicted from probation first, so a scan of ids
+ * that are each read once does not flush the entries that are read repeatedly.</p>
+ *
+ * <p>An entry may hold no Location, recording that there is no Location with its id. Entries expire a fixed time
+ * after they are loaded if there is a time to live.</p>
+ *
+ * <p>Loading an entry races with invalidating it, since a Location read before a write may be put in the cache after
+ * the write has invalidated it. Each segment counts its invalidations, and an entry is only put in the cache if no
+ * entry in its segment was invalidated since the {@link #stamp(String)} taken before it was read.</p>
+ *
+ * @author cfieber
+ */
+final class LocationCache {
+
+    /**
+     * The maximum number of segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * The share of each segment kept for entries that have been read more than once.
+     */
+    private static final double PROTECTED_RATIO = 0.8d;
+
+    /**
+     * A cached Location, or the absence of one.
+     */
+    static final class Entry {
+
+        /**
+         * The Location, null if there is no Location with the id.
+         */
+        final Location location;
+
+        private final long loadedNanos;
+
+        private Entry(Location location, long loadedNanos) {
+            this.location = location;
+            this.loadedNanos = loadedNanos;
+        }
+    }
+
+    private final Segment[] segments;
+
+    /**
+     * The time to live of entries in nanoseconds, 0 for no limit.
+     */
+    private final long ttlNanos;
+
+    /**
+     * A Counter of the number of entries evicted to make room for others.
+     */
+    private final CounterMetric evictionCounter;
+
+    /**
+     * Constructs a new LocationCache and registers a gauge for its size.
+     *
+     * @param owner the repository class the cache's metrics are registered for
+     * @param maximumSize the maximum number of entries
+     * @param ttlNanos the time to live of entries in nanoseconds, 0 for no limit
+     */
+    LocationCache(Class<?> owner, int maximumSize, long ttlNanos) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maximumSize);
+        }
+        if (ttlNanos < 0) {
+            throw new IllegalArgumentException("Invalid time to live: " + ttlNanos);
+        }
+        int segmentCount = Integer.highestOneBit(Math.min(maximumSize, MAX_SEGMENTS));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // spread the remainder over the first segments
+            segments[i] = new Segment(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0));
+        }
+        this.ttlNanos = ttlNanos;
+        this.evictionCounter = Metrics.newCounter(owner, "cache-eviction");
+        Metrics.newGauge(owner, "cache-size", new GaugeMetric<Integer>() {
+            @Override
+            public Integer value() {
+                return size();
+            }
+        });
+    }
+
+    /**
+     * Gets the cached entry for an id.
+     *
+     * @param id the id
+     * @return the entry, null if there is none or it has expired
+     */
+    Entry get(String id) {
+        return segmentFor(id).get(id);
+    }
+
+    /**
+     * Gets the stamp to put an entry for an id with, which must be taken before the entry is read.
+     *
+     * @param id the id
+     * @return the stamp
+     */
+    long stamp(String id) {
+        return segmentFor(id).stamp();
+    }
+
+    /**
+     * Puts an entry for an id, unless an entry in its segment has been invalidated since the stamp was taken.
+     *
+     * @param id the id
+     * @param location the Location, null if there is no Location with the id
+     * @param stamp the stamp taken before the Location was read
+     */
+    void put(String id, Location location, long stamp) {
+        segmentFor(id).put(id, location, stamp);
+    }
+
+    /**
+     * Discards the entry for an id.
+     *
+     * @param id the id, ignored if null
+     */
+    void invalidate(String id) {
+        if (id == null) {
+            return;
+        }
+        segmentFor(id).invalidate(id);
+    }
+
+    /**
+     * Gets the number of entries in this cache, including expired entries that have not been discarded yet.
+     *
+     * @return the number of entries
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String id) {
+        int hash = id.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return ttlNanos > 0 && now - entry.loadedNanos >= ttlNanos;
+    }
+
+    /**
+     * A segment of the cache, guarded by itself.
+     */
+    private final class Segment {
+
+        private final int capacity;
+        private final int protectedCapacity;
+
+        /**
+         * Entries read once, least recently added first.
+         */
+        private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<String, Entry>();
+
+        /**
+         * Entries read more than once, least recently read first.
+         */
+        private final LinkedHashMap<String, Entry> protectedEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        /**
+         * The number of invalidations in this segment.
+         */
+        private long invalidations;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (int) (capacity * PROTECTED_RATIO);
+        }
+
+        synchronized Entry get(String id) {
+            long now = System.nanoTime();
+            Entry entry = protectedEntries.get(id);
+            if (entry == null) {
+                entry = probation.remove(id);
+                if (entry == null) {
+                    return null;
+                }
+                if (!isExpired(entry, now)) {
+                    promote(id, entry);
+                    return entry;
+                }
+            } else if (!isExpired(entry, now)) {
+                return entry;
+            }
+            protectedEntries.remove(id);
+            return null;
+        }
+
+        synchronized long stamp() {
+            return invalidations;
+        }
+
+        synchronized void put(String id, Location location, long stamp) {
+            if (stamp != invalidations || protectedEntries.containsKey(id)) {
+                return;
+            }
+            probation.put(id, new Entry(location, System.nanoTime()));
+            while (probation.size() + protectedEntries.size() > capacity) {
+                Map<String, Entry> victims = probation.isEmpty() ? protectedEntries : probation;
+                Iterator<Entry> eldest = victims.values().iterator();
+                eldest.next();
+                eldest.remove();
+                evictionCounter.inc();
+            }
+        }
+
+        synchronized void invalidate(String id) {
+            invalidations++;
+            if (probation.remove(id) == null) {
+                protectedEntries.remove(id);
+            }
+        }
+
+        synchronized int size() {
+            return probation.size() + protectedEntries.size();
+        }
+
+        /**
+         * Moves an entry from probation to the protected list, demoting the least recently read protected entry if
+         * the protected list is full.
+         */
+        private void promote(String id, Entry entry) {
+            if (protectedCapacity == 0) {
+                probation.put(id, entry);
+                return;
+            }
+            protectedEntries.put(id, entry);
+            if (protectedEntries.size() > protectedCapacity) {
+                Iterator<Map.Entry<String, Entry>> eldest = protectedEntries.entrySet().iterator();
+                Map.Entry<String, Entry> demoted = eldest.next();
+                eldest.remove();
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Column storage for Locations held outside of the Java heap.
+ *
+ * <p>Each Location occupies a row of {@link #ROW_BYTES} bytes in a direct ByteBuffer block holding its longitude,
+ * latitude, references to its id and name, and its version. Ids and names are stored UTF-8 encoded with a length prefix in
+ * separate direct string blocks. Rows are addressed by number, a row whose id reference is negative is free.</p>
+ *
+ * <p>A replacement name that fits the bytes of the name it replaces is written over it, otherwise it is appended and
+ * the old bytes are left behind as garbage, as are the strings of freed rows. Garbage is tracked so that it can be
+ * monitored, and once it is more than half of the string blocks the live strings are copied into new blocks by
+ * {@link #compactStrings()}.</p>
+ *
+ * <p>This class is not thread safe, callers are responsible for guarding access to it. Concurrent reads are
+ * safe as long as there are no concurrent writes.</p>
+ *
+ * @author cfieber
+ */
+class LocationColumns {
+
+    /**
+     * The number of rows in a row block.
+     */
+    static final int BLOCK_ROWS = 1 << 16;
+
+    /**
+     * The size of a row: longitude, latitude, id reference, name reference and version.
+     */
+    static final int ROW_BYTES = 40;
+
+    /**
+     * The size of a string block, which also bounds the size of a single encoded string.
+     */
+    static final int STRING_BLOCK_BYTES = 1 << 20;
+
+    private static final int LONGITUDE = 0;
+    private static final int LATITUDE = 8;
+    private static final int ID_REF = 16;
+    private static final int NAME_REF = 24;
+    private static final int VERSION = 32;
+
+    /**
+     * Reference stored for a null string.
+     */
+    private static final long NULL_REF = -1L;
+
+    /**
+     * Charset for ids and names.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final List<ByteBuffer> rowBlocks = new ArrayList<ByteBuffer>();
+    private final List<ByteBuffer> stringBlocks = new ArrayList<ByteBuffer>();
+
+    /**
+     * The number of rows ever allocated, every row below this is either live or free.
+     */
+    private int rowCount;
+
+    /**
+     * The write position in the last string block.
+     */
+    private int stringPosition = STRING_BLOCK_BYTES;
+
+    /**
+     * Bytes of string storage no longer referenced by any row.
+     */
+    private long garbageBytes;
+
+    /**
+     * Encodes a string for storage or comparison.
+     *
+     * @param value the string
+     * @return the UTF-8 encoding of the string
+     */
+    static byte[] encode(String value) {
+        return value.getBytes(UTF8);
+    }
+
+    /**
+     * Gets the number of rows ever allocated.
+     *
+     * @return the row count
+     */
+    int rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Appends a new free row.
+     *
+     * @return the number of the new row
+     */
+    int appendRow() {
+        if (rowCount == rowBlocks.size() * BLOCK_ROWS) {
+            rowBlocks.add(ByteBuffer.allocateDirect(BLOCK_ROWS * ROW_BYTES));
+        }
+        int row = rowCount++;
+        rowBlock(row).putLong(rowOffset(row) + ID_REF, NULL_REF);
+        rowBlock(row).putLong(rowOffset(row) + NAME_REF, NULL_REF);
+        return row;
+    }
+
+    /**
+     * Writes a Location to a row, replacing any previous contents.
+     *
+     * @param row the row number
+     * @param id the encoded id of the Location
+     * @param location the Location
+     */
+    void write(int row, byte[] id, Location location) {
+        ByteBuffer block = rowBlock(row);
+        int base = rowOffset(row);
+        block.putLong(base + ID_REF, appendString(id));
+        writeValues(row, location);
+    }
+
+    /**
+     * Replaces the name, coordinates and version of a live row.
+     *
+     * @param row the row number
+     * @param location the Location holding the new values
+     */
+    void writeValues(int row, Location location) {
+        ByteBuffer block = rowBlock(row);
+        int base = rowOffset(row);
+        block.putDouble(base + LONGITUDE, location.getLongitude());
+        block.putDouble(base + LATITUDE, location.getLatitude());
+        block.putLong(base + VERSION, location.getVersion());
+        long ref = block.getLong(base + NAME_REF);
+        if (location.getName() == null) {
+            discard(ref);
+            block.putLong(base + NAME_REF, NULL_REF);
+            return;
+        }
+        byte[] name = encode(location.getName());
+        if (!overwriteString(ref, name)) {
+            discard(ref);
+            block.putLong(base + NAME_REF, appendString(name));
+        }
+    }
+
+    /**
+     * Frees a row.
+     *
+     * @param row the row number
+     */
+    void free(int row) {
+        ByteBuffer block = rowBlock(row);
+        int base = rowOffset(row);
+        discard(block.getLong(base + ID_REF));
+        discard(block.getLong(base + NAME_REF));
+        block.putLong(base + ID_REF, NULL_REF);
+        block.putLong(base + NAME_REF, NULL_REF);
+    }
+
+    /**
+     * Determines whether a row holds a Location.
+     *
+     * @param row the row number
+     * @return true iff the row holds a Location
+     */
+    boolean isLive(int row) {
+        return rowBlock(row).getLong(rowOffset(row) + ID_REF) != NULL_REF;
+    }
+
+    double longitude(int row) {
+        return rowBlock(row).getDouble(rowOffset(row) + LONGITUDE);
+    }
+
+    double latitude(int row) {
+        return rowBlock(row).getDouble(rowOffset(row) + LATITUDE);
+    }
+
+    long version(int row) {
+        return rowBlock(row).getLong(rowOffset(row) + VERSION);
+    }
+
+    /**
+     * Reads the name of a row.
+     *
+     * @param row the row number
+     * @return the name, may be null
+     */
+    String name(int row) {
+        return readString(rowBlock(row).getLong(rowOffset(row) + NAME_REF));
+    }
+
+    /**
+     * Materializes the Location held in a row.
+     *
+     * @param row the row number
+     * @return a new Location with the values of the row
+     */
+    Location location(int row) {
+        ByteBuffer block = rowBlock(row);
+        int base = rowOffset(row);
+        return new Location(
+                readString(block.getLong(base + ID_REF)),
+                readString(block.getLong(base + NAME_REF)),
+                block.getDouble(base + LONGITUDE),
+                block.getDouble(base + LATITUDE),
+                block.getLong(base + VERSION));
+    }
+
+    /**
+     * Hashes the id of a row consistently with {@link #hash(byte[])}.
+     *
+     * @param row the row number
+     * @return the hash of the row's id
+     */
+    int hashId(int row) {
+        long ref = rowBlock(row).getLong(rowOffset(row) + ID_REF);
+        ByteBuffer block = stringBlocks.get((int) (ref >>> 32));
+        int offset = (int) ref;
+        int length = block.getInt(offset);
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (block.get(offset + 4 + i) & 0xff)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Hashes an encoded id with FNV-1a, folding the high bits into the low bits used by hash tables.
+     *
+     * @param id the encoded id
+     * @return the hash of the id
+     */
+    static int hash(byte[] id) {
+        int hash = 0x811c9dc5;
+        for (byte b : id) {
+            hash = (hash ^ (b & 0xff)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Compares the id of a row with an encoded id by unsigned byte order.
+     *
+     * @param row the row number
+     * @param id the encoded id
+     * @return a negative number, zero or a positive number as the row's id is less than, equal to or greater than id
+     */
+    int compareId(int row, byte[] id) {
+        long ref = rowBlock(row).getLong(rowOffset(row) + ID_REF);
+        ByteBuffer block = stringBlocks.get((int) (ref >>> 32));
+        int offset = (int) ref;
+        int length = block.getInt(offset);
+        int common = Math.min(length, id.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (block.get(offset + 4 + i) & 0xff) - (id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - id.length;
+    }
+
+    /**
+     * Compares the ids of two rows by unsigned byte order.
+     *
+     * @param row1 the first row number
+     * @param row2 the second row number
+     * @return a negative number, zero or a positive number as the first id is less than, equal to or greater than
+     *         the second
+     */
+    int compareIds(int row1, int row2) {
+        long ref1 = rowBlock(row1).getLong(rowOffset(row1) + ID_REF);
+        long ref2 = rowBlock(row2).getLong(rowOffset(row2) + ID_REF);
+        ByteBuffer block1 = stringBlocks.get((int) (ref1 >>> 32));
+        ByteBuffer block2 = stringBlocks.get((int) (ref2 >>> 32));
+        int offset1 = (int) ref1 + 4;
+        int offset2 = (int) ref2 + 4;
+        int length1 = block1.getInt(offset1 - 4);
+        int length2 = block2.getInt(offset2 - 4);
+        int common = Math.min(length1, length2);
+        for (int i = 0; i < common; i++) {
+            int cmp = (block1.get(offset1 + i) & 0xff) - (block2.get(offset2 + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length1 - length2;
+    }
+
+    /**
+     * Sorts row numbers by id.
+     *
+     * @param rows the row numbers
+     * @param length the number of row numbers at the start of rows to sort
+     */
+    void sortById(int[] rows, int length) {
+        if (length > 1) {
+            int[] scratch = new int[length];
+            System.arraycopy(rows, 0, scratch, 0, length);
+            mergeSort(scratch, rows, 0, length);
+        }
+    }
+
+    /**
+     * Gets the number of bytes allocated outside of the heap.
+     *
+     * @return the number of off-heap bytes
+     */
+    long offHeapBytes() {
+        return (long) rowBlocks.size() * BLOCK_ROWS * ROW_BYTES + (long) stringBlocks.size() * STRING_BLOCK_BYTES;
+    }
+
+    /**
+     * Gets the number of string bytes no longer referenced by any row.
+     *
+     * @return the number of garbage bytes
+     */
+    long garbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     * Determines whether garbage is more than half of the string blocks, so that they should be compacted.
+     *
+     * @return true iff the string blocks should be compacted
+     */
+    boolean shouldCompactStrings() {
+        return garbageBytes > (long) stringBlocks.size() * STRING_BLOCK_BYTES / 2;
+    }
+
+    /**
+     * Copies the strings of every live row into new string blocks and releases the old ones, leaving no garbage
+     * other than the unused ends of full blocks. The old blocks are only released once all strings have been copied.
+     */
+    void compactStrings() {
+        List<ByteBuffer> old = new ArrayList<ByteBuffer>(stringBlocks);
+        stringBlocks.clear();
+        stringPosition = STRING_BLOCK_BYTES;
+        garbageBytes = 0;
+        for (int row = 0; row < rowCount; row++) {
+            ByteBuffer block = rowBlock(row);
+            int base = rowOffset(row);
+            long idRef = block.getLong(base + ID_REF);
+            if (idRef == NULL_REF) {
+                continue;
+            }
+            block.putLong(base + ID_REF, appendString(readBytes(old, idRef)));
+            long nameRef = block.getLong(base + NAME_REF);
+            if (nameRef != NULL_REF) {
+                block.putLong(base + NAME_REF, appendString(readBytes(old, nameRef)));
+            }
+        }
+    }
+
+    private void mergeSort(int[] source, int[] target, int from, int to) {
+        if (to - from < 8) {
+            for (int i = from + 1; i < to; i++) {
+                int row = target[i];
+                int j = i - 1;
+                while (j >= from && compareIds(target[j], row) > 0) {
+                    target[j + 1] = target[j];
+                    j--;
+                }
+                target[j + 1] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(target, source, from, middle);
+        mergeSort(target, source, middle, to);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compareIds(source[left], source[right]) <= 0)) {
+                target[i] = source[left++];
+            } else {
+                target[i] = source[right++];
+            }
+        }
+    }
+
+    private long appendString(byte[] value) {
+        int size = 4 + value.length;
+        if (size > STRING_BLOCK_BYTES) {
+            throw new IllegalArgumentException("Value too large: " + value.length + " bytes");
+        }
+        if (stringPosition + size > STRING_BLOCK_BYTES) {
+            if (!stringBlocks.isEmpty()) {
+                garbageBytes += STRING_BLOCK_BYTES - stringPosition;
+            }
+            stringBlocks.add(ByteBuffer.allocateDirect(STRING_BLOCK_BYTES));
+            stringPosition = 0;
+        }
+        ByteBuffer block = stringBlocks.get(stringBlocks.size() - 1);
+        long ref = ((long) (stringBlocks.size() - 1) << 32) | stringPosition;
+        block.putInt(stringPosition, value.length);
+        for (int i = 0; i < value.length; i++) {
+            block.put(stringPosition + 4 + i, value[i]);
+        }
+        stringPosition += size;
+        return ref;
+    }
+
+    /**
+     * Writes a string over a stored string if it fits, leaving any bytes it does not use behind as garbage.
+     *
+     * @param ref the reference to the stored string
+     * @param value the encoded string
+     * @return true iff the string was written
+     */
+    private boolean overwriteString(long ref, byte[] value) {
+        if (ref == NULL_REF) {
+            return false;
+        }
+        ByteBuffer block = stringBlocks.get((int) (ref >>> 32));
+        int offset = (int) ref;
+        int length = block.getInt(offset);
+        if (value.length > length) {
+            return false;
+        }
+        block.putInt(offset, value.length);
+        for (int i = 0; i < value.length; i++) {
+            block.put(offset + 4 + i, value[i]);
+        }
+        garbageBytes += length - value.length;
+        return true;
+    }
+
+    private String readString(long ref) {
+        if (ref == NULL_REF) {
+            return null;
+        }
+        return new String(readBytes(stringBlocks, ref), UTF8);
+    }
+
+    private static byte[] readBytes(List<ByteBuffer> blocks, long ref) {
+        ByteBuffer block = blocks.get((int) (ref >>> 32)).duplicate();
+        int offset = (int) ref;
+        byte[] bytes = new byte[block.getInt(offset)];
+        block.position(offset + 4);
+        block.get(bytes);
+        return bytes;
+    }
+
+    private void discard(long ref) {
+        if (ref != NULL_REF && !stringBlocks.isEmpty()) {
+            garbageBytes += 4 + stringBlocks.get((int) (ref >>> 32)).getInt((int) ref);
+        }
+    }
+
+    private ByteBuffer rowBlock(int row) {
+        return rowBlocks.get(row / BLOCK_ROWS);
+    }
+
+    private static int rowOffset(int row) {
+        return (row % BLOCK_ROWS) * ROW_BYTES;
+    }
+}
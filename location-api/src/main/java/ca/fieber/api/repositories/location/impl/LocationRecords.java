@@ -0,0 +1,185 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * The binary encoding of Location mutations shared by the WriteAheadLog and SnapshotFile.
+ *
+ * <p>A framed record is the payload length, the CRC32 of the payload and the payload itself. A payload is a type
+ * byte followed by the id and, for {@link #PUT} records, the name, longitude, latitude and version of the Location.
+ * Strings are a length, -1 for null, followed by their UTF-8 bytes.</p>
+ *
+ * @author cfieber
+ */
+final class LocationRecords {
+
+    /**
+     * Record type for a created or updated Location.
+     */
+    static final byte PUT = 1;
+
+    /**
+     * Record type for a removed Location.
+     */
+    static final byte REMOVE = 2;
+
+    /**
+     * The size of a record frame header.
+     */
+    static final int FRAME_HEADER_BYTES = 8;
+
+    /**
+     * Receives decoded records.
+     */
+    interface Handler {
+        /**
+         * Handles a created or updated Location.
+         *
+         * @param location the Location
+         */
+        void put(Location location);
+
+        /**
+         * Handles a removed Location.
+         *
+         * @param id the id of the Location
+         */
+        void remove(String id);
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private LocationRecords() {
+    }
+
+    /**
+     * Encodes a framed {@link #PUT} record.
+     *
+     * @param location the Location
+     * @return the framed record
+     */
+    static byte[] put(Location location) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(PUT);
+            writeString(out, location.getId());
+            writeString(out, location.getName());
+            out.writeDouble(location.getLongitude());
+            out.writeDouble(location.getLatitude());
+            out.writeLong(location.getVersion());
+            return frame(bytes.toByteArray());
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Failed to encode location: " + location.getId(), ioe);
+        }
+    }
+
+    /**
+     * Encodes a framed {@link #REMOVE} record.
+     *
+     * @param id the id of the removed Location
+     * @return the framed record
+     */
+    static byte[] remove(String id) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(REMOVE);
+            writeString(out, id);
+            return frame(bytes.toByteArray());
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Failed to encode removal: " + id, ioe);
+        }
+    }
+
+    /**
+     * Reads the payload of a framed record from a buffer, advancing its position past the record.
+     *
+     * <p>If the buffer does not hold a complete record with a valid checksum, its position is left unchanged.</p>
+     *
+     * @param buffer the buffer positioned at the start of a frame
+     * @return the payload, or null if the buffer does not hold a complete and valid record
+     */
+    static byte[] readFrame(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < FRAME_HEADER_BYTES) {
+            return null;
+        }
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+            buffer.position(start);
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        if (checksum(payload) != checksum) {
+            buffer.position(start);
+            return null;
+        }
+        return payload;
+    }
+
+    /**
+     * Decodes a payload and passes it to a Handler.
+     *
+     * @param payload the payload
+     * @param handler the Handler for the record
+     * @throws IOException if the payload is malformed
+     */
+    static void decode(byte[] payload, Handler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String id = readString(in);
+        if (type == PUT) {
+            String name = readString(in);
+            double longitude = in.readDouble();
+            double latitude = in.readDouble();
+            long version = in.readLong();
+            handler.put(new Location(id, name, longitude, latitude, version));
+        } else if (type == REMOVE) {
+            handler.remove(id);
+        } else {
+            throw new IOException("Unknown record type: " + type);
+        }
+    }
+
+    private static byte[] frame(byte[] payload) {
+        ByteBuffer framed = ByteBuffer.allocate(FRAME_HEADER_BYTES + payload.length);
+        framed.putInt(payload.length);
+        framed.putInt(checksum(payload));
+        framed.put(payload);
+        return framed.array();
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,55 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.repositories.location.VersionConflictException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Applies LocationMutations through the single operations of a LocationRepository.
+ *
+ * @author cfieber
+ */
+final class Mutations {
+
+    private Mutations() {
+    }
+
+    /**
+     * Applies mutations in order, the caller is expected to hold whatever lock makes the whole list one pass.
+     *
+     * @param repository the LocationRepository to apply the mutations to
+     * @param mutations the mutations
+     * @return a result for each mutation
+     */
+    static List<MutationResult> applyEach(LocationRepository repository, List<LocationMutation> mutations) {
+        List<MutationResult> results = new ArrayList<MutationResult>(mutations.size());
+        for (LocationMutation mutation : mutations) {
+            try {
+                switch (mutation.getType()) {
+                    case CREATE:
+                        results.add(MutationResult.success(repository.create(mutation.getLocation())));
+                        break;
+                    case UPDATE:
+                        results.add(MutationResult.success(repository.update(mutation.getLocation(), mutation.getExpectedVersion())));
+                        break;
+                    default:
+                        repository.remove(mutation.getId(), mutation.getExpectedVersion());
+                        results.add(MutationResult.success(null));
+                        break;
+                }
+            } catch (IllegalArgumentException iae) {
+                results.add(MutationResult.failure(iae));
+            } catch (NoSuchElementException nse) {
+                results.add(MutationResult.failure(nse));
+            } catch (VersionConflictException vce) {
+                results.add(MutationResult.failure(vce));
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,291 @@
+package ca.fieber.api.repositories.location.impl;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A prefix index over Location names.
+ *
+ * <p>Names are normalized to lower case words of letters and digits without accents. Each name is indexed under
+ * the whole normalized name, and under every suffix of it that starts at a later word, in sorted maps. A query is
+ * normalized the same way and matched as a prefix of those keys, so "tor" finds "Toronto" and "Old Toronto", and
+ * "new yo" finds "New York" and "Greater New York".</p>
+ *
+ * <p>Matches are ranked by quality: a name equal to the query, then names starting with the query, then names with
+ * a later word starting with the query. Within a rank matches are ordered by normalized name and then by the
+ * order the index was constructed with. Pages are produced by walking the keys in that order, so the cost of a
+ * search depends on the position of the page and not on the size of the index. Values under a later word key are
+ * kept with their whole normalized name, shared with its key, so that those already matched by name are skipped
+ * without getting their names again.</p>
+ *
+ * <p>This class is not thread safe, callers are responsible for guarding access to it.</p>
+ *
+ * @param <T> the type of the indexed values
+ * @author cfieber
+ */
+abstract class NameIndex<T> {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * The estimated heap bytes of a key: its map entry, String and char array headers, and its TreeMap or TreeSet.
+     */
+    private static final int KEY_BYTES = 40 + 40 + 64;
+
+    /**
+     * The estimated heap bytes of a value under a key: its TreeMap entry.
+     */
+    private static final int ENTRY_BYTES = 40;
+
+    /**
+     * The order of values indexed under the same key.
+     */
+    private final Comparator<? super T> order;
+
+    /**
+     * Values by normalized name.
+     */
+    private final NavigableMap<String, SortedSet<T>> names = new TreeMap<String, SortedSet<T>>();
+
+    /**
+     * Values, with their whole normalized names, by each suffix of their normalized name that starts at a word after
+     * the first.
+     */
+    private final NavigableMap<String, SortedMap<T, String>> laterWords = new TreeMap<String, SortedMap<T, String>>();
+
+    /**
+     * The number of keys in both maps.
+     */
+    private long keyCount;
+
+    /**
+     * The number of chars in the keys of both maps.
+     */
+    private long keyChars;
+
+    /**
+     * The number of values under the keys of both maps.
+     */
+    private long entryCount;
+
+    /**
+     * The number of values indexed.
+     */
+    private long size;
+
+    /**
+     * Constructs a new NameIndex.
+     *
+     * @param order the order of values with the same name, must be consistent with equals
+     */
+    NameIndex(Comparator<? super T> order) {
+        this.order = order;
+    }
+
+    /**
+     * Gets the name of an indexed value.
+     *
+     * @param value the value
+     * @return the name of the value, may be null
+     */
+    abstract String nameOf(T value);
+
+    /**
+     * Normalizes a name or query.
+     *
+     * @param text the name or query
+     * @return the lower case words of the text without accents, separated by single spaces
+     */
+    static String normalize(String text) {
+        String stripped = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return SEPARATORS.matcher(stripped).replaceAll(" ").trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Gets the key a matching name is ranked by within its tier of search results, for merging the results of
+     * searches of several indexes.
+     *
+     * <p>A name starting with the query is ranked by the whole name, ahead of every name with only a later word
+     * starting with the query. Those are ranked by the rest of the name from the last such word.</p>
+     *
+     * @param normalized the normalized name
+     * @param prefix the normalized query
+     * @return the key, null if the name does not match the query
+     */
+    static String rankKey(String normalized, String prefix) {
+        if (normalized.startsWith(prefix)) {
+            return normalized;
+        }
+        for (int i = normalized.lastIndexOf(' '); i >= 0; i = normalized.lastIndexOf(' ', i - 1)) {
+            if (normalized.startsWith(prefix, i + 1)) {
+                return normalized.substring(i + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a value under its current name.
+     *
+     * @param value the value
+     */
+    void add(T value) {
+        String name = nameOf(value);
+        if (name == null) {
+            return;
+        }
+        String normalized = add(normalize(name), value);
+        for (int i = normalized.indexOf(' '); i >= 0; i = normalized.indexOf(' ', i + 1)) {
+            String key = normalized.substring(i + 1);
+            SortedMap<T, String> values = laterWords.get(key);
+            if (values == null) {
+                values = new TreeMap<T, String>(order);
+                laterWords.put(key, values);
+                keyCount++;
+                keyChars += key.length();
+            }
+            if (values.put(value, normalized) == null) {
+                entryCount++;
+            }
+        }
+    }
+
+    /**
+     * Removes a value, which must still have the name it was added with.
+     *
+     * @param value the value
+     */
+    void remove(T value) {
+        String name = nameOf(value);
+        if (name == null) {
+            return;
+        }
+        String normalized = normalize(name);
+        SortedSet<T> named = names.get(normalized);
+        if (named != null && named.remove(value)) {
+            entryCount--;
+            size--;
+            if (named.isEmpty()) {
+                names.remove(normalized);
+                keyCount--;
+                keyChars -= normalized.length();
+            }
+        }
+        for (int i = normalized.indexOf(' '); i >= 0; i = normalized.indexOf(' ', i + 1)) {
+            String key = normalized.substring(i + 1);
+            SortedMap<T, String> values = laterWords.get(key);
+            if (values != null && values.remove(value) != null) {
+                entryCount--;
+                if (values.isEmpty()) {
+                    laterWords.remove(key);
+                    keyCount--;
+                    keyChars -= key.length();
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap bytes used by this index.
+     *
+     * @param valueBytes the estimated heap bytes of each indexed value that are not shared with other objects
+     * @return the estimated number of heap bytes used
+     */
+    long heapBytes(int valueBytes) {
+        return keyCount * KEY_BYTES + 2 * keyChars + entryCount * ENTRY_BYTES + size * valueBytes;
+    }
+
+    /**
+     * Finds the values whose names match a query, best matches first.
+     *
+     * @param query the query
+     * @param startIndex the index (0 based) into the matches of the first value to return
+     * @param pageSize the maximum number of values to return
+     * @return the matching values
+     * @throws IllegalArgumentException if the query has no letters or digits
+     */
+    List<T> search(String query, int startIndex, int pageSize) throws IllegalArgumentException {
+        String prefix = normalize(query);
+        if (prefix.length() == 0) {
+            throw new IllegalArgumentException("Invalid search query: " + query);
+        }
+        List<T> page = new ArrayList<T>(Math.max(Math.min(pageSize, 64), 0));
+        int skip = Math.max(startIndex, 0);
+        for (SortedSet<T> values : withPrefix(names, prefix).values()) {
+            for (T value : values) {
+                if (page.size() == pageSize) {
+                    return page;
+                }
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    page.add(value);
+                }
+            }
+        }
+        for (Map.Entry<String, SortedMap<T, String>> entry : withPrefix(laterWords, prefix).entrySet()) {
+            if (laterWordMatches(entry.getKey(), prefix)) {
+                // the value is also indexed under this later word, count it there
+                continue;
+            }
+            for (Map.Entry<T, String> value : entry.getValue().entrySet()) {
+                if (page.size() == pageSize) {
+                    return page;
+                }
+                if (value.getValue().startsWith(prefix)) {
+                    // already matched by name
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    page.add(value.getKey());
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Determines whether a word after the first in a key starts with a prefix.
+     */
+    private static boolean laterWordMatches(String key, String prefix) {
+        for (int i = key.indexOf(' '); i >= 0; i = key.indexOf(' ', i + 1)) {
+            if (key.startsWith(prefix, i + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <V> SortedMap<String, V> withPrefix(NavigableMap<String, V> map, String prefix) {
+        return map.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /**
+     * Adds a value under its normalized name.
+     *
+     * @param normalized the normalized name
+     * @param value the value
+     * @return the key the value was added under, equal to the normalized name and shared by every value with it
+     */
+    private String add(String normalized, T value) {
+        SortedSet<T> values = names.get(normalized);
+        String key = normalized;
+        if (values == null) {
+            values = new TreeSet<T>(order);
+            names.put(key, values);
+            keyCount++;
+            keyChars += key.length();
+        } else {
+            key = names.ceilingKey(normalized);
+        }
+        if (values.add(value)) {
+            entryCount++;
+            size++;
+        }
+        return key;
+    }
+}
@@ -0,0 +1,182 @@
+package ca.fieber.api.repositories.location.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the rows of LocationColumns nearest to a point by scanning their coordinates, keeping the nearest rows found
+ * so far in a heap bounded to the number wanted.
+ *
+ * <p>Large scans are split into runs of whole row blocks that are scanned at the same time, one on the calling
+ * thread and the rest on an ExecutorService, each into its own heap. The heaps are merged once every run is done.
+ * Rows are only scored by haversine distance if their difference in latitude alone does not already put them
+ * beyond the farthest row kept.</p>
+ *
+ * <p>Callers must hold a read lock on the columns until the scan has returned.</p>
+ *
+ * @author cfieber
+ */
+final class NearestScan {
+
+    /**
+     * The number of rows below which a scan is not split.
+     */
+    static final int MIN_PARALLEL_ROWS = 2 * LocationColumns.BLOCK_ROWS;
+
+    /**
+     * A lower bound on the distance covered by a degree of latitude, a hair under the true value so that rounding
+     * never rules out a row that is in range.
+     */
+    private static final double KM_PER_DEGREE_LATITUDE = Math.toRadians(1.0d) * GreatCircle.EARTH_RADIUS_KM * (1.0d - 1e-9d);
+
+    /**
+     * A row paired with its distance from the query point.
+     */
+    static final class ScoredRow {
+        final int row;
+        final double distanceKm;
+
+        ScoredRow(int row, double distanceKm) {
+            this.row = row;
+            this.distanceKm = distanceKm;
+        }
+    }
+
+    /**
+     * Orders ScoredRows from farthest to nearest, so that a PriorityQueue using it keeps the farthest at its head.
+     */
+    private static final Comparator<ScoredRow> FARTHEST_FIRST = new Comparator<ScoredRow>() {
+        public int compare(ScoredRow r1, ScoredRow r2) {
+            return Double.compare(r2.distanceKm, r1.distanceKm);
+        }
+    };
+
+    private NearestScan() {
+    }
+
+    /**
+     * Finds the live rows nearest to a point.
+     *
+     * @param columns the columns to scan
+     * @param longitude the longitude of the point in decimal degrees
+     * @param latitude the latitude of the point in decimal degrees
+     * @param count the maximum number of rows to return
+     * @param maxDistanceKm the maximum distance in kilometres of returned rows from the point
+     * @param executor runs all but one of the parts of a split scan, null to never split the scan
+     * @param parts the maximum number of parts to split the scan into
+     * @return the nearest rows, nearest first, never null
+     */
+    static List<ScoredRow> nearest(final LocationColumns columns, final double longitude, final double latitude,
+                                   final int count, final double maxDistanceKm, ExecutorService executor, int parts) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        int rowCount = columns.rowCount();
+        int blockCount = (rowCount + LocationColumns.BLOCK_ROWS - 1) / LocationColumns.BLOCK_ROWS;
+        parts = Math.min(parts, blockCount);
+        if (executor == null || parts <= 1 || rowCount < MIN_PARALLEL_ROWS) {
+            return sorted(scan(columns, longitude, latitude, count, maxDistanceKm, 0, rowCount), count);
+        }
+
+        List<Future<PriorityQueue<ScoredRow>>> running = new ArrayList<Future<PriorityQueue<ScoredRow>>>(parts - 1);
+        List<ScoredRow> merged = new ArrayList<ScoredRow>();
+        try {
+            for (int part = 1; part < parts; part++) {
+                final int from = blockCount * part / parts * LocationColumns.BLOCK_ROWS;
+                final int to = Math.min(blockCount * (part + 1) / parts * LocationColumns.BLOCK_ROWS, rowCount);
+                running.add(executor.submit(new Callable<PriorityQueue<ScoredRow>>() {
+                    @Override
+                    public PriorityQueue<ScoredRow> call() {
+                        return scan(columns, longitude, latitude, count, maxDistanceKm, from, to);
+                    }
+                }));
+            }
+            merged.addAll(scan(columns, longitude, latitude, count, maxDistanceKm, 0, blockCount / parts * LocationColumns.BLOCK_ROWS));
+            for (Future<PriorityQueue<ScoredRow>> part : running) {
+                merged.addAll(part.get());
+            }
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Nearest scan failed", cause);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a nearest scan", ie);
+        } finally {
+            // the caller's read lock is released once this returns, so no part may still be reading
+            for (Future<PriorityQueue<ScoredRow>> part : running) {
+                awaitQuietly(part);
+            }
+        }
+        return sorted(merged, count);
+    }
+
+    /**
+     * Scans a range of rows.
+     *
+     * @return the nearest rows in the range, farthest at the head
+     */
+    private static PriorityQueue<ScoredRow> scan(LocationColumns columns, double longitude, double latitude,
+                                                 int count, double maxDistanceKm, int from, int to) {
+        PriorityQueue<ScoredRow> best = new PriorityQueue<ScoredRow>(Math.max(Math.min(count, to - from), 1), FARTHEST_FIRST);
+        double farthestKm = maxDistanceKm;
+        for (int row = from; row < to; row++) {
+            if (!columns.isLive(row)) {
+                continue;
+            }
+            double rowLatitude = columns.latitude(row);
+            double boundKm = Math.abs(rowLatitude - latitude) * KM_PER_DEGREE_LATITUDE;
+            if (boundKm > farthestKm || (best.size() == count && boundKm >= farthestKm)) {
+                continue;
+            }
+            double distance = GreatCircle.distanceKm(longitude, latitude, columns.longitude(row), rowLatitude);
+            if (distance > farthestKm || (best.size() == count && distance >= farthestKm)) {
+                continue;
+            }
+            if (best.size() == count) {
+                best.poll();
+            }
+            best.add(new ScoredRow(row, distance));
+            if (best.size() == count) {
+                farthestKm = best.peek().distanceKm;
+            }
+        }
+        return best;
+    }
+
+    private static List<ScoredRow> sorted(Collection<ScoredRow> rows, int count) {
+        List<ScoredRow> sorted = new ArrayList<ScoredRow>(rows);
+        Collections.sort(sorted, Collections.reverseOrder(FARTHEST_FIRST));
+        return sorted.size() > count ? sorted.subList(0, count) : sorted;
+    }
+
+    private static void awaitQuietly(Future<?> part) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                part.get();
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            } catch (Exception e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ca.fieber.api.repositories.location.impl;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The snapshots of a repository that clients are paging through, by id.
+ *
+ * <p>A snapshot is kept for a fixed time after it was last pinned or read, and only the most recently used snapshots
+ * are kept, so that clients that stop paging part way do not keep old versions of the repository in memory. A
+ * client whose snapshot has been dropped carries on paging the latest version of the repository.</p>
+ *
+ * <p>Snapshots share the unchanged parts of the repository with each other and with its latest version, so a pin
+ * costs little more than the changes made since, and the table is sized for many clients paging at once.</p>
+ *
+ * @param <T> the type of the snapshots
+ * @author cfieber
+ */
+final class PinnedSnapshots<T> {
+
+    /**
+     * The maximum number of snapshots kept.
+     */
+    static final int MAX_PINNED = 1024;
+
+    /**
+     * The time a snapshot is kept after it was last used.
+     */
+    static final long TTL_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    /**
+     * A pinned snapshot.
+     */
+    private static final class Pin<T> {
+        final T snapshot;
+        long usedNanos;
+
+        Pin(T snapshot, long usedNanos) {
+            this.snapshot = snapshot;
+            this.usedNanos = usedNanos;
+        }
+    }
+
+    /**
+     * The pinned snapshots in order of use, guarded by this.
+     */
+    private final Map<Long, Pin<T>> pins = new LinkedHashMap<Long, Pin<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Pin<T>> eldest) {
+            if (size() <= MAX_PINNED) {
+                return false;
+            }
+            if (System.nanoTime() - eldest.getValue().usedNanos <= TTL_NANOS) {
+                evictedCounter.inc();
+            }
+            return true;
+        }
+    };
+
+    /**
+     * A Counter of the number of reads of snapshots that had been dropped.
+     */
+    private final CounterMetric expiredCounter;
+
+    /**
+     * A Counter of the number of snapshots dropped to make room for others before they expired.
+     */
+    private final CounterMetric evictedCounter;
+
+    /**
+     * Constructs a new, empty PinnedSnapshots.
+     *
+     * @param owner the repository class the metrics are registered for
+     */
+    PinnedSnapshots(Class<?> owner) {
+        this.expiredCounter = Metrics.newCounter(owner, "snapshot-expired");
+        this.evictedCounter = Metrics.newCounter(owner, "snapshot-evicted");
+    }
+
+    /**
+     * Pins a snapshot, or renews the pin if the snapshot is already pinned.
+     *
+     * @param id the id of the snapshot
+     * @param snapshot the snapshot
+     */
+    synchronized void pin(long id, T snapshot) {
+        long now = System.nanoTime();
+        Pin<T> pin = pins.get(id);
+        if (pin == null) {
+            pins.put(id, new Pin<T>(snapshot, now));
+        } else {
+            pin.usedNanos = now;
+        }
+    }
+
+    /**
+     * Gets a pinned snapshot, renewing its pin.
+     *
+     * @param id the id of the snapshot
+     * @return the snapshot, null if it was never pinned or has been dropped
+     */
+    synchronized T get(long id) {
+        long now = System.nanoTime();
+        Pin<T> pin = pins.get(id);
+        if (pin != null && now - pin.usedNanos > TTL_NANOS) {
+            pins.remove(id);
+            pin = null;
+        }
+        if (pin == null) {
+            expiredCounter.inc();
+            return null;
+        }
+        pin.usedNanos = now;
+        return pin.snapshot;
+    }
+}
@@ -0,0 +1,54 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.RepositoryFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A FutureTask that runs its listeners when it completes.
+ *
+ * @param <T> the type of the result
+ * @author cfieber
+ */
+class RepositoryFutureTask<T> extends FutureTask<T> implements RepositoryFuture<T> {
+
+    /**
+     * The listeners to run on completion, guarded by this, null once they have been run.
+     */
+    private List<Runnable> listeners = new ArrayList<Runnable>(1);
+
+    /**
+     * Constructs a new RepositoryFutureTask for a call.
+     *
+     * @param call the call
+     */
+    RepositoryFutureTask(Callable<T> call) {
+        super(call);
+    }
+
+    @Override
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    @Override
+    protected void done() {
+        List<Runnable> completed;
+        synchronized (this) {
+            completed = listeners;
+            listeners = null;
+        }
+        for (Runnable listener : completed) {
+            listener.run();
+        }
+    }
+}
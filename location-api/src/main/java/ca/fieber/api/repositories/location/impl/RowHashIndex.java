@@ -0,0 +1,127 @@
+package ca.fieber.api.repositories.location.impl;
+
+/**
+ * An open addressing hash index from Location id to row number in LocationColumns.
+ *
+ * <p>Slots hold row numbers plus one, zero marks an empty slot. Collisions are resolved by linear probing and
+ * removals shift later entries back, so no tombstones are needed. Ids are not held by the index, they are
+ * compared against the rows themselves.</p>
+ *
+ * <p>This class is not thread safe, callers are responsible for guarding access to it.</p>
+ *
+ * @author cfieber
+ */
+class RowHashIndex {
+
+    /**
+     * The columns holding the ids of indexed rows.
+     */
+    private final LocationColumns columns;
+
+    private int[] slots = new int[1024];
+    private int size;
+
+    /**
+     * Constructs a new RowHashIndex over the provided columns.
+     *
+     * @param columns the columns holding the ids of indexed rows
+     */
+    RowHashIndex(LocationColumns columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Gets the number of indexed rows.
+     *
+     * @return the number of indexed rows
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Finds the row holding an id.
+     *
+     * @param id the encoded id
+     * @return the row number, or -1 if no row holds the id
+     */
+    int find(byte[] id) {
+        int mask = slots.length - 1;
+        for (int slot = LocationColumns.hash(id) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int row = slots[slot] - 1;
+            if (columns.compareId(row, id) == 0) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a row to the index, the row's id must not already be indexed.
+     *
+     * @param row the row number
+     */
+    void add(int row) {
+        if ((size + 1) * 4 > slots.length * 3) {
+            resize(slots.length * 2);
+        }
+        insert(slots, row);
+        size++;
+    }
+
+    /**
+     * Removes a row from the index.
+     *
+     * @param row the row number
+     */
+    void remove(int row) {
+        int mask = slots.length - 1;
+        int slot = columns.hashId(row) & mask;
+        while (slots[slot] != row + 1) {
+            if (slots[slot] == 0) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = 0;
+        size--;
+
+        for (int next = (slot + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+            int home = columns.hashId(slots[next] - 1) & mask;
+            // move the entry back if its home slot is not between the gap and its current slot
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                slots[slot] = slots[next];
+                slots[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of heap bytes used by the index.
+     *
+     * @return the number of heap bytes used
+     */
+    long heapBytes() {
+        return 4L * slots.length;
+    }
+
+    private void resize(int capacity) {
+        int[] resized = new int[capacity];
+        for (int entry : slots) {
+            if (entry != 0) {
+                insert(resized, entry - 1);
+            }
+        }
+        slots = resized;
+    }
+
+    private void insert(int[] table, int row) {
+        int mask = table.length - 1;
+        int slot = columns.hashId(row) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = row + 1;
+    }
+}
@@ -0,0 +1,555 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.IdGenerator;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationTile;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.GaugeMetric;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.core.TimerMetric;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An implementation of LocationRepository that partitions Locations by id across independent in memory shards.
+ *
+ * <p>Each shard is an InMemoryLocationRepository with its own map, indexes and lock, and a Location always lives in
+ * the shard chosen by the hash of its id, so writes to different shards never contend with each other. Lookups and
+ * writes by id go to one shard. Pages are a k-way merge of pages read from every shard in id order, and the other
+ * queries merge the results of every shard the same way the shards order their own.</p>
+ *
+ * <p>Pages are merged from immutable snapshots of the shards, without locking. A snapshot pinned with pinSnapshot
+ * reflects the same writes on all of them, and is normally taken without locking either, otherwise a page, like the
+ * other queries, may reflect a write to one shard but not a concurrent write to another. All shards record their
+ * changes in one change feed, in the order they are made, without locking it.</p>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class ShardedLocationRepository implements LocationRepository {
+
+    /**
+     * The maximum number of Locations read from a shard at a time when merging pages.
+     */
+    static final int MERGE_CHUNK_SIZE = 1000;
+
+    /**
+     * The number of times pinSnapshot reads the shards' snapshots without locking before it locks them.
+     */
+    static final int PIN_ATTEMPTS = 3;
+
+    /**
+     * Orders Candidates from nearest to farthest.
+     */
+    private static final Comparator<GeoGridIndex.Candidate> NEAREST_FIRST = Collections.reverseOrder(GeoGridIndex.FARTHEST_FIRST);
+
+    private final InMemoryLocationRepository[] shards;
+
+    /**
+     * Generates the ids of new Locations.
+     */
+    private final IdGenerator idGenerator;
+
+    /**
+     * A Timer on writes to each shard, including the wait for its lock.
+     */
+    private final TimerMetric[] writeMetrics;
+
+    /**
+     * The latest changes to every shard.
+     */
+    private final ChangeFeed changeFeed = new ChangeFeed(ShardedLocationRepository.class, ChangeFeed.DEFAULT_CAPACITY);
+
+    /**
+     * The snapshots of every shard that clients are paging through, by sequence number.
+     */
+    private final PinnedSnapshots<SortedLocationIndex.Snapshot[]> pinnedSnapshots = new PinnedSnapshots<SortedLocationIndex.Snapshot[]>(ShardedLocationRepository.class);
+
+    /**
+     * A Counter of the number of invalid requests to this repository.
+     */
+    private final CounterMetric badRequestCounter = Metrics.newCounter(ShardedLocationRepository.class, "bad-request");
+
+    /**
+     * A Timer on merging pages from the shards.
+     */
+    private final TimerMetric mergeMetric = Metrics.newTimer(ShardedLocationRepository.class, "merge-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * Constructs a new ShardedLocationRepository and registers gauges for the size and lock queue length of each
+     * shard.
+     *
+     * @param shardCount the number of shards
+     */
+    public ShardedLocationRepository(int shardCount) {
+        this(shardCount, new UlidIdGenerator());
+    }
+
+    /**
+     * Constructs a new ShardedLocationRepository and registers gauges for the size and lock queue length of each
+     * shard.
+     *
+     * @param shardCount the number of shards
+     * @param idGenerator the generator of ids for new Locations
+     */
+    @Inject
+    public ShardedLocationRepository(@Named("location.shard-count") int shardCount, IdGenerator idGenerator) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Invalid shard count: " + shardCount);
+        }
+        this.idGenerator = idGenerator;
+        this.shards = new InMemoryLocationRepository[shardCount];
+        this.writeMetrics = new TimerMetric[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            final InMemoryLocationRepository shard = new InMemoryLocationRepository(idGenerator, changeFeed);
+            shards[i] = shard;
+            writeMetrics[i] = Metrics.newTimer(ShardedLocationRepository.class, "shard-" + i + "-write-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+            Metrics.newGauge(ShardedLocationRepository.class, "shard-" + i + "-size", new GaugeMetric<Integer>() {
+                @Override
+                public Integer value() {
+                    return shard.size();
+                }
+            });
+            Metrics.newGauge(ShardedLocationRepository.class, "shard-" + i + "-lock-queue", new GaugeMetric<Integer>() {
+                @Override
+                public Integer value() {
+                    return shard.lockQueueLength();
+                }
+            });
+            Metrics.newGauge(ShardedLocationRepository.class, "shard-" + i + "-feed-contention", new GaugeMetric<Long>() {
+                @Override
+                public Long value() {
+                    return shard.feedContention();
+                }
+            });
+        }
+    }
+
+    @Override
+    public List<Location> list(int startIndex, int pageSize) {
+        return list(startIndex, pageSize, NO_SNAPSHOT);
+    }
+
+    @Override
+    public List<Location> listAfter(String afterId, int pageSize) {
+        return listAfter(afterId, pageSize, NO_SNAPSHOT);
+    }
+
+    /**
+     * Pins a snapshot of every shard that reflects the same writes, identified by the sequence number of the latest
+     * change.
+     *
+     * <p>The shards' snapshots are read without locking, and kept if no change was recorded while they were read.
+     * Every change up to the sequence number was made before it was recorded, so each is in the snapshots; a write
+     * still in progress may be too, which is harmless as it has not returned yet. Only if writes keep interleaving
+     * are the snapshots read under the write lock of every shard.</p>
+     */
+    @Override
+    public long pinSnapshot() {
+        SortedLocationIndex.Snapshot[] snapshot = new SortedLocationIndex.Snapshot[shards.length];
+        for (int attempt = 0; attempt < PIN_ATTEMPTS; attempt++) {
+            long id = changeFeed.latest();
+            for (int i = 0; i < shards.length; i++) {
+                snapshot[i] = shards[i].snapshot(NO_SNAPSHOT);
+            }
+            if (changeFeed.latest() == id) {
+                pinnedSnapshots.pin(id, snapshot);
+                return id;
+            }
+        }
+        long id;
+        int locked = 0;
+        try {
+            for (; locked < shards.length; locked++) {
+                shards[locked].writeLock().lock();
+            }
+            for (int i = 0; i < shards.length; i++) {
+                snapshot[i] = shards[i].snapshot(NO_SNAPSHOT);
+            }
+            id = changeFeed.latest();
+        } finally {
+            while (locked > 0) {
+                shards[--locked].writeLock().unlock();
+            }
+        }
+        pinnedSnapshots.pin(id, snapshot);
+        return id;
+    }
+
+    @Override
+    public List<Location> list(int startIndex, int pageSize, long snapshot) {
+        final TimerContext timerContext = mergeMetric.time();
+        try {
+            return merge(snapshots(snapshot), null, Math.max(startIndex, 0), pageSize);
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    @Override
+    public List<Location> listAfter(String afterId, int pageSize, long snapshot) {
+        final TimerContext timerContext = mergeMetric.time();
+        try {
+            return merge(snapshots(snapshot), afterId, 0, pageSize);
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    @Override
+    public List<Location> findWithin(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int limit) {
+        List<Location> within = new ArrayList<Location>();
+        for (InMemoryLocationRepository shard : shards) {
+            // every shard validates the box, even once the limit is reached
+            within.addAll(shard.findWithin(minLongitude, minLatitude, maxLongitude, maxLatitude, Math.max(limit - within.size(), 0)));
+        }
+        return within;
+    }
+
+    @Override
+    public List<Location> findNearest(double longitude, double latitude, int count, double maxDistanceKm) {
+        List<GeoGridIndex.Candidate> candidates = new ArrayList<GeoGridIndex.Candidate>();
+        for (InMemoryLocationRepository shard : shards) {
+            for (Location location : shard.findNearest(longitude, latitude, count, maxDistanceKm)) {
+                double distance = GreatCircle.distanceKm(longitude, latitude, location.getLongitude(), location.getLatitude());
+                candidates.add(new GeoGridIndex.Candidate(location, distance));
+            }
+        }
+        Collections.sort(candidates, NEAREST_FIRST);
+        List<Location> nearest = new ArrayList<Location>(Math.min(Math.max(count, 0), candidates.size()));
+        for (GeoGridIndex.Candidate candidate : candidates.subList(0, Math.min(Math.max(count, 0), candidates.size()))) {
+            nearest.add(candidate.location);
+        }
+        return nearest;
+    }
+
+    /**
+     * Adds up the tile counts of every shard.
+     */
+    @Override
+    public List<LocationTile> countTiles(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int zoom) {
+        TilePyramid.TileRange range;
+        try {
+            range = TilePyramid.TileRange.of(minLongitude, minLatitude, maxLongitude, maxLatitude, zoom);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+        TilePyramid.TileCounter counter = new TilePyramid.TileCounter(range);
+        for (InMemoryLocationRepository shard : shards) {
+            counter.addAll(shard.countTiles(minLongitude, minLatitude, maxLongitude, maxLatitude, zoom));
+        }
+        return counter.tiles();
+    }
+
+    /**
+     * Searches every shard for the first <code>startIndex + pageSize</code> matches and merges them in the order
+     * of NameIndex.
+     */
+    @Override
+    public List<Location> search(String query, int startIndex, int pageSize) {
+        final String prefix = NameIndex.normalize(query);
+        int start = Math.max(startIndex, 0);
+        List<Location> matches = new ArrayList<Location>();
+        for (InMemoryLocationRepository shard : shards) {
+            matches.addAll(shard.search(query, 0, start + Math.max(pageSize, 0)));
+        }
+        Collections.sort(matches, new Comparator<Location>() {
+            @Override
+            public int compare(Location location1, Location location2) {
+                String name1 = NameIndex.normalize(location1.getName());
+                String name2 = NameIndex.normalize(location2.getName());
+                boolean first1 = name1.startsWith(prefix);
+                if (first1 != name2.startsWith(prefix)) {
+                    return first1 ? -1 : 1;
+                }
+                int byKey = NameIndex.rankKey(name1, prefix).compareTo(NameIndex.rankKey(name2, prefix));
+                return byKey != 0 ? byKey : location1.getId().compareTo(location2.getId());
+            }
+        });
+        if (start >= matches.size()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<Location>(matches.subList(start, Math.min(start + Math.max(pageSize, 0), matches.size())));
+    }
+
+    @Override
+    public Location get(String id) throws NoSuchElementException {
+        return shardFor(id).get(id);
+    }
+
+    @Override
+    public Location update(Location location) throws NoSuchElementException {
+        return update(location, LocationMutation.ANY_VERSION);
+    }
+
+    @Override
+    public Location update(Location location, long expectedVersion) throws NoSuchElementException {
+        int shard = indexOf(location.getId());
+        final TimerContext timerContext = writeMetrics[shard].time();
+        try {
+            return shards[shard].update(location, expectedVersion);
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    @Override
+    public void remove(String id) throws NoSuchElementException {
+        remove(id, LocationMutation.ANY_VERSION);
+    }
+
+    @Override
+    public void remove(String id, long expectedVersion) throws NoSuchElementException {
+        int shard = indexOf(id);
+        final TimerContext timerContext = writeMetrics[shard].time();
+        try {
+            shards[shard].remove(id, expectedVersion);
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    @Override
+    public Location create(Location location) {
+        if (location.getId() != null) {
+            badRequestCounter.inc();
+            throw new IllegalArgumentException("Location already has an id: " + location.getId());
+        }
+        Location withId = new Location(idGenerator.nextId(), location).withVersion(1L);
+        int shard = indexOf(withId.getId());
+        final TimerContext timerContext = writeMetrics[shard].time();
+        try {
+            return shards[shard].insert(withId);
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    /**
+     * Applies mutations in order, each under the lock of its own shard only, so mutations of different shards may
+     * interleave with concurrent writes.
+     */
+    @Override
+    public List<MutationResult> apply(List<LocationMutation> mutations) {
+        return Mutations.applyEach(this, mutations);
+    }
+
+    @Override
+    public long latestSequence() {
+        return changeFeed.latest();
+    }
+
+    @Override
+    public LocationChanges changesSince(long sequence, int limit, long timeoutMillis) {
+        try {
+            return changeFeed.since(sequence, limit, timeoutMillis);
+        } catch (IllegalArgumentException iae) {
+            badRequestCounter.inc();
+            throw iae;
+        }
+    }
+
+    @Override
+    public void addChangeListener(long sequence, Runnable listener) {
+        changeFeed.addListener(sequence, listener);
+    }
+
+    @Override
+    public void removeChangeListener(Runnable listener) {
+        changeFeed.removeListener(listener);
+    }
+
+    /**
+     * Gets the shard a Location with an id belongs in.
+     *
+     * @param id the id
+     * @return the shard
+     */
+    private InMemoryLocationRepository shardFor(String id) {
+        return shards[indexOf(id)];
+    }
+
+    private int indexOf(String id) {
+        if (id == null) {
+            // let the shard report the missing id
+            return 0;
+        }
+        int hash = id.hashCode();
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards.length;
+    }
+
+    /**
+     * Gets a pinned snapshot of every shard, falling back to the latest snapshot of each shard.
+     *
+     * @param id the id of the snapshot, or NO_SNAPSHOT
+     * @return the snapshot of each shard
+     */
+    private SortedLocationIndex.Snapshot[] snapshots(long id) {
+        if (id != NO_SNAPSHOT) {
+            SortedLocationIndex.Snapshot[] pinned = pinnedSnapshots.get(id);
+            if (pinned != null) {
+                return pinned;
+            }
+        }
+        SortedLocationIndex.Snapshot[] latest = new SortedLocationIndex.Snapshot[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            latest[i] = shards[i].snapshot(NO_SNAPSHOT);
+        }
+        return latest;
+    }
+
+    /**
+     * Merges the shards' Locations in id order.
+     *
+     * <p>A page addressed by position starts from the shards' positions found by startPositions, so it costs the
+     * same as a page addressed by id rather than growing with its position.</p>
+     *
+     * @param snapshots the snapshot of each shard to merge
+     * @param afterId the id after which to start, null to start from the start index
+     * @param startIndex the position (0 based) in id order of the first Location, ignored if afterId is not null
+     * @param pageSize the maximum number of Locations to return
+     * @return the page
+     */
+    private List<Location> merge(SortedLocationIndex.Snapshot[] snapshots, String afterId, int startIndex, int pageSize) {
+        if (pageSize <= 0) {
+            return Collections.emptyList();
+        }
+        int[] starts = null;
+        if (afterId == null) {
+            starts = startPositions(snapshots, startIndex);
+            if (starts == null) {
+                return Collections.emptyList();
+            }
+        }
+        int chunkSize = Math.min(pageSize, MERGE_CHUNK_SIZE);
+        PriorityQueue<ShardCursor> cursors = new PriorityQueue<ShardCursor>(shards.length);
+        for (int i = 0; i < snapshots.length; i++) {
+            ShardCursor cursor = new ShardCursor(snapshots[i], afterId, starts == null ? 0 : starts[i], chunkSize);
+            if (cursor.head() != null) {
+                cursors.add(cursor);
+            }
+        }
+
+        List<Location> page = new ArrayList<Location>(Math.min(pageSize, MERGE_CHUNK_SIZE));
+        while (page.size() < pageSize && !cursors.isEmpty()) {
+            ShardCursor cursor = cursors.poll();
+            page.add(cursor.head());
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Finds where the Location at a position in the merged id order is found in each shard, by selection rather than
+     * by merging the Locations before it.
+     *
+     * <p>Each shard keeps a range of the positions that can still hold the Location. The id in the middle of the
+     * widest range is ranked in every shard, which gives its position in the merged order: if it is the one wanted
+     * the ranks are the start positions, otherwise every range is cut to the side of the id that holds the
+     * Location. That takes O(s log n) steps of O(s log n) each for s shards of up to n Locations.</p>
+     *
+     * @param snapshots the snapshot of each shard
+     * @param startIndex the position (0 based) in the merged id order
+     * @return the position of the first Location at or after startIndex in each shard, null if startIndex is past the
+     *         last Location
+     */
+    private static int[] startPositions(SortedLocationIndex.Snapshot[] snapshots, int startIndex) {
+        int[] low = new int[snapshots.length];
+        int[] high = new int[snapshots.length];
+        long total = 0;
+        for (int i = 0; i < snapshots.length; i++) {
+            high[i] = snapshots[i].size();
+            total += high[i];
+        }
+        if (startIndex >= total) {
+            return null;
+        }
+        if (startIndex == 0) {
+            return low;
+        }
+        int[] ranks = new int[snapshots.length];
+        while (true) {
+            int widest = 0;
+            for (int i = 1; i < snapshots.length; i++) {
+                if (high[i] - low[i] > high[widest] - low[widest]) {
+                    widest = i;
+                }
+            }
+            // the Location is always within some range, so the widest is not empty
+            int middle = (low[widest] + high[widest]) >>> 1;
+            String pivot = snapshots[widest].page(middle, 1).get(0).getId();
+            long before = 0;
+            for (int i = 0; i < snapshots.length; i++) {
+                ranks[i] = i == widest ? middle : snapshots[i].rank(pivot);
+                before += ranks[i];
+            }
+            if (before == startIndex) {
+                return ranks;
+            }
+            for (int i = 0; i < snapshots.length; i++) {
+                if (before < startIndex) {
+                    low[i] = Math.max(low[i], i == widest ? middle + 1 : ranks[i]);
+                } else {
+                    high[i] = Math.min(high[i], ranks[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A position in the Locations of a shard's snapshot in id order, read a chunk at a time.
+     */
+    private static final class ShardCursor implements Comparable<ShardCursor> {
+
+        private final SortedLocationIndex.Snapshot snapshot;
+        private final int chunkSize;
+        private List<Location> chunk;
+        private int position;
+
+        ShardCursor(SortedLocationIndex.Snapshot snapshot, String afterId, int startIndex, int chunkSize) {
+            this.snapshot = snapshot;
+            this.chunkSize = chunkSize;
+            this.chunk = afterId == null ? snapshot.page(startIndex, chunkSize) : snapshot.pageAfter(afterId, chunkSize);
+        }
+
+        /**
+         * Gets the Location at this position.
+         *
+         * @return the Location, null once the shard is exhausted
+         */
+        Location head() {
+            return position < chunk.size() ? chunk.get(position) : null;
+        }
+
+        /**
+         * Moves to the next Location, reading the next chunk if needed.
+         *
+         * @return true if there is a next Location
+         */
+        boolean advance() {
+            position++;
+            if (position == chunk.size() && chunk.size() == chunkSize) {
+                chunk = snapshot.pageAfter(chunk.get(position - 1).getId(), chunkSize);
+                position = 0;
+            }
+            return head() != null;
+        }
+
+        @Override
+        public int compareTo(ShardCursor other) {
+            return head().getId().compareTo(other.head().getId());
+        }
+    }
+}
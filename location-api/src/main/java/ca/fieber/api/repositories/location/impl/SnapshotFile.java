@@ -0,0 +1,157 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Snapshots of every Location in a repository as of a WriteAheadLog sequence number, read and written through
+ * memory mapped windows.
+ *
+ * <p>A snapshot is a header holding a magic number, the sequence number and the number of Locations, followed by a
+ * framed {@link LocationRecords#PUT} record for each Location. Snapshots are written to a temporary file that is
+ * renamed once it has been forced to disk, so a snapshot file that exists is always complete.</p>
+ *
+ * @author cfieber
+ */
+final class SnapshotFile {
+
+    /**
+     * The size of the memory mapped window used to read and write snapshots.
+     */
+    static final int WINDOW_BYTES = 64 << 20;
+
+    private static final long MAGIC = 0x4c4f43534e415001L;
+    private static final int HEADER_BYTES = 24;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Writes a snapshot and deletes the snapshots older than the one before it.
+     *
+     * <p>The directory can not be forced to disk, so after a crash the rename of a new snapshot may be lost while
+     * later deletions survive. The previous snapshot is kept, together with the log segments from its sequence number
+     * on, until the next snapshot has been written, so that recovery can always fall back to it.</p>
+     *
+     * @param directory the directory holding snapshots
+     * @param sequence the sequence number of the first log record not included in the snapshot
+     * @param locations every Location in the repository as of the sequence number
+     * @throws IOException if the snapshot can not be written
+     */
+    static void write(File directory, long sequence, Collection<Location> locations) throws IOException {
+        File temp = new File(directory, name(sequence) + TEMP_SUFFIX);
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            channel.truncate(0);
+            long windowStart = 0;
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, WINDOW_BYTES);
+            window.putLong(MAGIC);
+            window.putLong(sequence);
+            window.putLong(locations.size());
+            for (Location location : locations) {
+                byte[] record = LocationRecords.put(location);
+                if (record.length > window.remaining()) {
+                    window.force();
+                    windowStart += window.position();
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, Math.max(WINDOW_BYTES, record.length));
+                }
+                window.put(record);
+            }
+            window.force();
+            channel.truncate(windowStart + window.position());
+            channel.force(true);
+        } finally {
+            file.close();
+        }
+
+        File snapshot = new File(directory, name(sequence));
+        if (!temp.renameTo(snapshot)) {
+            throw new IOException("Failed to rename " + temp + " to " + snapshot);
+        }
+        long[] snapshots = snapshots(directory);
+        for (int i = 0; i + 1 < snapshots.length && snapshots[i + 1] < sequence; i++) {
+            new File(directory, name(snapshots[i])).delete();
+        }
+    }
+
+    /**
+     * Reads the most recent snapshot.
+     *
+     * @param directory the directory holding snapshots
+     * @param handler the Handler for the snapshot's Locations
+     * @return the sequence number of the snapshot, or 0 if there is no snapshot
+     * @throws IOException if the snapshot can not be read or is corrupt
+     */
+    static long readLatest(File directory, LocationRecords.Handler handler) throws IOException {
+        long[] snapshots = snapshots(directory);
+        if (snapshots.length == 0) {
+            return 0;
+        }
+        File snapshot = new File(directory, name(snapshots[snapshots.length - 1]));
+        RandomAccessFile file = new RandomAccessFile(snapshot, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            long windowStart = 0;
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_BYTES, size));
+            if (size < HEADER_BYTES || window.getLong() != MAGIC) {
+                throw new IOException("Not a snapshot: " + snapshot);
+            }
+            long sequence = window.getLong();
+            long count = window.getLong();
+            for (long i = 0; i < count; i++) {
+                byte[] payload = LocationRecords.readFrame(window);
+                if (payload == null) {
+                    windowStart += window.position();
+                    int frameBytes = window.remaining() < LocationRecords.FRAME_HEADER_BYTES
+                            ? 0 : LocationRecords.FRAME_HEADER_BYTES + window.getInt(window.position());
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                            Math.min(Math.max(WINDOW_BYTES, frameBytes), size - windowStart));
+                    payload = LocationRecords.readFrame(window);
+                    if (payload == null) {
+                        throw new IOException("Corrupt snapshot " + snapshot + " at offset " + windowStart);
+                    }
+                }
+                LocationRecords.decode(payload, handler);
+            }
+            return sequence;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static long[] snapshots(File directory) {
+        String[] names = directory.list();
+        long[] snapshots = new long[names == null ? 0 : names.length];
+        int count = 0;
+        for (int i = 0; i < snapshots.length; i++) {
+            if (names[i].startsWith(SNAPSHOT_PREFIX) && names[i].endsWith(SNAPSHOT_SUFFIX)) {
+                try {
+                    snapshots[count] = Long.parseLong(names[i].substring(SNAPSHOT_PREFIX.length(), names[i].length() - SNAPSHOT_SUFFIX.length()));
+                    count++;
+                } catch (NumberFormatException nfe) {
+                    // not a snapshot
+                }
+            }
+        }
+        snapshots = Arrays.copyOf(snapshots, count);
+        Arrays.sort(snapshots);
+        return snapshots;
+    }
+
+    private static String name(long sequence) {
+        return String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX);
+    }
+}
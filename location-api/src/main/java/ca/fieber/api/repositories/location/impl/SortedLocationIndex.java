@@ -0,0 +1,353 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * An index of Locations ordered by id that supports positional access.
+ *
+ * <p>The index is a treap in which every node also tracks the size of its subtree, so finding the Location at
+ * a given position takes O(log n) and a page of <code>pageSize</code> Locations takes O(log n + pageSize), whether
+ * the page is addressed by position or by the id it follows.</p>
+ *
+ * <p>The treap is persistent. Nodes are never modified, a change copies the O(log n) nodes on the path to the
+ * changed node and publishes a new Snapshot of the whole index. Readers take the current Snapshot without locking
+ * and read it without ever seeing later changes, and may keep it to read the index as it was.</p>
+ *
+ * <p>Changes are not thread safe, callers are responsible for making sure there is only one writer at a time.
+ * Reads are safe at any time.</p>
+ *
+ * @author cfieber
+ */
+class SortedLocationIndex {
+
+    /**
+     * A node in the treap.
+     */
+    private static final class Node {
+        final String key;
+        final int priority;
+        final Location value;
+        final Node left;
+        final Node right;
+        final int size;
+
+        Node(Location value, int priority, Node left, Node right) {
+            this.key = value.getId();
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+        }
+    }
+
+    /**
+     * An immutable view of the index at one version.
+     */
+    static final class Snapshot {
+
+        /**
+         * The version of the index, which increases with every change.
+         */
+        final long version;
+
+        private final Node root;
+
+        private Snapshot(long version, Node root) {
+            this.version = version;
+            this.root = root;
+        }
+
+        /**
+         * Gets the number of Locations in this snapshot.
+         *
+         * @return the number of Locations in this snapshot
+         */
+        int size() {
+            return SortedLocationIndex.size(root);
+        }
+
+        /**
+         * Gets the number of Locations in this snapshot whose ids are before an id, which is the position the id
+         * has, or would have, in id order.
+         *
+         * @param id the id, which does not need to be present in the snapshot
+         * @return the number of Locations before the id
+         */
+        int rank(String id) {
+            int rank = 0;
+            Node node = root;
+            while (node != null) {
+                if (id.compareTo(node.key) <= 0) {
+                    node = node.left;
+                } else {
+                    rank += SortedLocationIndex.size(node.left) + 1;
+                    node = node.right;
+                }
+            }
+            return rank;
+        }
+
+        /**
+         * Gets a page of Locations in id order.
+         *
+         * @param startIndex the index (0 based) of the first Location in the page
+         * @param pageSize the maximum number of Locations in the page
+         * @return the Locations in the page, never null
+         */
+        List<Location> page(int startIndex, int pageSize) {
+            if (startIndex < 0 || pageSize <= 0 || startIndex >= size()) {
+                return Collections.emptyList();
+            }
+
+            List<Node> path = new ArrayList<Node>();
+            Node node = root;
+            int rank = startIndex;
+            while (node != null) {
+                int leftSize = SortedLocationIndex.size(node.left);
+                if (rank < leftSize) {
+                    path.add(node);
+                    node = node.left;
+                } else if (rank == leftSize) {
+                    path.add(node);
+                    break;
+                } else {
+                    rank -= leftSize + 1;
+                    node = node.right;
+                }
+            }
+            return collect(path, pageSize);
+        }
+
+        /**
+         * Gets a page of Locations in id order starting after the specified id.
+         *
+         * <p>The id does not need to be present in the index.</p>
+         *
+         * @param afterId the id after which the page starts
+         * @param pageSize the maximum number of Locations in the page
+         * @return the Locations in the page, never null
+         */
+        List<Location> pageAfter(String afterId, int pageSize) {
+            if (pageSize <= 0) {
+                return Collections.emptyList();
+            }
+
+            List<Node> path = new ArrayList<Node>();
+            Node node = root;
+            while (node != null) {
+                if (afterId.compareTo(node.key) < 0) {
+                    path.add(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+            return collect(path, pageSize);
+        }
+
+        /**
+         * Gets every Location in this snapshot in id order, as a view that walks the snapshot while it is iterated
+         * rather than a copy.
+         *
+         * @return the Locations, which can not be modified
+         */
+        Collection<Location> locations() {
+            return new AbstractCollection<Location>() {
+                @Override
+                public int size() {
+                    return Snapshot.this.size();
+                }
+
+                @Override
+                public Iterator<Location> iterator() {
+                    final List<Node> path = new ArrayList<Node>();
+                    for (Node next = root; next != null; next = next.left) {
+                        path.add(next);
+                    }
+                    return new Iterator<Location>() {
+                        @Override
+                        public boolean hasNext() {
+                            return !path.isEmpty();
+                        }
+
+                        @Override
+                        public Location next() {
+                            if (path.isEmpty()) {
+                                throw new NoSuchElementException();
+                            }
+                            Node node = path.remove(path.size() - 1);
+                            for (Node next = node.right; next != null; next = next.left) {
+                                path.add(next);
+                            }
+                            return node.value;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+        /**
+         * Walks the snapshot in order starting from the top of the provided path.
+         *
+         * <p>The path holds the ancestors whose keys are greater than the starting Location with the starting
+         * Location itself last.</p>
+         *
+         * @param path the ancestors of the starting Location, consumed by this method
+         * @param pageSize the maximum number of Locations to collect
+         * @return the collected Locations
+         */
+        private List<Location> collect(List<Node> path, int pageSize) {
+            List<Location> page = new ArrayList<Location>(Math.min(pageSize, size()));
+            while (!path.isEmpty() && page.size() < pageSize) {
+                Node node = path.remove(path.size() - 1);
+                page.add(node.value);
+                for (Node next = node.right; next != null; next = next.left) {
+                    path.add(next);
+                }
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Source of node priorities.
+     */
+    private final Random random = new Random();
+
+    /**
+     * The latest snapshot of the index. Versions start from the current time in milliseconds shifted left by 20 bits,
+     * as ChangeFeed sequence numbers do, so that versions from before a restart are unlikely to be reused.
+     */
+    private volatile Snapshot current = new Snapshot(System.currentTimeMillis() << 20, null);
+
+    /**
+     * Gets the latest snapshot of this index.
+     *
+     * @return the latest snapshot
+     */
+    Snapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Gets the number of Locations in this index.
+     *
+     * @return the number of Locations in this index
+     */
+    int size() {
+        return current.size();
+    }
+
+    /**
+     * Adds a Location to this index, replacing any existing Location with the same id.
+     *
+     * @param location the Location to add
+     */
+    void put(Location location) {
+        Snapshot snapshot = current;
+        current = new Snapshot(snapshot.version + 1, put(snapshot.root, location));
+    }
+
+    /**
+     * Removes the Location with the specified id from this index if present.
+     *
+     * @param id the id of the Location to remove
+     */
+    void remove(String id) {
+        Snapshot snapshot = current;
+        Node root = remove(snapshot.root, id);
+        if (root != snapshot.root) {
+            current = new Snapshot(snapshot.version + 1, root);
+        }
+    }
+
+    /**
+     * Gets a page of Locations in id order from the latest snapshot.
+     *
+     * @see Snapshot#page(int, int)
+     */
+    List<Location> page(int startIndex, int pageSize) {
+        return current.page(startIndex, pageSize);
+    }
+
+    /**
+     * Gets a page of Locations in id order starting after the specified id from the latest snapshot.
+     *
+     * @see Snapshot#pageAfter(String, int)
+     */
+    List<Location> pageAfter(String afterId, int pageSize) {
+        return current.pageAfter(afterId, pageSize);
+    }
+
+    private Node put(Node node, Location location) {
+        if (node == null) {
+            return new Node(location, random.nextInt(), null, null);
+        }
+        int cmp = location.getId().compareTo(node.key);
+        if (cmp == 0) {
+            return new Node(location, node.priority, node.left, node.right);
+        }
+        if (cmp < 0) {
+            Node left = put(node.left, location);
+            if (left.priority > node.priority) {
+                // rotate right
+                return new Node(left.value, left.priority, left.left, new Node(node.value, node.priority, left.right, node.right));
+            }
+            return new Node(node.value, node.priority, left, node.right);
+        }
+        Node right = put(node.right, location);
+        if (right.priority > node.priority) {
+            // rotate left
+            return new Node(right.value, right.priority, new Node(node.value, node.priority, node.left, right.left), right.right);
+        }
+        return new Node(node.value, node.priority, node.left, right);
+    }
+
+    private Node remove(Node node, String id) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = id.compareTo(node.key);
+        if (cmp < 0) {
+            Node left = remove(node.left, id);
+            return left == node.left ? node : new Node(node.value, node.priority, left, node.right);
+        }
+        if (cmp > 0) {
+            Node right = remove(node.right, id);
+            return right == node.right ? node : new Node(node.value, node.priority, node.left, right);
+        }
+        return merge(node.left, node.right);
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return new Node(left.value, left.priority, left.left, merge(left.right, right));
+        }
+        return new Node(right.value, right.priority, merge(left, right.left), right.right);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+}
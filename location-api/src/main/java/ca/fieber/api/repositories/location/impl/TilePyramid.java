@@ -0,0 +1,380 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.LocationTile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts of Locations in the slippy map tiles of every zoom level up to PRECOMPUTED_ZOOM, kept up to date as
+ * Locations are added and removed, so that zoomed out views of any number of Locations are answered by reading a
+ * handful of counts.
+ *
+ * <p>Each level is a dense array of 4<sup>zoom</sup> counts, around 1.4MB in all. Deeper levels would need about as
+ * many counts as there are Locations, so they are counted on request with a TileCounter from the Locations in the
+ * requested tiles, which are few when zoomed in that far.</p>
+ *
+ * <p>This class is not thread safe, callers are responsible for guarding access to it.</p>
+ *
+ * @author cfieber
+ */
+class TilePyramid {
+
+    /**
+     * The deepest zoom level whose counts are kept up to date.
+     */
+    static final int PRECOMPUTED_ZOOM = 9;
+
+    /**
+     * The deepest zoom level that can be requested.
+     */
+    static final int MAX_ZOOM = 22;
+
+    /**
+     * The maximum number of tiles that a request may span.
+     */
+    static final int MAX_TILES = 16384;
+
+    /**
+     * The latitude of the north edge of the Web Mercator projection, Locations further north or south are counted
+     * in the tiles at the edge.
+     */
+    private static final double MAX_LATITUDE = 85.0511287798066d;
+
+    /**
+     * The margin added to the edges of a TileRange, so that rounding never leaves out a Location in its tiles.
+     */
+    private static final double EDGE_MARGIN = 1e-9d;
+
+    /**
+     * The counts of each zoom level up to PRECOMPUTED_ZOOM, indexed by <code>y * 2^zoom + x</code>.
+     */
+    private final int[][] levels = new int[PRECOMPUTED_ZOOM + 1][];
+
+    /**
+     * Constructs a new, empty TilePyramid.
+     */
+    TilePyramid() {
+        for (int zoom = 0; zoom <= PRECOMPUTED_ZOOM; zoom++) {
+            levels[zoom] = new int[1 << (2 * zoom)];
+        }
+    }
+
+    /**
+     * Counts a Location.
+     *
+     * @param longitude the longitude of the Location
+     * @param latitude the latitude of the Location
+     */
+    void add(double longitude, double latitude) {
+        update(longitude, latitude, 1);
+    }
+
+    /**
+     * Stops counting a Location.
+     *
+     * @param longitude the longitude of the Location when it was added
+     * @param latitude the latitude of the Location when it was added
+     */
+    void remove(double longitude, double latitude) {
+        update(longitude, latitude, -1);
+    }
+
+    /**
+     * Gets the approximate number of bytes of heap used by this TilePyramid.
+     *
+     * @return the number of bytes used
+     */
+    long heapBytes() {
+        long bytes = 0;
+        for (int[] level : levels) {
+            bytes += 4L * level.length;
+        }
+        return bytes;
+    }
+
+    private void update(double longitude, double latitude, int delta) {
+        int x = tileX(longitude, PRECOMPUTED_ZOOM);
+        int y = tileY(latitude, PRECOMPUTED_ZOOM);
+        for (int zoom = PRECOMPUTED_ZOOM; zoom >= 0; zoom--) {
+            levels[zoom][(y << zoom) + x] += delta;
+            x >>= 1;
+            y >>= 1;
+        }
+    }
+
+    /**
+     * Gets the tiles in a range that hold Locations.
+     *
+     * @param range the tiles, at a zoom level no deeper than PRECOMPUTED_ZOOM
+     * @return the tiles holding Locations, ordered by y and then x
+     */
+    List<LocationTile> tiles(TileRange range) {
+        if (range.zoom > PRECOMPUTED_ZOOM) {
+            throw new IllegalArgumentException("Zoom level is not precomputed: " + range.zoom);
+        }
+        int[] counts = levels[range.zoom];
+        int[] columns = range.columnRuns();
+        List<LocationTile> tiles = new ArrayList<LocationTile>();
+        for (int y = range.minY; y <= range.maxY; y++) {
+            for (int run = 0; run < columns.length; run += 2) {
+                for (int x = columns[run]; x <= columns[run + 1]; x++) {
+                    int count = counts[(y << range.zoom) + x];
+                    if (count > 0) {
+                        tiles.add(new LocationTile(x, y, count));
+                    }
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Finds the column of the tile holding a longitude.
+     *
+     * @param longitude the longitude in decimal degrees
+     * @param zoom the zoom level
+     * @return the column of the tile
+     */
+    static int tileX(double longitude, int zoom) {
+        int tiles = 1 << zoom;
+        int x = (int) Math.floor((longitude + 180.0d) / 360.0d * tiles);
+        return Math.max(0, Math.min(x, tiles - 1));
+    }
+
+    /**
+     * Finds the row of the tile holding a latitude.
+     *
+     * @param latitude the latitude in decimal degrees
+     * @param zoom the zoom level
+     * @return the row of the tile
+     */
+    static int tileY(double latitude, int zoom) {
+        int tiles = 1 << zoom;
+        double radians = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(latitude, MAX_LATITUDE)));
+        double mercator = Math.log(Math.tan(radians) + 1.0d / Math.cos(radians));
+        int y = (int) Math.floor((1.0d - mercator / Math.PI) / 2.0d * tiles);
+        return Math.max(0, Math.min(y, tiles - 1));
+    }
+
+    /**
+     * The tiles at a zoom level overlapping a bounding box.
+     */
+    static final class TileRange {
+        final int zoom;
+        final int minX;
+        final int maxX;
+        final int minY;
+        final int maxY;
+
+        /**
+         * Whether the range continues from the last column to the first, in which case minX may be greater than
+         * maxX.
+         */
+        final boolean wraps;
+
+        private TileRange(int zoom, int minX, int maxX, int minY, int maxY, boolean wraps) {
+            this.zoom = zoom;
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.wraps = wraps;
+        }
+
+        /**
+         * Finds the tiles at a zoom level overlapping a bounding box.
+         *
+         * <p>If minLongitude is greater than maxLongitude the box crosses the antimeridian.</p>
+         *
+         * @param minLongitude the western edge of the box
+         * @param minLatitude the southern edge of the box
+         * @param maxLongitude the eastern edge of the box
+         * @param maxLatitude the northern edge of the box
+         * @param zoom the zoom level
+         * @return the tiles overlapping the box
+         * @throws IllegalArgumentException if the box or zoom level is invalid, or the box spans more than
+         *                                  MAX_TILES tiles
+         */
+        static TileRange of(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, int zoom)
+                throws IllegalArgumentException {
+            GreatCircle.checkLongitude(minLongitude);
+            GreatCircle.checkLongitude(maxLongitude);
+            GreatCircle.checkLatitude(minLatitude);
+            GreatCircle.checkLatitude(maxLatitude);
+            if (minLatitude > maxLatitude) {
+                throw new IllegalArgumentException("Invalid latitude range: " + minLatitude + " to " + maxLatitude);
+            }
+            if (zoom < 0 || zoom > MAX_ZOOM) {
+                throw new IllegalArgumentException("Invalid zoom level: " + zoom);
+            }
+
+            int minX = tileX(minLongitude, zoom);
+            int maxX = tileX(maxLongitude, zoom);
+            boolean wraps = minLongitude > maxLongitude;
+            if (wraps && minX <= maxX) {
+                // the box wraps all the way round within a single column
+                minX = 0;
+                maxX = (1 << zoom) - 1;
+                wraps = false;
+            }
+            TileRange range = new TileRange(zoom, minX, maxX, tileY(maxLatitude, zoom), tileY(minLatitude, zoom), wraps);
+            if (range.tileCount() > MAX_TILES) {
+                throw new IllegalArgumentException("Bounding box spans more than " + MAX_TILES + " tiles at zoom level "
+                        + zoom + ", use a smaller box or zoom level");
+            }
+            return range;
+        }
+
+        /**
+         * Gets the number of tiles in this range.
+         *
+         * @return the number of tiles
+         */
+        long tileCount() {
+            long columns = wraps ? (1 << zoom) - minX + maxX + 1 : maxX - minX + 1;
+            return columns * (maxY - minY + 1);
+        }
+
+        /**
+         * Gets the runs of columns in this range in ascending order, as pairs of first and last column.
+         *
+         * @return the first and last column of each run
+         */
+        int[] columnRuns() {
+            return wraps ? new int[] {0, maxX, minX, (1 << zoom) - 1} : new int[] {minX, maxX};
+        }
+
+        /**
+         * Determines whether a tile is in this range.
+         *
+         * @param x the column of the tile
+         * @param y the row of the tile
+         * @return true iff the tile is in this range
+         */
+        boolean contains(int x, int y) {
+            boolean columnInside = wraps ? x >= minX || x <= maxX : x >= minX && x <= maxX;
+            return columnInside && y >= minY && y <= maxY;
+        }
+
+        /**
+         * Gets the western edge of the tiles in this range, less a margin, to find the Locations they hold.
+         *
+         * @return the western edge in decimal degrees
+         */
+        double west() {
+            return Math.max(minX * 360.0d / (1 << zoom) - 180.0d - EDGE_MARGIN, -180.0d);
+        }
+
+        /**
+         * Gets the eastern edge of the tiles in this range, west of the western edge if the range wraps.
+         *
+         * @return the eastern edge in decimal degrees
+         */
+        double east() {
+            return Math.min((maxX + 1) * 360.0d / (1 << zoom) - 180.0d + EDGE_MARGIN, 180.0d);
+        }
+
+        /**
+         * Gets the northern edge of the tiles in this range, taking the top row to reach the pole.
+         *
+         * @return the northern edge in decimal degrees
+         */
+        double north() {
+            return minY == 0 ? 90.0d : Math.min(latitudeOfRow(minY) + EDGE_MARGIN, 90.0d);
+        }
+
+        /**
+         * Gets the southern edge of the tiles in this range, taking the bottom row to reach the pole.
+         *
+         * @return the southern edge in decimal degrees
+         */
+        double south() {
+            return maxY == (1 << zoom) - 1 ? -90.0d : Math.max(latitudeOfRow(maxY + 1) - EDGE_MARGIN, -90.0d);
+        }
+
+        private double latitudeOfRow(int y) {
+            double mercator = Math.PI * (1.0d - 2.0d * y / (1 << zoom));
+            return Math.toDegrees(Math.atan(0.5d * (Math.exp(mercator) - Math.exp(-mercator))));
+        }
+    }
+
+    /**
+     * Counts Locations into the tiles of a TileRange, for zoom levels that are not precomputed.
+     *
+     * <p>Callers find the Locations inside the edges of the range and add them. The edges include a margin, and
+     * Locations that fall outside the tiles of the range are ignored.</p>
+     */
+    static final class TileCounter {
+        private final TileRange range;
+
+        /**
+         * The counts keyed by <code>y * 2^zoom + x</code>.
+         */
+        private final Map<Long, int[]> counts = new TreeMap<Long, int[]>();
+
+        /**
+         * Constructs a new TileCounter.
+         *
+         * @param range the tiles to count Locations in
+         */
+        TileCounter(TileRange range) {
+            this.range = range;
+        }
+
+        /**
+         * Counts a Location if it is in the range.
+         *
+         * @param longitude the longitude of the Location
+         * @param latitude the latitude of the Location
+         */
+        void add(double longitude, double latitude) {
+            int x = tileX(longitude, range.zoom);
+            int y = tileY(latitude, range.zoom);
+            if (!range.contains(x, y)) {
+                return;
+            }
+            Long key = ((long) y << range.zoom) + x;
+            int[] count = counts.get(key);
+            if (count == null) {
+                counts.put(key, new int[] {1});
+            } else {
+                count[0]++;
+            }
+        }
+
+        /**
+         * Adds the counts of tiles counted elsewhere, such as by another shard.
+         *
+         * @param tiles the counted tiles, in the same range
+         */
+        void addAll(List<LocationTile> tiles) {
+            for (LocationTile tile : tiles) {
+                Long key = ((long) tile.getY() << range.zoom) + tile.getX();
+                int[] count = counts.get(key);
+                if (count == null) {
+                    counts.put(key, new int[] {tile.getCount()});
+                } else {
+                    count[0] += tile.getCount();
+                }
+            }
+        }
+
+        /**
+         * Gets the tiles that hold Locations.
+         *
+         * @return the tiles holding Locations, ordered by y and then x
+         */
+        List<LocationTile> tiles() {
+            long mask = (1L << range.zoom) - 1;
+            List<LocationTile> tiles = new ArrayList<LocationTile>(counts.size());
+            for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+                long key = entry.getKey();
+                tiles.add(new LocationTile((int) (key & mask), (int) (key >>> range.zoom), entry.getValue()[0]));
+            }
+            return tiles;
+        }
+    }
+}
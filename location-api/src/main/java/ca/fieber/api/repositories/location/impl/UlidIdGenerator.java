@@ -0,0 +1,82 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.IdGenerator;
+import com.google.inject.Singleton;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates time ordered ids in the format of ULIDs, 26 characters of Crockford's base 32 that sort in the order the
+ * ids were generated.
+ *
+ * <p>The first 64 bits of an id are the time in milliseconds followed by a 16 bit counter, advanced with a
+ * compare and swap so that every id is greater than the last even within a millisecond or if the clock goes back. The
+ * last 64 bits are random, from a Random per thread seeded from a SecureRandom, to keep ids generated by different
+ * processes apart. Generating an id takes no locks, and new Locations are appended to the end of sorted indexes and
+ * logs.</p>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class UlidIdGenerator implements IdGenerator {
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    /**
+     * The number of characters in an id.
+     */
+    static final int LENGTH = 26;
+
+    /**
+     * The number of bits of the counter below the time.
+     */
+    private static final int COUNTER_BITS = 16;
+
+    private static final SecureRandom SEEDS = new SecureRandom();
+
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            synchronized (SEEDS) {
+                return new Random(SEEDS.nextLong());
+            }
+        }
+    };
+
+    /**
+     * The time and counter of the last id.
+     */
+    private final AtomicLong last = new AtomicLong();
+
+    @Override
+    public String nextId() {
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        long high;
+        long previous;
+        do {
+            previous = last.get();
+            high = Math.max(now, previous + 1);
+        } while (!last.compareAndSet(previous, high));
+        return encode(high, RANDOM.get().nextLong());
+    }
+
+    /**
+     * Encodes 128 bits as 26 base 32 characters, most significant first.
+     *
+     * @param high the first 64 bits
+     * @param low the last 64 bits
+     * @return the encoded bits
+     */
+    static String encode(long high, long low) {
+        char[] chars = new char[LENGTH];
+        // 130 bits of characters, the first 2 are always 0
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (low & 31)];
+            low = (low >>> 5) | (high << 59);
+            high >>>= 5;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,23 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.IdGenerator;
+import com.google.inject.Singleton;
+
+import java.util.UUID;
+
+/**
+ * Generates random UUIDs as ids.
+ *
+ * <p>Every id is drawn from a SecureRandom shared by all threads, and ids are in random order, so new Locations are
+ * inserted at random positions in the sorted indexes.</p>
+ *
+ * @author cfieber
+ */
+@Singleton
+public class UuidIdGenerator implements IdGenerator {
+
+    @Override
+    public String nextId() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,357 @@
+package ca.fieber.api.repositories.location.impl;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.HistogramMetric;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.core.TimerMetric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An append only log of framed LocationRecords, split into segment files named for the sequence number of their
+ * first record.
+ *
+ * <p>Appending a record only buffers it in memory and assigns it a sequence number, {@link #sync(long)} makes it
+ * durable. Syncs are group committed: one caller writes and forces everything buffered so far while concurrent
+ * callers wait, so a single fsync covers every record appended while the previous fsync was in progress.</p>
+ *
+ * <p>Once a sync has failed the log is unusable and every later sync fails, as the buffered records can no longer
+ * be relied on to reach the disk.</p>
+ *
+ * @author cfieber
+ */
+class WriteAheadLog {
+
+    private static final String SEGMENT_PREFIX = "log-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    /**
+     * A Timer on writing and forcing a batch of records to disk.
+     */
+    private final TimerMetric syncMetric = Metrics.newTimer(WriteAheadLog.class, "sync-timer", TimeUnit.NANOSECONDS, TimeUnit.SECONDS);
+
+    /**
+     * A Histogram of the number of records made durable by each sync.
+     */
+    private final HistogramMetric batchSizeMetric = Metrics.newHistogram(WriteAheadLog.class, "batch-size");
+
+    private final File directory;
+    private final Lock lock = new ReentrantLock();
+    private final Condition syncDone = lock.newCondition();
+
+    /**
+     * Records appended but not yet written, guarded by lock.
+     */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(4096);
+
+    /**
+     * The sequence number of the next record, guarded by lock.
+     */
+    private long nextSequence;
+
+    /**
+     * Every record with a sequence number below this is durable, guarded by lock.
+     */
+    private long durableSequence;
+
+    /**
+     * Whether a caller is currently writing and forcing a batch, guarded by lock.
+     */
+    private boolean syncing;
+
+    /**
+     * The failure that made this log unusable, guarded by lock.
+     */
+    private IOException failure;
+
+    /**
+     * The current segment, guarded by lock and only written while syncing.
+     */
+    private FileChannel segment;
+
+    /**
+     * Opens a log for appending, starting a segment at the provided sequence number.
+     *
+     * <p>Any existing segment for the sequence number must be empty, which {@link #replay} ensures.</p>
+     *
+     * @param directory the directory holding the segments
+     * @param nextSequence the sequence number of the next record
+     * @throws IOException if the segment can not be opened
+     */
+    WriteAheadLog(File directory, long nextSequence) throws IOException {
+        this.directory = directory;
+        this.nextSequence = nextSequence;
+        this.durableSequence = nextSequence;
+        this.segment = openSegment(nextSequence);
+    }
+
+    /**
+     * Replays the records of every segment from a sequence number on.
+     *
+     * <p>Replay stops at the first incomplete or corrupt record, which can only be the tail of a write interrupted
+     * by a crash. The segment is truncated there and any later segments are deleted, so that appending can resume
+     * at the returned sequence number.</p>
+     *
+     * @param directory the directory holding the segments
+     * @param fromSequence the sequence number of the first record to replay, earlier records are skipped
+     * @param handler the Handler for replayed records
+     * @return the sequence number following the last valid record
+     * @throws IOException if a segment can not be read
+     */
+    static long replay(File directory, long fromSequence, LocationRecords.Handler handler) throws IOException {
+        return replay(directory, fromSequence, handler, SnapshotFile.WINDOW_BYTES);
+    }
+
+    /**
+     * Replays the records of every segment from a sequence number on, reading each segment through memory mapped
+     * windows so that segments of any size can be read.
+     *
+     * @param directory the directory holding the segments
+     * @param fromSequence the sequence number of the first record to replay, earlier records are skipped
+     * @param handler the Handler for replayed records
+     * @param windowBytes the size of the memory mapped window, grown for records that do not fit
+     * @return the sequence number following the last valid record
+     * @throws IOException if a segment can not be read
+     */
+    static long replay(File directory, long fromSequence, LocationRecords.Handler handler, int windowBytes) throws IOException {
+        long[] segments = segments(directory);
+        long sequence = fromSequence;
+        for (int i = 0; i < segments.length; i++) {
+            if (i + 1 < segments.length && segments[i + 1] <= fromSequence) {
+                continue;
+            }
+            if (segments[i] > sequence) {
+                throw new IOException("Missing log records from " + sequence + " to " + segments[i]);
+            }
+            long segmentSequence = segments[i];
+            RandomAccessFile file = new RandomAccessFile(segmentFile(directory, segments[i]), "rw");
+            try {
+                FileChannel channel = file.getChannel();
+                long size = channel.size();
+                long windowStart = 0;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowBytes, size));
+                while (true) {
+                    byte[] payload = LocationRecords.readFrame(window);
+                    if (payload == null && windowStart + window.limit() < size) {
+                        // the record may continue past the window, or be larger than a window
+                        windowStart += window.position();
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowBytes, size - windowStart));
+                        payload = LocationRecords.readFrame(window);
+                        if (payload == null && window.remaining() >= LocationRecords.FRAME_HEADER_BYTES && windowStart + window.limit() < size) {
+                            int frameBytes = LocationRecords.FRAME_HEADER_BYTES + window.getInt(0);
+                            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                                    Math.min(Math.max(windowBytes, frameBytes), size - windowStart));
+                            payload = LocationRecords.readFrame(window);
+                        }
+                    }
+                    if (payload == null) {
+                        break;
+                    }
+                    if (segmentSequence++ >= fromSequence) {
+                        LocationRecords.decode(payload, handler);
+                    }
+                }
+                sequence = Math.max(sequence, segmentSequence);
+                long end = windowStart + window.position();
+                if (end < size) {
+                    channel.truncate(end);
+                    channel.force(true);
+                    for (int j = i + 1; j < segments.length; j++) {
+                        delete(segmentFile(directory, segments[j]));
+                    }
+                    break;
+                }
+            } finally {
+                file.close();
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Deletes every segment holding only records before a sequence number.
+     *
+     * @param directory the directory holding the segments
+     * @param sequence the first sequence number that must be kept
+     * @throws IOException if a segment can not be deleted
+     */
+    static void deleteBefore(File directory, long sequence) throws IOException {
+        long[] segments = segments(directory);
+        for (int i = 0; i + 1 < segments.length && segments[i + 1] <= sequence; i++) {
+            delete(segmentFile(directory, segments[i]));
+        }
+    }
+
+    /**
+     * Appends a framed record to the log.
+     *
+     * @param record the framed record
+     * @return the sequence number to sync to for the record to be durable
+     * @throws IOException if the log has failed
+     */
+    long append(byte[] record) throws IOException {
+        lock.lock();
+        try {
+            checkUsable();
+            pending.write(record, 0, record.length);
+            return ++nextSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every record before a sequence number is durable, writing and forcing buffered records if no
+     * other caller is already doing so.
+     *
+     * @param sequence the sequence number returned from {@link #append(byte[])}
+     * @throws IOException if the records could not be made durable
+     */
+    void sync(long sequence) throws IOException {
+        lock.lock();
+        try {
+            while (durableSequence < sequence) {
+                checkUsable();
+                if (syncing) {
+                    syncDone.awaitUninterruptibly();
+                } else {
+                    flush();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes every appended record durable and starts a new segment.
+     *
+     * @return the sequence number of the first record of the new segment
+     * @throws IOException if the records could not be made durable or the segment created
+     */
+    long roll() throws IOException {
+        lock.lock();
+        try {
+            while (syncing) {
+                syncDone.awaitUninterruptibly();
+            }
+            checkUsable();
+            if (durableSequence < nextSequence) {
+                flush();
+            }
+            segment.close();
+            segment = openSegment(nextSequence);
+            return nextSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes every appended record durable and closes the current segment.
+     *
+     * @throws IOException if the records could not be made durable
+     */
+    void close() throws IOException {
+        lock.lock();
+        try {
+            while (syncing) {
+                syncDone.awaitUninterruptibly();
+            }
+            if (failure == null && durableSequence < nextSequence) {
+                flush();
+            }
+            segment.close();
+            failure = new IOException("Log closed");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes and forces the pending records, releasing the lock while doing so. Must be called with the lock held
+     * and no sync in progress.
+     */
+    private void flush() throws IOException {
+        syncing = true;
+        ByteBuffer batch = ByteBuffer.wrap(pending.toByteArray());
+        pending = new ByteArrayOutputStream(Math.max(4096, batch.capacity()));
+        long batchSequence = nextSequence;
+        long batchSize = batchSequence - durableSequence;
+        FileChannel channel = segment;
+        lock.unlock();
+        IOException error = null;
+        final TimerContext timerContext = syncMetric.time();
+        try {
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        } catch (IOException ioe) {
+            error = ioe;
+        } finally {
+            timerContext.stop();
+            lock.lock();
+        }
+        syncing = false;
+        syncDone.signalAll();
+        if (error != null) {
+            failure = error;
+            throw error;
+        }
+        durableSequence = batchSequence;
+        batchSizeMetric.update(batchSize);
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null) {
+            throw new IOException("Log is unusable", failure);
+        }
+    }
+
+    private FileChannel openSegment(long sequence) throws IOException {
+        FileChannel channel = new RandomAccessFile(segmentFile(directory, sequence), "rw").getChannel();
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private static long[] segments(File directory) {
+        String[] names = directory.list();
+        long[] segments = new long[names == null ? 0 : names.length];
+        int count = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (names[i].startsWith(SEGMENT_PREFIX) && names[i].endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    segments[count] = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(), names[i].length() - SEGMENT_SUFFIX.length()));
+                    count++;
+                } catch (NumberFormatException nfe) {
+                    // not a segment
+                }
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static File segmentFile(File directory, long sequence) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete: " + file);
+        }
+    }
+}
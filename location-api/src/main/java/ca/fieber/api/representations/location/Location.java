@@ -3,6 +3,7 @@ package ca.fieber.api.representations.location;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 /**
  * Location representation.
@@ -36,6 +37,13 @@ public class Location {
     @XmlElement
     private double latitude;
 
+    /**
+     * Version of this Location assigned by a LocationRepository, 0 if unversioned. Conveyed as an ETag rather than
+     * in the representation.
+     */
+    @XmlTransient
+    private long version;
+
     /**
      * No-arg constructor for JAXB compatibility.
      */
@@ -64,10 +72,24 @@ public class Location {
      * @param latitude the latitude of the Location
      */
     public Location(String id, String name, double longitude, double latitude) {
+        this(id, name, longitude, latitude, 0L);
+    }
+
+    /**
+     * Constructs a new Location with the provided values and version.
+     *
+     * @param id the ID of the Location
+     * @param name the name of the Location
+     * @param longitude the longitude of the Location
+     * @param latitude the latitude of the Location
+     * @param version the version of the Location
+     */
+    public Location(String id, String name, double longitude, double latitude, long version) {
         this.id = id;
         this.name = name;
         this.longitude = longitude;
         this.latitude = latitude;
+        this.version = version;
     }
 
     /**
@@ -115,4 +137,23 @@ public class Location {
     public double getLatitude() {
         return latitude;
     }
+
+    /**
+     * Gets the version of this Location.
+     *
+     * @return the version of this Location, 0 if unversioned
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Creates a copy of this Location with a different version.
+     *
+     * @param version the version of the copy
+     * @return a Location with the values of this Location and the provided version
+     */
+    public Location withVersion(long version) {
+        return new Location(id, name, longitude, latitude, version);
+    }
 }
@@ -0,0 +1,49 @@
+package ca.fieber.api.representations.location;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of LocationOperations to apply at once.
+ *
+ * @author cfieber
+ */
+@XmlRootElement(name = "location-batch")
+public class LocationBatch {
+
+    /**
+     * The operations for this LocationBatch.
+     */
+    @XmlElementWrapper(name = "operations")
+    @XmlElement(name = "operation")
+    private List<LocationOperation> operations;
+
+    /**
+     * No-arg constructor for JAXB compatibility.
+     */
+    @SuppressWarnings("unused")
+    public LocationBatch() {
+        this(null);
+    }
+
+    /**
+     * Constructs a LocationBatch with the provided operations.
+     *
+     * @param operations the operations for this LocationBatch
+     */
+    public LocationBatch(List<LocationOperation> operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Gets the operations for this LocationBatch.
+     *
+     * @return the operations for this LocationBatch, never null
+     */
+    public List<LocationOperation> getOperations() {
+        return operations == null ? Collections.<LocationOperation>emptyList() : operations;
+    }
+}
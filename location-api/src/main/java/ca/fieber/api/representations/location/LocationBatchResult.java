@@ -0,0 +1,49 @@
+package ca.fieber.api.representations.location;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of a LocationBatch, in the order of its operations.
+ *
+ * @author cfieber
+ */
+@XmlRootElement(name = "location-batch-result")
+public class LocationBatchResult {
+
+    /**
+     * The results for this LocationBatchResult.
+     */
+    @XmlElementWrapper(name = "results")
+    @XmlElement(name = "result")
+    private List<LocationOperationResult> results;
+
+    /**
+     * No-arg constructor for JAXB compatibility.
+     */
+    @SuppressWarnings("unused")
+    public LocationBatchResult() {
+        this(null);
+    }
+
+    /**
+     * Constructs a LocationBatchResult with the provided results.
+     *
+     * @param results the results for this LocationBatchResult
+     */
+    public LocationBatchResult(List<LocationOperationResult> results) {
+        this.results = results == null ? Collections.<LocationOperationResult>emptyList() : results;
+    }
+
+    /**
+     * Gets the results for this LocationBatchResult.
+     *
+     * @return the results for this LocationBatchResult
+     */
+    public List<LocationOperationResult> getResults() {
+        return results;
+    }
+}
@@ -0,0 +1,97 @@
+package ca.fieber.api.representations.location;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * A create, update or delete of a Location within a LocationEventList.
+ *
+ * @author cfieber
+ */
+@XmlRootElement(name = "event")
+public class LocationEvent {
+
+    /**
+     * The sequence number of this LocationEvent.
+     */
+    @XmlAttribute
+    private long sequence;
+
+    /**
+     * The type of this LocationEvent.
+     */
+    @XmlAttribute
+    private LocationOperation.Type type;
+
+    /**
+     * The id of the changed Location.
+     */
+    @XmlAttribute
+    private String id;
+
+    /**
+     * The created or updated Location.
+     */
+    @XmlElement
+    private Location location;
+
+    /**
+     * No-arg constructor for JAXB compatibility.
+     */
+    @SuppressWarnings("unused")
+    public LocationEvent() {
+        this(0, null, null, null);
+    }
+
+    /**
+     * Constructs a new LocationEvent.
+     *
+     * @param sequence the sequence number of the event
+     * @param type the type of the event
+     * @param id the id of the changed Location
+     * @param location the created or updated Location, null for deletes
+     */
+    public LocationEvent(long sequence, LocationOperation.Type type, String id, Location location) {
+        this.sequence = sequence;
+        this.type = type;
+        this.id = id;
+        this.location = location;
+    }
+
+    /**
+     * Gets the sequence number of this LocationEvent.
+     *
+     * @return the sequence number of this LocationEvent
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the type of this LocationEvent.
+     *
+     * @return the type of this LocationEvent
+     */
+    public LocationOperation.Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the id of the changed Location.
+     *
+     * @return the id of the changed Location
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the created or updated Location.
+     *
+     * @return the created or updated Location, null for deletes
+     */
+    public Location getLocation() {
+        return location;
+    }
+}
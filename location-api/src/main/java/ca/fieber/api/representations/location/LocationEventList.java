@@ -0,0 +1,103 @@
+package ca.fieber.api.representations.location;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of LocationEvents following a sequence number.
+ *
+ * @author cfieber
+ */
+@XmlRootElement(name = "location-events")
+public class LocationEventList {
+
+    /**
+     * The events for this LocationEventList.
+     */
+    @XmlElementWrapper(name = "events")
+    @XmlElement(name = "event")
+    private List<LocationEvent> events;
+
+    /**
+     * The sequence number to request the following events from.
+     */
+    @XmlAttribute
+    private long sequence;
+
+    /**
+     * Whether events have been lost and the Locations must be listed again.
+     */
+    @XmlAttribute
+    private boolean truncated;
+
+    /**
+     * A link to the following events.
+     */
+    @XmlAttribute(name = "next-page")
+    private URI nextPage;
+
+    /**
+     * No-arg constructor for JAXB compatibility.
+     */
+    @SuppressWarnings("unused")
+    public LocationEventList() {
+        this(null, 0, false, null);
+    }
+
+    /**
+     * Constructs a LocationEventList.
+     *
+     * @param events the events for this LocationEventList
+     * @param sequence the sequence number to request the following events from
+     * @param truncated whether events have been lost and the Locations must be listed again
+     * @param nextPage the link to the following events
+     */
+    public LocationEventList(List<LocationEvent> events, long sequence, boolean truncated, URI nextPage) {
+        this.events = events == null ? Collections.<LocationEvent>emptyList() : events;
+        this.sequence = sequence;
+        this.truncated = truncated;
+        this.nextPage = nextPage;
+    }
+
+    /**
+     * Gets the events for this LocationEventList.
+     *
+     * @return the events for this LocationEventList
+     */
+    public List<LocationEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Gets the sequence number to request the following events from.
+     *
+     * @return the sequence number to request the following events from
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Determines whether events following the requested sequence number have been lost, in which case the
+     * Locations must be listed again and followed from this LocationEventList's sequence number.
+     *
+     * @return true iff events have been lost
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Gets the link to the following events.
+     *
+     * @return the link to the following events
+     */
+    public URI getNextPage() {
+        return nextPage;
+    }
+}
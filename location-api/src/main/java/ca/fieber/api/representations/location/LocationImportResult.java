@@ -0,0 +1,84 @@
+package ca.fieber.api.representations.location;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a bulk import of Locations.
+ *
+ * @author cfieber
+ */
+@XmlRootElement(name = "import-result")
+public class LocationImportResult {
+
+    /**
+     * The number of Locations created.
+     */
+    @XmlAttribute
+    private long imported;
+
+    /**
+     * The number of records that were not valid Locations.
+     */
+    @XmlAttribute
+    private long rejected;
+
+    /**
+     * Messages describing the first rejected records.
+     */
+    @XmlElementWrapper(name = "errors")
+    @XmlElement(name = "error")
+    private List<String> errors;
+
+    /**
+     * No-arg constructor for JAXB compatibility.
+     */
+    @SuppressWarnings("unused")
+    public LocationImportResult() {
+        this(0, 0, null);
+    }
+
+    /**
+     * Constructs a new LocationImportResult.
+     *
+     * @param imported the number of Locations created
+     * @param rejected the number of records that were not valid Locations
+     * @param errors messages describing the first rejected records
+     */
+    public LocationImportResult(long imported, long rejected, List<String> errors) {
+        this.imported = imported;
+        this.rejected = rejected;
+        this.errors = errors == null ? Collections.<String>emptyList() : errors;
+    }
+
+    /**
+     * Gets the number of Locations created.
+     *
+     * @return the number of Locations created
+     */
+    public long getImported() {
+        return imported;
+    }
+
+    /**
+     * Gets the number of records that were not valid Locations.
+     *
+     * @return the number of rejected records
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Gets messages describing the first rejected records.
+     *
+     * @return the error messages
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,103 @@
+package ca.fieber.api.representations.location;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlEnumValue;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * A create, update or delete of a Location within a LocationBatch.
+ *
+ * @author cfieber
+ */
+@XmlRootElement(name = "operation")
+public class LocationOperation {
+
+    /**
+     * The kinds of LocationOperation.
+     */
+    @XmlEnum
+    public enum Type {
+        /**
+         * Creates the operation's Location, which must not have an id.
+         */
+        @XmlEnumValue("create") CREATE,
+
+        /**
+         * Updates the operation's Location.
+         */
+        @XmlEnumValue("update") UPDATE,
+
+        /**
+         * Deletes the Location with the operation's id.
+         */
+        @XmlEnumValue("delete") DELETE
+    }
+
+    /**
+     * The type of this LocationOperation.
+     */
+    @XmlAttribute
+    private Type type;
+
+    /**
+     * The id of the Location to delete.
+     */
+    @XmlAttribute
+    private String id;
+
+    /**
+     * The Location to create or update.
+     */
+    @XmlElement
+    private Location location;
+
+    /**
+     * No-arg constructor for JAXB compatibility.
+     */
+    @SuppressWarnings("unused")
+    public LocationOperation() {
+        this(null, null, null);
+    }
+
+    /**
+     * Constructs a new LocationOperation.
+     *
+     * @param type the type of the LocationOperation
+     * @param id the id of the Location to delete, may be null for other types
+     * @param location the Location to create or update, may be null for deletes
+     */
+    public LocationOperation(Type type, String id, Location location) {
+        this.type = type;
+        this.id = id;
+        this.location = location;
+    }
+
+    /**
+     * Gets the type of this LocationOperation.
+     *
+     * @return the type of this LocationOperation
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the id of the Location to delete.
+     *
+     * @return the id of the Location to delete
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the Location to create or update.
+     *
+     * @return the Location to create or update
+     */
+    public Location getLocation() {
+        return location;
+    }
+}
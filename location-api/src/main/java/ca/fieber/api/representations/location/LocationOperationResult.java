@@ -0,0 +1,80 @@
+package ca.fieber.api.representations.location;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The outcome of a LocationOperation, with the HTTP status the equivalent single request would have had.
+ *
+ * @author cfieber
+ */
+@XmlRootElement(name = "result")
+public class LocationOperationResult {
+
+    /**
+     * The HTTP status code for the operation.
+     */
+    @XmlAttribute
+    private int status;
+
+    /**
+     * The error message if the operation failed.
+     */
+    @XmlAttribute
+    private String message;
+
+    /**
+     * The created or updated Location.
+     */
+    @XmlElement
+    private Location location;
+
+    /**
+     * No-arg constructor for JAXB compatibility.
+     */
+    @SuppressWarnings("unused")
+    public LocationOperationResult() {
+        this(0, null, null);
+    }
+
+    /**
+     * Constructs a new LocationOperationResult.
+     *
+     * @param status the HTTP status code for the operation
+     * @param message the error message if the operation failed, otherwise null
+     * @param location the created or updated Location, otherwise null
+     */
+    public LocationOperationResult(int status, String message, Location location) {
+        this.status = status;
+        this.message = message;
+        this.location = location;
+    }
+
+    /**
+     * Gets the HTTP status code for the operation.
+     *
+     * @return the HTTP status code for the operation
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the error message if the operation failed.
+     *
+     * @return the error message, null if the operation succeeded
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Gets the created or updated Location.
+     *
+     * @return the created or updated Location, null for deletes and failures
+     */
+    public Location getLocation() {
+        return location;
+    }
+}
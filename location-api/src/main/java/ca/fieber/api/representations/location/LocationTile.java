@@ -0,0 +1,83 @@
+package ca.fieber.api.representations.location;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The number of Locations in a map tile within a LocationTileList.
+ *
+ * <p>Tiles are numbered as in slippy map (XYZ) tile servers: at zoom level z the Web Mercator projection of the
+ * world is split into 2<sup>z</sup> by 2<sup>z</sup> tiles, with x increasing eastward from the antimeridian and y
+ * increasing southward from the north edge at 85.0511 degrees latitude.</p>
+ *
+ * @author cfieber
+ */
+@XmlRootElement(name = "tile")
+public class LocationTile {
+
+    /**
+     * The column of this LocationTile.
+     */
+    @XmlAttribute
+    private int x;
+
+    /**
+     * The row of this LocationTile.
+     */
+    @XmlAttribute
+    private int y;
+
+    /**
+     * The number of Locations in this LocationTile.
+     */
+    @XmlAttribute
+    private int count;
+
+    /**
+     * No-arg constructor for JAXB compatibility.
+     */
+    @SuppressWarnings("unused")
+    public LocationTile() {
+        this(0, 0, 0);
+    }
+
+    /**
+     * Constructs a new LocationTile.
+     *
+     * @param x the column of the tile
+     * @param y the row of the tile
+     * @param count the number of Locations in the tile
+     */
+    public LocationTile(int x, int y, int count) {
+        this.x = x;
+        this.y = y;
+        this.count = count;
+    }
+
+    /**
+     * Gets the column of this LocationTile.
+     *
+     * @return the column of this LocationTile
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Gets the row of this LocationTile.
+     *
+     * @return the row of this LocationTile
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Gets the number of Locations in this LocationTile.
+     *
+     * @return the number of Locations in this LocationTile
+     */
+    public int getCount() {
+        return count;
+    }
+}
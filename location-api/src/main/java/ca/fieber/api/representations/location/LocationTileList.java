@@ -0,0 +1,67 @@
+package ca.fieber.api.representations.location;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The map tiles at a zoom level holding Locations, with the number of Locations in each.
+ *
+ * @author cfieber
+ */
+@XmlRootElement(name = "location-tiles")
+public class LocationTileList {
+
+    /**
+     * The zoom level of the tiles.
+     */
+    @XmlAttribute
+    private int zoom;
+
+    /**
+     * The tiles holding Locations.
+     */
+    @XmlElementWrapper(name = "tiles")
+    @XmlElement(name = "tile")
+    private List<LocationTile> tiles;
+
+    /**
+     * No-arg constructor for JAXB compatibility.
+     */
+    @SuppressWarnings("unused")
+    public LocationTileList() {
+        this(0, null);
+    }
+
+    /**
+     * Constructs a new LocationTileList.
+     *
+     * @param zoom the zoom level of the tiles
+     * @param tiles the tiles holding Locations
+     */
+    public LocationTileList(int zoom, List<LocationTile> tiles) {
+        this.zoom = zoom;
+        this.tiles = tiles == null ? Collections.<LocationTile>emptyList() : tiles;
+    }
+
+    /**
+     * Gets the zoom level of the tiles.
+     *
+     * @return the zoom level of the tiles
+     */
+    public int getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Gets the tiles holding Locations.
+     *
+     * @return the tiles holding Locations
+     */
+    public List<LocationTile> getTiles() {
+        return tiles;
+    }
+}
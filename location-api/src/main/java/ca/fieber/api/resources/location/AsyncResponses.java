@@ -0,0 +1,177 @@
+package ca.fieber.api.resources.location;
+
+import ca.fieber.api.repositories.location.RepositoryFuture;
+import com.yammer.metrics.core.TimerContext;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Builds Responses from the results of AsyncLocationRepository calls, suspending the request until the call
+ * completes so that the request thread is not held while it is made.
+ *
+ * <p>Jersey has no way of suspending a request, so requests are suspended with the servlet 3.0 async API. When the
+ * call completes the request is dispatched to the RESUME_PATH, where ResumedResponseResource builds the Response
+ * on a container thread and Jersey renders it, with the usual content negotiation and exception mapping, as if the
+ * original resource method had returned it. The dispatch only takes effect once the original request thread has
+ * left the resource method, so the two never write to the response at the same time.</p>
+ *
+ * <p>A call that has already completed when its future is returned is answered straight away without suspending
+ * the request.</p>
+ *
+ * @author cfieber
+ */
+final class AsyncResponses {
+
+    /**
+     * The path that suspended requests are dispatched to when they are resumed.
+     */
+    static final String RESUME_PATH = "/resumed";
+
+    /**
+     * The request attribute holding the Pending response of a suspended request.
+     */
+    private static final String PENDING_ATTRIBUTE = AsyncResponses.class.getName() + ".pending";
+
+    /**
+     * Builds the Response for the result of a repository call.
+     *
+     * @param <T> the type of the result
+     */
+    interface Responder<T> {
+
+        /**
+         * Builds the Response for the result of a repository call.
+         *
+         * <p>The Responder may make a further repository call and return the Response of another call to respond,
+         * which may suspend the request again.</p>
+         *
+         * @param value the result of the call
+         * @return the Response, or null if the request was suspended again
+         */
+        Response respond(T value);
+    }
+
+    /**
+     * The response to a suspended request, waiting for its repository call to complete.
+     */
+    private static final class Pending<T> {
+        private final TimerContext timerContext;
+        private final RepositoryFuture<T> future;
+        private final Responder<T> responder;
+
+        Pending(TimerContext timerContext, RepositoryFuture<T> future, Responder<T> responder) {
+            this.timerContext = timerContext;
+            this.future = future;
+            this.responder = responder;
+        }
+
+        Response complete() {
+            boolean suspended = false;
+            try {
+                Response response = responder.respond(valueOf(future));
+                suspended = response == null;
+                return response;
+            } finally {
+                if (!suspended) {
+                    timerContext.stop();
+                }
+            }
+        }
+    }
+
+    private AsyncResponses() {
+    }
+
+    /**
+     * Responds to a request with the result of a repository call, suspending the request if the call has not
+     * completed yet.
+     *
+     * <p>If the Response is built straight away the caller stops the timer, see stopUnlessSuspended, otherwise the
+     * timer is stopped once the Response of the resumed request has been built or has failed.</p>
+     *
+     * @param request the request
+     * @param timerContext the timer for the request
+     * @param future the future result of the call
+     * @param responder builds the Response for the result
+     * @param <T> the type of the result
+     * @return the Response, or null if the request was suspended
+     */
+    static <T> Response respond(HttpServletRequest request, TimerContext timerContext, RepositoryFuture<T> future, Responder<T> responder) {
+        if (future.isDone()) {
+            return responder.respond(valueOf(future));
+        }
+        final AsyncContext asyncContext = request.startAsync();
+        // the repository call bounds the wait, change requests wait up to 30 seconds themselves
+        asyncContext.setTimeout(0);
+        request.setAttribute(PENDING_ATTRIBUTE, new Pending<T>(timerContext, future, responder));
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                asyncContext.dispatch(RESUME_PATH);
+            }
+        });
+        return null;
+    }
+
+    /**
+     * Stops the timer for a request unless the request has been suspended, in which case it is stopped once the
+     * request has been answered.
+     *
+     * @param request the request
+     * @param timerContext the timer for the request
+     */
+    static void stopUnlessSuspended(HttpServletRequest request, TimerContext timerContext) {
+        if (!request.isAsyncStarted()) {
+            timerContext.stop();
+        }
+    }
+
+    /**
+     * Builds the Response of a resumed request.
+     *
+     * @param request the resumed request
+     * @return the Response, or null if the request was suspended again
+     * @throws NoSuchElementException if the request is not a resumed request
+     */
+    static Response resume(HttpServletRequest request) throws NoSuchElementException {
+        Pending<?> pending = null;
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            pending = (Pending<?>) request.getAttribute(PENDING_ATTRIBUTE);
+        }
+        if (pending == null) {
+            throw new NoSuchElementException("No suspended request to resume");
+        }
+        request.removeAttribute(PENDING_ATTRIBUTE);
+        return pending.complete();
+    }
+
+    /**
+     * Gets the result of a completed repository call, throwing the exception the call failed with.
+     *
+     * @param future the completed future
+     * @param <T> the type of the result
+     * @return the result
+     */
+    private static <T> T valueOf(RepositoryFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Repository call failed", cause);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a completed repository call", ie);
+        }
+    }
+}
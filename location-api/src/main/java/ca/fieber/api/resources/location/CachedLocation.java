@@ -0,0 +1,59 @@
+package ca.fieber.api.resources.location;
+
+import ca.fieber.api.representations.location.Location;
+
+/**
+ * A Location whose representation is written from the LocationRepresentationCache, and cached if it is not there.
+ *
+ * <p>The representation is looked up or encoded once the media type of the response has been negotiated, and held
+ * here until it is written, so that the response can carry its length.</p>
+ *
+ * @author cfieber
+ * @see CachedLocationWriter
+ */
+public final class CachedLocation {
+
+    private final Location location;
+
+    private String mediaType;
+    private byte[] body;
+
+    /**
+     * Constructs a new CachedLocation.
+     *
+     * @param location the Location, which must have an id and a version
+     */
+    CachedLocation(Location location) {
+        this.location = location;
+    }
+
+    /**
+     * Gets the Location.
+     *
+     * @return the Location
+     */
+    Location getLocation() {
+        return location;
+    }
+
+    /**
+     * Gets the encoded representation of the Location for a media type, if it has been resolved.
+     *
+     * @param mediaType the media type
+     * @return the encoded representation, null if it has not been resolved for the media type
+     */
+    byte[] getBody(String mediaType) {
+        return mediaType.equals(this.mediaType) ? body : null;
+    }
+
+    /**
+     * Holds the encoded representation of the Location for a media type until it is written.
+     *
+     * @param mediaType the media type
+     * @param body the encoded representation
+     */
+    void setBody(String mediaType, byte[] body) {
+        this.mediaType = mediaType;
+        this.body = body;
+    }
+}
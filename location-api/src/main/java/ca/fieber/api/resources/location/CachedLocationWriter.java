@@ -0,0 +1,126 @@
+package ca.fieber.api.resources.location;
+
+import ca.fieber.api.providers.JAXBXmlProvider;
+import ca.fieber.api.providers.LocationJsonProvider;
+import ca.fieber.api.providers.LocationProtobufProvider;
+import ca.fieber.api.providers.ProtobufRepresentations;
+import ca.fieber.api.representations.location.Location;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes a CachedLocation as JSON, XML or protocol buffers, copying the representation from the
+ * LocationRepresentationCache when it is cached there.
+ *
+ * <p>A representation that is not cached is encoded by the same writer that writes an uncached Location, so it is
+ * byte for byte the same, and then cached. The length of the representation is known before it is written, so
+ * responses carry a Content-Length.</p>
+ *
+ * @author cfieber
+ */
+@Provider
+@Singleton
+@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+public class CachedLocationWriter implements MessageBodyWriter<CachedLocation> {
+
+    private static final MediaType APPLICATION_PROTOBUF_TYPE = MediaType.valueOf(ProtobufRepresentations.APPLICATION_PROTOBUF);
+
+    private final LocationRepresentationCache cache;
+
+    private final LocationJsonProvider jsonWriter;
+    private final JAXBXmlProvider xmlWriter;
+    private final LocationProtobufProvider protobufWriter;
+
+    /**
+     * Constructs a new CachedLocationWriter.
+     *
+     * @param cache the LocationRepresentationCache
+     * @param jsonWriter the writer of uncached JSON representations
+     * @param xmlWriter the writer of uncached XML representations
+     * @param protobufWriter the writer of uncached protocol buffers representations
+     */
+    @Inject
+    CachedLocationWriter(LocationRepresentationCache cache, LocationJsonProvider jsonWriter, JAXBXmlProvider xmlWriter,
+                         LocationProtobufProvider protobufWriter) {
+        this.cache = cache;
+        this.jsonWriter = jsonWriter;
+        this.xmlWriter = xmlWriter;
+        this.protobufWriter = protobufWriter;
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == CachedLocation.class
+                && (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE) || mediaType.isCompatible(MediaType.APPLICATION_XML_TYPE)
+                || mediaType.isCompatible(APPLICATION_PROTOBUF_TYPE));
+    }
+
+    @Override
+    public long getSize(CachedLocation cached, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        try {
+            return resolve(cached, mediaType, annotations).length;
+        } catch (IOException ioe) {
+            // written again, and failing, in writeTo
+            return -1;
+        }
+    }
+
+    @Override
+    public void writeTo(CachedLocation cached, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream output)
+            throws IOException, WebApplicationException {
+        output.write(resolve(cached, mediaType, annotations));
+    }
+
+    /**
+     * Gets the representation of a CachedLocation from the cache, or encodes and caches it.
+     *
+     * @param cached the CachedLocation
+     * @param mediaType the media type of the representation
+     * @param annotations the annotations of the resource method
+     * @return the encoded representation
+     * @throws IOException if the representation can not be encoded
+     */
+    private byte[] resolve(CachedLocation cached, MediaType mediaType, Annotation[] annotations) throws IOException {
+        String key = mediaType.toString();
+        byte[] body = cached.getBody(key);
+        if (body != null) {
+            return body;
+        }
+        Location location = cached.getLocation();
+        body = cache.get(location.getId(), location.getVersion(), key);
+        if (body == null) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(256);
+            writerFor(mediaType).writeTo(location, Location.class, Location.class, annotations, mediaType, null, encoded);
+            body = encoded.toByteArray();
+            cache.put(location.getId(), location.getVersion(), key, body);
+        }
+        cached.setBody(key, body);
+        return body;
+    }
+
+    @SuppressWarnings("unchecked")
+    private MessageBodyWriter<Object> writerFor(MediaType mediaType) {
+        MessageBodyWriter<?> writer;
+        if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+            writer = jsonWriter;
+        } else if (mediaType.isCompatible(APPLICATION_PROTOBUF_TYPE)) {
+            writer = protobufWriter;
+        } else {
+            writer = xmlWriter;
+        }
+        return (MessageBodyWriter<Object>) writer;
+    }
+}
@@ -0,0 +1,126 @@
+package ca.fieber.api.resources.location;
+
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.representations.location.Location;
+import com.sun.jersey.api.json.JSONJAXBContext;
+import com.sun.jersey.api.json.JSONMarshaller;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.core.TimerMetric;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Streams every Location in a LocationRepository to a response, a chunk at a time.
+ *
+ * <p>Locations are read from the repository in id order in chunks of {@link #CHUNK_SIZE}, following on from the last
+ * id of the previous chunk, and each Location is marshalled straight to the response. Memory use is bounded by the
+ * chunk size however many Locations there are, and Locations created or removed during the export are either
+ * included or not but never cause others to be skipped or repeated.</p>
+ *
+ * <p>JSON is written as newline delimited JSON, a Location object per line. XML is written as a location-list
+ * document, the same as a single page of Locations.</p>
+ *
+ * @author cfieber
+ */
+final class LocationExport implements StreamingOutput {
+
+    /**
+     * The number of Locations read from the repository at a time.
+     */
+    static final int CHUNK_SIZE = 1000;
+
+    private static final String UTF8 = "UTF-8";
+
+    private final LocationRepository locationRepository;
+    private final JAXBContext context;
+    private final boolean json;
+    private final TimerMetric timer;
+
+    /**
+     * Constructs a new LocationExport.
+     *
+     * @param locationRepository the repository to export
+     * @param context the JAXBContext for marshalling Locations
+     * @param json true to write newline delimited JSON, false to write XML
+     * @param timer a Timer on writing the export
+     */
+    LocationExport(LocationRepository locationRepository, JAXBContext context, boolean json, TimerMetric timer) {
+        this.locationRepository = locationRepository;
+        this.context = context;
+        this.json = json;
+        this.timer = timer;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        final TimerContext timerContext = timer.time();
+        try {
+            if (json) {
+                writeJson(output);
+            } else {
+                writeXml(output);
+            }
+        } catch (JAXBException jaxbe) {
+            throw new WebApplicationException(jaxbe);
+        } catch (XMLStreamException xmlse) {
+            throw new WebApplicationException(xmlse);
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    private void writeJson(OutputStream output) throws IOException, JAXBException {
+        JSONMarshaller marshaller = JSONJAXBContext.getJSONMarshaller(context.createMarshaller());
+        Writer writer = new OutputStreamWriter(output, UTF8);
+        for (List<Location> chunk = locationRepository.list(0, CHUNK_SIZE); !chunk.isEmpty(); chunk = next(chunk)) {
+            for (Location location : chunk) {
+                marshaller.marshallToJSON(location, writer);
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    private void writeXml(OutputStream output) throws XMLStreamException, JAXBException {
+        Marshaller marshaller = context.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output, UTF8);
+        writer.writeStartDocument(UTF8, "1.0");
+        writer.writeStartElement("location-list");
+        writer.writeStartElement("locations");
+        for (List<Location> chunk = locationRepository.list(0, CHUNK_SIZE); !chunk.isEmpty(); chunk = next(chunk)) {
+            for (Location location : chunk) {
+                marshaller.marshal(location, writer);
+            }
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+    }
+
+    /**
+     * Reads the chunk of Locations following a chunk.
+     *
+     * @param chunk the previous chunk
+     * @return the next chunk, empty once every Location has been read
+     */
+    private List<Location> next(List<Location> chunk) {
+        if (chunk.size() < CHUNK_SIZE) {
+            return chunk.subList(0, 0);
+        }
+        return locationRepository.listAfter(chunk.get(chunk.size() - 1).getId(), CHUNK_SIZE);
+    }
+}
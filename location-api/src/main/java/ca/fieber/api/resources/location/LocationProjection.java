@@ -0,0 +1,154 @@
+package ca.fieber.api.resources.location;
+
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationList;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A Location or LocationList rendered with only some of the properties of each Location, as asked for by the fields
+ * query parameter.
+ *
+ * <p>The projection wraps the Location or LocationList as is, LocationProjectionWriter skips the properties that
+ * were not asked for while writing it.</p>
+ *
+ * @author cfieber
+ * @see LocationProjectionWriter
+ */
+public final class LocationProjection {
+
+    /**
+     * The properties of a Location that can be projected, in the order they are written.
+     */
+    enum Field {
+        ID("id"),
+        NAME("name"),
+        LONGITUDE("longitude"),
+        LATITUDE("latitude");
+
+        private final String property;
+
+        Field(String property) {
+            this.property = property;
+        }
+
+        /**
+         * Gets the name of the property, as it appears in the fields query parameter and in the representation.
+         *
+         * @return the name of the property
+         */
+        String property() {
+            return property;
+        }
+    }
+
+    private final Location location;
+    private final LocationList list;
+    private final Set<Field> fields;
+
+    private LocationProjection(Location location, LocationList list, Set<Field> fields) {
+        this.location = location;
+        this.list = list;
+        this.fields = fields;
+    }
+
+    /**
+     * Projects a single Location.
+     *
+     * @param location the Location
+     * @param fields the properties to render
+     * @return the projection
+     */
+    static LocationProjection of(Location location, Set<Field> fields) {
+        return new LocationProjection(location, null, fields);
+    }
+
+    /**
+     * Projects each Location of a LocationList.
+     *
+     * @param list the LocationList
+     * @param fields the properties to render
+     * @return the projection
+     */
+    static LocationProjection of(LocationList list, Set<Field> fields) {
+        return new LocationProjection(null, list, fields);
+    }
+
+    /**
+     * Parses the fields query parameter, a comma separated list of property names.
+     *
+     * @param fields the value of the query parameter
+     * @return the properties named
+     * @throws IllegalArgumentException if no property is named or a name is not a property of a Location
+     */
+    static Set<Field> parseFields(String fields) throws IllegalArgumentException {
+        Set<Field> parsed = EnumSet.noneOf(Field.class);
+        for (String name : fields.split(",")) {
+            name = name.trim();
+            if (name.length() == 0) {
+                continue;
+            }
+            Field field = null;
+            for (Field candidate : Field.values()) {
+                if (candidate.property().equals(name)) {
+                    field = candidate;
+                }
+            }
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field: " + name);
+            }
+            parsed.add(field);
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("No fields specified");
+        }
+        return Collections.unmodifiableSet(parsed);
+    }
+
+    /**
+     * Formats properties as a fields query parameter.
+     *
+     * @param fields the properties
+     * @return the comma separated names of the properties
+     */
+    static String formatFields(Set<Field> fields) {
+        StringBuilder formatted = new StringBuilder();
+        for (Iterator<Field> it = fields.iterator(); it.hasNext(); ) {
+            formatted.append(it.next().property());
+            if (it.hasNext()) {
+                formatted.append(',');
+            }
+        }
+        return formatted.toString();
+    }
+
+    /**
+     * Gets the projected Location.
+     *
+     * @return the Location, null if a LocationList is projected
+     */
+    Location getLocation() {
+        return location;
+    }
+
+    /**
+     * Gets the projected LocationList.
+     *
+     * @return the LocationList, null if a single Location is projected
+     */
+    LocationList getList() {
+        return list;
+    }
+
+    /**
+     * Gets the properties rendered.
+     *
+     * @return the properties
+     */
+    Set<Field> getFields() {
+        return fields;
+    }
+}
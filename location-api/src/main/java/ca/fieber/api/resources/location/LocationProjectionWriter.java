@@ -0,0 +1,282 @@
+package ca.fieber.api.resources.location;
+
+import ca.fieber.api.providers.JsonRepresentations;
+import ca.fieber.api.providers.ProtobufOutput;
+import ca.fieber.api.providers.ProtobufRepresentations;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationList;
+import com.google.inject.Singleton;
+import org.codehaus.jackson.JsonGenerator;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Set;
+
+/**
+ * Writes a LocationProjection as JSON, XML or protocol buffers, reading each property straight from the Location
+ * and skipping the properties that were not asked for.
+ *
+ * <p>The representations have the same shape as the unprojected representations of a Location and a LocationList,
+ * less the properties left out. A projection of every property is written byte for byte the same as the unprojected
+ * representation.</p>
+ *
+ * @author cfieber
+ */
+@Provider
+@Singleton
+@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+public class LocationProjectionWriter implements MessageBodyWriter<LocationProjection> {
+
+    private static final String UTF8 = "UTF-8";
+
+    private static final MediaType APPLICATION_PROTOBUF_TYPE = MediaType.valueOf(ProtobufRepresentations.APPLICATION_PROTOBUF);
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == LocationProjection.class
+                && (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE) || mediaType.isCompatible(MediaType.APPLICATION_XML_TYPE)
+                || mediaType.isCompatible(APPLICATION_PROTOBUF_TYPE));
+    }
+
+    @Override
+    public long getSize(LocationProjection projection, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(LocationProjection projection, Class<?> type, Type genericType, Annotation[] annotations,
+                        MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream output)
+            throws IOException, WebApplicationException {
+        if (mediaType.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+            writeJson(projection, mediaType, output);
+        } else if (mediaType.isCompatible(APPLICATION_PROTOBUF_TYPE)) {
+            writeProtobuf(projection, output);
+        } else {
+            writeXml(projection, output);
+        }
+    }
+
+    private static void writeJson(LocationProjection projection, MediaType mediaType, OutputStream output) throws IOException {
+        JsonGenerator generator = JsonRepresentations.createGenerator(output, mediaType);
+        if (projection.getList() == null) {
+            writeJson(generator, projection.getLocation(), projection.getFields());
+        } else {
+            LocationList list = projection.getList();
+            generator.writeStartObject();
+            if (list.getNextPage() != null) {
+                JsonRepresentations.writeStringField(generator, "next-page", list.getNextPage().toString());
+            }
+            // the natural notation renders the wrapped elements as one object with a "location" key per Location
+            generator.writeArrayFieldStart("locations");
+            if (list.getLocations().isEmpty()) {
+                generator.writeNull();
+            } else {
+                generator.writeStartObject();
+                for (Location location : list.getLocations()) {
+                    generator.writeFieldName("location");
+                    writeJson(generator, location, projection.getFields());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        generator.close();
+    }
+
+    private static void writeJson(JsonGenerator generator, Location location, Set<LocationProjection.Field> fields) throws IOException {
+        generator.writeStartObject();
+        for (LocationProjection.Field field : fields) {
+            switch (field) {
+                case ID:
+                    if (location.getId() != null) {
+                        JsonRepresentations.writeStringField(generator, field.property(), location.getId());
+                    }
+                    break;
+                case NAME:
+                    if (location.getName() != null) {
+                        JsonRepresentations.writeStringField(generator, field.property(), location.getName());
+                    }
+                    break;
+                case LONGITUDE:
+                    JsonRepresentations.writeDoubleField(generator, field.property(), location.getLongitude());
+                    break;
+                case LATITUDE:
+                    JsonRepresentations.writeDoubleField(generator, field.property(), location.getLatitude());
+                    break;
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeProtobuf(LocationProjection projection, OutputStream output) throws IOException {
+        ProtobufOutput message = new ProtobufOutput();
+        if (projection.getList() == null) {
+            writeProtobuf(message, projection.getLocation(), projection.getFields());
+        } else {
+            LocationList list = projection.getList();
+            for (Location location : list.getLocations()) {
+                int mark = message.beginMessage(ProtobufRepresentations.LOCATION_LIST_LOCATIONS);
+                writeProtobuf(message, location, projection.getFields());
+                message.endMessage(mark);
+            }
+            if (list.getNextPage() != null) {
+                message.writeString(ProtobufRepresentations.LOCATION_LIST_NEXT_PAGE, list.getNextPage().toString());
+            }
+        }
+        message.writeTo(output);
+    }
+
+    private static void writeProtobuf(ProtobufOutput message, Location location, Set<LocationProjection.Field> fields) {
+        for (LocationProjection.Field field : fields) {
+            switch (field) {
+                case ID:
+                    if (location.getId() != null) {
+                        message.writeString(ProtobufRepresentations.LOCATION_ID, location.getId());
+                    }
+                    break;
+                case NAME:
+                    if (location.getName() != null) {
+                        message.writeString(ProtobufRepresentations.LOCATION_NAME, location.getName());
+                    }
+                    break;
+                case LONGITUDE:
+                    message.writeDouble(ProtobufRepresentations.LOCATION_LONGITUDE, location.getLongitude());
+                    break;
+                case LATITUDE:
+                    message.writeDouble(ProtobufRepresentations.LOCATION_LATITUDE, location.getLatitude());
+                    break;
+            }
+        }
+    }
+
+    private static void writeXml(LocationProjection projection, OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, UTF8));
+        writer.write(XML_DECLARATION);
+        if (projection.getList() == null) {
+            writeXml(writer, projection.getLocation(), projection.getFields());
+        } else {
+            LocationList list = projection.getList();
+            writer.write("<location-list");
+            if (list.getNextPage() != null) {
+                writeAttribute(writer, "next-page", list.getNextPage().toString());
+            }
+            if (list.getLocations().isEmpty()) {
+                writer.write("><locations/></location-list>");
+            } else {
+                writer.write("><locations>");
+                for (Location location : list.getLocations()) {
+                    writeXml(writer, location, projection.getFields());
+                }
+                writer.write("</locations></location-list>");
+            }
+        }
+        writer.flush();
+    }
+
+    private static void writeXml(Writer writer, Location location, Set<LocationProjection.Field> fields) throws IOException {
+        writer.write("<location");
+        if (fields.contains(LocationProjection.Field.ID) && location.getId() != null) {
+            writeAttribute(writer, LocationProjection.Field.ID.property(), location.getId());
+        }
+        boolean empty = true;
+        for (LocationProjection.Field field : fields) {
+            String value;
+            switch (field) {
+                case NAME:
+                    value = location.getName();
+                    break;
+                case LONGITUDE:
+                    value = JsonRepresentations.printDouble(location.getLongitude());
+                    break;
+                case LATITUDE:
+                    value = JsonRepresentations.printDouble(location.getLatitude());
+                    break;
+                default:
+                    continue;
+            }
+            if (value == null) {
+                continue;
+            }
+            if (empty) {
+                writer.write('>');
+                empty = false;
+            }
+            writer.write('<');
+            writer.write(field.property());
+            writer.write('>');
+            escape(writer, value, false);
+            writer.write("</");
+            writer.write(field.property());
+            writer.write('>');
+        }
+        writer.write(empty ? "/>" : "</location>");
+    }
+
+    private static void writeAttribute(Writer writer, String name, String value) throws IOException {
+        writer.write(' ');
+        writer.write(name);
+        writer.write("=\"");
+        escape(writer, value, true);
+        writer.write('"');
+    }
+
+    /**
+     * Writes character data escaped the same way as the JAXB marshaller escapes it.
+     *
+     * @param writer the Writer
+     * @param value the character data
+     * @param attribute true if the data is an attribute value, where line breaks and tabs are escaped as well
+     * @throws IOException if the data cannot be written
+     */
+    private static void escape(Writer writer, String value, boolean attribute) throws IOException {
+        int written = 0;
+        for (int i = 0; i < value.length(); i++) {
+            String escaped;
+            switch (value.charAt(i)) {
+                case '&':
+                    escaped = "&amp;";
+                    break;
+                case '<':
+                    escaped = "&lt;";
+                    break;
+                case '>':
+                    escaped = "&gt;";
+                    break;
+                case '"':
+                    escaped = "&quot;";
+                    break;
+                case '\r':
+                    escaped = "&#xD;";
+                    break;
+                case '\n':
+                    escaped = attribute ? "&#xA;" : null;
+                    break;
+                case '\t':
+                    escaped = attribute ? "&#x9;" : null;
+                    break;
+                default:
+                    escaped = null;
+            }
+            if (escaped != null) {
+                writer.write(value, written, i - written);
+                writer.write(escaped);
+                written = i + 1;
+            }
+        }
+        writer.write(value, written, value.length() - written);
+    }
+}
@@ -0,0 +1,258 @@
+package ca.fieber.api.resources.location;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import com.yammer.metrics.core.GaugeMetric;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A bounded cache of the encoded representations of Locations, by id, version and media type.
+ *
+ * <p>A Location's representation only depends on the Location, and every update gives the Location a new version,
+ * so a cached representation is never stale for the version it was cached for. Only the representations of the
+ * latest version seen of each Location are kept: caching a newer version replaces them, and updates and removals
+ * invalidate them to free their memory.</p>
+ *
+ * <p>The cache is split into independently locked segments, each holding up to its share of the maximum size in
+ * bytes and evicting its least recently used Locations first. A representation larger than a quarter of a segment is
+ * not cached.</p>
+ *
+ * Metric names are as follows:
+ * <ul>
+ * <li>cache-hit - the number of representations answered from the cache</li>
+ * <li>cache-miss - the number of representations encoded because they were not cached</li>
+ * <li>cache-hit-ratio - the share of representations answered from the cache, from 0 to 1</li>
+ * <li>cache-bytes - the number of bytes of cached representations</li>
+ * <li>cache-eviction - the number of Locations evicted to make room for others</li>
+ * </ul>
+ *
+ * @author cfieber
+ */
+@Singleton
+final class LocationRepresentationCache {
+
+    /**
+     * The maximum number of segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * The smallest segment, in bytes.
+     */
+    private static final long MIN_SEGMENT_BYTES = 64 * 1024;
+
+    /**
+     * The representations of one version of a Location, replaced rather than changed when a representation is added.
+     */
+    private static final class Entry {
+        private final long version;
+        private final String[] mediaTypes;
+        private final byte[][] bodies;
+        private final long bytes;
+
+        Entry(long version, String[] mediaTypes, byte[][] bodies, long bytes) {
+            this.version = version;
+            this.mediaTypes = mediaTypes;
+            this.bodies = bodies;
+            this.bytes = bytes;
+        }
+
+        byte[] get(String mediaType) {
+            for (int i = 0; i < mediaTypes.length; i++) {
+                if (mediaTypes[i].equals(mediaType)) {
+                    return bodies[i];
+                }
+            }
+            return null;
+        }
+
+        Entry with(String mediaType, byte[] body) {
+            String[] withMediaTypes = Arrays.copyOf(mediaTypes, mediaTypes.length + 1);
+            byte[][] withBodies = Arrays.copyOf(bodies, bodies.length + 1);
+            withMediaTypes[mediaTypes.length] = mediaType;
+            withBodies[bodies.length] = body;
+            return new Entry(version, withMediaTypes, withBodies, bytes + body.length);
+        }
+    }
+
+    /**
+     * The segments, null if the cache is disabled.
+     */
+    private final Segment[] segments;
+
+    private final CounterMetric hitCounter = Metrics.newCounter(LocationRepresentationCache.class, "cache-hit");
+
+    private final CounterMetric missCounter = Metrics.newCounter(LocationRepresentationCache.class, "cache-miss");
+
+    private final CounterMetric evictionCounter = Metrics.newCounter(LocationRepresentationCache.class, "cache-eviction");
+
+    /**
+     * Constructs a new LocationRepresentationCache and registers gauges for its hit ratio and size.
+     *
+     * @param maximumBytes the maximum number of bytes of cached representations, 0 to disable the cache
+     * @throws IllegalArgumentException if the maximum size is negative
+     */
+    @Inject
+    LocationRepresentationCache(@Named("location.representation-cache-bytes") long maximumBytes) throws IllegalArgumentException {
+        if (maximumBytes < 0) {
+            throw new IllegalArgumentException("Invalid location.representation-cache-bytes: " + maximumBytes);
+        }
+        if (maximumBytes == 0) {
+            this.segments = null;
+        } else {
+            int segmentCount = Integer.highestOneBit((int) Math.max(1, Math.min(maximumBytes / MIN_SEGMENT_BYTES, MAX_SEGMENTS)));
+            this.segments = new Segment[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                segments[i] = new Segment(maximumBytes / segmentCount);
+            }
+        }
+        Metrics.newGauge(LocationRepresentationCache.class, "cache-hit-ratio", new GaugeMetric<Double>() {
+            @Override
+            public Double value() {
+                long hits = hitCounter.count();
+                long lookups = hits + missCounter.count();
+                return lookups == 0 ? 0d : (double) hits / lookups;
+            }
+        });
+        Metrics.newGauge(LocationRepresentationCache.class, "cache-bytes", new GaugeMetric<Long>() {
+            @Override
+            public Long value() {
+                return bytes();
+            }
+        });
+    }
+
+    /**
+     * Determines whether representations are cached.
+     *
+     * @return true iff the cache is enabled
+     */
+    boolean isEnabled() {
+        return segments != null;
+    }
+
+    /**
+     * Gets a cached representation, counting a hit or a miss.
+     *
+     * @param id the id of the Location
+     * @param version the version of the Location
+     * @param mediaType the media type of the representation
+     * @return the encoded representation, which must not be modified, or null if it is not cached
+     */
+    byte[] get(String id, long version, String mediaType) {
+        byte[] body = segmentFor(id).get(id, version, mediaType);
+        if (body != null) {
+            hitCounter.inc();
+        } else {
+            missCounter.inc();
+        }
+        return body;
+    }
+
+    /**
+     * Caches a representation, unless a newer version of the Location has been cached meanwhile.
+     *
+     * @param id the id of the Location
+     * @param version the version of the Location
+     * @param mediaType the media type of the representation
+     * @param body the encoded representation, which must not be modified afterwards
+     */
+    void put(String id, long version, String mediaType, byte[] body) {
+        segmentFor(id).put(id, version, mediaType, body);
+    }
+
+    /**
+     * Discards the cached representations of a Location.
+     *
+     * @param id the id of the Location, ignored if null or if the cache is disabled
+     */
+    void invalidate(String id) {
+        if (id != null && segments != null) {
+            segmentFor(id).invalidate(id);
+        }
+    }
+
+    /**
+     * Gets the number of bytes of cached representations.
+     *
+     * @return the number of bytes
+     */
+    long bytes() {
+        long bytes = 0;
+        if (segments != null) {
+            for (Segment segment : segments) {
+                bytes += segment.bytes();
+            }
+        }
+        return bytes;
+    }
+
+    private Segment segmentFor(String id) {
+        int hash = id.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * A segment of the cache, guarded by itself.
+     */
+    private final class Segment {
+
+        private final long capacity;
+
+        /**
+         * Entries by Location id, least recently used first.
+         */
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        private long bytes;
+
+        Segment(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized byte[] get(String id, long version, String mediaType) {
+            Entry entry = entries.get(id);
+            return entry != null && entry.version == version ? entry.get(mediaType) : null;
+        }
+
+        synchronized void put(String id, long version, String mediaType, byte[] body) {
+            if (body.length > capacity / 4) {
+                return;
+            }
+            Entry entry = entries.get(id);
+            Entry replacement;
+            if (entry == null || entry.version < version) {
+                replacement = new Entry(version, new String[]{mediaType}, new byte[][]{body}, body.length);
+            } else if (entry.version == version && entry.get(mediaType) == null) {
+                replacement = entry.with(mediaType, body);
+            } else {
+                return;
+            }
+            entries.put(id, replacement);
+            bytes += replacement.bytes - (entry == null ? 0 : entry.bytes);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > capacity) {
+                bytes -= eldest.next().bytes;
+                eldest.remove();
+                evictionCounter.inc();
+            }
+        }
+
+        synchronized void invalidate(String id) {
+            Entry entry = entries.remove(id);
+            if (entry != null) {
+                bytes -= entry.bytes;
+            }
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+}
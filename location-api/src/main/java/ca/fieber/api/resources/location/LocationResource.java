@@ -1,39 +1,141 @@
 package ca.fieber.api.resources.location;
 
+import ca.fieber.api.providers.ProtobufRepresentations;
+import ca.fieber.api.repositories.location.AsyncLocationRepository;
+import ca.fieber.api.repositories.location.LocationChange;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
 import ca.fieber.api.repositories.location.LocationRepository;
-import ca.fieber.api.representations.location.Location;
-import ca.fieber.api.representations.location.LocationList;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.repositories.location.RepositoryFuture;
+import ca.fieber.api.repositories.location.VersionConflictException;
+import ca.fieber.api.repositories.location.bulk.*;
+import ca.fieber.api.representations.location.*;
 import com.google.inject.Inject;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.TimerContext;
 import com.yammer.metrics.core.TimerMetric;
+import org.codehaus.jackson.JsonProcessingException;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
-import javax.ws.rs.core.Context;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
-import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.*;
+import javax.xml.bind.JAXBContext;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Exposes REST methods for Locations.
  *
+ * <p>Requests that do not stream call the repository through an AsyncLocationRepository and are suspended while
+ * the call is made, see AsyncResponses, so a slow repository does not hold a container thread per request. Exports
+ * and imports stream the request or response and use the LocationRepository directly.</p>
+ *
  * @author cfieber
  */
 @Path("/location")
 public class LocationResource {
 
+    /**
+     * The media type of newline delimited JSON, a JSON value per line.
+     */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /**
+     * The media type of comma separated values.
+     */
+    public static final String TEXT_CSV = "text/csv";
+
+    /**
+     * The media type of GeoJSON.
+     */
+    public static final String APPLICATION_GEOJSON = "application/geo+json";
+
     /**
      * Page size to use when generating LocationLists.
      */
     private static final int DEFAULT_PAGE_SIZE = 10;
 
+    /**
+     * The maximum number of Locations returned from a spatial search.
+     */
+    private static final int MAX_SEARCH_RESULTS = 1000;
+
+    /**
+     * The maximum number of operations in a LocationBatch.
+     */
+    private static final int MAX_BATCH_SIZE = 10000;
+
+    /**
+     * The maximum number of events in a LocationEventList.
+     */
+    private static final int MAX_CHANGES = 1000;
+
+    /**
+     * The maximum time in seconds a request for changes waits for one.
+     */
+    private static final int MAX_WAIT_SECONDS = 30;
+
+    /**
+     * The media types a single Location is represented in, in order of preference.
+     */
+    private static final List<Variant> LOCATION_VARIANTS = Variant.mediaTypes(MediaType.APPLICATION_JSON_TYPE,
+            MediaType.APPLICATION_XML_TYPE, MediaType.valueOf(ProtobufRepresentations.APPLICATION_PROTOBUF)).add().build();
+
+    /**
+     * Responds with a LocationList of the Locations found, without a next page.
+     */
+    private static final AsyncResponses.Responder<List<Location>> LIST_RESPONDER = new AsyncResponses.Responder<List<Location>>() {
+        @Override
+        public Response respond(List<Location> locations) {
+            return Response.ok(new LocationList(locations, null)).build();
+        }
+    };
+
+    /**
+     * Responds with HTTP 204 (No Content).
+     */
+    private static final AsyncResponses.Responder<Void> NO_CONTENT = new AsyncResponses.Responder<Void>() {
+        @Override
+        public Response respond(Void value) {
+            return Response.noContent().build();
+        }
+    };
+
     /**
      * LocationRepository for this LocationResource.
      */
     private final LocationRepository locationRepository;
 
+    /**
+     * AsyncLocationRepository for the requests that do not stream.
+     */
+    private final AsyncLocationRepository asyncRepository;
+
+    /**
+     * JAXBContext for marshalling streamed representations.
+     */
+    private final JAXBContext context;
+
+    /**
+     * LocationImporter for bulk imports.
+     */
+    private final LocationImporter importer;
+
+    /**
+     * LocationRepresentationCache for the representations of single Locations.
+     */
+    private final LocationRepresentationCache representationCache;
+
     /**
      * A timer for get requests for specific Locations.
      */
@@ -44,11 +146,51 @@ public class LocationResource {
      */
     private final TimerMetric listTimer = Metrics.newTimer(getClass(), "GET /location");
 
+    /**
+     * A timer for bounding box searches.
+     */
+    private final TimerMetric withinTimer = Metrics.newTimer(getClass(), "GET /location/within");
+
+    /**
+     * A timer for nearest neighbour searches.
+     */
+    private final TimerMetric nearestTimer = Metrics.newTimer(getClass(), "GET /location/nearest");
+
+    /**
+     * A timer for tile counts.
+     */
+    private final TimerMetric tilesTimer = Metrics.newTimer(getClass(), "GET /location/tiles");
+
+    /**
+     * A timer for name searches.
+     */
+    private final TimerMetric searchTimer = Metrics.newTimer(getClass(), "GET /location/search");
+
+    /**
+     * A timer for change feed requests, including the time spent waiting for changes.
+     */
+    private final TimerMetric changesTimer = Metrics.newTimer(getClass(), "GET /location/changes");
+
+    /**
+     * A timer for exports, including the time spent streaming the response.
+     */
+    private final TimerMetric exportTimer = Metrics.newTimer(getClass(), "GET /location/export");
+
+    /**
+     * A timer for bulk imports.
+     */
+    private final TimerMetric importTimer = Metrics.newTimer(getClass(), "POST /location/import");
+
     /**
      * A timer for Location creation.
      */
     private final TimerMetric createTimer = Metrics.newTimer(getClass(), "POST /location");
 
+    /**
+     * A timer for batches of Location operations.
+     */
+    private final TimerMetric batchTimer = Metrics.newTimer(getClass(), "POST /location/batch");
+
     /**
      * A timer for Location updates.
      */
@@ -63,38 +205,347 @@ public class LocationResource {
      * Constructs a new LocationResource with the provided LocationRepository.
      *
      * @param locationRepository the LocationRepository for this LocationResource.
+     * @param asyncRepository the AsyncLocationRepository for requests that do not stream.
+     * @param context the JAXBContext for marshalling streamed representations.
+     * @param importer the LocationImporter for bulk imports.
+     * @param representationCache the LocationRepresentationCache for the representations of single Locations.
      */
     @Inject
-    public LocationResource(LocationRepository locationRepository) {
+    public LocationResource(LocationRepository locationRepository, AsyncLocationRepository asyncRepository,
+                            JAXBContext context, LocationImporter importer, LocationRepresentationCache representationCache) {
         this.locationRepository = locationRepository;
+        this.asyncRepository = asyncRepository;
+        this.context = context;
+        this.importer = importer;
+        this.representationCache = representationCache;
     }
 
     /**
-     * Gets a list of Locations starting from the specified start index.
+     * Gets a list of Locations starting from the specified cursor or start index.
+     *
+     * <p>The link to the next page always carries a cursor, so a client following next page links reads each page
+     * at the same cost and does not skip or repeat Locations when others are created or deleted meanwhile. Where the
+     * repository supports it, a first page that has a next page pins a snapshot of the repository once it has been
+     * read and the link also carries the snapshot, so that every page a client follows after the first comes from
+     * the same point in time. Listings that fit in one page pin nothing.</p>
      *
      * @param uriInfo Context parameter for URI creation
-     * @param startIndex the start index for the Location list, defaults to 0.
+     * @param startIndex the start index for the Location list, defaults to 0, ignored if a cursor is provided.
+     * @param cursor the opaque cursor from a previous next page link, optional.
+     * @param snapshot the snapshot from a previous next page link, optional. If the snapshot has expired the
+     *                 current Locations are listed instead.
+     * @param fields the comma separated properties of each Location to render, optional, defaults to all of them.
+     *               The next page link carries the same fields.
      * @return a LocationList containing the Locations and a link to additional Locations if applicable.
      */
     @GET
-    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public Response listLocations(@Context UriInfo uriInfo, @QueryParam("start-index") @DefaultValue("0") int startIndex) {
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+    public Response listLocations(@Context final UriInfo uriInfo,
+                                  @Context final HttpServletRequest servletRequest,
+                                  @QueryParam("start-index") @DefaultValue("0") final int startIndex,
+                                  @QueryParam("cursor") String cursor,
+                                  @QueryParam("snapshot") Long snapshot,
+                                  @QueryParam("fields") String fields) {
         final TimerContext timerContext = listTimer.time();
         try {
-            List<Location> locations = locationRepository.list(startIndex, DEFAULT_PAGE_SIZE + 1);
-            boolean hasNextPage = locations.size() > DEFAULT_PAGE_SIZE;
-            URI nextPage = null;
-            if (hasNextPage) {
-                nextPage = uriInfo.getBaseUriBuilder()
-                        .path(LocationResource.class)
-                        .path(LocationResource.class, "listLocations")
-                        .queryParam("start-index", startIndex + DEFAULT_PAGE_SIZE)
-                        .build();
+            final Set<LocationProjection.Field> projected = fields == null ? null : LocationProjection.parseFields(fields);
+            final String afterId = cursor == null ? null : PageCursor.decode(cursor);
+            AsyncResponses.Responder<Long> listView = new AsyncResponses.Responder<Long>() {
+                @Override
+                public Response respond(final Long view) {
+                    RepositoryFuture<List<Location>> locations;
+                    if (afterId != null) {
+                        locations = asyncRepository.listAfter(afterId, DEFAULT_PAGE_SIZE + 1, view);
+                    } else {
+                        locations = asyncRepository.list(startIndex, DEFAULT_PAGE_SIZE + 1, view);
+                    }
+                    return AsyncResponses.respond(servletRequest, timerContext, locations, new AsyncResponses.Responder<List<Location>>() {
+                        @Override
+                        public Response respond(List<Location> locations) {
+                            final List<Location> page = locations.subList(0, Math.min(DEFAULT_PAGE_SIZE, locations.size()));
+                            if (locations.size() <= DEFAULT_PAGE_SIZE) {
+                                return listResponse(page, null);
+                            }
+                            if (view != LocationRepository.NO_SNAPSHOT) {
+                                return listResponse(page, view);
+                            }
+                            // only listings with more than one page pin a snapshot for the next-page links to carry
+                            return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.pinSnapshot(), new AsyncResponses.Responder<Long>() {
+                                @Override
+                                public Response respond(Long pinned) {
+                                    return listResponse(page, pinned);
+                                }
+                            });
+                        }
+                    });
+                }
+
+                /**
+                 * Builds the Response for a page of Locations.
+                 *
+                 * @param page the Locations
+                 * @param nextView the snapshot the next page is read from, null if there is no next page
+                 * @return the Response
+                 */
+                private Response listResponse(List<Location> page, Long nextView) {
+                    URI nextPage = null;
+                    if (nextView != null) {
+                        UriBuilder builder = uriInfo.getBaseUriBuilder()
+                                .path(LocationResource.class)
+                                .queryParam("cursor", PageCursor.encode(page.get(page.size() - 1).getId()));
+                        if (nextView != LocationRepository.NO_SNAPSHOT) {
+                            builder.queryParam("snapshot", nextView);
+                        }
+                        if (projected != null) {
+                            builder.queryParam("fields", LocationProjection.formatFields(projected));
+                        }
+                        nextPage = builder.build();
+                    }
+                    LocationList list = new LocationList(page, nextPage);
+                    if (projected != null) {
+                        return Response.ok(LocationProjection.of(list, projected)).build();
+                    }
+                    return Response.ok(list).build();
+                }
+            };
+            return listView.respond(snapshot != null ? snapshot : LocationRepository.NO_SNAPSHOT);
+        } finally {
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
+        }
+    }
+
+    /**
+     * Exports every Location in id order as newline delimited JSON, one Location per line, streamed to the response
+     * as it is read from the repository.
+     *
+     * <p>Locations are read from the repository a chunk at a time, so the export takes constant memory whatever the
+     * number of Locations.</p>
+     *
+     * @return every Location
+     */
+    @GET
+    @Path("export")
+    @Produces(APPLICATION_NDJSON)
+    public Response exportJson() {
+        return Response.ok(new LocationExport(locationRepository, context, true, exportTimer)).build();
+    }
+
+    /**
+     * Exports every Location in id order as a location-list, streamed to the response as it is read from the
+     * repository.
+     *
+     * @return every Location
+     */
+    @GET
+    @Path("export")
+    @Produces(MediaType.APPLICATION_XML)
+    public Response exportXml() {
+        return Response.ok(new LocationExport(locationRepository, context, false, exportTimer)).build();
+    }
+
+    /**
+     * Gets the Locations inside a bounding box.
+     *
+     * <p>If min-longitude is greater than max-longitude the box is taken to cross the antimeridian.</p>
+     *
+     * @param minLongitude the western edge of the box in decimal degrees
+     * @param minLatitude the southern edge of the box in decimal degrees
+     * @param maxLongitude the eastern edge of the box in decimal degrees
+     * @param maxLatitude the northern edge of the box in decimal degrees
+     * @param limit the maximum number of Locations to return, defaults to 100 and is capped at 1000
+     * @return a LocationList containing the Locations inside the box
+     */
+    @GET
+    @Path("within")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+    public Response findWithin(@Context HttpServletRequest servletRequest,
+                               @QueryParam("min-longitude") Double minLongitude,
+                               @QueryParam("min-latitude") Double minLatitude,
+                               @QueryParam("max-longitude") Double maxLongitude,
+                               @QueryParam("max-latitude") Double maxLatitude,
+                               @QueryParam("limit") @DefaultValue("100") int limit) {
+        final TimerContext timerContext = withinTimer.time();
+        try {
+            RepositoryFuture<List<Location>> locations = asyncRepository.findWithin(
+                    required("min-longitude", minLongitude), required("min-latitude", minLatitude),
+                    required("max-longitude", maxLongitude), required("max-latitude", maxLatitude),
+                    Math.min(limit, MAX_SEARCH_RESULTS));
+            return AsyncResponses.respond(servletRequest, timerContext, locations, LIST_RESPONDER);
+        } finally {
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
+        }
+    }
+
+    /**
+     * Gets the Locations nearest to a point, nearest first.
+     *
+     * @param longitude the longitude of the point in decimal degrees
+     * @param latitude the latitude of the point in decimal degrees
+     * @param count the maximum number of Locations to return, defaults to 10 and is capped at 1000
+     * @param maxDistanceKm the maximum distance in kilometres from the point, optional
+     * @return a LocationList containing the nearest Locations
+     */
+    @GET
+    @Path("nearest")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+    public Response findNearest(@Context HttpServletRequest servletRequest,
+                                @QueryParam("longitude") Double longitude,
+                                @QueryParam("latitude") Double latitude,
+                                @QueryParam("count") @DefaultValue("10") int count,
+                                @QueryParam("max-distance") Double maxDistanceKm) {
+        final TimerContext timerContext = nearestTimer.time();
+        try {
+            RepositoryFuture<List<Location>> locations = asyncRepository.findNearest(
+                    required("longitude", longitude), required("latitude", latitude),
+                    Math.min(count, MAX_SEARCH_RESULTS),
+                    maxDistanceKm == null ? Double.POSITIVE_INFINITY : maxDistanceKm);
+            return AsyncResponses.respond(servletRequest, timerContext, locations, LIST_RESPONDER);
+        } finally {
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
+        }
+    }
+
+    /**
+     * Counts the Locations in each map tile at a zoom level that overlaps a bounding box, so that clusters or a heat
+     * map can be drawn without fetching the Locations.
+     *
+     * <p>Tiles are numbered as by slippy map (XYZ) tile servers, and only tiles holding Locations are listed. Every
+     * Location in a listed tile is counted, including those outside the box. If min-longitude is greater than
+     * max-longitude the box is taken to cross the antimeridian.</p>
+     *
+     * @param minLongitude the western edge of the box in decimal degrees
+     * @param minLatitude the southern edge of the box in decimal degrees
+     * @param maxLongitude the eastern edge of the box in decimal degrees
+     * @param maxLatitude the northern edge of the box in decimal degrees
+     * @param zoom the zoom level, from 0 to 22, the box may span at most 16384 tiles at that level
+     * @return a LocationTileList containing the counted tiles
+     */
+    @GET
+    @Path("tiles")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    public Response countTiles(@Context HttpServletRequest servletRequest,
+                               @QueryParam("min-longitude") Double minLongitude,
+                               @QueryParam("min-latitude") Double minLatitude,
+                               @QueryParam("max-longitude") Double maxLongitude,
+                               @QueryParam("max-latitude") Double maxLatitude,
+                               @QueryParam("zoom") Integer zoom) {
+        final TimerContext timerContext = tilesTimer.time();
+        try {
+            final int level = required("zoom", zoom);
+            RepositoryFuture<List<LocationTile>> tiles = asyncRepository.countTiles(
+                    required("min-longitude", minLongitude), required("min-latitude", minLatitude),
+                    required("max-longitude", maxLongitude), required("max-latitude", maxLatitude), level);
+            return AsyncResponses.respond(servletRequest, timerContext, tiles, new AsyncResponses.Responder<List<LocationTile>>() {
+                @Override
+                public Response respond(List<LocationTile> counted) {
+                    return Response.ok(new LocationTileList(level, counted)).build();
+                }
+            });
+        } finally {
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
+        }
+    }
+
+    /**
+     * Searches for Locations by name, best matches first.
+     *
+     * <p>A Location matches if its name, or a word of its name, starts with the query, ignoring case, accents and
+     * punctuation. Exact matches rank first, then names starting with the query, then names with a later word
+     * starting with the query.</p>
+     *
+     * @param uriInfo Context parameter for URI creation
+     * @param query the query
+     * @param startIndex the start index into the matches, defaults to 0
+     * @return a LocationList containing the matching Locations and a link to additional matches if applicable.
+     */
+    @GET
+    @Path("search")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+    public Response searchLocations(@Context final UriInfo uriInfo,
+                                    @Context HttpServletRequest servletRequest,
+                                    @QueryParam("q") final String query,
+                                    @QueryParam("start-index") @DefaultValue("0") final int startIndex) {
+        final TimerContext timerContext = searchTimer.time();
+        try {
+            if (query == null) {
+                throw new IllegalArgumentException("Missing query parameter: q");
             }
-            LocationList list = new LocationList(locations.subList(0, Math.min(DEFAULT_PAGE_SIZE, locations.size())), nextPage);
-            return Response.ok(list).build();
+            RepositoryFuture<List<Location>> matches = asyncRepository.search(query, startIndex, DEFAULT_PAGE_SIZE + 1);
+            return AsyncResponses.respond(servletRequest, timerContext, matches, new AsyncResponses.Responder<List<Location>>() {
+                @Override
+                public Response respond(List<Location> locations) {
+                    List<Location> page = locations.subList(0, Math.min(DEFAULT_PAGE_SIZE, locations.size()));
+                    URI nextPage = null;
+                    if (locations.size() > DEFAULT_PAGE_SIZE) {
+                        nextPage = uriInfo.getBaseUriBuilder()
+                                .path(LocationResource.class)
+                                .path(LocationResource.class, "searchLocations")
+                                .queryParam("q", query)
+                                .queryParam("start-index", startIndex + DEFAULT_PAGE_SIZE)
+                                .build();
+                    }
+                    return Response.ok(new LocationList(page, nextPage)).build();
+                }
+            });
         } finally {
-            timerContext.stop();
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
+        }
+    }
+
+    /**
+     * Gets the creates, updates and deletes of Locations after a sequence number.
+     *
+     * <p>A consumer keeping a copy of the Locations in sync first requests changes without a sequence number, which
+     * returns no events and the current sequence number. It then lists the Locations, and from then on follows next
+     * page links to apply events as they happen. If there are no events after the sequence number the request
+     * waits for one for up to the requested number of seconds, so a consumer can long poll the next page link. If
+     * events after the sequence number have been lost the response is marked truncated and the consumer must list
+     * the Locations again.</p>
+     *
+     * @param uriInfo Context parameter for URI creation
+     * @param since the sequence number after which to get events, optional
+     * @param waitSeconds the time in seconds to wait for an event if there are none yet, defaults to 0 and is capped
+     *                    at 30
+     * @return a LocationEventList containing at most 1000 events and a link to the following events
+     */
+    @GET
+    @Path("changes")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    public Response getChanges(@Context final UriInfo uriInfo,
+                               @Context HttpServletRequest servletRequest,
+                               @QueryParam("since") Long since,
+                               @QueryParam("wait") @DefaultValue("0") final int waitSeconds) {
+        final TimerContext timerContext = changesTimer.time();
+        try {
+            final AsyncResponses.Responder<LocationChanges> eventList = new AsyncResponses.Responder<LocationChanges>() {
+                @Override
+                public Response respond(LocationChanges changes) {
+                    List<LocationEvent> events = new ArrayList<LocationEvent>(changes.getChanges().size());
+                    for (LocationChange change : changes.getChanges()) {
+                        events.add(toEvent(change));
+                    }
+                    UriBuilder nextPage = uriInfo.getBaseUriBuilder()
+                            .path(LocationResource.class)
+                            .path(LocationResource.class, "getChanges")
+                            .queryParam("since", changes.getSequence());
+                    if (waitSeconds > 0) {
+                        nextPage.queryParam("wait", waitSeconds);
+                    }
+                    return Response.ok(new LocationEventList(events, changes.getSequence(), changes.isTruncated(), nextPage.build())).build();
+                }
+            };
+            if (since == null) {
+                return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.latestSequence(), new AsyncResponses.Responder<Long>() {
+                    @Override
+                    public Response respond(Long sequence) {
+                        return eventList.respond(new LocationChanges(Collections.<LocationChange>emptyList(), sequence, false));
+                    }
+                });
+            }
+            long timeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(Math.min(waitSeconds, MAX_WAIT_SECONDS), 0));
+            return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.changesSince(since, MAX_CHANGES, timeoutMillis), eventList);
+        } finally {
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
         }
     }
 
@@ -103,87 +554,445 @@ public class LocationResource {
      *
      * <p>The provided Location must not have an existing ID.</p>
      *
+     * @param request Context parameter for selecting the representation of the created Location
      * @param uriInfo Context parameter for URI creation
      * @param location the Location to create.
      * @return the newly created Location and the authoritative URI linking to its representation.
      */
     @POST
-    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public Response createLocation(@Context UriInfo uriInfo, Location location) {
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+    public Response createLocation(@Context Request request, @Context final UriInfo uriInfo, @Context HttpServletRequest servletRequest,
+                                   Location location) {
         final TimerContext timerContext = createTimer.time();
         try {
-            Location created = locationRepository.create(location);
-            return Response.created(uriInfo.getBaseUriBuilder()
-                    .path(LocationResource.class)
-                    .path(LocationResource.class, "getLocation")
-                    .build(created.getId()))
-                    .entity(created)
-                    .build();
+            final Variant variant = request.selectVariant(LOCATION_VARIANTS);
+            if (variant == null) {
+                return Response.notAcceptable(LOCATION_VARIANTS).build();
+            }
+            return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.create(location), new AsyncResponses.Responder<Location>() {
+                @Override
+                public Response respond(Location created) {
+                    return Response.created(uriInfo.getBaseUriBuilder()
+                            .path(LocationResource.class)
+                            .path(LocationResource.class, "getLocation")
+                            .build(created.getId()))
+                            .entity(created)
+                            .type(variant.getMediaType())
+                            .tag(entityTag(created, variant, null))
+                            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                            .build();
+                }
+            });
+        } finally {
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
+        }
+    }
+
+    /**
+     * Imports Locations from comma separated values, with a header naming the name, longitude and latitude columns.
+     *
+     * @param input the request body
+     * @return a LocationImportResult with the number of Locations imported and rejected
+     * @throws IOException if the request body can not be read
+     * @see CsvLocationReader
+     */
+    @POST
+    @Path("import")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Consumes(TEXT_CSV)
+    public Response importCsv(InputStream input) throws IOException {
+        return importLocations(new CsvLocationReader(input));
+    }
+
+    /**
+     * Imports Locations from newline delimited JSON or a JSON array of Locations.
+     *
+     * @param input the request body
+     * @return a LocationImportResult with the number of Locations imported and rejected
+     * @throws IOException if the request body can not be read
+     * @see JsonLocationReader
+     */
+    @POST
+    @Path("import")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Consumes({APPLICATION_NDJSON, MediaType.APPLICATION_JSON})
+    public Response importJson(InputStream input) throws IOException {
+        return importLocations(new JsonLocationReader(input));
+    }
+
+    /**
+     * Imports Locations from the Point features of a GeoJSON FeatureCollection.
+     *
+     * @param input the request body
+     * @return a LocationImportResult with the number of Locations imported and rejected
+     * @throws IOException if the request body can not be read
+     * @see GeoJsonLocationReader
+     */
+    @POST
+    @Path("import")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Consumes(APPLICATION_GEOJSON)
+    public Response importGeoJson(InputStream input) throws IOException {
+        return importLocations(new GeoJsonLocationReader(input));
+    }
+
+    /**
+     * Imports Locations from a LocationReader as they are parsed from the request body.
+     *
+     * <p>Invalid records are skipped and reported in the result. If the request body is malformed part way through,
+     * HTTP 400 (Bad Request) is returned, but Locations already imported are kept.</p>
+     *
+     * @param reader the LocationReader for the request body
+     * @return a LocationImportResult
+     * @throws IOException if the request body can not be read
+     */
+    private Response importLocations(LocationReader reader) throws IOException {
+        final TimerContext timerContext = importTimer.time();
+        try {
+            ImportSummary summary = importer.importFrom(reader);
+            return Response.ok(new LocationImportResult(summary.getImported(), summary.getRejected(), summary.getErrors())).build();
+        } catch (JsonProcessingException jpe) {
+            throw new IllegalArgumentException("Malformed import: " + jpe.getMessage(), jpe);
+        } catch (EOFException eofe) {
+            throw new IllegalArgumentException("Malformed import: " + eofe.getMessage(), eofe);
         } finally {
             timerContext.stop();
         }
     }
 
+    /**
+     * Applies a batch of Location creates, updates and deletes in order.
+     *
+     * <p>Each operation succeeds or fails on its own, and its result carries the HTTP status code the equivalent
+     * single request would have returned along with the created or updated Location or an error message.</p>
+     *
+     * @param batch the operations to apply, at most 10000
+     * @return a LocationBatchResult with a result for each operation, in the same order
+     */
+    @POST
+    @Path("batch")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    public Response applyBatch(@Context HttpServletRequest servletRequest, LocationBatch batch) {
+        final TimerContext timerContext = batchTimer.time();
+        try {
+            List<LocationOperation> operations = batch.getOperations();
+            if (operations.size() > MAX_BATCH_SIZE) {
+                throw new IllegalArgumentException("Too many operations in batch: " + operations.size() + ", the maximum is " + MAX_BATCH_SIZE);
+            }
+            final LocationOperationResult[] results = new LocationOperationResult[operations.size()];
+            final List<LocationMutation> mutations = new ArrayList<LocationMutation>(operations.size());
+            final List<Integer> positions = new ArrayList<Integer>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                try {
+                    mutations.add(toMutation(operations.get(i)));
+                    positions.add(i);
+                } catch (IllegalArgumentException iae) {
+                    results[i] = new LocationOperationResult(Response.Status.BAD_REQUEST.getStatusCode(), iae.getMessage(), null);
+                }
+            }
+            return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.apply(mutations), new AsyncResponses.Responder<List<MutationResult>>() {
+                @Override
+                public Response respond(List<MutationResult> applied) {
+                    for (int i = 0; i < applied.size(); i++) {
+                        results[positions.get(i)] = toResult(mutations.get(i), applied.get(i));
+                        if (mutations.get(i).getType() != LocationMutation.Type.CREATE && applied.get(i).isSuccess()) {
+                            representationCache.invalidate(mutations.get(i).getId());
+                        }
+                    }
+                    return Response.ok(new LocationBatchResult(Arrays.asList(results))).build();
+                }
+            });
+        } finally {
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
+        }
+    }
+
     /**
      * Gets the representation of a Location.
      *
+     * <p>The response carries an ETag made of the version of the Location, the media type and any fields, so that
+     * every representation has a strong ETag of its own, and varies by Accept. If the request's If-None-Match matches
+     * it, HTTP 304 (Not Modified) is returned without a body.</p>
+     *
+     * <p>The representation of the whole Location is copied from the LocationRepresentationCache if it is cached
+     * for the Location's version, rather than encoded again.</p>
+     *
+     * @param request Context parameter for evaluating preconditions
      * @param id the ID of the Location
+     * @param fields the comma separated properties of the Location to render, optional, defaults to all of them
      * @return the Location with the specified ID
      */
     @GET
     @Path("{id}")
-    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public Response getLocation(@PathParam("id") String id) {
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+    public Response getLocation(@Context final Request request, @Context HttpServletRequest servletRequest,
+                                @PathParam("id") String id, @QueryParam("fields") String fields) {
         final TimerContext timerContext = getTimer.time();
         try {
-            Location location = locationRepository.get(id);
-            return Response.ok(location).build();
+            final Set<LocationProjection.Field> projected = fields == null ? null : LocationProjection.parseFields(fields);
+            final Variant variant = request.selectVariant(LOCATION_VARIANTS);
+            if (variant == null) {
+                return Response.notAcceptable(LOCATION_VARIANTS).build();
+            }
+            return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.get(id), new AsyncResponses.Responder<Location>() {
+                @Override
+                public Response respond(Location location) {
+                    EntityTag tag = entityTag(location, variant, projected);
+                    Response.ResponseBuilder response = request.evaluatePreconditions(tag);
+                    if (response == null) {
+                        if (projected != null) {
+                            response = Response.ok(LocationProjection.of(location, projected), variant);
+                        } else if (representationCache.isEnabled()) {
+                            response = Response.ok(new CachedLocation(location), variant);
+                        } else {
+                            response = Response.ok(location, variant);
+                        }
+                    }
+                    return response.tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+                }
+            });
         } finally {
-            timerContext.stop();
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
         }
     }
 
     /**
      * Updates the specified Location.
      *
+     * <p>If the request has an If-Match header the update is only applied if it holds the ETag of a representation of
+     * the current version of the Location, and only if the Location has not changed since, otherwise HTTP 412
+     * (Precondition Failed) is returned.</p>
+     *
+     * @param request Context parameter for evaluating preconditions
+     * @param ifMatch the If-Match header, optional
      * @param id the ID of the Location to update
      * @param location the updated values for the Location
      * @return the updated Location
      */
     @PUT
     @Path("{id}")
-    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public Response updateLocation(@PathParam("id") String id, Location location) {
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+    @Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+    public Response updateLocation(@Context final Request request,
+                                   @Context final HttpServletRequest servletRequest,
+                                   @HeaderParam(HttpHeaders.IF_MATCH) final String ifMatch,
+                                   @PathParam("id") String id,
+                                   final Location location) {
         final TimerContext timerContext = updateTimer.time();
         try {
             if (!id.equals(location.getId())) {
                 throw new IllegalArgumentException("Invalid location id for this URI: " + location.getId());
             }
-            locationRepository.update(location);
-            return Response.ok(location).build();
+            final Variant variant = request.selectVariant(LOCATION_VARIANTS);
+            if (variant == null) {
+                return Response.notAcceptable(LOCATION_VARIANTS).build();
+            }
+            final AsyncResponses.Responder<Location> updatedLocation = new AsyncResponses.Responder<Location>() {
+                @Override
+                public Response respond(Location updated) {
+                    representationCache.invalidate(updated.getId());
+                    return Response.ok(updated, variant).tag(entityTag(updated, variant, null))
+                            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+                }
+            };
+            if (ifMatch == null) {
+                return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.update(location, LocationMutation.ANY_VERSION), updatedLocation);
+            }
+            return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.get(id), new AsyncResponses.Responder<Location>() {
+                @Override
+                public Response respond(Location current) {
+                    if (!matchesVersion(ifMatch, current.getVersion())) {
+                        return Response.status(Response.Status.PRECONDITION_FAILED).build();
+                    }
+                    return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.update(location, current.getVersion()), updatedLocation);
+                }
+            });
         } finally {
-            timerContext.stop();
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
         }
     }
 
     /**
      * Deletes the specified Location.
      *
+     * <p>If the request has an If-Match header the Location is only deleted if it holds the ETag of a representation of
+     * the current version of the Location, and only if the Location has not changed since, otherwise HTTP 412
+     * (Precondition Failed) is returned.</p>
+     *
+     * @param request Context parameter for evaluating preconditions
+     * @param ifMatch the If-Match header, optional
      * @param id the ID of the Location to delete
      * @return HTTP 204 (No Content)
      */
     @DELETE
     @Path("{id}")
-    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-    public Response deleteLocation(@PathParam("id") String id) {
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+    public Response deleteLocation(@Context final Request request,
+                                   @Context final HttpServletRequest servletRequest,
+                                   @HeaderParam(HttpHeaders.IF_MATCH) final String ifMatch,
+                                   @PathParam("id") final String id) {
         final TimerContext timerContext = deleteTimer.time();
         try {
-            locationRepository.remove(id);
-            return Response.noContent().build();
+            final AsyncResponses.Responder<Void> removed = new AsyncResponses.Responder<Void>() {
+                @Override
+                public Response respond(Void value) {
+                    representationCache.invalidate(id);
+                    return NO_CONTENT.respond(value);
+                }
+            };
+            if (ifMatch == null) {
+                return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.remove(id, LocationMutation.ANY_VERSION), removed);
+            }
+            return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.get(id), new AsyncResponses.Responder<Location>() {
+                @Override
+                public Response respond(Location current) {
+                    if (!matchesVersion(ifMatch, current.getVersion())) {
+                        return Response.status(Response.Status.PRECONDITION_FAILED).build();
+                    }
+                    return AsyncResponses.respond(servletRequest, timerContext, asyncRepository.remove(id, current.getVersion()), removed);
+                }
+            });
         } finally {
-            timerContext.stop();
+            AsyncResponses.stopUnlessSuspended(servletRequest, timerContext);
+        }
+    }
+
+    /**
+     * Converts a LocationOperation to a LocationMutation.
+     *
+     * @param operation the LocationOperation
+     * @return the LocationMutation
+     * @throws IllegalArgumentException if the operation is missing its type, Location or id
+     */
+    private static LocationMutation toMutation(LocationOperation operation) throws IllegalArgumentException {
+        if (operation.getType() == null) {
+            throw new IllegalArgumentException("Missing operation type");
+        }
+        switch (operation.getType()) {
+            case CREATE:
+                if (operation.getLocation() == null) {
+                    throw new IllegalArgumentException("Missing location to create");
+                }
+                return LocationMutation.create(operation.getLocation());
+            case UPDATE:
+                if (operation.getLocation() == null || operation.getLocation().getId() == null) {
+                    throw new IllegalArgumentException("Missing location to update");
+                }
+                return LocationMutation.update(operation.getLocation());
+            default:
+                String id = operation.getId() != null || operation.getLocation() == null
+                        ? operation.getId() : operation.getLocation().getId();
+                if (id == null) {
+                    throw new IllegalArgumentException("Missing id of location to delete");
+                }
+                return LocationMutation.remove(id);
+        }
+    }
+
+    /**
+     * Converts the result of a LocationMutation to a LocationOperationResult.
+     *
+     * @param mutation the LocationMutation
+     * @param result the result of the LocationMutation
+     * @return the LocationOperationResult
+     */
+    private static LocationOperationResult toResult(LocationMutation mutation, MutationResult result) {
+        if (!result.isSuccess()) {
+            Response.Status status = Response.Status.BAD_REQUEST;
+            if (result.getFailure() instanceof NoSuchElementException) {
+                status = Response.Status.NOT_FOUND;
+            } else if (result.getFailure() instanceof VersionConflictException) {
+                status = Response.Status.PRECONDITION_FAILED;
+            }
+            return new LocationOperationResult(status.getStatusCode(), result.getFailure().getMessage(), null);
+        }
+        switch (mutation.getType()) {
+            case CREATE:
+                return new LocationOperationResult(Response.Status.CREATED.getStatusCode(), null, result.getLocation());
+            case UPDATE:
+                return new LocationOperationResult(Response.Status.OK.getStatusCode(), null, result.getLocation());
+            default:
+                return new LocationOperationResult(Response.Status.NO_CONTENT.getStatusCode(), null, null);
+        }
+    }
+
+    /**
+     * Converts a LocationChange to a LocationEvent.
+     *
+     * @param change the LocationChange
+     * @return the LocationEvent
+     */
+    private static LocationEvent toEvent(LocationChange change) {
+        switch (change.getType()) {
+            case CREATE:
+                return new LocationEvent(change.getSequence(), LocationOperation.Type.CREATE, change.getId(), change.getLocation());
+            case UPDATE:
+                return new LocationEvent(change.getSequence(), LocationOperation.Type.UPDATE, change.getId(), change.getLocation());
+            default:
+                return new LocationEvent(change.getSequence(), LocationOperation.Type.DELETE, change.getId(), null);
+        }
+    }
+
+    /**
+     * Gets the ETag for a representation of a Location: its version, followed by the subtype of the media type and by
+     * any projected fields, e.g. "7-json" or "7-xml-id.name".
+     *
+     * @param location the Location
+     * @param variant the variant the Location is represented in
+     * @param projected the projected fields, null for the whole Location
+     * @return the ETag for the representation
+     */
+    private static EntityTag entityTag(Location location, Variant variant, Set<LocationProjection.Field> projected) {
+        StringBuilder tag = new StringBuilder().append(location.getVersion()).append('-').append(variant.getMediaType().getSubtype());
+        if (projected != null) {
+            tag.append('-').append(LocationProjection.formatFields(projected).replace(',', '.'));
+        }
+        return new EntityTag(tag.toString());
+    }
+
+    /**
+     * Determines whether an If-Match header holds the strong ETag of a representation of a version of a Location, or
+     * is *. Representations differ in their ETags, but a write is conditional on the version they represent.
+     *
+     * @param ifMatch the If-Match header
+     * @param version the version
+     * @return true iff the header matches the version
+     */
+    private static boolean matchesVersion(String ifMatch, long version) {
+        String expected = Long.toString(version);
+        for (String tag : ifMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.length() < 2 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+                // weak ETags never match If-Match
+                continue;
+            }
+            String value = tag.substring(1, tag.length() - 1);
+            int dash = value.indexOf('-');
+            if ((dash < 0 ? value : value.substring(0, dash)).equals(expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks that a required query parameter was provided.
+     *
+     * @param name the name of the query parameter
+     * @param value the value of the query parameter
+     * @param <T> the type of the query parameter
+     * @return the value
+     * @throws IllegalArgumentException if the value is null
+     */
+    private static <T> T required(String name, T value) throws IllegalArgumentException {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing query parameter: " + name);
         }
+        return value;
     }
 }
@@ -0,0 +1,71 @@
+package ca.fieber.api.resources.location;
+
+import javax.xml.bind.DatatypeConverter;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+/**
+ * Encodes and decodes the opaque cursors used to page through Locations.
+ *
+ * <p>A cursor identifies the last Location of a page, the next page starts with the Location that follows it.
+ * Cursors use the URL safe base64 alphabet without padding so that they can be used as query parameters as is.</p>
+ *
+ * @author cfieber
+ */
+final class PageCursor {
+
+    /**
+     * Charset for the ids held in cursors.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Pattern matching well formed cursors.
+     */
+    private static final Pattern VALID_CURSOR = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private PageCursor() {
+    }
+
+    /**
+     * Encodes a cursor for the page following the Location with the specified id.
+     *
+     * @param lastId the id of the last Location in the current page
+     * @return the cursor
+     */
+    static String encode(String lastId) {
+        String base64 = DatatypeConverter.printBase64Binary(lastId.getBytes(UTF8));
+        int end = base64.length();
+        while (end > 0 && base64.charAt(end - 1) == '=') {
+            end--;
+        }
+        return base64.substring(0, end).replace('+', '-').replace('/', '_');
+    }
+
+    /**
+     * Decodes a cursor.
+     *
+     * @param cursor the cursor
+     * @return the id of the last Location before the page the cursor refers to
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static String decode(String cursor) throws IllegalArgumentException {
+        if (cursor.length() % 4 == 1 || !VALID_CURSOR.matcher(cursor).matches()) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        StringBuilder base64 = new StringBuilder(cursor.replace('-', '+').replace('_', '/'));
+        while (base64.length() % 4 != 0) {
+            base64.append('=');
+        }
+        byte[] decoded;
+        try {
+            decoded = DatatypeConverter.parseBase64Binary(base64.toString());
+        } catch (RuntimeException re) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        if (decoded == null || decoded.length == 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return new String(decoded, UTF8);
+    }
+}
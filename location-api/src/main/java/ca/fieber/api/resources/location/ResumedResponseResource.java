@@ -0,0 +1,67 @@
+package ca.fieber.api.resources.location;
+
+import ca.fieber.api.providers.ProtobufRepresentations;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Answers requests to LocationResource that were suspended while waiting for the repository, once they are
+ * dispatched back to the container.
+ *
+ * <p>The path only answers resumed requests, any other request to it gets HTTP 404 (Not Found).</p>
+ *
+ * @author cfieber
+ * @see AsyncResponses
+ */
+@Path(AsyncResponses.RESUME_PATH)
+@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, ProtobufRepresentations.APPLICATION_PROTOBUF})
+public class ResumedResponseResource {
+
+    /**
+     * Answers a resumed GET request.
+     *
+     * @param request the resumed request
+     * @return the Response for the request
+     */
+    @GET
+    public Response resumeGet(@Context HttpServletRequest request) {
+        return AsyncResponses.resume(request);
+    }
+
+    /**
+     * Answers a resumed POST request.
+     *
+     * @param request the resumed request
+     * @return the Response for the request
+     */
+    @POST
+    public Response resumePost(@Context HttpServletRequest request) {
+        return AsyncResponses.resume(request);
+    }
+
+    /**
+     * Answers a resumed PUT request.
+     *
+     * @param request the resumed request
+     * @return the Response for the request
+     */
+    @PUT
+    public Response resumePut(@Context HttpServletRequest request) {
+        return AsyncResponses.resume(request);
+    }
+
+    /**
+     * Answers a resumed DELETE request.
+     *
+     * @param request the resumed request
+     * @return the Response for the request
+     */
+    @DELETE
+    public Response resumeDelete(@Context HttpServletRequest request) {
+        return AsyncResponses.resume(request);
+    }
+}
@@ -0,0 +1,182 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.ErrorMessage;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationList;
+import com.sun.jersey.api.json.JSONConfiguration;
+import com.sun.jersey.api.json.JSONJAXBContext;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * JAXBXmlProviderTest, checking the pooled XML provider against a JAXB Marshaller of its own.
+ *
+ * @author cfieber
+ */
+public class JAXBXmlProviderTest {
+
+    private static final String AWKWARD = "Café \"quoted\" <&> 'single'\r\n\t😀";
+
+    private static JAXBContext context;
+
+    @BeforeClass
+    public static void createContext() throws Exception {
+        context = new JSONJAXBContext(JSONConfiguration.natural().build(), Location.class, LocationList.class, ErrorMessage.class);
+    }
+
+    @Test
+    public void testWrite_MatchesJaxb() throws Exception {
+        JAXBXmlProvider provider = new JAXBXmlProvider(context, 1);
+        Location location = new Location("01ABC", AWKWARD, -123.5, 49.25);
+        for (Object value : Arrays.asList(location, new Location(null, null, 0, Double.NEGATIVE_INFINITY),
+                new LocationList(Arrays.asList(location, location), URI.create("http://localhost/location?cursor=abc&snapshot=3")),
+                new LocationList(Collections.<Location>emptyList(), null), new ErrorMessage(AWKWARD), new ErrorMessage(null))) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            context.createMarshaller().marshal(value, expected);
+            assertEquals(expected.toString("UTF-8"), write(provider, value, MediaType.APPLICATION_XML_TYPE).toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testWrite_ResetsCharset() throws Exception {
+        JAXBXmlProvider provider = new JAXBXmlProvider(context, 1);
+        Location location = new Location("1", "é", 1, 2);
+        ByteArrayOutputStream latin1 = write(provider, location, MediaType.valueOf("application/xml;charset=iso-8859-1"));
+        assertTrue(latin1.toString("ISO-8859-1").startsWith("<?xml version=\"1.0\" encoding=\"ISO-8859-1\""));
+        assertTrue(latin1.toString("ISO-8859-1").contains("<name>é</name>"));
+
+        // the same pooled Marshaller writes UTF-8 again
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        context.createMarshaller().marshal(location, expected);
+        assertEquals(expected.toString("UTF-8"), write(provider, location, MediaType.TEXT_XML_TYPE).toString("UTF-8"));
+    }
+
+    @Test
+    public void testWrite_ReusesMarshallers() throws Exception {
+        CounterMetric hits = Metrics.newCounter(JAXBXmlProvider.class, "marshaller-pool-hit");
+        CounterMetric misses = Metrics.newCounter(JAXBXmlProvider.class, "marshaller-pool-miss");
+        long hitCount = hits.count();
+        long missCount = misses.count();
+        JAXBXmlProvider provider = new JAXBXmlProvider(context, 1);
+        for (int i = 0; i < 10; i++) {
+            write(provider, new Location("1", "name", i, i), MediaType.APPLICATION_XML_TYPE);
+        }
+        assertEquals(hitCount + 9, hits.count());
+        assertEquals(missCount + 1, misses.count());
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        CounterMetric hits = Metrics.newCounter(JAXBXmlProvider.class, "unmarshaller-pool-hit");
+        CounterMetric misses = Metrics.newCounter(JAXBXmlProvider.class, "unmarshaller-pool-miss");
+        long hitCount = hits.count();
+        long missCount = misses.count();
+        JAXBXmlProvider provider = new JAXBXmlProvider(context, 1);
+        Location location = new Location("01ABC", AWKWARD, -123.5, 49.25);
+        for (int i = 0; i < 3; i++) {
+            Location read = (Location) read(provider, Location.class, write(provider, location, MediaType.APPLICATION_XML_TYPE).toByteArray());
+            assertEquals(location.getId(), read.getId());
+            assertEquals(location.getName(), read.getName());
+            assertEquals(location.getLongitude(), read.getLongitude(), 0);
+        }
+        assertEquals(hitCount + 2, hits.count());
+        assertEquals(missCount + 1, misses.count());
+    }
+
+    @Test
+    public void testRead_Malformed() throws Exception {
+        CounterMetric misses = Metrics.newCounter(JAXBXmlProvider.class, "unmarshaller-pool-miss");
+        JAXBXmlProvider provider = new JAXBXmlProvider(context, 1);
+        read(provider, Location.class, "<location><name>ok</name></location>".getBytes("UTF-8"));
+        long missCount = misses.count();
+        try {
+            read(provider, Location.class, "<location><name>truncated".getBytes("UTF-8"));
+            fail("read malformed XML");
+        } catch (WebApplicationException wae) {
+            assertEquals(400, wae.getResponse().getStatus());
+        }
+        // the Unmarshaller that failed was dropped rather than reused
+        assertEquals("ok", ((Location) read(provider, Location.class, "<location><name>ok</name></location>".getBytes("UTF-8"))).getName());
+        assertEquals(missCount + 1, misses.count());
+    }
+
+    @Test
+    public void testRead_DoesNotResolveExternalEntities() throws Exception {
+        File secret = File.createTempFile("secret", ".txt");
+        try {
+            FileOutputStream output = new FileOutputStream(secret);
+            output.write("secret".getBytes("UTF-8"));
+            output.close();
+            String xml = "<?xml version=\"1.0\"?><!DOCTYPE location [<!ENTITY secret SYSTEM \"" + secret.toURI() + "\">]>"
+                    + "<location><name>&secret;</name></location>";
+            try {
+                Location read = (Location) read(new JAXBXmlProvider(context, 1), Location.class, xml.getBytes("UTF-8"));
+                assertFalse(String.valueOf(read.getName()).contains("secret"));
+            } catch (WebApplicationException wae) {
+                assertEquals(400, wae.getResponse().getStatus());
+            }
+        } finally {
+            secret.delete();
+        }
+    }
+
+    @Test
+    public void testIsWriteable() {
+        JAXBXmlProvider provider = new JAXBXmlProvider(context, 1);
+        assertTrue(provider.isWriteable(Location.class, Location.class, null, MediaType.APPLICATION_XML_TYPE));
+        assertTrue(provider.isWriteable(Location.class, Location.class, null, MediaType.TEXT_XML_TYPE));
+        assertTrue(provider.isWriteable(Location.class, Location.class, null, MediaType.APPLICATION_ATOM_XML_TYPE));
+        assertFalse(provider.isWriteable(Location.class, Location.class, null, MediaType.APPLICATION_JSON_TYPE));
+        assertFalse(provider.isWriteable(Location.class, Location.class, null, MediaType.valueOf("image/svg")));
+        assertFalse(provider.isWriteable(String.class, String.class, null, MediaType.APPLICATION_XML_TYPE));
+    }
+
+    @Test
+    public void testPoolIsBounded() throws Exception {
+        JAXBPool<Marshaller> pool = new JAXBPool<Marshaller>(1, JAXBXmlProviderTest.class, "test") {
+            @Override
+            protected Marshaller create() throws JAXBException {
+                return context.createMarshaller();
+            }
+        };
+        Marshaller first = pool.acquire();
+        Marshaller second = pool.acquire();
+        assertNotSame(first, second);
+        pool.release(first);
+        pool.release(second);
+        assertSame(first, pool.acquire());
+        assertNotSame(second, pool.acquire());
+        assertEquals(1, Metrics.newCounter(JAXBXmlProviderTest.class, "test-pool-hit").count());
+        assertEquals(3, Metrics.newCounter(JAXBXmlProviderTest.class, "test-pool-miss").count());
+    }
+
+    private static ByteArrayOutputStream write(JAXBXmlProvider provider, Object value, MediaType mediaType) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertTrue(provider.isWriteable(value.getClass(), value.getClass(), null, mediaType));
+        provider.writeTo(value, value.getClass(), value.getClass(), null, mediaType, null, output);
+        return output;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object read(JAXBXmlProvider provider, Class<?> type, byte[] xml) throws Exception {
+        assertTrue(provider.isReadable(type, type, null, MediaType.APPLICATION_XML_TYPE));
+        return provider.readFrom((Class<Object>) type, type, null, MediaType.APPLICATION_XML_TYPE, null, new ByteArrayInputStream(xml));
+    }
+}
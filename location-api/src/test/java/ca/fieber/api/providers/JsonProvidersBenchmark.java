@@ -0,0 +1,129 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.ErrorMessage;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationList;
+import com.sun.jersey.api.json.JSONConfiguration;
+import com.sun.jersey.api.json.JSONJAXBContext;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the throughput and allocation of reading and writing JSON representations through the JAXB provider, as
+ * Jersey calls it with a new marshaller per request, and through the streaming providers.
+ *
+ * <p>Not run as part of the build, run the main method with the test classpath:</p>
+ * <pre>
+ * java -cp ... ca.fieber.api.providers.JsonProvidersBenchmark [seconds]
+ * </pre>
+ *
+ * <p>Each case runs for two seconds by default after a warmup of the same length.</p>
+ *
+ * @author cfieber
+ */
+public final class JsonProvidersBenchmark {
+
+    /**
+     * A unit of work to measure.
+     */
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private JsonProvidersBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        long nanos = (long) ((args.length > 0 ? Double.parseDouble(args[0]) : 2d) * 1e9d);
+        final JSONJAXBContext context = new JSONJAXBContext(JSONConfiguration.natural().build(), Location.class, LocationList.class, ErrorMessage.class);
+        final Location location = new Location("01HQ3Z1R8W0008V4J8E5F3T2KM", "Location name", -123.456789, 49.123456);
+        List<Location> page = new ArrayList<Location>();
+        for (int i = 0; i < 10; i++) {
+            page.add(new Location("01HQ3Z1R8W000" + i + "V4J8E5F3T2KM", "Location " + i, -123.456789 + i, 49.123456 - i));
+        }
+        final LocationList list = new LocationList(page, URI.create("http://localhost/location?cursor=MDFIUTNaMVI4VzAwMDlWNEo4RTVGM1QyS00&snapshot=3"));
+        final ErrorMessage error = new ErrorMessage("Location: 01HQ3Z1R8W0008V4J8E5F3T2KM");
+        final byte[] body = "{\"name\":\"Location name\",\"longitude\":-123.456789,\"latitude\":49.123456}".getBytes("UTF-8");
+        final LocationJsonProvider locationProvider = new LocationJsonProvider();
+        final LocationListJsonWriter listWriter = new LocationListJsonWriter();
+        final ErrorMessageJsonWriter errorWriter = new ErrorMessageJsonWriter();
+
+        compare("write Location", nanos, new Operation() {
+            public void run() throws Exception {
+                JSONJAXBContext.getJSONMarshaller(context.createMarshaller()).marshallToJSON(location, new ByteArrayOutputStream());
+            }
+        }, write(locationProvider, location));
+        compare("write LocationList", nanos, new Operation() {
+            public void run() throws Exception {
+                JSONJAXBContext.getJSONMarshaller(context.createMarshaller()).marshallToJSON(list, new ByteArrayOutputStream());
+            }
+        }, write(listWriter, list));
+        compare("write ErrorMessage", nanos, new Operation() {
+            public void run() throws Exception {
+                JSONJAXBContext.getJSONMarshaller(context.createMarshaller()).marshallToJSON(error, new ByteArrayOutputStream());
+            }
+        }, write(errorWriter, error));
+        compare("read Location", nanos, new Operation() {
+            public void run() throws Exception {
+                JSONJAXBContext.getJSONUnmarshaller(context.createUnmarshaller()).unmarshalFromJSON(new ByteArrayInputStream(body), Location.class);
+            }
+        }, new Operation() {
+            public void run() throws Exception {
+                locationProvider.readFrom(Location.class, Location.class, null, MediaType.APPLICATION_JSON_TYPE, null, new ByteArrayInputStream(body));
+            }
+        });
+    }
+
+    private static <T> Operation write(final MessageBodyWriter<T> writer, final T value) {
+        return new Operation() {
+            public void run() throws Exception {
+                writer.writeTo(value, value.getClass(), value.getClass(), null, MediaType.APPLICATION_JSON_TYPE, null, new ByteArrayOutputStream());
+            }
+        };
+    }
+
+    private static void compare(String name, long nanos, Operation jaxb, Operation streaming) throws Exception {
+        measure(jaxb, nanos);
+        measure(streaming, nanos);
+        double[] before = measure(jaxb, nanos);
+        double[] after = measure(streaming, nanos);
+        System.out.printf("%-20s JAXB %,10.0f ops/s %,8.0f B/op   streaming %,10.0f ops/s %,8.0f B/op   %5.1fx%n",
+                name, before[0], before[1], after[0], after[1], after[0] / before[0]);
+    }
+
+    /**
+     * Runs an operation repeatedly for a while.
+     *
+     * @return the operations per second and the bytes allocated per operation, or NaN if allocation is not measured
+     */
+    private static double[] measure(Operation operation, long nanos) throws Exception {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long count = 0;
+        long elapsed;
+        do {
+            for (int i = 0; i < 1000; i++) {
+                operation.run();
+            }
+            count += 1000;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        long allocated = allocatedBytes() - allocatedBefore;
+        return new double[]{count * 1e9d / elapsed, allocatedBefore < 0 ? Double.NaN : (double) allocated / count};
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
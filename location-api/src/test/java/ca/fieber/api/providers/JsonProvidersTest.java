@@ -0,0 +1,141 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.ErrorMessage;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationList;
+import com.sun.jersey.api.json.JSONConfiguration;
+import com.sun.jersey.api.json.JSONJAXBContext;
+import com.sun.jersey.api.json.JSONMarshaller;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JsonProvidersTest, checking the streaming JSON providers against the JAXB provider they replace.
+ *
+ * @author cfieber
+ */
+public class JsonProvidersTest {
+
+    private static final String AWKWARD = "Caf\u00e9 \"quoted\" <&> back\\slash /path\r\n\t\u0001\u001f\u2028\ud83d\ude00";
+
+    private static JSONMarshaller jaxb;
+
+    @BeforeClass
+    public static void createMarshaller() throws Exception {
+        JSONJAXBContext context = new JSONJAXBContext(JSONConfiguration.natural().build(), Location.class, LocationList.class, ErrorMessage.class);
+        jaxb = JSONJAXBContext.getJSONMarshaller(context.createMarshaller());
+    }
+
+    @Test
+    public void testWriteLocation_MatchesJaxb() throws Exception {
+        List<Location> locations = awkwardLocations();
+        for (Location location : locations) {
+            assertMatchesJaxb(new LocationJsonProvider(), location);
+        }
+    }
+
+    @Test
+    public void testWriteLocationList_MatchesJaxb() throws Exception {
+        List<Location> locations = awkwardLocations();
+        assertMatchesJaxb(new LocationListJsonWriter(), new LocationList(Collections.<Location>emptyList(), null));
+        assertMatchesJaxb(new LocationListJsonWriter(), new LocationList(locations.subList(0, 1), null));
+        assertMatchesJaxb(new LocationListJsonWriter(), new LocationList(locations, null));
+        assertMatchesJaxb(new LocationListJsonWriter(), new LocationList(locations, URI.create("http://localhost/location?cursor=abc&snapshot=3")));
+    }
+
+    @Test
+    public void testWriteErrorMessage_MatchesJaxb() throws Exception {
+        assertMatchesJaxb(new ErrorMessageJsonWriter(), new ErrorMessage(AWKWARD));
+        assertMatchesJaxb(new ErrorMessageJsonWriter(), new ErrorMessage(null));
+    }
+
+    @Test
+    public void testWriteLocation_Charset() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new LocationJsonProvider().writeTo(new Location("1", "\u00e9", 1, 2), Location.class, Location.class, null,
+                MediaType.valueOf("application/json;charset=ISO-8859-1"), null, output);
+        assertEquals("{\"id\":\"1\",\"name\":\"\u00e9\",\"longitude\":1.0,\"latitude\":2.0}", output.toString("ISO-8859-1"));
+    }
+
+    @Test
+    public void testReadLocation() throws Exception {
+        Location location = read("{\"name\":\"" + AWKWARD.replace("\\", "\\\\").replace("\"", "\\\"").replace("\r", "\\r")
+                .replace("\n", "\\n").replace("\t", "\\t").replace("\u0001", "\\u0001").replace("\u001f", "\\u001f")
+                + "\",\"extra\":{\"nested\":[1,{\"id\":\"no\"}]},\"longitude\":-123.5,\"latitude\":\"49.25\",\"id\":\"last\"}");
+        assertEquals("last", location.getId());
+        assertEquals(AWKWARD, location.getName());
+        assertEquals(-123.5d, location.getLongitude(), 0);
+        assertEquals(49.25d, location.getLatitude(), 0);
+
+        location = read("{\"name\":null,\"version\":7}");
+        assertNull(location.getId());
+        assertNull(location.getName());
+        assertEquals(0d, location.getLongitude(), 0);
+        assertEquals(0d, location.getLatitude(), 0);
+        assertEquals(0, location.getVersion());
+    }
+
+    @Test
+    public void testReadLocation_RoundTrip() throws Exception {
+        for (Location location : awkwardLocations()) {
+            if (Double.isInfinite(location.getLongitude())) {
+                continue;
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            new LocationJsonProvider().writeTo(location, Location.class, Location.class, null, MediaType.APPLICATION_JSON_TYPE, null, output);
+            Location read = read(output.toString("UTF-8"));
+            assertEquals(location.getId(), read.getId());
+            assertEquals(location.getName(), read.getName());
+            assertEquals(Double.doubleToLongBits(location.getLongitude()), Double.doubleToLongBits(read.getLongitude()));
+            assertEquals(Double.doubleToLongBits(location.getLatitude()), Double.doubleToLongBits(read.getLatitude()));
+        }
+    }
+
+    @Test
+    public void testReadLocation_Invalid() throws Exception {
+        for (String invalid : Arrays.asList("", "[1]", "\"location\"", "{bad", "{\"name\":\"a\"", "{\"name\":[\"a\"]}",
+                "{\"longitude\":\"east\"}", "{\"latitude\":true}", "{\"longitude\":{}}")) {
+            try {
+                read(invalid);
+                fail("read " + invalid);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private static List<Location> awkwardLocations() {
+        List<Location> locations = new ArrayList<Location>();
+        locations.add(new Location("01ABC", AWKWARD, -123.5, 49.25));
+        locations.add(new Location(null, 0, -0d));
+        locations.add(new Location("id", "", 1e-7, 123456789.125));
+        locations.add(new Location("min", "min", Double.MIN_VALUE, -Double.MAX_VALUE));
+        locations.add(new Location("inf", "inf", Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY));
+        return locations;
+    }
+
+    private static Location read(String json) throws Exception {
+        return new LocationJsonProvider().readFrom(Location.class, Location.class, null, MediaType.APPLICATION_JSON_TYPE,
+                null, new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+
+    private static <T> void assertMatchesJaxb(MessageBodyWriter<T> writer, T value) throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        jaxb.marshallToJSON(value, expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        assertTrue(writer.isWriteable(value.getClass(), value.getClass(), null, MediaType.APPLICATION_JSON_TYPE));
+        writer.writeTo(value, value.getClass(), value.getClass(), null, MediaType.APPLICATION_JSON_TYPE, null, actual);
+        assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,162 @@
+package ca.fieber.api.providers;
+
+import ca.fieber.api.representations.ErrorMessage;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationList;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ProtobufProvidersTest.
+ *
+ * @author cfieber
+ */
+public class ProtobufProvidersTest {
+
+    private static final MediaType PROTOBUF = MediaType.valueOf(ProtobufRepresentations.APPLICATION_PROTOBUF);
+
+    @Test
+    public void testWriteLocation_WireFormat() throws Exception {
+        // id "ab": field 1 length delimited, longitude 1.0 and latitude -2.0: fields 3 and 4 fixed64 little endian
+        assertEquals("0a026162" + "19000000000000f03f" + "21" + "00000000000000c0",
+                hex(write(new LocationProtobufProvider(), new Location("ab", null, 1, -2))));
+        // a name of 200 bytes has a two byte length
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            name.append('n');
+        }
+        String encoded = hex(write(new LocationProtobufProvider(), new Location(null, name.toString(), 0, 0)));
+        assertTrue(encoded.startsWith("12c8016e6e"));
+        assertEquals(2 * (3 + 200 + 9 + 9), encoded.length());
+    }
+
+    @Test
+    public void testWriteLocationList_WireFormat() throws Exception {
+        LocationList list = new LocationList(Arrays.asList(new Location("a", null, 0, 0)), URI.create("/n"));
+        assertEquals("0a15" + "0a0161" + "190000000000000000" + "210000000000000000" + "1202" + "2f6e",
+                hex(write(new LocationListProtobufProvider(), list)));
+        assertEquals("", hex(write(new LocationListProtobufProvider(), new LocationList(Collections.<Location>emptyList(), null))));
+    }
+
+    @Test
+    public void testWriteErrorMessage() throws Exception {
+        assertEquals("0a036e6f21", hex(write(new ErrorMessageProtobufWriter(), new ErrorMessage("no!"))));
+        assertEquals("", hex(write(new ErrorMessageProtobufWriter(), new ErrorMessage(null))));
+    }
+
+    @Test
+    public void testLocation_RoundTrip() throws Exception {
+        for (Location location : locations()) {
+            Location read = new LocationProtobufProvider().readFrom(Location.class, Location.class, null, PROTOBUF, null,
+                    new ByteArrayInputStream(write(new LocationProtobufProvider(), location)));
+            assertSameLocation(location, read);
+        }
+    }
+
+    @Test
+    public void testLocationList_RoundTrip() throws Exception {
+        List<Location> locations = new ArrayList<Location>();
+        for (int i = 0; i < 1000; i++) {
+            locations.addAll(locations());
+        }
+        LocationList list = new LocationList(locations, URI.create("http://localhost/location?cursor=abc&snapshot=3"));
+        // read a byte at a time to cross every buffer boundary
+        final ByteArrayInputStream bytes = new ByteArrayInputStream(write(new LocationListProtobufProvider(), list));
+        InputStream trickle = new InputStream() {
+            @Override
+            public int read() {
+                return bytes.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return bytes.read(b, off, Math.min(len, 1));
+            }
+        };
+        LocationList read = new LocationListProtobufProvider().readFrom(LocationList.class, LocationList.class, null, PROTOBUF, null, trickle);
+        assertEquals(list.getNextPage(), read.getNextPage());
+        assertEquals(locations.size(), read.getLocations().size());
+        for (int i = 0; i < locations.size(); i++) {
+            assertSameLocation(locations.get(i), read.getLocations().get(i));
+        }
+    }
+
+    @Test
+    public void testReadLocation_SkipsUnknownFields() throws Exception {
+        // varint field 5, fixed32 field 6, nested message field 7 and a repeated id: the last id wins
+        Location read = read("0a0178" + "28ac02" + "3501020304" + "3a030a0179" + "0a0161" + "19000000000000f03f");
+        assertEquals("a", read.getId());
+        assertNull(read.getName());
+        assertEquals(1d, read.getLongitude(), 0);
+        assertEquals(0d, read.getLatitude(), 0);
+    }
+
+    @Test
+    public void testReadLocation_Malformed() throws Exception {
+        for (String malformed : Arrays.asList("0a05616263", "19000000", "1a0161", "0b", "00", "0a", "ffffffffffffffffffff01")) {
+            try {
+                read(malformed);
+                fail("read " + malformed);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            new LocationListProtobufProvider().readFrom(LocationList.class, LocationList.class, null, PROTOBUF, null,
+                    new ByteArrayInputStream(bytes("0a03" + "0a0561626364")));
+            fail("read an embedded message overrunning its length");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static List<Location> locations() {
+        return Arrays.asList(
+                new Location("01ABC", "Caf\u00e9 \"quoted\" <&>\r\n\t\u0001 \ud83d\ude00", -123.5, 49.25),
+                new Location(null, null, -0d, Double.MIN_VALUE),
+                new Location("", "", Double.NaN, Double.NEGATIVE_INFINITY));
+    }
+
+    private static void assertSameLocation(Location expected, Location actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(Double.doubleToLongBits(expected.getLongitude()), Double.doubleToLongBits(actual.getLongitude()));
+        assertEquals(Double.doubleToLongBits(expected.getLatitude()), Double.doubleToLongBits(actual.getLatitude()));
+    }
+
+    private static Location read(String hex) throws Exception {
+        return new LocationProtobufProvider().readFrom(Location.class, Location.class, null, PROTOBUF, null, new ByteArrayInputStream(bytes(hex)));
+    }
+
+    private static <T> byte[] write(ProtobufMessageBodyWriter<T> writer, T value) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertTrue(writer.isWriteable(value.getClass(), value.getClass(), null, PROTOBUF));
+        writer.writeTo(value, value.getClass(), value.getClass(), null, PROTOBUF, null, output);
+        return output.toByteArray();
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,78 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * CsvLocationReaderTest.
+ *
+ * @author cfieber
+ */
+public class CsvLocationReaderTest {
+
+    private static final double DELTA = 0.0001d;
+
+    @Test
+    public void testNext() throws IOException {
+        CsvLocationReader reader = reader("﻿id,Latitude,name,lon\r\n"
+                + "x,48.5,Victoria,-123.4\r\n"
+                + "\r\n"
+                + ",45.5,\"Montréal, \"\"QC\"\"\",-73.6\n"
+                + ",1,\"two\nlines\",2\n"
+                + ",3,,4");
+        Location victoria = reader.next();
+        assertNull(victoria.getId());
+        assertEquals("Victoria", victoria.getName());
+        assertEquals(-123.4, victoria.getLongitude(), DELTA);
+        assertEquals(48.5, victoria.getLatitude(), DELTA);
+        assertEquals("Montréal, \"QC\"", reader.next().getName());
+        assertEquals("two\nlines", reader.next().getName());
+        Location unnamed = reader.next();
+        assertNull(unnamed.getName());
+        assertEquals(4, unnamed.getLongitude(), DELTA);
+        assertNull(reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testNext_InvalidRecordsAreSkipped() throws IOException {
+        CsvLocationReader reader = reader("name,longitude,latitude\n"
+                + "bad,east,north\n"
+                + "short,1\n"
+                + "good,1,2\n");
+        try {
+            reader.next();
+            fail("invalid coordinates were read");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().startsWith("Line 2"));
+        }
+        try {
+            reader.next();
+            fail("short record was read");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().startsWith("Line 3"));
+        }
+        assertEquals("good", reader.next().getName());
+        assertNull(reader.next());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingCoordinateColumns() throws IOException {
+        reader("name,longitude\nfoo,1\n");
+    }
+
+    @Test(expected = EOFException.class)
+    public void testUnterminatedQuote() throws IOException {
+        reader("name,longitude,latitude\n\"foo,1,2\n").next();
+    }
+
+    private static CsvLocationReader reader(String csv) throws IOException {
+        return new CsvLocationReader(new ByteArrayInputStream(csv.getBytes("UTF-8")));
+    }
+}
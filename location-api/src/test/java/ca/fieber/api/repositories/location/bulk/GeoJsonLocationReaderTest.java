@@ -0,0 +1,58 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * GeoJsonLocationReaderTest.
+ *
+ * @author cfieber
+ */
+public class GeoJsonLocationReaderTest {
+
+    private static final double DELTA = 0.0001d;
+
+    @Test
+    public void testNext() throws IOException {
+        GeoJsonLocationReader reader = reader("{\"bbox\":[-180,-90,180,90],\"features\":["
+                + "{\"type\":\"Feature\",\"properties\":{\"pop\":80000,\"name\":\"Victoria\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[-123.4,48.5,20]}},"
+                + "{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[[0,0],[1,1]]}},"
+                + "{\"type\":\"Feature\",\"properties\":null,\"geometry\":{\"coordinates\":[1,2],\"type\":\"Point\"}}"
+                + "],\"type\":\"FeatureCollection\"}");
+        Location victoria = reader.next();
+        assertEquals("Victoria", victoria.getName());
+        assertEquals(-123.4, victoria.getLongitude(), DELTA);
+        assertEquals(48.5, victoria.getLatitude(), DELTA);
+        try {
+            reader.next();
+            fail("line string was read");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("LineString"));
+        }
+        Location unnamed = reader.next();
+        assertNull(unnamed.getName());
+        assertEquals(2, unnamed.getLatitude(), DELTA);
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testNext_NoFeatures() throws IOException {
+        assertNull(reader("{\"type\":\"FeatureCollection\",\"features\":[]}").next());
+        assertNull(reader("{\"type\":\"FeatureCollection\"}").next());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnObject() throws IOException {
+        reader("[1,2]");
+    }
+
+    private static GeoJsonLocationReader reader(String json) throws IOException {
+        return new GeoJsonLocationReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,67 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * JsonLocationReaderTest.
+ *
+ * @author cfieber
+ */
+public class JsonLocationReaderTest {
+
+    private static final double DELTA = 0.0001d;
+
+    @Test
+    public void testNext_Lines() throws IOException {
+        JsonLocationReader reader = reader("{\"id\":\"x\",\"name\":\"Victoria\",\"longitude\":-123.4,\"latitude\":48.5}\n"
+                + "{\"latitude\":\"2\",\"longitude\":1,\"extra\":{\"nested\":[1,2]}}\n");
+        Location victoria = reader.next();
+        assertNull(victoria.getId());
+        assertEquals("Victoria", victoria.getName());
+        assertEquals(-123.4, victoria.getLongitude(), DELTA);
+        assertEquals(48.5, victoria.getLatitude(), DELTA);
+        Location unnamed = reader.next();
+        assertNull(unnamed.getName());
+        assertEquals(2, unnamed.getLatitude(), DELTA);
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testNext_Array() throws IOException {
+        JsonLocationReader reader = reader("[{\"name\":\"one\",\"longitude\":1,\"latitude\":1},"
+                + "{\"name\":\"bad\",\"longitude\":\"east\",\"latitude\":1},"
+                + "{\"name\":\"missing\"},"
+                + "{\"name\":\"two\",\"longitude\":2,\"latitude\":2}]");
+        assertEquals("one", reader.next().getName());
+        try {
+            reader.next();
+            fail("invalid longitude was read");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().startsWith("Location 2"));
+        }
+        try {
+            reader.next();
+            fail("missing coordinates were read");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals("two", reader.next().getName());
+        assertNull(reader.next());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNext_Malformed() throws IOException {
+        JsonLocationReader reader = reader("{\"name\":\"one\",\"longitude\":1,\"latitude\":1}\n{\"name\":");
+        assertNotNull(reader.next());
+        reader.next();
+    }
+
+    private static JsonLocationReader reader(String json) throws IOException {
+        return new JsonLocationReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,76 @@
+package ca.fieber.api.repositories.location.bulk;
+
+import ca.fieber.api.repositories.location.impl.InMemoryLocationRepository;
+import ca.fieber.api.representations.location.Location;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * LocationImporterTest.
+ *
+ * @author cfieber
+ */
+public class LocationImporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testImportFrom() throws IOException {
+        StringBuilder csv = new StringBuilder("name,longitude,latitude\n");
+        int count = LocationImporter.BATCH_SIZE * 2 + 7;
+        for (int i = 0; i < count; i++) {
+            csv.append("loc").append(i).append(',').append(i % 360 - 180).append(',').append(i % 180 - 90).append('\n');
+        }
+        csv.append("out of range,181,0\n");
+        csv.append("not a number,x,0\n");
+
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        ImportSummary summary = new LocationImporter(repo).importFrom(
+                new CsvLocationReader(new ByteArrayInputStream(csv.toString().getBytes("UTF-8"))));
+
+        assertEquals(count, summary.getImported());
+        assertEquals(2, summary.getRejected());
+        assertEquals(2, summary.getErrors().size());
+        List<Location> all = repo.list(0, Integer.MAX_VALUE);
+        assertEquals(count, all.size());
+        for (Location location : all) {
+            assertEquals(1, location.getVersion());
+        }
+    }
+
+    @Test
+    public void testStartupImport() throws IOException {
+        File file = folder.newFile("seed.ndjson");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\"name\":\"one\",\"longitude\":1,\"latitude\":1}\n{\"name\":\"two\",\"longitude\":2,\"latitude\":2}\n");
+        } finally {
+            writer.close();
+        }
+
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        LocationImporter importer = new LocationImporter(repo);
+        new StartupImport(repo, importer, file.getPath());
+        assertEquals(2, repo.list(0, 10).size());
+
+        // an import into a repository that already holds locations is skipped
+        new StartupImport(repo, importer, file.getPath());
+        assertEquals(2, repo.list(0, 10).size());
+
+        new StartupImport(new InMemoryLocationRepository(), importer, "");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStartupImport_UnknownFormat() throws IOException {
+        File file = folder.newFile("seed.txt");
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        new StartupImport(repo, new LocationImporter(repo), file.getPath());
+    }
+}
@@ -0,0 +1,136 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.VersionConflictException;
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * CachingLocationRepositoryTest.
+ *
+ * @author cfieber
+ */
+public class CachingLocationRepositoryTest {
+
+    /**
+     * Counts the reads by id that reach the underlying repository.
+     */
+    private static class CountingRepository extends ForwardingLocationRepository {
+        private final InMemoryLocationRepository delegate = new InMemoryLocationRepository();
+        int gets;
+
+        @Override
+        protected LocationRepository delegate() {
+            return delegate;
+        }
+
+        @Override
+        public Location get(String id) throws NoSuchElementException {
+            gets++;
+            return super.get(id);
+        }
+    }
+
+    private final CountingRepository backend = new CountingRepository();
+
+    @Test
+    public void testGetIsCached() {
+        CachingLocationRepository repo = new CachingLocationRepository(backend, 100, 0, false);
+        Location created = repo.create(new Location("loc", 0, 0));
+
+        assertSame(created, repo.get(created.getId()));
+        assertSame(created, repo.get(created.getId()));
+        assertEquals(1, backend.gets);
+    }
+
+    @Test
+    public void testWritesInvalidate() {
+        CachingLocationRepository repo = new CachingLocationRepository(backend, 100, 0, false);
+        Location created = repo.create(new Location("loc", 0, 0));
+        repo.get(created.getId());
+
+        repo.update(new Location(created.getId(), "updated", 1, 1));
+        assertEquals("updated", repo.get(created.getId()).getName());
+        assertEquals(2, repo.get(created.getId()).getVersion());
+
+        try {
+            repo.update(new Location(created.getId(), "stale", 1, 1), 1);
+            fail("stale update was applied");
+        } catch (VersionConflictException expected) {
+        }
+        assertEquals("updated", repo.get(created.getId()).getName());
+
+        repo.apply(Arrays.asList(LocationMutation.update(new Location(created.getId(), "batched", 2, 2))));
+        assertEquals("batched", repo.get(created.getId()).getName());
+
+        repo.remove(created.getId());
+        try {
+            repo.get(created.getId());
+            fail("removed location was cached");
+        } catch (NoSuchElementException expected) {
+        }
+        assertEquals(5, backend.gets);
+    }
+
+    @Test
+    public void testNotFound() {
+        CachingLocationRepository uncached = new CachingLocationRepository(backend, 100, 0, false);
+        for (int i = 0; i < 2; i++) {
+            try {
+                uncached.get("kaboom");
+                fail("missing location was found");
+            } catch (NoSuchElementException expected) {
+            }
+        }
+        assertEquals(2, backend.gets);
+
+        CachingLocationRepository cached = new CachingLocationRepository(backend, 100, 0, true);
+        for (int i = 0; i < 2; i++) {
+            try {
+                cached.get("kaboom");
+                fail("missing location was found");
+            } catch (NoSuchElementException expected) {
+            }
+        }
+        assertEquals(3, backend.gets);
+    }
+
+    @Test
+    public void testScanDoesNotFlushFrequentlyRead() {
+        LocationCache cache = new LocationCache(CachingLocationRepositoryTest.class, 64, 0);
+        Location hot = new Location("hot", "hot", 0, 0);
+        cache.put(hot.getId(), hot, cache.stamp(hot.getId()));
+        cache.get(hot.getId());
+
+        for (int i = 0; i < 1000; i++) {
+            String id = "cold" + i;
+            cache.put(id, new Location(id, id, 0, 0), cache.stamp(id));
+        }
+        assertEquals(64, cache.size());
+        assertSame(hot, cache.get(hot.getId()).location);
+    }
+
+    @Test
+    public void testStaleLoadIsNotCached() {
+        LocationCache cache = new LocationCache(CachingLocationRepositoryTest.class, 10, 0);
+        long stamp = cache.stamp("id");
+        cache.invalidate("id");
+        cache.put("id", new Location("id", "stale", 0, 0), stamp);
+        assertNull(cache.get("id"));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        LocationCache cache = new LocationCache(CachingLocationRepositoryTest.class, 10, TimeUnit.MILLISECONDS.toNanos(20));
+        cache.put("id", new Location("id", "loc", 0, 0), cache.stamp("id"));
+        assertNotNull(cache.get("id"));
+        Thread.sleep(40);
+        assertNull(cache.get("id"));
+    }
+}
@@ -0,0 +1,195 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.LocationChange;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * ChangeFeedTest.
+ *
+ * @author cfieber
+ */
+public class ChangeFeedTest {
+
+    @Test
+    public void testSince() {
+        ChangeFeed feed = new ChangeFeed(ChangeFeedTest.class, 8);
+        long start = feed.latest();
+        feed.record(LocationMutation.Type.CREATE, "1", new Location("1", "one", 0, 0));
+        feed.record(LocationMutation.Type.UPDATE, "1", new Location("1", "uno", 0, 0));
+        feed.record(LocationMutation.Type.REMOVE, "1", null);
+        assertEquals(start + 3, feed.latest());
+
+        LocationChanges changes = feed.since(start, 2, 0);
+        assertFalse(changes.isTruncated());
+        assertEquals(start + 2, changes.getSequence());
+        assertEquals(2, changes.getChanges().size());
+        LocationChange first = changes.getChanges().get(0);
+        assertEquals(start + 1, first.getSequence());
+        assertEquals(LocationMutation.Type.CREATE, first.getType());
+        assertEquals("one", first.getLocation().getName());
+        assertEquals("uno", changes.getChanges().get(1).getLocation().getName());
+
+        changes = feed.since(changes.getSequence(), 2, 0);
+        assertEquals(1, changes.getChanges().size());
+        assertEquals(LocationMutation.Type.REMOVE, changes.getChanges().get(0).getType());
+        assertNull(changes.getChanges().get(0).getLocation());
+
+        changes = feed.since(changes.getSequence(), 2, 0);
+        assertTrue(changes.getChanges().isEmpty());
+        assertFalse(changes.isTruncated());
+        assertEquals(start + 3, changes.getSequence());
+    }
+
+    @Test
+    public void testSince_Truncated() {
+        ChangeFeed feed = new ChangeFeed(ChangeFeedTest.class, 8);
+        long start = feed.latest();
+        for (int i = 0; i < 10; i++) {
+            feed.record(LocationMutation.Type.REMOVE, Integer.toString(i), null);
+        }
+
+        LocationChanges changes = feed.since(start + 1, 100, 0);
+        assertTrue(changes.isTruncated());
+        assertTrue(changes.getChanges().isEmpty());
+        assertEquals(start + 10, changes.getSequence());
+
+        changes = feed.since(start + 2, 100, 0);
+        assertFalse(changes.isTruncated());
+        assertEquals(8, changes.getChanges().size());
+        assertEquals("2", changes.getChanges().get(0).getId());
+
+        // sequence numbers from before the feed started, or from the future, can't be followed
+        assertTrue(feed.since(0, 100, 0).isTruncated());
+        assertTrue(feed.since(start + 11, 100, 0).isTruncated());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSince_Negative() {
+        new ChangeFeed(ChangeFeedTest.class, 8).since(-1, 10, 0);
+    }
+
+    @Test
+    public void testSince_WaitsForChange() throws Exception {
+        final ChangeFeed feed = new ChangeFeed(ChangeFeedTest.class, 8);
+        final long start = feed.latest();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<LocationChanges> waiting = executor.submit(new Callable<LocationChanges>() {
+                @Override
+                public LocationChanges call() {
+                    return feed.since(start, 10, TimeUnit.SECONDS.toMillis(30));
+                }
+            });
+            Thread.sleep(50);
+            assertFalse(waiting.isDone());
+            feed.record(LocationMutation.Type.REMOVE, "1", null);
+            LocationChanges changes = waiting.get(10, TimeUnit.SECONDS);
+            assertEquals(1, changes.getChanges().size());
+            assertEquals(start + 1, changes.getSequence());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long before = System.currentTimeMillis();
+        assertTrue(feed.since(start + 1, 10, 100).getChanges().isEmpty());
+        assertTrue(System.currentTimeMillis() - before >= 90);
+    }
+
+    @Test
+    public void testAddListener() {
+        ChangeFeed feed = new ChangeFeed(ChangeFeedTest.class, 8);
+        long start = feed.latest();
+        final List<String> runs = new ArrayList<String>();
+        Runnable waiting = new Runnable() {
+            @Override
+            public void run() {
+                runs.add("waiting");
+            }
+        };
+        Runnable removed = new Runnable() {
+            @Override
+            public void run() {
+                runs.add("removed");
+            }
+        };
+        feed.addListener(start, waiting);
+        feed.addListener(start, removed);
+        feed.removeListener(removed);
+        assertTrue(runs.isEmpty());
+
+        feed.record(LocationMutation.Type.REMOVE, "1", null);
+        assertEquals(Arrays.asList("waiting"), runs);
+        // listeners are run once
+        feed.record(LocationMutation.Type.REMOVE, "2", null);
+        assertEquals(1, runs.size());
+
+        // there already are changes after the sequence number, or it can't be followed
+        feed.addListener(start, waiting);
+        feed.addListener(-1, waiting);
+        assertEquals(3, runs.size());
+    }
+
+    @Test
+    public void testRecord_Concurrent() throws Exception {
+        final ChangeFeed feed = new ChangeFeed(ChangeFeedTest.class, 1 << 12);
+        final long start = feed.latest();
+        final int writers = 4;
+        final int writes = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        try {
+            Future<List<LocationChange>> reader = executor.submit(new Callable<List<LocationChange>>() {
+                @Override
+                public List<LocationChange> call() {
+                    List<LocationChange> read = new ArrayList<LocationChange>();
+                    long sequence = start;
+                    while (read.size() < writers * writes) {
+                        LocationChanges changes = feed.since(sequence, 100, TimeUnit.SECONDS.toMillis(10));
+                        assertFalse(changes.isTruncated());
+                        read.addAll(changes.getChanges());
+                        sequence = changes.getSequence();
+                    }
+                    return read;
+                }
+            });
+            final CountDownLatch ready = new CountDownLatch(1);
+            List<Future<?>> written = new ArrayList<Future<?>>();
+            for (int w = 0; w < writers; w++) {
+                final int writer = w;
+                written.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        ready.await();
+                        for (int i = 0; i < writes; i++) {
+                            feed.record(LocationMutation.Type.REMOVE, writer + "-" + i, null);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            ready.countDown();
+            for (Future<?> future : written) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(start + writers * writes, feed.latest());
+
+            // every change is read once, in sequence
+            List<LocationChange> read = reader.get(10, TimeUnit.SECONDS);
+            assertEquals(writers * writes, read.size());
+            Set<String> ids = new HashSet<String>();
+            for (int i = 0; i < read.size(); i++) {
+                assertEquals(start + i + 1, read.get(i).getSequence());
+                assertTrue(ids.add(read.get(i).getId()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * ColumnarLocationRepositoryTest.
+ *
+ * @author cfieber
+ */
+public class ColumnarLocationRepositoryTest {
+
+    private static final double DELTA = 0.0001d;
+
+    @Test
+    public void testCreate() {
+        ColumnarLocationRepository repo = new ColumnarLocationRepository();
+
+        Location loc = new Location("test", -122.3, 48.5);
+        Location created = repo.create(loc);
+
+        assertNotNull(created.getId());
+        Location got = repo.get(created.getId());
+        assertEquals(created.getId(), got.getId());
+        assertEquals(loc.getLongitude(), got.getLongitude(), DELTA);
+        assertEquals(loc.getLatitude(), got.getLatitude(), DELTA);
+        assertEquals(loc.getName(), got.getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreate_WithId() {
+        new ColumnarLocationRepository().create(new Location("This isn't right...", "test", -122.3, 48.5));
+    }
+
+    @Test
+    public void testCreate_NullName() {
+        ColumnarLocationRepository repo = new ColumnarLocationRepository();
+        Location created = repo.create(new Location(null, 1, 2));
+        assertNull(repo.get(created.getId()).getName());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGet_NotFound() {
+        new ColumnarLocationRepository().get("kaboom");
+    }
+
+    @Test
+    public void testUpdate() {
+        ColumnarLocationRepository repo = new ColumnarLocationRepository();
+        Location created = repo.create(new Location("loc", 0, 0));
+        Location update = new Location(created.getId(), "A New Name \u00e9", -122.5, 48.5);
+
+        repo.update(update);
+        Location got = repo.get(update.getId());
+        assertEquals(update.getName(), got.getName());
+        assertEquals(update.getLongitude(), got.getLongitude(), DELTA);
+        assertEquals(update.getLatitude(), got.getLatitude(), DELTA);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testUpdate_NotFound() {
+        new ColumnarLocationRepository().update(new Location(UUID.randomUUID().toString(), "loc", 0, 0));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testRemove() {
+        ColumnarLocationRepository repo = new ColumnarLocationRepository();
+        Location created = repo.create(new Location("loc", 0, 0));
+        repo.remove(created.getId());
+        repo.get(created.getId());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testRemove_NotFound() {
+        new ColumnarLocationRepository().remove("my head asplode");
+    }
+
+    @Test
+    public void testMatchesInMemoryRepository() {
+        Random random = new Random(11);
+        ColumnarLocationRepository columnar = new ColumnarLocationRepository();
+        Map<String, Location> expected = new HashMap<String, Location>();
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 3000; i++) {
+                Location created = columnar.create(new Location("loc" + i, random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90));
+                expected.put(created.getId(), created);
+            }
+            List<String> ids = new ArrayList<String>(expected.keySet());
+            for (int i = 0; i < 1000; i++) {
+                String id = ids.get(random.nextInt(ids.size()));
+                if (!expected.containsKey(id)) {
+                    continue;
+                }
+                if (random.nextBoolean()) {
+                    columnar.remove(id);
+                    expected.remove(id);
+                } else {
+                    Location update = new Location(id, "renamed" + i, random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90);
+                    columnar.update(update);
+                    expected.put(id, update);
+                }
+            }
+
+            List<String> sortedIds = new ArrayList<String>(expected.keySet());
+            Collections.sort(sortedIds);
+            List<Location> all = columnar.list(0, Integer.MAX_VALUE);
+            assertEquals(sortedIds.size(), all.size());
+            for (int i = 0; i < all.size(); i++) {
+                assertEquals(sortedIds.get(i), all.get(i).getId());
+                assertEquals(expected.get(sortedIds.get(i)).getName(), all.get(i).getName());
+            }
+            for (String id : sortedIds) {
+                assertEquals(expected.get(id).getLatitude(), columnar.get(id).getLatitude(), DELTA);
+            }
+
+            List<Location> page = columnar.listAfter(sortedIds.get(100), 10);
+            assertEquals(sortedIds.subList(101, 111), idsOf(page));
+            assertEquals(sortedIds.subList(50, 60), idsOf(columnar.list(50, 10)));
+        }
+    }
+
+    @Test
+    public void testSpatialQueries() {
+        ColumnarLocationRepository columnar = new ColumnarLocationRepository();
+        final List<Location> all = new ArrayList<Location>();
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            all.add(columnar.create(new Location("loc" + i, random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90)));
+        }
+        for (int i = 0; i < 20; i++) {
+            final double lon = random.nextDouble() * 360 - 180;
+            final double lat = random.nextDouble() * 180 - 90;
+            Collections.sort(all, new Comparator<Location>() {
+                public int compare(Location l1, Location l2) {
+                    return Double.compare(GreatCircle.distanceKm(lon, lat, l1.getLongitude(), l1.getLatitude()),
+                            GreatCircle.distanceKm(lon, lat, l2.getLongitude(), l2.getLatitude()));
+                }
+            });
+            assertEquals(idsOf(all.subList(0, 5)), idsOf(columnar.findNearest(lon, lat, 5, Double.POSITIVE_INFINITY)));
+        }
+
+        Set<String> expected = new HashSet<String>();
+        for (Location location : all) {
+            if ((location.getLongitude() >= 170 || location.getLongitude() <= -170) && Math.abs(location.getLatitude()) <= 20) {
+                expected.add(location.getId());
+            }
+        }
+        assertEquals(expected, new HashSet<String>(idsOf(columnar.findWithin(170, -20, -170, 20, 1000))));
+    }
+
+    @Test
+    public void testFindNearest_SplitScanMatchesSingleThreadedScan() {
+        ColumnarLocationRepository serial = new ColumnarLocationRepository(new UlidIdGenerator(), 1);
+        ColumnarLocationRepository split = new ColumnarLocationRepository(new UlidIdGenerator(), 4);
+        Random random = new Random(5);
+        for (int i = 0; i < NearestScan.MIN_PARALLEL_ROWS + LocationColumns.BLOCK_ROWS / 2; i++) {
+            Location location = new Location("loc" + i, random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90);
+            serial.create(location);
+            split.create(location);
+        }
+        for (int i = 0; i < 20; i++) {
+            double lon = random.nextDouble() * 360 - 180;
+            double lat = random.nextDouble() * 180 - 90;
+            List<Location> expected = serial.findNearest(lon, lat, 20, Double.POSITIVE_INFINITY);
+            assertEquals(20, expected.size());
+            assertEquals(namesOf(expected), namesOf(split.findNearest(lon, lat, 20, Double.POSITIVE_INFINITY)));
+            assertEquals(namesOf(serial.findNearest(lon, lat, 20, 50)), namesOf(split.findNearest(lon, lat, 20, 50)));
+        }
+    }
+
+    private static List<String> namesOf(List<Location> locations) {
+        List<String> names = new ArrayList<String>();
+        for (Location location : locations) {
+            names.add(location.getName());
+        }
+        return names;
+    }
+
+    private static List<String> idsOf(List<Location> locations) {
+        List<String> ids = new ArrayList<String>();
+        for (Location location : locations) {
+            ids.add(location.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testSearch_ReflectsUpdateAndRemove() {
+        ColumnarLocationRepository repo = new ColumnarLocationRepository();
+        Location harbour = repo.create(new Location("Harbour Front", 0, 0));
+        Location park = repo.create(new Location("High Park", 0, 0));
+        Location unnamed = repo.create(new Location(null, 0, 0));
+
+        assertEquals(Arrays.asList(harbour.getId(), park.getId()), ids(repo.search("h", 0, 10)));
+        repo.update(new Location(harbour.getId(), "Waterfront", 0, 0));
+        repo.update(new Location(unnamed.getId(), "Park Lawn", 0, 0));
+        repo.remove(park.getId());
+
+        assertTrue(repo.search("harbour", 0, 10).isEmpty());
+        assertEquals(Arrays.asList(harbour.getId()), ids(repo.search("water", 0, 10)));
+        assertEquals(Arrays.asList(unnamed.getId()), ids(repo.search("park", 0, 10)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearch_EmptyQuery() {
+        new ColumnarLocationRepository().search("", 0, 10);
+    }
+
+    private static List<String> ids(List<Location> locations) {
+        List<String> ids = new ArrayList<String>();
+        for (Location location : locations) {
+            ids.add(location.getId());
+        }
+        return ids;
+    }
+}
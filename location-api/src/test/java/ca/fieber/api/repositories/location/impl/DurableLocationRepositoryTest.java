@@ -0,0 +1,262 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.representations.location.Location;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * DurableLocationRepositoryTest.
+ *
+ * @author cfieber
+ */
+public class DurableLocationRepositoryTest {
+
+    private static final double DELTA = 0.0001d;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private DurableLocationRepository repo;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("locations");
+        repo = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        repo.close();
+    }
+
+    @Test
+    public void testRecoverFromLog() throws IOException {
+        Location kept = repo.create(new Location("kept", 1, 2));
+        Location updated = repo.create(new Location("before", 3, 4));
+        Location removed = repo.create(new Location("removed", 5, 6));
+        Location unnamed = repo.create(new Location(null, 7, 8));
+        repo.update(new Location(updated.getId(), "after \u00e9", -122.5, 48.5));
+        repo.remove(removed.getId());
+
+        reopen();
+
+        assertEquals("kept", repo.get(kept.getId()).getName());
+        Location got = repo.get(updated.getId());
+        assertEquals("after \u00e9", got.getName());
+        assertEquals(2, got.getVersion());
+        assertEquals(-122.5, got.getLongitude(), DELTA);
+        assertEquals(48.5, got.getLatitude(), DELTA);
+        assertNull(repo.get(unnamed.getId()).getName());
+        assertEquals(3, repo.list(0, 10).size());
+        assertEquals(1, repo.findNearest(-122.5, 48.5, 1, 1).size());
+        try {
+            repo.get(removed.getId());
+            fail("removed location was recovered");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    @Test
+    public void testRecoverFromSnapshotAndLog() throws IOException {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(repo.create(new Location("loc" + i, i, i)).getId());
+        }
+        repo.snapshot(false);
+        repo.remove(ids.remove(0));
+        ids.add(repo.create(new Location("after snapshot", 0, 0)).getId());
+        repo.snapshot(false);
+        String updated = ids.get(0);
+        repo.update(new Location(updated, "after second snapshot", 0, 0));
+
+        reopen();
+
+        Collections.sort(ids);
+        List<Location> all = repo.list(0, 100);
+        assertEquals(ids.size(), all.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(ids.get(i), all.get(i).getId());
+        }
+        assertEquals("after second snapshot", repo.get(updated).getName());
+        // the previous snapshot is kept until the next one is written
+        assertEquals(2, countFiles(".snap"));
+    }
+
+    @Test
+    public void testRecoverFromPreviousSnapshotIfLatestIsLost() throws IOException {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 10; j++) {
+                ids.add(repo.create(new Location("loc" + i + "-" + j, i, j)).getId());
+            }
+            repo.snapshot(false);
+        }
+        ids.add(repo.create(new Location("after snapshots", 0, 0)).getId());
+        repo.close();
+        assertEquals(2, countFiles(".snap"));
+
+        // the rename of the latest snapshot did not reach the disk before a crash
+        String[] snapshots = directory.list();
+        Arrays.sort(snapshots);
+        assertTrue(new File(directory, snapshots[snapshots.length - 1]).delete());
+        assertEquals(1, countFiles(".snap"));
+
+        repo = open();
+        assertEquals(ids.size(), repo.list(0, 100).size());
+        for (String id : ids) {
+            repo.get(id);
+        }
+    }
+
+    @Test
+    public void testReplayThroughWindows() throws IOException {
+        final List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            names.add(repo.create(new Location("a name long enough to cross windows " + i, i, i)).getName());
+        }
+        repo.close();
+
+        final List<String> replayed = new ArrayList<String>();
+        LocationRecords.Handler handler = new LocationRecords.Handler() {
+            @Override
+            public void put(Location location) {
+                replayed.add(location.getName());
+            }
+
+            @Override
+            public void remove(String id) {
+                fail("nothing was removed");
+            }
+        };
+        // windows smaller than a record, and ones holding a few records and part of another
+        for (int windowBytes : new int[]{16, 200}) {
+            replayed.clear();
+            assertEquals(20, WriteAheadLog.replay(directory, 0, handler, windowBytes));
+            assertEquals(names, replayed);
+        }
+        replayed.clear();
+        assertEquals(20, WriteAheadLog.replay(directory, 15, handler, 200));
+        assertEquals(names.subList(15, 20), replayed);
+        repo = open();
+    }
+
+    @Test
+    public void testRecoverTruncatesTornTail() throws IOException {
+        Location first = repo.create(new Location("first", 1, 1));
+        Location second = repo.create(new Location("second", 2, 2));
+        repo.close();
+
+        File segment = new File(directory, String.format("log-%020d.wal", 0));
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        repo = open();
+        assertEquals("first", repo.get(first.getId()).getName());
+        assertEquals(1, repo.list(0, 10).size());
+        Location third = repo.create(new Location("third", 3, 3));
+
+        reopen();
+        assertEquals(2, repo.list(0, 10).size());
+        assertEquals("third", repo.get(third.getId()).getName());
+        try {
+            repo.get(second.getId());
+            fail("torn record was recovered");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    @Test
+    public void testApplyIsRecovered() throws IOException {
+        Location removed = repo.create(new Location("removed", 0, 0));
+        List<LocationMutation> mutations = new ArrayList<LocationMutation>();
+        for (int i = 0; i < 100; i++) {
+            mutations.add(LocationMutation.create(new Location("batch" + i, i, i)));
+        }
+        mutations.add(LocationMutation.remove(removed.getId()));
+        mutations.add(LocationMutation.remove(removed.getId()));
+        List<MutationResult> results = repo.apply(mutations);
+        assertTrue(results.get(100).isSuccess());
+        assertTrue(results.get(101).getFailure() instanceof NoSuchElementException);
+
+        reopen();
+        List<Location> all = repo.list(0, 1000);
+        assertEquals(100, all.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("batch" + i, repo.get(results.get(i).getLocation().getId()).getName());
+        }
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testUpdate_NotFound() {
+        repo.update(new Location("kaboom", "test", 0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreate_WithId() {
+        repo.create(new Location("This isn't right...", "test", -122.3, 48.5));
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Location>> futures = new ArrayList<Future<Location>>();
+        for (int i = 0; i < 400; i++) {
+            final int n = i;
+            futures.add(executor.submit(new Callable<Location>() {
+                @Override
+                public Location call() {
+                    return repo.create(new Location("loc" + n, n % 180, n % 90));
+                }
+            }));
+        }
+        Set<String> ids = new HashSet<String>();
+        for (Future<Location> future : futures) {
+            ids.add(future.get().getId());
+        }
+        executor.shutdown();
+
+        reopen();
+        List<Location> all = repo.list(0, 1000);
+        assertEquals(ids.size(), all.size());
+        for (Location location : all) {
+            assertTrue(ids.contains(location.getId()));
+        }
+    }
+
+    private int countFiles(String suffix) {
+        int count = 0;
+        for (String name : directory.list()) {
+            if (name.endsWith(suffix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private DurableLocationRepository open() throws IOException {
+        return new DurableLocationRepository(directory.getPath(), 3600);
+    }
+
+    private void reopen() throws IOException {
+        repo.close();
+        repo = open();
+    }
+}
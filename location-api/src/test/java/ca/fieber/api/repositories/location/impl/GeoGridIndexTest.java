@@ -0,0 +1,125 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * GeoGridIndexTest.
+ *
+ * @author cfieber
+ */
+public class GeoGridIndexTest {
+
+    private static final double DELTA = 0.000001d;
+
+    private static List<Location> randomLocations(Random random, int count) {
+        List<Location> locations = new ArrayList<Location>(count);
+        for (int i = 0; i < count; i++) {
+            double lon = random.nextDouble() * 360.0d - 180.0d;
+            double lat = random.nextDouble() * 180.0d - 90.0d;
+            locations.add(new Location("loc" + i, "loc" + i, lon, lat));
+        }
+        return locations;
+    }
+
+    @Test
+    public void testWithin() {
+        Random random = new Random(42);
+        GeoGridIndex index = new GeoGridIndex(1.0d);
+        List<Location> locations = randomLocations(random, 5000);
+        for (Location location : locations) {
+            index.add(location);
+        }
+
+        Set<String> expected = new HashSet<String>();
+        for (Location location : locations) {
+            if (location.getLongitude() >= -10 && location.getLongitude() <= 12.5
+                    && location.getLatitude() >= 40 && location.getLatitude() <= 55) {
+                expected.add(location.getId());
+            }
+        }
+        Set<String> found = new HashSet<String>();
+        for (Location location : index.within(-10, 40, 12.5, 55, Integer.MAX_VALUE)) {
+            found.add(location.getId());
+        }
+        assertEquals(expected, found);
+        assertEquals(3, index.within(-10, 40, 12.5, 55, 3).size());
+    }
+
+    @Test
+    public void testWithin_CrossesAntimeridian() {
+        GeoGridIndex index = new GeoGridIndex();
+        index.add(new Location("east", "east", 179.5, 0));
+        index.add(new Location("west", "west", -179.5, 0));
+        index.add(new Location("greenwich", "greenwich", 0, 0));
+
+        Set<String> found = new HashSet<String>();
+        for (Location location : index.within(179, -1, -179, 1, 10)) {
+            found.add(location.getId());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("east", "west")), found);
+    }
+
+    @Test
+    public void testNearest() {
+        Random random = new Random(7);
+        GeoGridIndex index = new GeoGridIndex(0.5d);
+        List<Location> locations = randomLocations(random, 5000);
+        for (Location location : locations) {
+            index.add(location);
+        }
+
+        for (int q = 0; q < 50; q++) {
+            final double lon = random.nextDouble() * 360.0d - 180.0d;
+            final double lat = random.nextDouble() * 180.0d - 90.0d;
+            List<Location> sorted = new ArrayList<Location>(locations);
+            Collections.sort(sorted, new Comparator<Location>() {
+                public int compare(Location l1, Location l2) {
+                    return Double.compare(GreatCircle.distanceKm(lon, lat, l1.getLongitude(), l1.getLatitude()),
+                            GreatCircle.distanceKm(lon, lat, l2.getLongitude(), l2.getLatitude()));
+                }
+            });
+
+            List<GeoGridIndex.Candidate> nearest = index.nearest(lon, lat, 5, Double.POSITIVE_INFINITY);
+            assertEquals(5, nearest.size());
+            for (int i = 0; i < nearest.size(); i++) {
+                Location expected = sorted.get(i);
+                assertEquals(GreatCircle.distanceKm(lon, lat, expected.getLongitude(), expected.getLatitude()),
+                        nearest.get(i).distanceKm, DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testNearest_MaxDistance() {
+        GeoGridIndex index = new GeoGridIndex();
+        index.add(new Location("near", "near", -123.1, 49.25));
+        index.add(new Location("far", "far", -79.4, 43.7));
+
+        List<GeoGridIndex.Candidate> nearest = index.nearest(-123.12, 49.28, 10, 5.0d);
+        assertEquals(1, nearest.size());
+        assertEquals("near", nearest.get(0).location.getId());
+    }
+
+    @Test
+    public void testRemove() {
+        GeoGridIndex index = new GeoGridIndex();
+        Location location = new Location("a", "a", 10, 10);
+        index.add(location);
+        index.remove(location);
+
+        assertTrue(index.within(-180, -90, 180, 90, 10).isEmpty());
+        assertTrue(index.nearest(10, 10, 1, Double.POSITIVE_INFINITY).isEmpty());
+    }
+
+    @Test
+    public void testDistance() {
+        // Vancouver to Toronto is roughly 3360 km
+        assertEquals(3360, GreatCircle.distanceKm(-123.12, 49.28, -79.38, 43.65), 15);
+        assertEquals(0, GreatCircle.distanceKm(12, 34, 12, 34), DELTA);
+    }
+}
@@ -0,0 +1,103 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.IdGenerator;
+import ca.fieber.api.representations.location.Location;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Compares the cost of generating ids, and of creating Locations with them, with random UUIDs and with ULIDs.
+ *
+ * <p>Not run as part of the build, run the main method with the test classpath:</p>
+ * <pre>
+ * java -cp ... ca.fieber.api.repositories.location.impl.IdGeneratorBenchmark [threads]
+ * </pre>
+ *
+ * @author cfieber
+ */
+public final class IdGeneratorBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+    private static final int IDS_PER_THREAD = 200000;
+    private static final int CREATES_PER_THREAD = 50000;
+
+    private IdGeneratorBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            IdGenerator[] generators = {new UuidIdGenerator(), new UlidIdGenerator()};
+            for (IdGenerator generator : generators) {
+                String name = generator.getClass().getSimpleName();
+                for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                    generateIds(executor, threads, generator);
+                    createLocations(executor, threads, generator);
+                }
+                long generateNanos = 0;
+                long createNanos = 0;
+                for (int i = 0; i < ROUNDS; i++) {
+                    generateNanos += generateIds(executor, threads, generator);
+                    createNanos += createLocations(executor, threads, generator);
+                }
+                System.out.printf("%-16s %2d threads: %8.1f ns/id, %8.1f ns/create%n", name, threads,
+                        (double) generateNanos / ROUNDS / IDS_PER_THREAD / threads,
+                        (double) createNanos / ROUNDS / CREATES_PER_THREAD / threads);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Generates ids on every thread at once.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    private static long generateIds(ExecutorService executor, int threads, final IdGenerator generator) throws Exception {
+        return run(executor, threads, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int hash = 0;
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    hash += generator.nextId().hashCode();
+                }
+                return hash;
+            }
+        });
+    }
+
+    /**
+     * Creates Locations in a new InMemoryLocationRepository on every thread at once.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    private static long createLocations(ExecutorService executor, int threads, IdGenerator generator) throws Exception {
+        final InMemoryLocationRepository repository = new InMemoryLocationRepository(generator);
+        return run(executor, threads, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                for (int i = 0; i < CREATES_PER_THREAD; i++) {
+                    repository.create(new Location("loc" + i, i % 360 - 180, i % 180 - 90));
+                }
+                return CREATES_PER_THREAD;
+            }
+        });
+    }
+
+    private static long run(ExecutorService executor, int threads, Callable<Integer> task) throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(task);
+        }
+        long start = System.nanoTime();
+        for (Future<Integer> future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -1,5 +1,11 @@
 package ca.fieber.api.repositories.location.impl;
 
+import ca.fieber.api.repositories.location.LocationChange;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.repositories.location.VersionConflictException;
 import ca.fieber.api.representations.location.Location;
 import org.junit.Test;
 
@@ -124,4 +130,225 @@ public class InMemoryLocationRepositoryTest {
             assertEquals(createdIds.get(i), locations.get(i).getId());
         }
     }
+
+    @Test
+    public void testList_ReflectsUpdateAndRemove() {
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        Location first = repo.create(new Location("first", 0, 0));
+        Location second = repo.create(new Location("second", 0, 0));
+
+        repo.update(new Location(first.getId(), "updated", 1, 1));
+        repo.remove(second.getId());
+
+        List<Location> locations = repo.list(0, 10);
+        assertEquals(1, locations.size());
+        assertEquals(first.getId(), locations.get(0).getId());
+        assertEquals("updated", locations.get(0).getName());
+    }
+
+    @Test
+    public void testListAfter() {
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        final int testDataSize = 20;
+
+        List<String> createdIds = new ArrayList<String>(testDataSize);
+        for (int i = 0; i < testDataSize; i++) {
+            createdIds.add(repo.create(new Location("loc" + i, 0, 0)).getId());
+        }
+        Collections.sort(createdIds);
+
+        List<Location> locations = repo.listAfter(createdIds.get(4), 5);
+        assertEquals(5, locations.size());
+        for (int i = 0; i < locations.size(); i++) {
+            assertEquals(createdIds.get(5 + i), locations.get(i).getId());
+        }
+
+        repo.remove(createdIds.get(9));
+        locations = repo.listAfter(createdIds.get(9), 100);
+        assertEquals(testDataSize - 10, locations.size());
+        assertEquals(createdIds.get(10), locations.get(0).getId());
+
+        assertTrue(repo.listAfter(createdIds.get(testDataSize - 1), 10).isEmpty());
+        assertEquals(testDataSize - 1, repo.listAfter("", 100).size());
+    }
+
+    @Test
+    public void testFindWithin() {
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        Location vancouver = repo.create(new Location("vancouver", -123.12, 49.28));
+        Location toronto = repo.create(new Location("toronto", -79.38, 43.65));
+
+        List<Location> found = repo.findWithin(-124, 49, -123, 50, 10);
+        assertEquals(1, found.size());
+        assertEquals(vancouver.getId(), found.get(0).getId());
+
+        repo.update(new Location(toronto.getId(), "moved", -123.5, 49.5));
+        assertEquals(2, repo.findWithin(-124, 49, -123, 50, 10).size());
+
+        repo.remove(vancouver.getId());
+        found = repo.findWithin(-124, 49, -123, 50, 10);
+        assertEquals(1, found.size());
+        assertEquals(toronto.getId(), found.get(0).getId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindWithin_InvalidBox() {
+        new InMemoryLocationRepository().findWithin(0, 10, 1, 5, 10);
+    }
+
+    @Test
+    public void testFindNearest() {
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        Location near = repo.create(new Location("near", -123.1, 49.25));
+        Location nearer = repo.create(new Location("nearer", -123.12, 49.27));
+        repo.create(new Location("far", -79.38, 43.65));
+
+        List<Location> found = repo.findNearest(-123.12, 49.28, 2, Double.POSITIVE_INFINITY);
+        assertEquals(2, found.size());
+        assertEquals(nearer.getId(), found.get(0).getId());
+        assertEquals(near.getId(), found.get(1).getId());
+
+        assertEquals(2, repo.findNearest(-123.12, 49.28, 10, 10.0d).size());
+    }
+
+    @Test
+    public void testCountTiles() {
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        Location vancouver = repo.create(new Location("vancouver", -123.12, 49.28));
+        Location burnaby = repo.create(new Location("burnaby", -122.98, 49.25));
+        repo.create(new Location("toronto", -79.38, 43.65));
+
+        assertEquals(Arrays.asList("0/0=3"), TilePyramidTest.describe(repo.countTiles(-180, -90, 180, 90, 0)));
+        assertEquals(Arrays.asList("10/21=2", "17/23=1"), TilePyramidTest.describe(repo.countTiles(-180, -85, 180, 85, 6)));
+        // deeper than the precomputed levels
+        assertEquals(Arrays.asList("2588/5607=1", "2595/5609=1"), TilePyramidTest.describe(repo.countTiles(-123.2, 49.2, -122.9, 49.3, 14)));
+
+        repo.update(new Location(burnaby.getId(), "moved", -79.4, 43.7));
+        repo.remove(vancouver.getId());
+        assertEquals(Arrays.asList("17/23=2"), TilePyramidTest.describe(repo.countTiles(-180, -85, 180, 85, 6)));
+        assertEquals(Collections.<String>emptyList(), TilePyramidTest.describe(repo.countTiles(-123.2, 49.2, -122.9, 49.3, 14)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindNearest_InvalidPoint() {
+        new InMemoryLocationRepository().findNearest(200, 0, 1, Double.POSITIVE_INFINITY);
+    }
+
+    @Test
+    public void testSearch_ReflectsUpdateAndRemove() {
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        Location harbour = repo.create(new Location("Harbour Front", 0, 0));
+        Location park = repo.create(new Location("High Park", 0, 0));
+        Location unnamed = repo.create(new Location(null, 0, 0));
+
+        assertEquals(Arrays.asList(harbour.getId(), park.getId()), ids(repo.search("h", 0, 10)));
+        repo.update(new Location(harbour.getId(), "Waterfront", 0, 0));
+        repo.update(new Location(unnamed.getId(), "Park Lawn", 0, 0));
+        repo.remove(park.getId());
+
+        assertTrue(repo.search("harbour", 0, 10).isEmpty());
+        assertEquals(Arrays.asList(harbour.getId()), ids(repo.search("water", 0, 10)));
+        assertEquals(Arrays.asList(unnamed.getId()), ids(repo.search("park", 0, 10)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearch_EmptyQuery() {
+        new InMemoryLocationRepository().search("", 0, 10);
+    }
+
+    @Test
+    public void testApply() {
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        Location existing = repo.create(new Location("existing", 0, 0));
+
+        List<MutationResult> results = repo.apply(Arrays.asList(
+                LocationMutation.create(new Location("created", 1, 1)),
+                LocationMutation.update(new Location(existing.getId(), "updated", 2, 2)),
+                LocationMutation.remove("kaboom"),
+                LocationMutation.create(new Location("has an id", "invalid", 0, 0))));
+
+        assertEquals(4, results.size());
+        assertEquals("created", repo.get(results.get(0).getLocation().getId()).getName());
+        assertEquals("updated", repo.get(existing.getId()).getName());
+        assertTrue(results.get(2).getFailure() instanceof NoSuchElementException);
+        assertTrue(results.get(3).getFailure() instanceof IllegalArgumentException);
+        assertEquals(2, repo.list(0, 10).size());
+    }
+
+    @Test
+    public void testVersions() {
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        Location created = repo.create(new Location("versioned", 0, 0));
+        assertEquals(1, created.getVersion());
+
+        Location updated = repo.update(new Location(created.getId(), "updated", 0, 0), 1);
+        assertEquals(2, updated.getVersion());
+        assertEquals(2, repo.get(created.getId()).getVersion());
+        try {
+            repo.update(new Location(created.getId(), "stale", 0, 0), 1);
+            fail("stale update was applied");
+        } catch (VersionConflictException expected) {
+        }
+        try {
+            repo.remove(created.getId(), 1);
+            fail("stale remove was applied");
+        } catch (VersionConflictException expected) {
+        }
+        assertEquals("updated", repo.get(created.getId()).getName());
+        assertEquals(3, repo.update(new Location(created.getId(), "unconditional", 0, 0)).getVersion());
+        repo.remove(created.getId(), 3);
+        assertTrue(repo.list(0, 10).isEmpty());
+    }
+
+    @Test
+    public void testChangesSince() {
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        long start = repo.latestSequence();
+        Location created = repo.create(new Location("changed", 0, 0));
+        repo.update(new Location(created.getId(), "updated", 0, 0));
+        List<LocationMutation> mutations = new ArrayList<LocationMutation>();
+        mutations.add(LocationMutation.remove(created.getId()));
+        mutations.add(LocationMutation.remove(created.getId()));
+        repo.apply(mutations);
+
+        LocationChanges changes = repo.changesSince(start, 10, 0);
+        assertEquals(start + 3, changes.getSequence());
+        List<LocationMutation.Type> types = new ArrayList<LocationMutation.Type>();
+        for (LocationChange change : changes.getChanges()) {
+            assertEquals(created.getId(), change.getId());
+            types.add(change.getType());
+        }
+        assertEquals(Arrays.asList(LocationMutation.Type.CREATE, LocationMutation.Type.UPDATE, LocationMutation.Type.REMOVE), types);
+        assertEquals(2, changes.getChanges().get(1).getLocation().getVersion());
+        assertEquals(start + 3, repo.latestSequence());
+    }
+
+    @Test
+    public void testListPinnedSnapshot() {
+        InMemoryLocationRepository repo = new InMemoryLocationRepository();
+        List<Location> created = new ArrayList<Location>();
+        for (int i = 0; i < 10; i++) {
+            created.add(repo.create(new Location("loc" + i, 0, 0)));
+        }
+        long snapshot = repo.pinSnapshot();
+        List<Location> firstPage = repo.list(0, 5, snapshot);
+
+        repo.remove(created.get(5).getId());
+        repo.update(new Location(created.get(6).getId(), "updated", 1, 1));
+        repo.create(new Location("later", 0, 0));
+
+        assertEquals(ids(created.subList(5, 10)), ids(repo.listAfter(firstPage.get(4).getId(), 10, snapshot)));
+        assertEquals("loc6", repo.list(6, 1, snapshot).get(0).getName());
+        assertEquals(10, repo.list(0, 100).size());
+        assertEquals(10, repo.list(0, 100, LocationRepository.NO_SNAPSHOT).size());
+        assertEquals(10, repo.list(0, 100, snapshot + 1000).size());
+    }
+
+    private static List<String> ids(List<Location> locations) {
+        List<String> ids = new ArrayList<String>();
+        for (Location location : locations) {
+            ids.add(location.getId());
+        }
+        return ids;
+    }
 }
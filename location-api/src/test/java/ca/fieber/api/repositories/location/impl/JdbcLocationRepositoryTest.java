@@ -0,0 +1,318 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.repositories.location.VersionConflictException;
+import ca.fieber.api.representations.location.Location;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * JdbcLocationRepositoryTest.
+ *
+ * @author cfieber
+ */
+public class JdbcLocationRepositoryTest {
+
+    private static final double DELTA = 0.0001d;
+
+    private JdbcLocationRepository repo;
+
+    @Before
+    public void setUp() throws SQLException {
+        repo = new JdbcLocationRepository("jdbc:h2:mem:" + UUID.randomUUID() + ";MVCC=TRUE", "sa", "", 4);
+    }
+
+    @After
+    public void tearDown() {
+        // the in memory database is dropped with its last connection
+        repo.close();
+    }
+
+    @Test
+    public void testCreateGetUpdateRemove() {
+        Location created = repo.create(new Location("loc é", -122.3, 48.5));
+        assertNotNull(created.getId());
+        assertEquals(1, created.getVersion());
+
+        Location got = repo.get(created.getId());
+        assertEquals("loc é", got.getName());
+        assertEquals(-122.3, got.getLongitude(), DELTA);
+        assertEquals(48.5, got.getLatitude(), DELTA);
+        assertEquals(1, got.getVersion());
+
+        Location updated = repo.update(new Location(created.getId(), "A New Name", 10, 20));
+        assertEquals(2, updated.getVersion());
+        got = repo.get(created.getId());
+        assertEquals("A New Name", got.getName());
+        assertEquals(10, got.getLongitude(), DELTA);
+        assertEquals(2, got.getVersion());
+
+        repo.remove(created.getId());
+        try {
+            repo.get(created.getId());
+            fail("removed location was found");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreate_WithId() {
+        repo.create(new Location("This isn't right...", "test", -122.3, 48.5));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testUpdate_NotFound() {
+        repo.update(new Location(UUID.randomUUID().toString(), "loc", 0, 0));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testRemove_NotFound() {
+        repo.remove("kaboom");
+    }
+
+    @Test
+    public void testVersions() {
+        Location created = repo.create(new Location("loc", 0, 0));
+        assertEquals(2, repo.update(new Location(created.getId(), "v2", 0, 0), 1).getVersion());
+        try {
+            repo.update(new Location(created.getId(), "stale", 0, 0), 1);
+            fail("stale update was applied");
+        } catch (VersionConflictException expected) {
+        }
+        try {
+            repo.remove(created.getId(), 1);
+            fail("stale remove was applied");
+        } catch (VersionConflictException expected) {
+        }
+        assertEquals("v2", repo.get(created.getId()).getName());
+        repo.remove(created.getId(), 2);
+        try {
+            repo.remove(created.getId(), 2);
+            fail("removed location was removed again");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    @Test
+    public void testListAndListAfter() {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 25; i++) {
+            ids.add(repo.create(new Location("loc" + i, i, i)).getId());
+        }
+        Collections.sort(ids);
+
+        List<Location> page = repo.list(5, 10);
+        assertEquals(10, page.size());
+        assertEquals(ids.get(5), page.get(0).getId());
+
+        List<String> listed = new ArrayList<String>();
+        for (List<Location> chunk = repo.list(0, 10); !chunk.isEmpty();
+             chunk = repo.listAfter(chunk.get(chunk.size() - 1).getId(), 10)) {
+            for (Location location : chunk) {
+                listed.add(location.getId());
+            }
+        }
+        assertEquals(ids, listed);
+        assertTrue(repo.list(0, 0).isEmpty());
+    }
+
+    @Test
+    public void testFindWithin() {
+        Location seattle = repo.create(new Location("seattle", -122.3, 47.6));
+        repo.create(new Location("london", -0.1, 51.5));
+        Location fiji = repo.create(new Location("fiji", 178.4, -18.1));
+        Location samoa = repo.create(new Location("samoa", -171.8, -13.8));
+
+        List<Location> found = repo.findWithin(-125, 45, -120, 50, 10);
+        assertEquals(1, found.size());
+        assertEquals(seattle.getId(), found.get(0).getId());
+
+        Set<String> acrossAntimeridian = new HashSet<String>();
+        for (Location location : repo.findWithin(170, -20, -170, -10, 10)) {
+            acrossAntimeridian.add(location.getId());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList(fiji.getId(), samoa.getId())), acrossAntimeridian);
+        assertEquals(1, repo.findWithin(170, -20, -170, -10, 1).size());
+    }
+
+    @Test
+    public void testCountTiles() {
+        InMemoryLocationRepository expected = new InMemoryLocationRepository();
+        double[][] points = {{-122.3, 47.6}, {-122.33, 47.61}, {-0.1, 51.5}, {178.4, -18.1}, {-171.8, -13.8}, {179.9, -15}};
+        for (double[] point : points) {
+            repo.create(new Location("point", point[0], point[1]));
+            expected.create(new Location("point", point[0], point[1]));
+        }
+
+        double[][] boxes = {{-180, -85, 180, 85}, {170, -20, -170, -10}, {-122.4, 47.5, -122.2, 47.7}};
+        for (double[] box : boxes) {
+            for (int zoom = 0; zoom <= 16; zoom += 4) {
+                try {
+                    assertEquals(TilePyramidTest.describe(expected.countTiles(box[0], box[1], box[2], box[3], zoom)),
+                            TilePyramidTest.describe(repo.countTiles(box[0], box[1], box[2], box[3], zoom)));
+                } catch (IllegalArgumentException iae) {
+                    // the box spans too many tiles at this zoom level
+                    assertTrue(zoom > 4);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindWithin_InvalidBox() {
+        repo.findWithin(0, 10, 1, 5, 10);
+    }
+
+    @Test
+    public void testFindNearest() {
+        Location near = repo.create(new Location("near", -122.3, 47.6));
+        Location nearer = repo.create(new Location("nearer", -122.33, 47.61));
+        repo.create(new Location("far", 2.35, 48.85));
+
+        List<Location> nearest = repo.findNearest(-122.335, 47.608, 2, Double.POSITIVE_INFINITY);
+        assertEquals(2, nearest.size());
+        assertEquals(nearer.getId(), nearest.get(0).getId());
+        assertEquals(near.getId(), nearest.get(1).getId());
+
+        assertEquals(2, repo.findNearest(-122.335, 47.608, 10, 100).size());
+        assertEquals(3, repo.findNearest(-122.335, 47.608, 10, Double.POSITIVE_INFINITY).size());
+    }
+
+    @Test
+    public void testSearch() {
+        Location prefix = repo.create(new Location("Port Townsend", 0, 0));
+        Location later = repo.create(new Location("Old Port", 0, 0));
+        repo.create(new Location("Seattle", 0, 0));
+        repo.create(new Location(null, 0, 0));
+
+        List<Location> found = repo.search("PORT", 0, 10);
+        assertEquals(2, found.size());
+        assertEquals(prefix.getId(), found.get(0).getId());
+        assertEquals(later.getId(), found.get(1).getId());
+        assertEquals(later.getId(), repo.search("port", 1, 10).get(0).getId());
+
+        repo.update(new Location(prefix.getId(), "Tacoma", 0, 0));
+        assertEquals(1, repo.search("port", 0, 10).size());
+    }
+
+    @Test
+    public void testSearch_PagesAgreeWithNameIndex() {
+        NameIndex<Location> index = new NameIndex<Location>(new Comparator<Location>() {
+            @Override
+            public int compare(Location location1, Location location2) {
+                return location1.getId().compareTo(location2.getId());
+            }
+        }) {
+            @Override
+            String nameOf(Location location) {
+                return location.getName();
+            }
+        };
+        String[] names = {"Toronto", "Old Toronto", "Toronto Island", "Big Toronto Tower", "Tor Bay", "Old Tor",
+                "Port Toronto Old", "Ottawa", "New York", "Greater New York"};
+        for (int i = 0; i < 3; i++) {
+            for (String name : names) {
+                index.add(repo.create(new Location(name, 0, 0)));
+            }
+        }
+        Location removed = repo.create(new Location("Old Toronto Removed", 0, 0));
+        repo.remove(removed.getId());
+
+        for (String query : new String[]{"to", "tor", "toronto", "old", "new yo", "island"}) {
+            assertEquals(query, ids(index.search(query, 0, 100)), ids(repo.search(query, 0, 100)));
+            for (int start = 0; start < 40; start += 4) {
+                assertEquals(query + " " + start, ids(index.search(query, start, 4)), ids(repo.search(query, start, 4)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearch_EmptyQuery() {
+        repo.search(" - ", 0, 10);
+    }
+
+    @Test
+    public void testApply() {
+        Location removed = repo.create(new Location("removed", 0, 0));
+        Location updated = repo.create(new Location("updated", 0, 0));
+        List<LocationMutation> mutations = new ArrayList<LocationMutation>();
+        for (int i = 0; i < 100; i++) {
+            mutations.add(LocationMutation.create(new Location("batch" + i, i, i)));
+        }
+        mutations.add(LocationMutation.remove(removed.getId()));
+        mutations.add(LocationMutation.remove(removed.getId()));
+        mutations.add(LocationMutation.update(new Location(updated.getId(), "after", 1, 1), 1));
+        mutations.add(LocationMutation.create(new Location("last", 0, 0)));
+
+        List<MutationResult> results = repo.apply(mutations);
+        assertEquals(mutations.size(), results.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("batch" + i, repo.get(results.get(i).getLocation().getId()).getName());
+        }
+        assertTrue(results.get(100).isSuccess());
+        assertTrue(results.get(101).getFailure() instanceof NoSuchElementException);
+        assertEquals(2, results.get(102).getLocation().getVersion());
+        assertEquals("last", repo.get(results.get(103).getLocation().getId()).getName());
+        assertEquals(102, repo.list(0, 1000).size());
+    }
+
+    @Test
+    public void testChangesSince() {
+        long start = repo.latestSequence();
+        Location created = repo.create(new Location("loc", 0, 0));
+        repo.update(new Location(created.getId(), "updated", 0, 0));
+        repo.remove(created.getId());
+        try {
+            repo.remove(created.getId());
+        } catch (NoSuchElementException expected) {
+        }
+
+        LocationChanges changes = repo.changesSince(start, 10, 0);
+        assertEquals(3, changes.getChanges().size());
+        assertEquals(LocationMutation.Type.CREATE, changes.getChanges().get(0).getType());
+        assertEquals(2, changes.getChanges().get(1).getLocation().getVersion());
+        assertEquals(LocationMutation.Type.REMOVE, changes.getChanges().get(2).getType());
+        assertEquals(created.getId(), changes.getChanges().get(2).getId());
+        assertEquals(repo.latestSequence(), changes.getSequence());
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Location>> futures = new ArrayList<Future<Location>>();
+        for (int i = 0; i < 200; i++) {
+            final int n = i;
+            futures.add(executor.submit(new Callable<Location>() {
+                @Override
+                public Location call() {
+                    return repo.create(new Location("loc" + n, n % 180, n % 90));
+                }
+            }));
+        }
+        Set<String> ids = new HashSet<String>();
+        for (Future<Location> future : futures) {
+            ids.add(future.get().getId());
+        }
+        executor.shutdown();
+
+        assertEquals(200, ids.size());
+        assertEquals(200, repo.list(0, 1000).size());
+    }
+
+    private static List<String> ids(List<Location> locations) {
+        List<String> ids = new ArrayList<String>();
+        for (Location location : locations) {
+            ids.add(location.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,62 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * LocationColumnsTest.
+ *
+ * @author cfieber
+ */
+public class LocationColumnsTest {
+
+    @Test
+    public void testWriteValuesOverwritesNamesThatFit() {
+        LocationColumns columns = new LocationColumns();
+        int row = columns.appendRow();
+        columns.write(row, LocationColumns.encode("1"), new Location("1", "Toronto", 1, 2, 1L));
+
+        columns.writeValues(row, new Location("1", "Ottawa", 3, 4, 2L));
+        assertEquals("Ottawa", columns.name(row));
+        assertEquals(1, columns.garbageBytes());
+
+        columns.writeValues(row, new Location("1", null, 3, 4, 3L));
+        assertNull(columns.name(row));
+        columns.writeValues(row, new Location("1", "Montreal", 5, 6, 4L));
+        Location location = columns.location(row);
+        assertEquals("1", location.getId());
+        assertEquals("Montreal", location.getName());
+        assertEquals(5, location.getLongitude(), 0);
+        assertEquals(4L, location.getVersion());
+    }
+
+    @Test
+    public void testCompactStrings() {
+        LocationColumns columns = new LocationColumns();
+        int kept = columns.appendRow();
+        columns.write(kept, LocationColumns.encode("kept"), new Location("kept", "Kept", 0, 0, 1L));
+        int freed = columns.appendRow();
+        columns.write(freed, LocationColumns.encode("freed"), new Location("freed", "Freed", 0, 0, 1L));
+        columns.free(freed);
+
+        // every update outgrows the name it replaces, so the string blocks fill with garbage
+        long rowBytes = (long) LocationColumns.BLOCK_ROWS * LocationColumns.ROW_BYTES;
+        StringBuilder name = new StringBuilder("Kept");
+        for (int i = 0; !columns.shouldCompactStrings() || columns.offHeapBytes() < rowBytes + 2 * LocationColumns.STRING_BLOCK_BYTES; i++) {
+            name.append(i);
+            columns.writeValues(kept, new Location("kept", name.toString(), 0, 0, i + 2L));
+        }
+        long offHeapBytes = columns.offHeapBytes();
+
+        columns.compactStrings();
+        assertFalse(columns.shouldCompactStrings());
+        assertEquals(0, columns.garbageBytes());
+        assertTrue(columns.offHeapBytes() < offHeapBytes);
+        assertEquals("kept", columns.location(kept).getId());
+        assertEquals(name.toString(), columns.name(kept));
+        assertEquals(0, columns.compareId(kept, LocationColumns.encode("kept")));
+        assertFalse(columns.isLive(freed));
+    }
+}
@@ -0,0 +1,140 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * NameIndexTest.
+ *
+ * @author cfieber
+ */
+public class NameIndexTest {
+
+    @Test
+    public void testNormalize() {
+        assertEquals("montreal quebec", NameIndex.normalize("  Montréal,  QUÉBEC! "));
+        assertEquals("", NameIndex.normalize("--"));
+    }
+
+    @Test
+    public void testSearchRanksMatches() {
+        NameIndex<Location> index = newIndex();
+        index.add(new Location("1", "Old Toronto", 0, 0));
+        index.add(new Location("2", "Toronto Island", 0, 0));
+        index.add(new Location("3", "toronto", 0, 0));
+        index.add(new Location("4", "Tor Bay", 0, 0));
+        index.add(new Location("5", "Big Toronto Tower", 0, 0));
+        index.add(new Location("6", "Ottawa", 0, 0));
+        index.add(new Location("7", null, 0, 0));
+
+        assertEquals(Arrays.asList("3", "2", "1", "5"), ids(index.search("Toronto", 0, 10)));
+        assertEquals(Arrays.asList("4", "3", "2", "1", "5"), ids(index.search("tor", 0, 10)));
+        // Big Toronto Tower is only listed once, under its last matching word
+        assertEquals(Arrays.asList("4", "3", "2", "1", "5"), ids(index.search("to", 0, 10)));
+        assertEquals(Arrays.asList("5"), ids(index.search("toronto t", 0, 10)));
+        assertEquals(Arrays.asList("2", "1"), ids(index.search("tor", 2, 2)));
+        assertTrue(index.search("tor", 5, 10).isEmpty());
+        assertTrue(index.search("xyz", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        NameIndex<Location> index = newIndex();
+        Location location = new Location("1", "Big Toronto Tower", 0, 0);
+        index.add(location);
+        index.add(new Location("2", "Toronto", 0, 0));
+        index.remove(location);
+
+        assertEquals(Arrays.asList("2"), ids(index.search("to", 0, 10)));
+        assertTrue(index.search("big", 0, 10).isEmpty());
+
+        long heapBytes = index.heapBytes(16);
+        assertTrue(heapBytes > 0);
+        index.add(location);
+        assertTrue(index.heapBytes(16) > heapBytes);
+        index.remove(location);
+        assertEquals(heapBytes, index.heapBytes(16));
+        index.remove(new Location("2", "Toronto", 0, 0));
+        assertEquals(0, index.heapBytes(16));
+    }
+
+    @Test
+    public void testSearchDoesNotGetNames() {
+        final int[] names = new int[1];
+        NameIndex<Location> index = new NameIndex<Location>(new Comparator<Location>() {
+            @Override
+            public int compare(Location location1, Location location2) {
+                return location1.getId().compareTo(location2.getId());
+            }
+        }) {
+            @Override
+            String nameOf(Location location) {
+                names[0]++;
+                return location.getName();
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            index.add(new Location(Integer.toString(i), i % 2 == 0 ? "Toronto Tower " + i : "Old Toronto " + i, 0, 0));
+        }
+        names[0] = 0;
+
+        // names starting with the query are skipped among those with a later word starting with it by their key
+        assertEquals(Arrays.asList("1", "11"), ids(index.search("toronto", 50, 2)));
+        assertEquals(0, names[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearch_EmptyQuery() {
+        newIndex().search(" ? ", 0, 10);
+    }
+
+    @Test
+    public void testPagesAgreeWithFullSearch() {
+        NameIndex<Location> index = newIndex();
+        Random random = new Random(7);
+        String[] words = {"north", "south", "new", "port", "porter", "lake", "saint"};
+        for (int i = 0; i < 300; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int w = random.nextInt(3); w >= 0; w--) {
+                name.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            index.add(new Location(String.format("%03d", i), name.toString(), 0, 0));
+        }
+
+        for (String query : new String[]{"p", "port", "new p", "s"}) {
+            List<Location> all = index.search(query, 0, 1000);
+            assertEquals(all.size(), new HashSet<Location>(all).size());
+            List<Location> paged = new ArrayList<Location>();
+            for (int start = 0; start < all.size() + 7; start += 7) {
+                paged.addAll(index.search(query, start, 7));
+            }
+            assertEquals(all, paged);
+        }
+    }
+
+    private static NameIndex<Location> newIndex() {
+        return new NameIndex<Location>(new Comparator<Location>() {
+            @Override
+            public int compare(Location location1, Location location2) {
+                return location1.getId().compareTo(location2.getId());
+            }
+        }) {
+            @Override
+            String nameOf(Location location) {
+                return location.getName();
+            }
+        };
+    }
+
+    private static List<String> ids(List<Location> locations) {
+        List<String> ids = new ArrayList<String>();
+        for (Location location : locations) {
+            ids.add(location.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,78 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.representations.location.Location;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the latency of nearest queries against the in memory grid index and against columnar scans on one
+ * thread and split across every processor.
+ *
+ * <p>Not run as part of the build, run the main method with the test classpath and a heap large enough for the
+ * in memory repository, around 400MB per million Locations:</p>
+ * <pre>
+ * java -Xmx8g -cp ... ca.fieber.api.repositories.location.impl.NearestBenchmark [count...]
+ * </pre>
+ *
+ * <p>The counts default to one and ten million Locations. The in memory repository is skipped above two million.</p>
+ *
+ * @author cfieber
+ */
+public final class NearestBenchmark {
+
+    private static final int MAX_IN_MEMORY = 2000000;
+    private static final int WARMUP_QUERIES = 20;
+    private static final int QUERIES = 100;
+    private static final int NEAREST = 20;
+
+    private NearestBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = {1000000, 10000000};
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int count : counts) {
+            if (count <= MAX_IN_MEMORY) {
+                report("InMemory grid", count, new InMemoryLocationRepository());
+            }
+            report("Columnar 1 thread", count, new ColumnarLocationRepository(new UlidIdGenerator(), 1));
+            if (processors > 1) {
+                report("Columnar " + processors + " threads", count, new ColumnarLocationRepository(new UlidIdGenerator(), processors));
+            }
+        }
+    }
+
+    private static void report(String name, int count, LocationRepository repository) {
+        Random random = new Random(11);
+        for (int i = 0; i < count; i++) {
+            repository.create(new Location("loc" + i, random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90));
+        }
+        query(repository, random, WARMUP_QUERIES);
+        long[] nanos = query(repository, random, QUERIES);
+        Arrays.sort(nanos);
+        System.out.printf("%-20s %,11d locations: p50 %8.2f ms, p99 %8.2f ms%n", name, count,
+                nanos[QUERIES / 2] / 1e6d, nanos[QUERIES * 99 / 100] / 1e6d);
+    }
+
+    private static long[] query(LocationRepository repository, Random random, int queries) {
+        long[] nanos = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            double longitude = random.nextDouble() * 360 - 180;
+            double latitude = random.nextDouble() * 180 - 90;
+            long start = System.nanoTime();
+            if (repository.findNearest(longitude, latitude, NEAREST, Double.POSITIVE_INFINITY).size() != NEAREST) {
+                throw new IllegalStateException("Too few Locations found");
+            }
+            nanos[i] = System.nanoTime() - start;
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,45 @@
+package ca.fieber.api.repositories.location.impl;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * PinnedSnapshotsTest.
+ *
+ * @author cfieber
+ */
+public class PinnedSnapshotsTest {
+
+    @Test
+    public void testGet() {
+        CounterMetric expired = Metrics.newCounter(PinnedSnapshotsTest.class, "snapshot-expired");
+        long expiredCount = expired.count();
+        PinnedSnapshots<String> pinned = new PinnedSnapshots<String>(PinnedSnapshotsTest.class);
+        pinned.pin(1, "one");
+        pinned.pin(1, "renewed");
+        assertEquals("one", pinned.get(1));
+        assertNull(pinned.get(2));
+        assertEquals(expiredCount + 1, expired.count());
+    }
+
+    @Test
+    public void testPin_EvictsLeastRecentlyUsed() {
+        CounterMetric evicted = Metrics.newCounter(PinnedSnapshotsTest.class, "snapshot-evicted");
+        long evictedCount = evicted.count();
+        PinnedSnapshots<Integer> pinned = new PinnedSnapshots<Integer>(PinnedSnapshotsTest.class);
+        for (int i = 0; i < PinnedSnapshots.MAX_PINNED; i++) {
+            pinned.pin(i, i);
+        }
+        assertEquals(Integer.valueOf(0), pinned.get(0));
+        assertEquals(evictedCount, evicted.count());
+
+        pinned.pin(PinnedSnapshots.MAX_PINNED, PinnedSnapshots.MAX_PINNED);
+        assertEquals(evictedCount + 1, evicted.count());
+        assertNull(pinned.get(1));
+        assertEquals(Integer.valueOf(0), pinned.get(0));
+        assertEquals(Integer.valueOf(PinnedSnapshots.MAX_PINNED), pinned.get(PinnedSnapshots.MAX_PINNED));
+    }
+}
@@ -0,0 +1,217 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.repositories.location.LocationChange;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationMutation;
+import ca.fieber.api.repositories.location.MutationResult;
+import ca.fieber.api.repositories.location.VersionConflictException;
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * ShardedLocationRepositoryTest.
+ *
+ * @author cfieber
+ */
+public class ShardedLocationRepositoryTest {
+
+    private final ShardedLocationRepository repo = new ShardedLocationRepository(7);
+
+    @Test
+    public void testCreateGetUpdateRemove() {
+        Location created = repo.create(new Location("loc", 1, 2));
+        assertSame(created, repo.get(created.getId()));
+
+        Location updated = repo.update(new Location(created.getId(), "updated", 3, 4), 1);
+        assertEquals(2, updated.getVersion());
+        try {
+            repo.remove(created.getId(), 1);
+            fail("stale remove was applied");
+        } catch (VersionConflictException expected) {
+        }
+        repo.remove(created.getId());
+        try {
+            repo.get(created.getId());
+            fail("removed location was found");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreate_WithId() {
+        repo.create(new Location("This isn't right...", "test", -122.3, 48.5));
+    }
+
+    @Test
+    public void testListMergesShards() {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 2500; i++) {
+            ids.add(repo.create(new Location("loc" + i, i % 180, i % 90)).getId());
+        }
+        Collections.sort(ids);
+
+        assertEquals(ids.subList(0, 10), idsOf(repo.list(0, 10)));
+        assertEquals(ids.subList(1995, 2010), idsOf(repo.list(1995, 15)));
+        assertEquals(ids.subList(2490, 2500), idsOf(repo.list(2490, 100)));
+        assertTrue(repo.list(2500, 10).isEmpty());
+
+        List<String> listed = new ArrayList<String>();
+        for (List<Location> page = repo.list(0, 1200); !page.isEmpty();
+             page = repo.listAfter(page.get(page.size() - 1).getId(), 1200)) {
+            listed.addAll(idsOf(page));
+        }
+        assertEquals(ids, listed);
+    }
+
+    @Test
+    public void testList_EveryStartIndex() {
+        // shards of uneven sizes, some empty
+        ShardedLocationRepository uneven = new ShardedLocationRepository(16);
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 40; i++) {
+            ids.add(uneven.create(new Location("loc" + i, 0, 0)).getId());
+        }
+        Collections.sort(ids);
+
+        for (int start = 0; start < ids.size(); start++) {
+            assertEquals(ids.subList(start, Math.min(start + 3, ids.size())), idsOf(uneven.list(start, 3)));
+        }
+        assertTrue(uneven.list(ids.size(), 3).isEmpty());
+        assertTrue(new ShardedLocationRepository(3).list(5, 3).isEmpty());
+    }
+
+    @Test
+    public void testQueriesMergeShards() {
+        InMemoryLocationRepository unsharded = new InMemoryLocationRepository();
+        String[] names = {"Port Townsend", "Old Port", "Portland", "New Port Richey", "Seattle", "port", "Port Angeles"};
+        for (int i = 0; i < 140; i++) {
+            Location created = repo.create(new Location(names[i % names.length] + " " + i, -122 + i * 0.01, 47 + i * 0.01));
+            unsharded.restore(created);
+        }
+
+        for (int start = 0; start < 100; start += 17) {
+            assertEquals(idsOf(unsharded.search("port", start, 17)), idsOf(repo.search("port", start, 17)));
+        }
+        assertEquals(idsOf(unsharded.findNearest(-121.5, 47.5, 12, 50)), idsOf(repo.findNearest(-121.5, 47.5, 12, 50)));
+        assertEquals(new HashSet<String>(idsOf(unsharded.findWithin(-122, 47, -121, 48, 1000))),
+                new HashSet<String>(idsOf(repo.findWithin(-122, 47, -121, 48, 1000))));
+        assertEquals(5, repo.findWithin(-122, 47, -121, 48, 5).size());
+        for (int zoom = 0; zoom <= 14; zoom += 2) {
+            assertEquals(TilePyramidTest.describe(unsharded.countTiles(-122, 47, -121, 48, zoom)),
+                    TilePyramidTest.describe(repo.countTiles(-122, 47, -121, 48, zoom)));
+        }
+    }
+
+    @Test
+    public void testApplyAndChanges() {
+        long start = repo.latestSequence();
+        Location removed = repo.create(new Location("removed", 0, 0));
+        List<LocationMutation> mutations = new ArrayList<LocationMutation>();
+        for (int i = 0; i < 50; i++) {
+            mutations.add(LocationMutation.create(new Location("batch" + i, i, i)));
+        }
+        mutations.add(LocationMutation.remove(removed.getId()));
+        mutations.add(LocationMutation.remove(removed.getId()));
+
+        List<MutationResult> results = repo.apply(mutations);
+        for (int i = 0; i < 50; i++) {
+            assertEquals("batch" + i, repo.get(results.get(i).getLocation().getId()).getName());
+        }
+        assertTrue(results.get(50).isSuccess());
+        assertTrue(results.get(51).getFailure() instanceof NoSuchElementException);
+
+        LocationChanges changes = repo.changesSince(start, 100, 0);
+        assertEquals(52, changes.getChanges().size());
+        assertEquals(removed.getId(), changes.getChanges().get(0).getId());
+        assertEquals(LocationMutation.Type.REMOVE, changes.getChanges().get(51).getType());
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        long start = repo.latestSequence();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Location>> futures = new ArrayList<Future<Location>>();
+        for (int i = 0; i < 400; i++) {
+            final int n = i;
+            futures.add(executor.submit(new Callable<Location>() {
+                @Override
+                public Location call() {
+                    Location created = repo.create(new Location("loc" + n, n % 180, n % 90));
+                    return repo.update(new Location(created.getId(), "updated" + n, 0, 0));
+                }
+            }));
+        }
+        Set<String> ids = new TreeSet<String>();
+        for (Future<Location> future : futures) {
+            ids.add(future.get().getId());
+        }
+        executor.shutdown();
+
+        assertEquals(new ArrayList<String>(ids), idsOf(repo.list(0, 1000)));
+        assertEquals(800, repo.changesSince(start, 1000, 0).getChanges().size());
+    }
+
+    @Test
+    public void testListPinnedSnapshot() {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(repo.create(new Location("loc" + i, 0, 0)).getId());
+        }
+        Collections.sort(ids);
+        long snapshot = repo.pinSnapshot();
+
+        repo.remove(ids.get(30));
+        repo.create(new Location("later", 0, 0));
+
+        assertEquals(ids.subList(20, 50), idsOf(repo.listAfter(ids.get(19), 100, snapshot)));
+        assertEquals(ids.subList(0, 20), idsOf(repo.list(0, 20, snapshot)));
+        assertEquals(50, repo.list(0, 100).size());
+    }
+
+    @Test
+    public void testPinSnapshot_ConcurrentWrites() throws Exception {
+        final long start = repo.latestSequence();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> writers = new ArrayList<Future<?>>();
+        for (int w = 0; w < 4; w++) {
+            writers.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        repo.create(new Location("concurrent" + i, 0, 0));
+                    }
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < 50; i++) {
+                long snapshot = repo.pinSnapshot();
+                // every Location created up to the snapshot's sequence number is in it
+                Set<String> pinned = new HashSet<String>(idsOf(repo.list(0, Integer.MAX_VALUE, snapshot)));
+                for (LocationChange change : repo.changesSince(start, Integer.MAX_VALUE, 0).getChanges()) {
+                    if (change.getSequence() <= snapshot) {
+                        assertTrue(pinned.contains(change.getId()));
+                    }
+                }
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> idsOf(List<Location> locations) {
+        List<String> ids = new ArrayList<String>(locations.size());
+        for (Location location : locations) {
+            ids.add(location.getId());
+        }
+        return ids;
+    }
+}
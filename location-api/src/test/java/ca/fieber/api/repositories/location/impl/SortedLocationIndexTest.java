@@ -0,0 +1,116 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.Location;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * SortedLocationIndexTest.
+ *
+ * @author cfieber
+ */
+public class SortedLocationIndexTest {
+
+    @Test
+    public void testPage() {
+        SortedLocationIndex index = new SortedLocationIndex();
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            index.put(new Location(id, "loc" + i, 0, 0));
+        }
+        Collections.sort(ids);
+
+        assertEquals(ids.size(), index.size());
+        for (int start = 0; start < ids.size(); start += 7) {
+            List<Location> page = index.page(start, 11);
+            assertEquals(Math.min(11, ids.size() - start), page.size());
+            for (int i = 0; i < page.size(); i++) {
+                assertEquals(ids.get(start + i), page.get(i).getId());
+            }
+        }
+        assertTrue(index.page(ids.size(), 10).isEmpty());
+        assertTrue(index.page(-1, 10).isEmpty());
+        assertTrue(index.page(0, 0).isEmpty());
+    }
+
+    @Test
+    public void testPutReplaces() {
+        SortedLocationIndex index = new SortedLocationIndex();
+        index.put(new Location("a", "first", 0, 0));
+        index.put(new Location("a", "second", 0, 0));
+
+        assertEquals(1, index.size());
+        assertEquals("second", index.page(0, 1).get(0).getName());
+    }
+
+    @Test
+    public void testRemove() {
+        SortedLocationIndex index = new SortedLocationIndex();
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            String id = String.format("%03d", i);
+            ids.add(id);
+            index.put(new Location(id, "loc" + i, 0, 0));
+        }
+        for (Iterator<String> it = ids.iterator(); it.hasNext(); ) {
+            String id = it.next();
+            if (id.hashCode() % 3 == 0) {
+                index.remove(id);
+                it.remove();
+            }
+        }
+        index.remove("not there");
+
+        List<Location> all = index.page(0, 1000);
+        assertEquals(ids.size(), all.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(ids.get(i), all.get(i).getId());
+        }
+    }
+
+    @Test
+    public void testSnapshotIsUnchangedByLaterWrites() {
+        SortedLocationIndex index = new SortedLocationIndex();
+        for (int i = 0; i < 100; i++) {
+            index.put(new Location(String.format("%03d", i), "loc" + i, 0, 0));
+        }
+        SortedLocationIndex.Snapshot snapshot = index.snapshot();
+
+        index.remove("050");
+        index.put(new Location("050a", "added", 0, 0));
+        index.put(new Location("051", "replaced", 0, 0));
+        index.remove("not there");
+
+        assertEquals(100, snapshot.size());
+        assertEquals(snapshot.version + 3, index.snapshot().version);
+        List<Location> page = snapshot.pageAfter("049", 3);
+        assertEquals("050", page.get(0).getId());
+        assertEquals("051", page.get(1).getId());
+        assertEquals("loc51", page.get(1).getName());
+        assertEquals("052", page.get(2).getId());
+
+        page = index.pageAfter("049", 3);
+        assertEquals("050a", page.get(0).getId());
+        assertEquals("replaced", page.get(1).getName());
+    }
+
+    @Test
+    public void testSnapshotLocations() {
+        SortedLocationIndex index = new SortedLocationIndex();
+        assertTrue(index.snapshot().locations().isEmpty());
+        for (int i = 99; i >= 0; i--) {
+            index.put(new Location(String.format("%03d", i), "loc" + i, 0, 0));
+        }
+        SortedLocationIndex.Snapshot snapshot = index.snapshot();
+        index.remove("010");
+
+        assertEquals(100, snapshot.locations().size());
+        assertEquals(snapshot.page(0, 100), new ArrayList<Location>(snapshot.locations()));
+        assertEquals(99, index.snapshot().locations().size());
+    }
+}
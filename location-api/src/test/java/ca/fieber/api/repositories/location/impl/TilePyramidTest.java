@@ -0,0 +1,107 @@
+package ca.fieber.api.repositories.location.impl;
+
+import ca.fieber.api.representations.location.LocationTile;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * TilePyramidTest.
+ *
+ * @author cfieber
+ */
+public class TilePyramidTest {
+
+    static List<String> describe(List<LocationTile> tiles) {
+        List<String> described = new ArrayList<String>(tiles.size());
+        for (LocationTile tile : tiles) {
+            described.add(tile.getX() + "/" + tile.getY() + "=" + tile.getCount());
+        }
+        return described;
+    }
+
+    @Test
+    public void testTileNumbers() {
+        assertEquals(0, TilePyramid.tileX(-180, 3));
+        assertEquals(7, TilePyramid.tileX(180, 3));
+        assertEquals(1, TilePyramid.tileX(0, 1));
+        assertEquals(1, TilePyramid.tileY(0, 1));
+        assertEquals(0, TilePyramid.tileY(90, 4));
+        assertEquals(15, TilePyramid.tileY(-90, 4));
+        // London
+        assertEquals(511, TilePyramid.tileX(-0.1276, 10));
+        assertEquals(340, TilePyramid.tileY(51.5072, 10));
+    }
+
+    @Test
+    public void testPrecomputedCountsMatchCountedTiles() {
+        Random random = new Random(7);
+        TilePyramid pyramid = new TilePyramid();
+        double[][] points = new double[5000][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new double[] {random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90};
+            pyramid.add(points[i][0], points[i][1]);
+        }
+        for (int i = 0; i < points.length; i += 2) {
+            pyramid.remove(points[i][0], points[i][1]);
+        }
+
+        double[][] boxes = {{-180, -90, 180, 90}, {-10, 40, 12.5, 55}, {170, -20, -170, 20}};
+        for (double[] box : boxes) {
+            for (int zoom = 0; zoom <= TilePyramid.PRECOMPUTED_ZOOM; zoom++) {
+                TilePyramid.TileRange range;
+                try {
+                    range = TilePyramid.TileRange.of(box[0], box[1], box[2], box[3], zoom);
+                } catch (IllegalArgumentException iae) {
+                    // the whole world spans too many tiles at the deepest levels
+                    continue;
+                }
+                TilePyramid.TileCounter counter = new TilePyramid.TileCounter(range);
+                for (int i = 1; i < points.length; i += 2) {
+                    counter.add(points[i][0], points[i][1]);
+                }
+                assertEquals(describe(counter.tiles()), describe(pyramid.tiles(range)));
+            }
+        }
+    }
+
+    @Test
+    public void testRange_CrossesAntimeridian() {
+        TilePyramid pyramid = new TilePyramid();
+        pyramid.add(179.5, 0);
+        pyramid.add(-179.5, 0);
+        pyramid.add(0, 0);
+
+        TilePyramid.TileRange range = TilePyramid.TileRange.of(170, -10, -170, 10, 4);
+        assertTrue(range.wraps);
+        assertEquals(4, range.tileCount());
+        assertEquals(Arrays.asList("0/8=1", "15/8=1"), describe(pyramid.tiles(range)));
+        assertTrue(range.west() > range.east());
+    }
+
+    @Test
+    public void testRange_EdgesHoldItsTiles() {
+        Random random = new Random(9);
+        for (int i = 0; i < 1000; i++) {
+            int zoom = 10 + random.nextInt(8);
+            double lon = random.nextDouble() * 360 - 180;
+            double lat = random.nextDouble() * 170 - 85;
+            TilePyramid.TileRange range = TilePyramid.TileRange.of(lon, lat, lon, lat, zoom);
+            assertEquals(1, range.tileCount());
+            assertTrue(range.west() <= lon && lon <= range.east());
+            assertTrue(range.south() <= lat && lat <= range.north());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRange_TooManyTiles() {
+        TilePyramid.TileRange.of(-180, -90, 180, 90, 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRange_InvalidZoom() {
+        TilePyramid.TileRange.of(-1, -1, 1, 1, TilePyramid.MAX_ZOOM + 1);
+    }
+}
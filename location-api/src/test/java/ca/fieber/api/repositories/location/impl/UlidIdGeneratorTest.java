@@ -0,0 +1,61 @@
+package ca.fieber.api.repositories.location.impl;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * UlidIdGeneratorTest.
+ *
+ * @author cfieber
+ */
+public class UlidIdGeneratorTest {
+
+    @Test
+    public void testEncode() {
+        assertEquals("00000000000000000000000000", UlidIdGenerator.encode(0, 0));
+        assertEquals("0000000000000000000000000Z", UlidIdGenerator.encode(0, 31));
+        assertEquals("0000000000000G000000000000", UlidIdGenerator.encode(1, 0));
+        assertEquals("7ZZZZZZZZZZZZZZZZZZZZZZZZZ", UlidIdGenerator.encode(-1, -1));
+    }
+
+    @Test
+    public void testIdsAreOrdered() {
+        UlidIdGenerator generator = new UlidIdGenerator();
+        String previous = generator.nextId();
+        for (int i = 0; i < 100000; i++) {
+            String id = generator.nextId();
+            assertEquals(UlidIdGenerator.LENGTH, id.length());
+            assertTrue(previous + " >= " + id, previous.compareTo(id) < 0);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void testConcurrentIdsAreUnique() throws Exception {
+        final UlidIdGenerator generator = new UlidIdGenerator();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    List<String> ids = new ArrayList<String>();
+                    for (int j = 0; j < 10000; j++) {
+                        ids.add(generator.nextId());
+                    }
+                    return ids;
+                }
+            }));
+        }
+        Set<String> ids = new HashSet<String>();
+        for (Future<List<String>> future : futures) {
+            ids.addAll(future.get());
+        }
+        executor.shutdown();
+        assertEquals(80000, ids.size());
+    }
+}
@@ -0,0 +1,208 @@
+package ca.fieber.api.resources.location;
+
+import ca.fieber.api.module.LocationApiModule;
+import ca.fieber.api.module.LocationStorage;
+import ca.fieber.api.repositories.location.AsyncLocationRepository;
+import ca.fieber.api.repositories.location.LocationChanges;
+import ca.fieber.api.repositories.location.LocationRepository;
+import ca.fieber.api.repositories.location.RepositoryFuture;
+import ca.fieber.api.repositories.location.impl.ForwardingLocationRepository;
+import ca.fieber.api.repositories.location.impl.InMemoryLocationRepository;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.testing.JettyGuiceTestContainer;
+import com.google.inject.AbstractModule;
+import com.google.inject.Singleton;
+import com.google.inject.util.Modules;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * AsyncLocationResourceTest, for requests suspended while a slow repository is called on other threads.
+ *
+ * @author cfieber
+ */
+public class AsyncLocationResourceTest {
+
+    /**
+     * An in memory repository that takes a while to answer lookups by id.
+     */
+    @Singleton
+    public static class SlowRepository extends ForwardingLocationRepository {
+        private final InMemoryLocationRepository delegate = new InMemoryLocationRepository();
+
+        @Override
+        protected LocationRepository delegate() {
+            return delegate;
+        }
+
+        @Override
+        public Location get(String id) throws NoSuchElementException {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return super.get(id);
+        }
+    }
+
+    private static JettyGuiceTestContainer container;
+
+    @BeforeClass
+    public static void createTestContainer() throws Exception {
+        LocationApiModule api = new LocationApiModule(LocationStorage.IN_MEMORY, Collections.singletonMap("location.async-threads", "4"));
+        container = new JettyGuiceTestContainer(Collections.singleton(Modules.override(api).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(LocationRepository.class).to(SlowRepository.class);
+            }
+        })));
+        container.start();
+    }
+
+    @AfterClass
+    public static void shutdownContainer() throws Exception {
+        container.stop();
+    }
+
+    @Test
+    public void testGetLocation() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        String id = repository.create(new Location("slow", 1, 2)).getId();
+
+        HttpResponse httpResponse = container.execute(new HttpGet("/location/" + id));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertEquals(ContentType.APPLICATION_JSON.getMimeType(), ContentType.get(httpResponse.getEntity()).getMimeType());
+        assertTrue(EntityUtils.toString(httpResponse.getEntity()).contains(id));
+
+        httpResponse = container.execute(new HttpGet("/location/DoesNotExist"));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+    }
+
+    @Test
+    public void testConcurrentGets() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        List<String> ids = new ArrayList<String>();
+        List<Future<HttpResponse>> responses = new ArrayList<Future<HttpResponse>>();
+        for (int i = 0; i < 20; i++) {
+            String id = repository.create(new Location("concurrent" + i, 0, 0)).getId();
+            ids.add(id);
+            responses.add(container.executeAsync(new HttpGet("/location/" + id)));
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            HttpResponse httpResponse = responses.get(i).get();
+            assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+            assertTrue(EntityUtils.toString(httpResponse.getEntity()).contains(ids.get(i)));
+        }
+    }
+
+    @Test
+    public void testConditionalUpdateAndDelete() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        Location created = repository.create(new Location("if-match", 0, 0));
+        String body = "<location id=\"" + created.getId() + "\"><name>matched</name><longitude>1</longitude><latitude>2</latitude></location>";
+
+        HttpPut stale = new HttpPut("/location/" + created.getId());
+        stale.setEntity(new ByteArrayEntity(body.getBytes("UTF-8"), ContentType.APPLICATION_XML));
+        stale.addHeader("If-Match", "\"" + (created.getVersion() + 1) + "\"");
+        HttpResponse httpResponse = container.execute(stale);
+        assertEquals(HttpURLConnection.HTTP_PRECON_FAILED, httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+
+        HttpPut current = new HttpPut("/location/" + created.getId());
+        current.setEntity(new ByteArrayEntity(body.getBytes("UTF-8"), ContentType.APPLICATION_XML));
+        current.addHeader("If-Match", "\"" + created.getVersion() + "\"");
+        current.addHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+        httpResponse = container.execute(current);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertEquals("\"" + (created.getVersion() + 1) + "-xml\"", httpResponse.getFirstHeader("ETag").getValue());
+        assertTrue(EntityUtils.toString(httpResponse.getEntity()).contains("matched"));
+
+        HttpDelete delete = new HttpDelete("/location/" + created.getId());
+        delete.addHeader("If-Match", "\"" + (created.getVersion() + 1) + "\"");
+        httpResponse = container.execute(delete);
+        assertEquals(HttpURLConnection.HTTP_NO_CONTENT, httpResponse.getStatusLine().getStatusCode());
+        httpResponse = container.execute(new HttpDelete("/location/" + created.getId()));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+    }
+
+    @Test
+    public void testCreateLocation() throws Exception {
+        HttpPost create = new HttpPost("/location");
+        create.setEntity(new ByteArrayEntity("<location><name>created</name><longitude>1</longitude><latitude>2</latitude></location>".getBytes("UTF-8"), ContentType.APPLICATION_XML));
+        HttpResponse httpResponse = container.execute(create);
+        assertEquals(HttpURLConnection.HTTP_CREATED, httpResponse.getStatusLine().getStatusCode());
+        assertTrue(httpResponse.getFirstHeader("Location").getValue().contains("/location/"));
+        EntityUtils.consume(httpResponse.getEntity());
+    }
+
+    @Test
+    public void testLongPollIsAnsweredByCreate() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        Future<HttpResponse> poll = container.executeAsync(new HttpGet("/location/changes?since=" + repository.latestSequence() + "&wait=10"));
+        Thread.sleep(100);
+        assertFalse(poll.isDone());
+
+        String id = repository.create(new Location("polled", 0, 0)).getId();
+        HttpResponse httpResponse = poll.get();
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertTrue(EntityUtils.toString(httpResponse.getEntity()).contains(id));
+    }
+
+    @Test
+    public void testLongPollsHoldNoThread() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        AsyncLocationRepository asyncRepository = container.getInjector().getInstance(AsyncLocationRepository.class);
+        String id = repository.create(new Location("unblocked", 0, 0)).getId();
+        long since = repository.latestSequence();
+
+        // more polls than the 4 async threads
+        List<RepositoryFuture<LocationChanges>> polls = new ArrayList<RepositoryFuture<LocationChanges>>();
+        for (int i = 0; i < 8; i++) {
+            polls.add(asyncRepository.changesSince(since, 10, TimeUnit.SECONDS.toMillis(30)));
+        }
+        assertEquals("unblocked", asyncRepository.get(id).get(5, TimeUnit.SECONDS).getName());
+        for (RepositoryFuture<LocationChanges> poll : polls) {
+            assertFalse(poll.isDone());
+        }
+
+        repository.remove(id, repository.get(id).getVersion());
+        for (RepositoryFuture<LocationChanges> poll : polls) {
+            LocationChanges changes = poll.get(5, TimeUnit.SECONDS);
+            assertEquals(1, changes.getChanges().size());
+            assertEquals(id, changes.getChanges().get(0).getId());
+        }
+
+        // a poll that times out is answered with no changes
+        LocationChanges changes = asyncRepository.changesSince(repository.latestSequence(), 10, 50).get(5, TimeUnit.SECONDS);
+        assertTrue(changes.getChanges().isEmpty());
+    }
+
+    @Test
+    public void testResumePathIsNotPublic() throws Exception {
+        HttpResponse httpResponse = container.execute(new HttpGet(AsyncResponses.RESUME_PATH));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+    }
+}
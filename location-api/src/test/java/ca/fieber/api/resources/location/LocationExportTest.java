@@ -0,0 +1,97 @@
+package ca.fieber.api.resources.location;
+
+import ca.fieber.api.repositories.location.impl.InMemoryLocationRepository;
+import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationList;
+import com.sun.jersey.api.json.JSONConfiguration;
+import com.sun.jersey.api.json.JSONJAXBContext;
+import com.yammer.metrics.Metrics;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * LocationExportTest.
+ *
+ * @author cfieber
+ */
+public class LocationExportTest {
+
+    private static final double DELTA = 0.0001d;
+
+    private InMemoryLocationRepository repo;
+    private JAXBContext context;
+    private List<String> ids;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new InMemoryLocationRepository();
+        context = new JSONJAXBContext(JSONConfiguration.natural().build(), Location.class, LocationList.class);
+        ids = new ArrayList<String>();
+        for (int i = 0; i < LocationExport.CHUNK_SIZE * 2 + 5; i++) {
+            ids.add(repo.create(new Location("loc \"" + i + "\" <&>", i % 180, i % 90)).getId());
+        }
+        Collections.sort(ids);
+    }
+
+    @Test
+    public void testWriteJson() throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(export(true)), "UTF-8"));
+        ObjectMapper mapper = new ObjectMapper();
+        List<String> exported = new ArrayList<String>();
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            Map<?, ?> location = mapper.readValue(line, Map.class);
+            exported.add((String) location.get("id"));
+            if (exported.size() == 1) {
+                Location first = repo.get(ids.get(0));
+                assertEquals(first.getName(), location.get("name"));
+                assertEquals(first.getLongitude(), ((Number) location.get("longitude")).doubleValue(), DELTA);
+            }
+        }
+        assertEquals(ids, exported);
+    }
+
+    @Test
+    public void testWriteXml() throws Exception {
+        Element list = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(export(false))).getDocumentElement();
+        assertEquals("location-list", list.getTagName());
+        NodeList locations = list.getElementsByTagName("location");
+        List<String> exported = new ArrayList<String>();
+        for (int i = 0; i < locations.getLength(); i++) {
+            exported.add(((Element) locations.item(i)).getAttribute("id"));
+        }
+        assertEquals(ids, exported);
+        assertEquals(repo.get(ids.get(0)).getName(),
+                ((Element) locations.item(0)).getElementsByTagName("name").item(0).getTextContent());
+    }
+
+    @Test
+    public void testWrite_Empty() throws Exception {
+        repo = new InMemoryLocationRepository();
+        assertEquals(0, export(true).length);
+        Element list = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(export(false))).getDocumentElement();
+        assertEquals(0, list.getElementsByTagName("location").getLength());
+    }
+
+    private byte[] export(boolean json) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new LocationExport(repo, context, json, Metrics.newTimer(LocationExportTest.class, "export", TimeUnit.NANOSECONDS, TimeUnit.SECONDS))
+                .write(output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,97 @@
+package ca.fieber.api.resources.location;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * LocationRepresentationCacheTest.
+ *
+ * @author cfieber
+ */
+public class LocationRepresentationCacheTest {
+
+    private static final String JSON = "application/json";
+    private static final String XML = "application/xml";
+
+    @Test
+    public void testGet_ByVersionAndMediaType() {
+        LocationRepresentationCache cache = new LocationRepresentationCache(1024 * 1024);
+        assertTrue(cache.isEnabled());
+        byte[] json = {1, 2, 3};
+        byte[] xml = {4, 5};
+        cache.put("a", 1, JSON, json);
+        cache.put("a", 1, XML, xml);
+        assertSame(json, cache.get("a", 1, JSON));
+        assertSame(xml, cache.get("a", 1, XML));
+        assertNull(cache.get("a", 2, JSON));
+        assertNull(cache.get("b", 1, JSON));
+        assertNull(cache.get("a", 1, "application/x-protobuf"));
+        assertEquals(5, cache.bytes());
+    }
+
+    @Test
+    public void testPut_NewerVersionReplaces() {
+        LocationRepresentationCache cache = new LocationRepresentationCache(1024 * 1024);
+        cache.put("a", 1, JSON, new byte[10]);
+        cache.put("a", 1, XML, new byte[10]);
+        cache.put("a", 2, JSON, new byte[3]);
+        assertNull(cache.get("a", 1, JSON));
+        assertNull(cache.get("a", 1, XML));
+        assertEquals(3, cache.get("a", 2, JSON).length);
+        assertEquals(3, cache.bytes());
+
+        // a representation of an older version, read before the update, does not replace the newer one
+        cache.put("a", 1, XML, new byte[10]);
+        assertNull(cache.get("a", 1, XML));
+        assertEquals(3, cache.get("a", 2, JSON).length);
+        assertEquals(3, cache.bytes());
+    }
+
+    @Test
+    public void testInvalidate() {
+        LocationRepresentationCache cache = new LocationRepresentationCache(1024 * 1024);
+        cache.put("a", 1, JSON, new byte[10]);
+        cache.put("b", 1, JSON, new byte[20]);
+        cache.invalidate("a");
+        cache.invalidate("missing");
+        cache.invalidate(null);
+        assertNull(cache.get("a", 1, JSON));
+        assertNotNull(cache.get("b", 1, JSON));
+        assertEquals(20, cache.bytes());
+    }
+
+    @Test
+    public void testPut_EvictsLeastRecentlyUsed() {
+        // a single segment of 1000 bytes
+        LocationRepresentationCache cache = new LocationRepresentationCache(1000);
+        for (int i = 0; i < 4; i++) {
+            cache.put("id" + i, 1, JSON, new byte[200]);
+        }
+        assertNotNull(cache.get("id0", 1, JSON));
+        cache.put("id4", 1, JSON, new byte[200]);
+        cache.put("id5", 1, JSON, new byte[200]);
+        assertEquals(1000, cache.bytes());
+        assertNotNull(cache.get("id0", 1, JSON));
+        assertNull(cache.get("id1", 1, JSON));
+        assertNotNull(cache.get("id5", 1, JSON));
+
+        // representations larger than a quarter of a segment are not cached
+        cache.put("large", 1, JSON, new byte[251]);
+        assertNull(cache.get("large", 1, JSON));
+        assertEquals(1000, cache.bytes());
+    }
+
+    @Test
+    public void testDisabled() {
+        LocationRepresentationCache cache = new LocationRepresentationCache(0);
+        assertFalse(cache.isEnabled());
+        cache.invalidate("a");
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new LocationRepresentationCache(-1);
+    }
+}
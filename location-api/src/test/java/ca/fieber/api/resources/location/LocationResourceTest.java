@@ -1,9 +1,15 @@
 package ca.fieber.api.resources.location;
 
 import ca.fieber.api.module.LocationApiModule;
+import ca.fieber.api.providers.LocationListProtobufProvider;
+import ca.fieber.api.providers.LocationProtobufProvider;
+import ca.fieber.api.providers.ProtobufRepresentations;
 import ca.fieber.api.repositories.location.LocationRepository;
 import ca.fieber.api.representations.location.Location;
+import ca.fieber.api.representations.location.LocationList;
 import ca.fieber.testing.JettyGuiceTestContainer;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.CounterMetric;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpDelete;
@@ -18,12 +24,25 @@ import org.codehaus.jackson.type.TypeReference;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
+import javax.xml.parsers.DocumentBuilder;
+import javax.ws.rs.core.MediaType;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -33,6 +52,8 @@ import static org.junit.Assert.*;
  * @author cfieber
  */
 public class LocationResourceTest {
+
+    private static final MediaType PROTOBUF = MediaType.valueOf(ProtobufRepresentations.APPLICATION_PROTOBUF);
     
     private static JettyGuiceTestContainer container;
     
@@ -145,4 +166,550 @@ public class LocationResourceTest {
         HttpResponse httpResponse = container.execute(updateRequest);
         assertEquals(HttpURLConnection.HTTP_NOT_FOUND, httpResponse.getStatusLine().getStatusCode());
     }
+
+    @Test
+    public void testListLocations_FollowsCursor() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        for (int i = 0; i < 25; i++) {
+            repository.create(new Location("paged" + i, 0, 0));
+        }
+
+        Set<String> seen = new HashSet<String>();
+        String next = "/location";
+        String lastId = "";
+        while (next != null) {
+            HttpResponse httpResponse = container.execute(xmlGet(next));
+            assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+            Element list = parseXml(httpResponse);
+            for (String id : locationIds(list)) {
+                assertTrue(id.compareTo(lastId) > 0);
+                assertTrue(seen.add(id));
+                lastId = id;
+            }
+            next = list.hasAttribute("next-page") ? list.getAttribute("next-page") : null;
+            if (next != null) {
+                assertTrue(next.contains("cursor="));
+                assertFalse(next.contains("start-index="));
+            }
+        }
+        assertTrue(seen.size() >= 25);
+    }
+
+    @Test
+    public void testListLocations_PagesOneSnapshot() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        for (int i = 0; i < 25; i++) {
+            repository.create(new Location("snapshot" + i, 0, 0));
+        }
+
+        HttpResponse httpResponse = container.execute(xmlGet("/location"));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        Element list = parseXml(httpResponse);
+        String next = list.getAttribute("next-page");
+        assertTrue(next.contains("snapshot="));
+        int total = locationIds(list).size();
+
+        // created after the first page, so not in the snapshot but last in id order
+        String later = repository.create(new Location("later", 0, 0)).getId();
+        Set<String> seen = new HashSet<String>();
+        while (next != null) {
+            list = parseXml(container.execute(xmlGet(next)));
+            seen.addAll(locationIds(list));
+            next = list.hasAttribute("next-page") ? list.getAttribute("next-page") : null;
+        }
+        assertFalse(seen.contains(later));
+        assertEquals(repository.list(0, Integer.MAX_VALUE).size() - 1, total + seen.size());
+    }
+
+    @Test
+    public void testListLocations_InvalidCursor() throws Exception {
+        HttpResponse httpResponse = container.execute(new HttpGet("/location?cursor=" + "%3D%3D"));
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, httpResponse.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testListLocations_Fields() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        for (int i = 0; i < 11; i++) {
+            repository.create(new Location("fields" + i, i, -i));
+        }
+
+        HttpResponse httpResponse = container.execute(new HttpGet("/location?fields=latitude,id"));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        Map<String, ?> response = new ObjectMapper().readValue(EntityUtils.toString(httpResponse.getEntity()), new TypeReference<Map<String, ?>>() {});
+        String next = (String) response.get("next-page");
+        assertTrue(next.contains("fields=id,latitude"));
+        assertTrue(next.contains("snapshot="));
+
+        // every field projected renders the same bytes as no projection
+        String snapshot = next.substring(next.indexOf("snapshot=")).replace("&fields=id,latitude", "");
+        for (String mediaType : Arrays.asList(ContentType.APPLICATION_JSON.getMimeType(), ContentType.APPLICATION_XML.getMimeType())) {
+            HttpGet plain = new HttpGet("/location?" + snapshot);
+            plain.addHeader("Accept", mediaType);
+            HttpGet projected = new HttpGet("/location?" + snapshot + "&fields=name,id,longitude,latitude");
+            projected.addHeader("Accept", mediaType);
+            String expected = EntityUtils.toString(container.execute(plain).getEntity());
+            String actual = EntityUtils.toString(container.execute(projected).getEntity());
+            assertEquals(expected, actual.replaceAll("&(amp;)?fields=id,name,longitude,latitude", ""));
+        }
+
+        Element list = parseXml(container.execute(xmlGet(next)));
+        NodeList locations = list.getElementsByTagName("location");
+        assertTrue(locations.getLength() > 0);
+        for (int i = 0; i < locations.getLength(); i++) {
+            Element location = (Element) locations.item(i);
+            assertTrue(location.hasAttribute("id"));
+            assertEquals(0, location.getElementsByTagName("name").getLength());
+            assertEquals(0, location.getElementsByTagName("longitude").getLength());
+            assertEquals(1, location.getElementsByTagName("latitude").getLength());
+        }
+    }
+
+    @Test
+    public void testGetLocation_Fields() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        Location created = repository.create(new Location("Caf\u00e9 \"fields\" <&>\r\n\t'/", -123.5, 49.25));
+
+        HttpResponse httpResponse = container.execute(new HttpGet("/location/" + created.getId() + "?fields=id,longitude"));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertEquals("\"" + created.getVersion() + "-json-id.longitude\"", httpResponse.getFirstHeader("ETag").getValue());
+        assertEquals("Accept", httpResponse.getFirstHeader("Vary").getValue());
+        assertEquals("{\"id\":\"" + created.getId() + "\",\"longitude\":-123.5}", EntityUtils.toString(httpResponse.getEntity()));
+
+        for (String mediaType : Arrays.asList(ContentType.APPLICATION_JSON.getMimeType(), ContentType.APPLICATION_XML.getMimeType())) {
+            HttpGet plain = new HttpGet("/location/" + created.getId());
+            plain.addHeader("Accept", mediaType);
+            HttpGet projected = new HttpGet("/location/" + created.getId() + "?fields=id,name,longitude,latitude");
+            projected.addHeader("Accept", mediaType);
+            assertEquals(EntityUtils.toString(container.execute(plain).getEntity(), "UTF-8"),
+                    EntityUtils.toString(container.execute(projected).getEntity(), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testGetLocation_CachedRepresentation() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        Location created = repository.create(new Location("Caf\u00e9 \"cached\" <&>", -123.5, 49.25));
+        CounterMetric hits = Metrics.newCounter(LocationRepresentationCache.class, "cache-hit");
+
+        for (MediaType mediaType : Arrays.asList(MediaType.APPLICATION_JSON_TYPE, MediaType.APPLICATION_XML_TYPE, PROTOBUF)) {
+            byte[] first = getBytes("/location/" + created.getId(), mediaType.toString());
+            long hitCount = hits.count();
+            HttpGet get = new HttpGet("/location/" + created.getId());
+            get.addHeader("Accept", mediaType.toString());
+            HttpResponse httpResponse = container.execute(get);
+            assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+            assertEquals("\"" + created.getVersion() + "-" + mediaType.getSubtype() + "\"", httpResponse.getFirstHeader("ETag").getValue());
+            assertEquals(mediaType.toString(), ContentType.get(httpResponse.getEntity()).getMimeType());
+            byte[] second = EntityUtils.toByteArray(httpResponse.getEntity());
+            assertEquals(String.valueOf(second.length), httpResponse.getFirstHeader("Content-Length").getValue());
+            assertArrayEquals(first, second);
+            assertEquals(hitCount + 1, hits.count());
+        }
+
+        HttpPut update = new HttpPut("/location/" + created.getId());
+        update.setEntity(new ByteArrayEntity(("{\"id\":\"" + created.getId() + "\",\"name\":\"updated\",\"longitude\":1,\"latitude\":2}").getBytes("UTF-8"),
+                ContentType.APPLICATION_JSON));
+        EntityUtils.consume(container.execute(update).getEntity());
+        String updated = new String(getBytes("/location/" + created.getId(), MediaType.APPLICATION_JSON), "UTF-8");
+        assertTrue(updated, updated.contains("\"name\":\"updated\""));
+
+        // a write that bypasses the resource gives the Location a new version, which is not cached
+        repository.update(new Location(created.getId(), "bypassed", 1, 2));
+        String bypassed = new String(getBytes("/location/" + created.getId(), MediaType.APPLICATION_JSON), "UTF-8");
+        assertTrue(bypassed, bypassed.contains("\"name\":\"bypassed\""));
+
+        EntityUtils.consume(container.execute(new HttpDelete("/location/" + created.getId())).getEntity());
+        HttpResponse httpResponse = container.execute(new HttpGet("/location/" + created.getId()));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+    }
+
+    @Test
+    public void testGetLocation_UnknownField() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        String id = repository.create(new Location("unknown", 0, 0)).getId();
+
+        HttpResponse httpResponse = container.execute(new HttpGet("/location/" + id + "?fields=id,version"));
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+
+        httpResponse = container.execute(new HttpGet("/location?fields=,"));
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+    }
+
+    @Test
+    public void testLocations_Protobuf() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        for (int i = 0; i < 11; i++) {
+            repository.create(new Location("protobuf" + i, i, -i));
+        }
+        LocationProtobufProvider locationProvider = new LocationProtobufProvider();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        locationProvider.writeTo(new Location("binary", 1.5, -2.5), Location.class, Location.class, null, PROTOBUF, null, body);
+
+        HttpPost create = new HttpPost("/location");
+        create.setEntity(new ByteArrayEntity(body.toByteArray(), ContentType.parse(ProtobufRepresentations.APPLICATION_PROTOBUF)));
+        create.addHeader("Accept", ProtobufRepresentations.APPLICATION_PROTOBUF);
+        HttpResponse httpResponse = container.execute(create);
+        assertEquals(HttpURLConnection.HTTP_CREATED, httpResponse.getStatusLine().getStatusCode());
+        assertEquals(ProtobufRepresentations.APPLICATION_PROTOBUF, ContentType.get(httpResponse.getEntity()).getMimeType());
+        Location created = locationProvider.readFrom(Location.class, Location.class, null, PROTOBUF, null, httpResponse.getEntity().getContent());
+        assertEquals("binary", repository.get(created.getId()).getName());
+
+        HttpGet get = new HttpGet("/location/" + created.getId());
+        get.addHeader("Accept", ProtobufRepresentations.APPLICATION_PROTOBUF);
+        httpResponse = container.execute(get);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        Location read = locationProvider.readFrom(Location.class, Location.class, null, PROTOBUF, null, httpResponse.getEntity().getContent());
+        assertEquals(created.getId(), read.getId());
+        assertEquals(-2.5d, read.getLatitude(), 0);
+
+        HttpGet list = new HttpGet("/location?fields=id");
+        list.addHeader("Accept", ProtobufRepresentations.APPLICATION_PROTOBUF);
+        httpResponse = container.execute(list);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        LocationList page = new LocationListProtobufProvider().readFrom(LocationList.class, LocationList.class, null, PROTOBUF, null,
+                httpResponse.getEntity().getContent());
+        assertEquals(10, page.getLocations().size());
+        assertNotNull(page.getLocations().get(0).getId());
+        assertNull(page.getLocations().get(0).getName());
+        assertTrue(page.getNextPage().toString().contains("fields=id"));
+
+        HttpGet missing = new HttpGet("/location/DoesNotExist");
+        missing.addHeader("Accept", ProtobufRepresentations.APPLICATION_PROTOBUF);
+        httpResponse = container.execute(missing);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, httpResponse.getStatusLine().getStatusCode());
+        assertEquals(ProtobufRepresentations.APPLICATION_PROTOBUF, ContentType.get(httpResponse.getEntity()).getMimeType());
+        EntityUtils.consume(httpResponse.getEntity());
+    }
+
+    @Test
+    public void testFindNearest() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        String id = repository.create(new Location("nearest", 151.2093, -33.8688)).getId();
+
+        HttpResponse httpResponse = container.execute(xmlGet("/location/nearest?longitude=151.21&latitude=-33.87&count=1"));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertEquals(Collections.singletonList(id), locationIds(parseXml(httpResponse)));
+    }
+
+    @Test
+    public void testFindNearest_MissingParameter() throws Exception {
+        HttpResponse httpResponse = container.execute(new HttpGet("/location/nearest?longitude=151.21"));
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, httpResponse.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testFindWithin() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        String id = repository.create(new Location("within", -0.1276, 51.5072)).getId();
+
+        HttpResponse httpResponse = container.execute(xmlGet(
+                "/location/within?min-longitude=-0.2&min-latitude=51.4&max-longitude=0&max-latitude=51.6"));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertEquals(Collections.singletonList(id), locationIds(parseXml(httpResponse)));
+    }
+
+    @Test
+    public void testCountTiles() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        repository.create(new Location("tile", -150.51, -60.51));
+        repository.create(new Location("tile", -150.52, -60.52));
+
+        HttpResponse httpResponse = container.execute(xmlGet(
+                "/location/tiles?min-longitude=-151&min-latitude=-61&max-longitude=-150&max-latitude=-60&zoom=10"));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        Element tileList = parseXml(httpResponse);
+        assertEquals("10", tileList.getAttribute("zoom"));
+        NodeList tiles = tileList.getElementsByTagName("tile");
+        assertEquals(1, tiles.getLength());
+        assertEquals("2", ((Element) tiles.item(0)).getAttribute("count"));
+    }
+
+    @Test
+    public void testCountTiles_InvalidRequest() throws Exception {
+        HttpResponse httpResponse = container.execute(new HttpGet(
+                "/location/tiles?min-longitude=-180&min-latitude=-85&max-longitude=180&max-latitude=85&zoom=12"));
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, httpResponse.getStatusLine().getStatusCode());
+        httpResponse = container.execute(new HttpGet("/location/tiles?min-longitude=-1&min-latitude=-1&max-longitude=1&max-latitude=1"));
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, httpResponse.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testSearchLocations() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        List<String> expected = new ArrayList<String>();
+        expected.add(repository.create(new Location("Searchable", 0, 0)).getId());
+        for (int i = 0; i < 12; i++) {
+            expected.add(repository.create(new Location("Searchable Place " + (char) ('a' + i), 0, 0)).getId());
+        }
+        expected.add(repository.create(new Location("Not Searchable", 0, 0)).getId());
+
+        List<String> found = new ArrayList<String>();
+        String next = "/location/search?q=searchable";
+        while (next != null) {
+            HttpResponse httpResponse = container.execute(xmlGet(next));
+            assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+            Element list = parseXml(httpResponse);
+            found.addAll(locationIds(list));
+            next = list.hasAttribute("next-page") ? list.getAttribute("next-page") : null;
+        }
+        assertEquals(expected, found);
+    }
+
+    @Test
+    public void testSearchLocations_MissingQuery() throws Exception {
+        HttpResponse httpResponse = container.execute(new HttpGet("/location/search"));
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, httpResponse.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testApplyBatch() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        String updated = repository.create(new Location("batch update", 0, 0)).getId();
+        String deleted = repository.create(new Location("batch delete", 0, 0)).getId();
+
+        HttpPost post = new HttpPost("/location/batch");
+        post.setEntity(new ByteArrayEntity(("{\"operations\":{\"operation\":["
+                + "{\"type\":\"create\",\"location\":{\"name\":\"batch create\",\"longitude\":1,\"latitude\":2}},"
+                + "{\"type\":\"update\",\"location\":{\"id\":\"" + updated + "\",\"name\":\"batch updated\",\"longitude\":3,\"latitude\":4}},"
+                + "{\"type\":\"delete\",\"id\":\"" + deleted + "\"},"
+                + "{\"type\":\"delete\",\"id\":\"" + deleted + "\"},"
+                + "{\"type\":\"create\"}"
+                + "]}}").getBytes("UTF-8"), ContentType.APPLICATION_JSON));
+        post.addHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+        HttpResponse httpResponse = container.execute(post);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+
+        NodeList results = parseXml(httpResponse).getElementsByTagName("result");
+        assertEquals(5, results.getLength());
+        assertEquals("201", ((Element) results.item(0)).getAttribute("status"));
+        assertEquals("200", ((Element) results.item(1)).getAttribute("status"));
+        assertEquals("204", ((Element) results.item(2)).getAttribute("status"));
+        assertEquals("404", ((Element) results.item(3)).getAttribute("status"));
+        assertEquals("400", ((Element) results.item(4)).getAttribute("status"));
+
+        String created = locationIds((Element) results.item(0)).get(0);
+        assertEquals("batch create", repository.get(created).getName());
+        assertEquals("batch updated", repository.get(updated).getName());
+        try {
+            repository.get(deleted);
+            fail("deleted location still exists");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    @Test
+    public void testGetLocation_NotModified() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        Location created = repository.create(new Location("etag", 0, 0));
+
+        HttpResponse httpResponse = container.execute(new HttpGet("/location/" + created.getId()));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        String etag = httpResponse.getFirstHeader("ETag").getValue();
+        EntityUtils.consume(httpResponse.getEntity());
+
+        HttpGet conditional = new HttpGet("/location/" + created.getId());
+        conditional.addHeader("If-None-Match", etag);
+        httpResponse = container.execute(conditional);
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, httpResponse.getStatusLine().getStatusCode());
+        assertEquals(etag, httpResponse.getFirstHeader("ETag").getValue());
+        assertEquals("Accept", httpResponse.getFirstHeader("Vary").getValue());
+
+        // other representations of the same version have ETags of their own
+        HttpGet xml = new HttpGet("/location/" + created.getId());
+        xml.addHeader("If-None-Match", etag);
+        xml.addHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+        httpResponse = container.execute(xml);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertFalse(etag.equals(httpResponse.getFirstHeader("ETag").getValue()));
+        EntityUtils.consume(httpResponse.getEntity());
+        HttpGet projected = new HttpGet("/location/" + created.getId() + "?fields=name");
+        projected.addHeader("If-None-Match", etag);
+        httpResponse = container.execute(projected);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertFalse(etag.equals(httpResponse.getFirstHeader("ETag").getValue()));
+        EntityUtils.consume(httpResponse.getEntity());
+
+        repository.update(new Location(created.getId(), "changed", 0, 0));
+        httpResponse = container.execute(conditional);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertFalse(etag.equals(httpResponse.getFirstHeader("ETag").getValue()));
+        EntityUtils.consume(httpResponse.getEntity());
+    }
+
+    @Test
+    public void testUpdateLocation_IfMatch() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        Location created = repository.create(new Location("if-match", 0, 0));
+        String body = "<location id=\"" + created.getId() + "\"><name>matched</name><longitude>1</longitude><latitude>2</latitude></location>";
+
+        HttpPut stale = new HttpPut("/location/" + created.getId());
+        stale.setEntity(new ByteArrayEntity(body.getBytes("UTF-8"), ContentType.APPLICATION_XML));
+        stale.addHeader("If-Match", "\"" + (created.getVersion() + 1) + "\"");
+        HttpResponse httpResponse = container.execute(stale);
+        assertEquals(HttpURLConnection.HTTP_PRECON_FAILED, httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+        assertEquals("if-match", repository.get(created.getId()).getName());
+
+        // the ETag of any representation of the current version matches
+        httpResponse = container.execute(new HttpGet("/location/" + created.getId() + "?fields=id"));
+        String etag = httpResponse.getFirstHeader("ETag").getValue();
+        EntityUtils.consume(httpResponse.getEntity());
+        HttpPut current = new HttpPut("/location/" + created.getId());
+        current.setEntity(new ByteArrayEntity(body.getBytes("UTF-8"), ContentType.APPLICATION_XML));
+        current.addHeader("If-Match", etag);
+        current.addHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+        httpResponse = container.execute(current);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertEquals("\"" + (created.getVersion() + 1) + "-xml\"", httpResponse.getFirstHeader("ETag").getValue());
+        EntityUtils.consume(httpResponse.getEntity());
+        assertEquals("matched", repository.get(created.getId()).getName());
+    }
+
+    @Test
+    public void testDeleteLocation_IfMatch() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        Location created = repository.create(new Location("if-match delete", 0, 0));
+        repository.update(new Location(created.getId(), "changed", 0, 0));
+
+        HttpDelete stale = new HttpDelete("/location/" + created.getId());
+        stale.addHeader("If-Match", "\"" + created.getVersion() + "\"");
+        HttpResponse httpResponse = container.execute(stale);
+        assertEquals(HttpURLConnection.HTTP_PRECON_FAILED, httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+
+        HttpDelete current = new HttpDelete("/location/" + created.getId());
+        current.addHeader("If-Match", "\"" + (created.getVersion() + 1) + "\"");
+        httpResponse = container.execute(current);
+        assertEquals(HttpURLConnection.HTTP_NO_CONTENT, httpResponse.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testGetChanges() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        HttpResponse httpResponse = container.execute(xmlGet("/location/changes"));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        Element events = parseXml(httpResponse);
+        assertEquals(0, events.getElementsByTagName("event").getLength());
+        String next = events.getAttribute("next-page");
+
+        Location created = repository.create(new Location("followed", 0, 0));
+        repository.remove(created.getId());
+
+        httpResponse = container.execute(xmlGet(next + "&wait=1"));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        events = parseXml(httpResponse);
+        assertEquals("false", events.getAttribute("truncated"));
+        NodeList eventList = events.getElementsByTagName("event");
+        assertEquals(2, eventList.getLength());
+        assertEquals("create", ((Element) eventList.item(0)).getAttribute("type"));
+        assertEquals(Collections.singletonList(created.getId()), locationIds(events));
+        assertEquals("delete", ((Element) eventList.item(1)).getAttribute("type"));
+        assertEquals(created.getId(), ((Element) eventList.item(1)).getAttribute("id"));
+
+        httpResponse = container.execute(xmlGet("/location/changes?since=0"));
+        assertEquals("true", parseXml(httpResponse).getAttribute("truncated"));
+    }
+
+    @Test
+    public void testExportLocations() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        Location created = repository.create(new Location("exported", 0, 0));
+
+        HttpGet get = new HttpGet("/location/export");
+        get.addHeader("Accept", LocationResource.APPLICATION_NDJSON);
+        HttpResponse httpResponse = container.execute(get);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertEquals(LocationResource.APPLICATION_NDJSON, httpResponse.getEntity().getContentType().getValue());
+        String[] lines = EntityUtils.toString(httpResponse.getEntity(), "UTF-8").split("\n");
+        assertEquals(repository.list(0, Integer.MAX_VALUE).size(), lines.length);
+        Set<String> exported = new HashSet<String>();
+        for (String line : lines) {
+            exported.add((String) new ObjectMapper().readValue(line, Map.class).get("id"));
+        }
+        assertTrue(exported.contains(created.getId()));
+
+        httpResponse = container.execute(xmlGet("/location/export"));
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        assertTrue(locationIds(parseXml(httpResponse)).contains(created.getId()));
+    }
+
+    @Test
+    public void testImportLocations() throws Exception {
+        LocationRepository repository = container.getInjector().getInstance(LocationRepository.class);
+        String csv = "name,longitude,latitude\nimported one,1,1\nimported two,2,2\nimported bad,200,0\n";
+        HttpPost post = new HttpPost("/location/import");
+        post.setEntity(new ByteArrayEntity(csv.getBytes("UTF-8"), ContentType.create(LocationResource.TEXT_CSV, "UTF-8")));
+        post.addHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+        HttpResponse httpResponse = container.execute(post);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        Element result = parseXml(httpResponse);
+        assertEquals("2", result.getAttribute("imported"));
+        assertEquals("1", result.getAttribute("rejected"));
+        assertEquals(1, result.getElementsByTagName("error").getLength());
+        assertEquals(1, repository.search("imported two", 0, 10).size());
+
+        post = new HttpPost("/location/import");
+        post.setEntity(new ByteArrayEntity("{\"name\":".getBytes("UTF-8"), ContentType.create(LocationResource.APPLICATION_NDJSON, "UTF-8")));
+        httpResponse = container.execute(post);
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, httpResponse.getStatusLine().getStatusCode());
+    }
+
+    /**
+     * Creates a GET request that accepts XML.
+     *
+     * @param uri the URI to get
+     * @return the request
+     */
+    private static HttpGet xmlGet(String uri) {
+        HttpGet get = new HttpGet(uri);
+        get.addHeader("Accept", ContentType.APPLICATION_XML.getMimeType());
+        return get;
+    }
+
+    /**
+     * Parses an XML response.
+     *
+     * @param httpResponse the response
+     * @return the document element of the response
+     * @throws Exception if the response can't be parsed
+     */
+    private static Element parseXml(HttpResponse httpResponse) throws Exception {
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        return builder.parse(new ByteArrayInputStream(EntityUtils.toByteArray(httpResponse.getEntity()))).getDocumentElement();
+    }
+
+    /**
+     * Gets the ids of the Locations in an XML LocationList.
+     *
+     * @param list the location-list element
+     * @return the ids in document order
+     */
+    private static List<String> locationIds(Element list) {
+        List<String> ids = new ArrayList<String>();
+        NodeList locations = list.getElementsByTagName("location");
+        for (int i = 0; i < locations.getLength(); i++) {
+            ids.add(((Element) locations.item(i)).getAttribute("id"));
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the body of a successful GET request.
+     *
+     * @param uri the request URI
+     * @param accept the Accept header of the request
+     * @return the body
+     * @throws Exception if the request fails
+     */
+    private static byte[] getBytes(String uri, String accept) throws Exception {
+        HttpGet get = new HttpGet(uri);
+        get.addHeader("Accept", accept);
+        HttpResponse httpResponse = container.execute(get);
+        assertEquals(HttpURLConnection.HTTP_OK, httpResponse.getStatusLine().getStatusCode());
+        return EntityUtils.toByteArray(httpResponse.getEntity());
+    }
 }
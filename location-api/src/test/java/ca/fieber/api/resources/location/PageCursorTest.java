@@ -0,0 +1,35 @@
+package ca.fieber.api.resources.location;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * PageCursorTest.
+ *
+ * @author cfieber
+ */
+public class PageCursorTest {
+
+    @Test
+    public void testRoundTrip() {
+        String id = UUID.randomUUID().toString();
+        String cursor = PageCursor.encode(id);
+        assertFalse(cursor.contains(id));
+        assertEquals(id, PageCursor.decode(cursor));
+    }
+
+    @Test
+    public void testEncode_UrlSafe() {
+        String cursor = PageCursor.encode("\u00ff\u00fe?>");
+        assertTrue(cursor.matches("[A-Za-z0-9_-]+"));
+        assertEquals("\u00ff\u00fe?>", PageCursor.decode(cursor));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecode_Invalid() {
+        PageCursor.decode("");
+    }
+}
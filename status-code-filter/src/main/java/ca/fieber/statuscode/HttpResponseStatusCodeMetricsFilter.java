@@ -21,6 +21,9 @@ import java.io.IOException;
  * <li>Any other value - http-status-codes-invalid</li>
  * </ul>
  *
+ * Requests that are suspended with the servlet 3.0 async API are tracked when they are dispatched again and answered,
+ * rather than when the request thread first leaves the chain.
+ *
  * @author cfieber
  */
 @Singleton
@@ -42,6 +45,9 @@ public class HttpResponseStatusCodeMetricsFilter implements Filter {
 
         HttpServletResponse httpResponse = (HttpServletResponse) resp;
         chain.doFilter(req, httpResponse);
+        if (req.isAsyncStarted()) {
+            return;
+        }
         int statusCode = httpResponse.getStatus();
         getMetricForStatusCode(statusCode).update(statusCode);
     }
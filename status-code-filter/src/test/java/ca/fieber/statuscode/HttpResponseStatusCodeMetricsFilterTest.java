@@ -89,6 +89,7 @@ public class HttpResponseStatusCodeMetricsFilterTest {
         HttpServletResponse resp = createStrictMock(HttpServletResponse.class);
         resp.sendRedirect("/foo/bar");
         expectLastCall();
+        expect(req.isAsyncStarted()).andReturn(false);
         expect(resp.getStatus()).andReturn(SC_MOVED_TEMPORARILY);
         replay(req, resp);
         
@@ -106,4 +107,21 @@ public class HttpResponseStatusCodeMetricsFilterTest {
         assertEquals(filter.getMetricForStatusCode(SC_MOVED_TEMPORARILY).mean(), Integer.valueOf(SC_MOVED_TEMPORARILY).doubleValue(), 0.001d);
         assertEquals(filter.getMetricForStatusCode(SC_MOVED_TEMPORARILY).stdDev(), 0.0d, 0.001d);
     }
+
+    @Test
+    public void testSuspendedRequestIsNotTracked() throws ServletException, IOException {
+        ServletRequest req = createStrictMock(ServletRequest.class);
+        HttpServletResponse resp = createStrictMock(HttpServletResponse.class);
+        expect(req.isAsyncStarted()).andReturn(true);
+        replay(req, resp);
+
+        FilterChain chain = new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            }
+        };
+
+        filter.doFilter(req, resp, chain);
+        verify(req, resp);
+        assertEquals(filter.getMetricForStatusCode(SC_OK).count(), 0);
+    }
 }
@@ -26,7 +26,8 @@ import java.util.concurrent.Future;
  * A container for testing Guice modules in a servlet environment.
  *
  * <p>An embedded Jetty server is started on an ephemeral port the GuiceFilter
- * configured to intercept all requests.</p>
+ * configured to intercept all requests, including asynchronous dispatches of
+ * suspended requests.</p>
  *
  * <p>The Injector created for the Guice container is exposed to allow access to
  * the container components.</p>
@@ -79,8 +80,8 @@ public class JettyGuiceTestContainer {
         httpHost = new HttpHost("localhost", port, "http");
         ServletContextHandler handler = new ServletContextHandler(server, "/", ServletContextHandler.SESSIONS);
         handler.addEventListener(new GuiceInitializer(injector));
-        handler.addFilter(GuiceFilter.class, "/*", EnumSet.allOf(DispatcherType.class));
-        handler.addServlet(NoopServlet.class, "/*");
+        handler.addFilter(GuiceFilter.class, "/*", EnumSet.allOf(DispatcherType.class)).setAsyncSupported(true);
+        handler.addServlet(NoopServlet.class, "/*").setAsyncSupported(true);
         this.server = server;
         this.client = new DefaultHttpAsyncClient();
     }
@@ -1,6 +1,8 @@
 package ca.fieber.config;
 
 import ca.fieber.api.module.LocationApiModule;
+import ca.fieber.api.module.LocationStorage;
+import ca.fieber.compression.CompressionModule;
 import ca.fieber.security.config.SecurityConfigModule;
 import ca.fieber.statuscode.HttpMetricsModule;
 import com.google.inject.Guice;
@@ -9,6 +11,9 @@ import com.google.inject.servlet.GuiceServletContextListener;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * ServletContextListener that creates the Guice Injector.
@@ -20,7 +25,36 @@ public class GuiceServletContextConfiguration extends GuiceServletContextListene
 
     @Override
     protected Injector getInjector() {
-        return Guice.createInjector(new HttpMetricsModule(), new SecurityConfigModule(servletContext, "/location/**"), new LocationApiModule());
+        return Guice.createInjector(new HttpMetricsModule(), new CompressionModule(settings("compression.")), new SecurityConfigModule(servletContext, "/location/**"),
+                new LocationApiModule(locationStorage(), settings("location.")));
+    }
+
+    /**
+     * Gets the storage engine for Locations from the location-storage context parameter.
+     *
+     * @return the configured storage engine, IN_MEMORY if none is configured
+     */
+    private LocationStorage locationStorage() {
+        String storage = servletContext.getInitParameter("location-storage");
+        return storage == null ? LocationStorage.IN_MEMORY : LocationStorage.valueOf(storage.trim());
+    }
+
+    /**
+     * Gets settings from the context parameters whose names start with a prefix, such as location. for the storage
+     * engine or compression. for the compression filter.
+     *
+     * @param prefix the prefix of the names
+     * @return the configured settings
+     */
+    private Map<String, String> settings(String prefix) {
+        Map<String, String> settings = new HashMap<String, String>();
+        for (Enumeration<?> names = servletContext.getInitParameterNames(); names.hasMoreElements(); ) {
+            String name = (String) names.nextElement();
+            if (name.startsWith(prefix)) {
+                settings.put(name, servletContext.getInitParameter(name).trim());
+            }
+        }
+        return settings;
     }
 
     @Override
@@ -28,4 +62,16 @@ public class GuiceServletContextConfiguration extends GuiceServletContextListene
         servletContext = servletContextEvent.getServletContext();
         super.contextInitialized(servletContextEvent);
     }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent servletContextEvent) {
+        Injector injector = (Injector) servletContextEvent.getServletContext().getAttribute(Injector.class.getName());
+        try {
+            super.contextDestroyed(servletContextEvent);
+        } finally {
+            if (injector != null) {
+                LocationApiModule.close(injector);
+            }
+        }
+    }
 }